@@ -0,0 +1,80 @@
+package com.simpleqq.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.server.ChatHistoryWriter;
+import com.simpleqq.server.FsyncPolicy;
+
+/**
+ * 聊天记录写入吞吐基准
+ * 16个线程并发保存消息并等待各自的持久化点，比较不同刷盘策略下组提交的吞吐量。
+ *
+ * 用法：java -jar benchmarks/target/benchmarks.jar ChatHistoryWriterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(16)
+@Fork(1)
+public class ChatHistoryWriterBenchmark {
+
+    @Param({"always", "interval:10", "never"})
+    private String fsync;
+
+    private Path dir;
+    private ChatHistoryWriter writer;
+
+    /**
+     * 每个线程固定一对会话用户
+     */
+    @State(Scope.Thread)
+    public static class Sender {
+        private static final AtomicInteger IDS = new AtomicInteger();
+        final String senderId = String.valueOf(10000 + IDS.getAndIncrement());
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("simpleqq-history-bench");
+        writer = new ChatHistoryWriter(dir, FsyncPolicy.parse(fsync));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writer.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long appendAndAwaitDurable(Sender sender) {
+        Message message = new Message(MessageType.TEXT_MESSAGE, sender.senderId, "20000", "你好，今晚一起吃饭吗？");
+        return writer.append(message).join();
+    }
+}
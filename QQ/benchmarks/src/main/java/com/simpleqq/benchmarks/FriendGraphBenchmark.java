@@ -0,0 +1,108 @@
+package com.simpleqq.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simpleqq.server.UserManager;
+
+/**
+ * 好友关系查询基准
+ * 预先生成users.txt和friendships.txt快照（每个用户平均friendsPerUser个好友），
+ * 测量每条私聊消息都要经过的areFriends以及登录和刷新好友列表时的getFriends，
+ * 4个线程并发查询，覆盖不同的图规模。
+ *
+ * 用法：java -jar benchmarks/target/benchmarks.jar FriendGraphBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class FriendGraphBenchmark {
+
+    @Param({"1000", "100000"})
+    private int userCount;
+
+    @Param({"10", "50"})
+    private int friendsPerUser;
+
+    private Path dir;
+    private UserManager userManager;
+    private String[] userIds;         // 预先生成的用户ID，避免在测量中拼接字符串
+    private String[] friendOf;        // friendOf[i]是用户i的某个好友，用于命中查询
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("simpleqq-friend-bench");
+        userIds = new String[userCount];
+        List<String> users = new ArrayList<>(userCount);
+        for (int u = 0; u < userCount; u++) {
+            userIds[u] = "u" + u;
+            users.add(userIds[u] + "|user" + u + "|pwd");
+        }
+        Files.write(dir.resolve("users.txt"), users);
+
+        // 每个用户向后连接friendsPerUser/2个随机用户，双向关系使平均好友数为friendsPerUser
+        Random random = new Random(42);
+        friendOf = new String[userCount];
+        List<String> friendships = new ArrayList<>(userCount * friendsPerUser / 2);
+        for (int u = 0; u < userCount; u++) {
+            for (int f = 0; f < friendsPerUser / 2; f++) {
+                int v = (u + 1 + random.nextInt(userCount - 1)) % userCount; // 不与自己成为好友
+                friendships.add(userIds[u] + "|" + userIds[v]);
+                friendOf[u] = userIds[v];
+            }
+        }
+        Files.write(dir.resolve("friendships.txt"), friendships);
+        userManager = new UserManager(dir.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        userManager.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean areFriendsHit() {
+        int u = ThreadLocalRandom.current().nextInt(userCount);
+        return userManager.areFriends(userIds[u], friendOf[u]);
+    }
+
+    @Benchmark
+    public boolean areFriendsMiss() {
+        int u = ThreadLocalRandom.current().nextInt(userCount);
+        return userManager.areFriends(userIds[u], "nobody");
+    }
+
+    @Benchmark
+    public List<String> getFriends() {
+        return userManager.getFriends(userIds[ThreadLocalRandom.current().nextInt(userCount)]);
+    }
+}
@@ -0,0 +1,100 @@
+package com.simpleqq.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simpleqq.server.GroupManager;
+
+/**
+ * 登录时查询用户群组列表的基准
+ * 预先生成groups.txt快照（默认10万个群，每群8个成员，成员取自2万个用户），
+ * 比较反向索引查询和原先遍历所有群组的做法。
+ *
+ * 用法：java -jar benchmarks/target/benchmarks.jar GroupMembershipBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupMembershipBenchmark {
+    private static final int MEMBERS_PER_GROUP = 8;
+
+    @Param({"100000"})
+    private int groupCount;
+
+    @Param({"20000"})
+    private int userCount;
+
+    private Path dir;
+    private GroupManager groupManager;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("simpleqq-group-bench");
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>(groupCount);
+        for (int g = 0; g < groupCount; g++) {
+            StringBuilder line = new StringBuilder("g" + g);
+            for (int m = 0; m < MEMBERS_PER_GROUP; m++) {
+                line.append("|u").append(random.nextInt(userCount));
+            }
+            lines.add(line.toString());
+        }
+        Files.write(dir.resolve("groups.txt"), lines);
+        groupManager = new GroupManager(dir.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        groupManager.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private String randomUser() {
+        return "u" + ThreadLocalRandom.current().nextInt(userCount);
+    }
+
+    @Benchmark
+    public List<String> reverseIndex() {
+        return groupManager.getUserGroups(randomUser());
+    }
+
+    /**
+     * 原先的实现：遍历所有群组的成员列表
+     */
+    @Benchmark
+    public List<String> fullScan() {
+        String userId = randomUser();
+        return groupManager.getAllGroups().entrySet().stream()
+                .filter(entry -> entry.getValue().contains(userId))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,106 @@
+package com.simpleqq.benchmarks;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.simpleqq.server.Server;
+import com.simpleqq.server.ServerConfig;
+import com.simpleqq.server.TransportMode;
+
+/**
+ * 空闲连接内存占用基准
+ * 在同一进程内启动服务器，建立N个完成对象流握手后保持空闲的连接，
+ * 比较不同传输层模式下每个空闲连接占用的常驻内存、堆内存和线程数。
+ *
+ * 用法：java -cp ... com.simpleqq.benchmarks.IdleConnectionFootprint [blocking|virtual|nio] [连接数]
+ * 每次运行只测量一种模式，以免前一次测量残留的线程和内存影响结果。
+ */
+public class IdleConnectionFootprint {
+
+    public static void main(String[] args) throws Exception {
+        TransportMode mode = args.length > 0 ? TransportMode.valueOf(args[0].toUpperCase()) : TransportMode.BLOCKING;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        if (mode == TransportMode.NIO) {
+            throw new IllegalArgumentException("NIO mode needs framed clients; measure it with the load generator instead");
+        }
+
+        Path dataDir = Files.createTempDirectory("footprint");
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransportMode(mode);
+        Server server = new Server(dataDir.toString(), config);
+        int port = server.bind().getLocalPort();
+
+        Snapshot before = Snapshot.take();
+        List<Socket> sockets = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            sockets.add(openIdleConnection(port));
+        }
+        Thread.sleep(2000); // 等待服务器端读循环全部进入阻塞读取
+        Snapshot after = Snapshot.take();
+
+        System.out.println("mode=" + mode + " connections=" + connections + " java=" + Runtime.version());
+        System.out.printf("threads: %d -> %d (+%d)%n", before.threads, after.threads, after.threads - before.threads);
+        System.out.printf("heap used per connection: %.1f KB%n", (after.heapUsed - before.heapUsed) / 1024.0 / connections);
+        if (before.rss > 0) {
+            System.out.printf("RSS per connection: %.1f KB%n", (after.rss - before.rss) / 1024.0 / connections);
+        }
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.stop();
+    }
+
+    /**
+     * 以旧版对象流协议建立一个空闲连接，客户端侧不启动读取线程
+     */
+    private static Socket openIdleConnection(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        new ObjectOutputStream(socket.getOutputStream()).flush();
+        new ObjectInputStream(socket.getInputStream());
+        return socket;
+    }
+
+    /**
+     * 进程资源快照
+     */
+    private static final class Snapshot {
+        long threads;
+        long heapUsed;
+        long rss;
+
+        static Snapshot take() throws InterruptedException {
+            System.gc();
+            Thread.sleep(200);
+            Snapshot snapshot = new Snapshot();
+            snapshot.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            snapshot.heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            snapshot.rss = readRss();
+            return snapshot;
+        }
+
+        /**
+         * 从/proc/self/status读取常驻内存（仅Linux），其他平台返回0
+         */
+        private static long readRss() {
+            try {
+                for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // 非Linux平台
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.simpleqq.benchmarks;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simpleqq.common.FramedMessageStream;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.WireProtocol;
+import com.simpleqq.server.FsyncPolicy;
+import com.simpleqq.server.Server;
+import com.simpleqq.server.ServerConfig;
+import com.simpleqq.server.TransportMode;
+
+/**
+ * 端到端消息往返基准
+ * 在同一进程内启动服务器，两个分帧协议客户端经回环地址登录并互为好友，
+ * 测量一条私聊消息从发送方写出到接收方读到的时间，覆盖解码、好友校验、保存聊天记录、投递和编码的完整路径。
+ * 聊天记录不刷盘，避免把磁盘延迟计入消息路径。
+ *
+ * 用法：java -jar benchmarks/target/benchmarks.jar LoopbackRoundTripBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackRoundTripBenchmark {
+
+    @Param({"blocking", "nio"})
+    private String transport;
+
+    private Path dir;
+    private Server server;
+    private FramedMessageStream alice;
+    private FramedMessageStream bob;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("simpleqq-loopback-bench");
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransportMode(TransportMode.valueOf(transport.toUpperCase()));
+        config.setHistoryFsyncPolicy(FsyncPolicy.parse("never"));
+        server = new Server(dir.toString(), config);
+        int port = server.bind().getLocalPort();
+        alice = login("alice", port);
+        bob = login("bob", port);
+        server.getUserManager().sendFriendRequest("alice", "bob");
+        server.getUserManager().acceptFriendRequest("bob", "alice");
+    }
+
+    private static FramedMessageStream login(String userId, int port) throws IOException {
+        FramedMessageStream stream = FramedMessageStream.connect(new Socket("127.0.0.1", port), WireProtocol.MAX_VERSION);
+        stream.write(new Message(MessageType.REGISTER, userId, "Server", userId + "," + userId + ",pwd"));
+        stream.write(new Message(MessageType.LOGIN, userId, "Server", userId + ",pwd"));
+        await(stream, MessageType.LOGIN_SUCCESS);
+        return stream;
+    }
+
+    private static Message await(FramedMessageStream stream, MessageType type) throws IOException {
+        while (true) {
+            Message message = stream.read();
+            if (message.getType() == type) {
+                return message;
+            }
+            if (message.getType() == MessageType.LOGIN_FAIL) {
+                throw new IOException("Login failed: " + message.getContent());
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        alice.close();
+        bob.close();
+        server.stop();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Message privateMessageRoundTrip() throws IOException {
+        alice.write(new Message(MessageType.TEXT_MESSAGE, "alice", "bob", "你好，今晚一起吃饭吗？"));
+        return await(bob, MessageType.TEXT_MESSAGE);
+    }
+}
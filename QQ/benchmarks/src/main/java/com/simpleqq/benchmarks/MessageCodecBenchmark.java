@@ -0,0 +1,74 @@
+package com.simpleqq.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simpleqq.common.BinaryMessageCodec;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageCodec;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.SerializedMessageCodec;
+
+/**
+ * 消息编解码基准
+ * 比较协议版本1（Java序列化）和协议版本2（二进制编码）单条消息的编码、解码耗时，
+ * 启动时打印两种编码的字节数。
+ *
+ * 用法：java -jar benchmarks/target/benchmarks.jar MessageCodecBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"serialized", "binary"})
+    private String codecName;
+
+    @Param({"text", "image"})
+    private String payload;
+
+    private MessageCodec codec;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = "binary".equals(codecName) ? new BinaryMessageCodec() : new SerializedMessageCodec();
+        if ("image".equals(payload)) {
+            // 图片消息内容为"文件名:Base64"，这里用64KB的Base64字符模拟
+            char[] base64 = new char[64 * 1024];
+            Arrays.fill(base64, 'A');
+            message = new Message(MessageType.IMAGE_MESSAGE, "10001", "10002", "photo.png:" + new String(base64));
+        } else {
+            message = new Message(MessageType.TEXT_MESSAGE, "10001", "10002", "你好，今晚一起吃饭吗？");
+        }
+        encoded = codec.encode(message);
+        System.out.println("\n" + codecName + "/" + payload + " encoded size: " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return codec.decode(encoded, 0, encoded.length);
+    }
+}
@@ -0,0 +1,91 @@
+package com.simpleqq.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.server.FsyncPolicy;
+import com.simpleqq.server.Server;
+import com.simpleqq.server.ServerConfig;
+
+/**
+ * Server.saveChatMessage吞吐基准
+ * 与ChatHistoryWriterBenchmark相比包含会话归类和指标记录，衡量消息处理线程保存一条聊天记录的完整开销。
+ * 16个线程并发保存私聊或群聊消息；sync为true时等待持久化完成，为false时只提交不等待，即消息处理线程实际承担的开销。
+ *
+ * 用法：java -jar benchmarks/target/benchmarks.jar SaveChatMessageBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(16)
+@Fork(1)
+public class SaveChatMessageBenchmark {
+
+    @Param({"interval:10", "never"})
+    private String fsync;
+
+    @Param({"true", "false"})
+    private boolean sync;
+
+    private Path dir;
+    private Server server;
+
+    /**
+     * 每个线程固定一个发送者，交替发送私聊和群聊消息
+     */
+    @State(Scope.Thread)
+    public static class Sender {
+        private static final AtomicInteger IDS = new AtomicInteger();
+        final String senderId = String.valueOf(10000 + IDS.getAndIncrement());
+        boolean group;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("simpleqq-save-bench");
+        ServerConfig config = new ServerConfig();
+        config.setHistoryFsyncPolicy(FsyncPolicy.parse(fsync));
+        server = new Server(dir.toString(), config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object saveChatMessage(Sender sender) {
+        sender.group = !sender.group;
+        Message message = sender.group
+            ? new Message(MessageType.GROUP_MESSAGE, sender.senderId, "g1", "大家好")
+            : new Message(MessageType.TEXT_MESSAGE, sender.senderId, "20000", "你好，今晚一起吃饭吗？");
+        return sync ? server.saveChatMessage(message).join() : server.saveChatMessage(message);
+    }
+}
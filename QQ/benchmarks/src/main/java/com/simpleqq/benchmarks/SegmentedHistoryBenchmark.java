@@ -0,0 +1,123 @@
+package com.simpleqq.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.server.MappedHistoryReader;
+import com.simpleqq.server.SegmentedHistoryStore;
+
+/**
+ * 聊天记录尾部读取基准
+ * 同一个会话写入lines条消息，比较分段存储读取最后50条、读取某时间点之前50条、
+ * MappedHistoryReader不借助索引读取最后50条，与旧版客户端逐行读取整个chat_history_*.txt文件再保留最后50行的耗时。
+ * 默认1000万条，准备数据需要几十秒和约1GB临时磁盘空间，可以用-p lines=1000000缩小规模。
+ *
+ * 用法：java -jar benchmarks/target/benchmarks.jar SegmentedHistoryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SegmentedHistoryBenchmark {
+    private static final String CONVERSATION = "10001_10002";
+    private static final int TAIL = 50;
+    private static final long START_TIME = 1_700_000_000_000L;
+
+    @Param({"10000000"})
+    private int lines;
+
+    private Path dir;
+    private Path textFile;
+    private SegmentedHistoryStore store;
+    private MappedHistoryReader reader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("simpleqq-segmented-bench");
+        store = new SegmentedHistoryStore(dir.resolve("conversations"), SegmentedHistoryStore.DEFAULT_SEGMENT_BYTES);
+        reader = new MappedHistoryReader();
+        textFile = dir.resolve("chat_history_" + CONVERSATION + ".txt");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        try (BufferedWriter writer = Files.newBufferedWriter(textFile, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                String sender = i % 2 == 0 ? "10001" : "10002";
+                String receiver = i % 2 == 0 ? "10002" : "10001";
+                Message message = new Message(MessageType.TEXT_MESSAGE, sender, receiver, "消息内容 " + i);
+                message.setTimestamp(START_TIME + i * 100L);
+                store.append(CONVERSATION, i + 1, message);
+                writer.write(dateFormat.format(new Date(message.getTimestamp())) + " [" + sender + "] to ["
+                    + receiver + "]: " + message.getContent());
+                writer.newLine();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<Message> segmentedLast50() throws IOException {
+        return store.readBefore(CONVERSATION, 0, TAIL).getMessages();
+    }
+
+    @Benchmark
+    public List<Message> segmentedBeforeRandomTime() throws IOException {
+        long time = START_TIME + ThreadLocalRandom.current().nextLong(lines) * 100L;
+        return store.readBeforeTime(CONVERSATION, time, TAIL).getMessages();
+    }
+
+    @Benchmark
+    public List<Message> mappedReadLast50() throws IOException {
+        return reader.readLast(dir.resolve("conversations").resolve(CONVERSATION), TAIL);
+    }
+
+    @Benchmark
+    public ArrayDeque<String> textFileTail50() throws IOException {
+        ArrayDeque<String> tail = new ArrayDeque<>(TAIL);
+        try (BufferedReader reader = Files.newBufferedReader(textFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (tail.size() == TAIL) {
+                    tail.removeFirst();
+                }
+                tail.addLast(line);
+            }
+        }
+        return tail;
+    }
+}
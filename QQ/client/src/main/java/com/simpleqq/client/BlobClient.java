@@ -0,0 +1,353 @@
+package com.simpleqq.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.simpleqq.common.BlobRef;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+/**
+ * 图片上传下载管理器
+ * 上传：计算文件摘要后发送BLOB_UPLOAD查询服务器已接收的字节数，然后从该位置起按固定大小的数据块流式发送，
+ * 同时最多WINDOW块未确认，收到一个确认再补发一块；服务器已有相同图片时第一次确认就报告完成，不再上传数据。
+ * 下载：按摘要流水线式请求数据块，收到后直接追加到本地缓存文件，收齐后校验摘要；缓存文件以摘要命名，
+ * 相同的图片只下载一次，同一图片的并发请求合并为一次下载。
+ *
+ * 每个数据块都是一条独立的消息，聊天消息可以插在数据块之间发送，大文件不会独占连接。
+ * 双方都保留未完成的数据（服务器的.blobs/tmp和本地的blob_cache/*.part），断线重连后再次发送或接收同一图片时从中断处继续。
+ *
+ * 服务器的确认和数据块由消息接收线程直接交给handle()处理，不经过界面线程；
+ * 返回的Future也在接收线程中完成，更新界面时需要切换到EDT。
+ */
+public class BlobClient {
+    private static final Logger LOG = Log.getLogger(BlobClient.class);
+    static final int WINDOW = 8;                             // 每个传输最多同时未确认的数据块数
+    private static final String CACHE_DIR = "blob_cache";   // 下载缓存目录
+    private static final String PART_SUFFIX = ".part";
+    private static final long ANY_ACK = -1;                  // 查询进度的确认，接受任意已接收字节数
+
+    private final Client client;                             // 所属客户端
+    private final Path cacheDir;                             // 下载缓存目录
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();     // 进行中的上传，key为摘要
+    private final Map<String, Download> downloads = new ConcurrentHashMap<>(); // 进行中的下载，key为摘要
+
+    /**
+     * 进行中的上传，字段由lock保护
+     */
+    private static final class Upload {
+        final Path file;
+        final BlobRef ref;
+        final CompletableFuture<BlobRef> result = new CompletableFuture<>();
+        final ReentrantLock lock = new ReentrantLock();
+        final ArrayDeque<Long> expectedAcks = new ArrayDeque<>(); // 已发送消息期望的确认值，按发送顺序
+        FileChannel channel;                 // 读取待发送数据的文件句柄
+        long nextOffset;                     // 下一块的起始位置
+        int staleAcks;                       // 重新同步之前发出、确认需要忽略的消息数
+
+        Upload(Path file, BlobRef ref) {
+            this.file = file;
+            this.ref = ref;
+        }
+    }
+
+    /**
+     * 进行中的下载，字段由lock保护
+     */
+    private static final class Download {
+        final String hash;
+        final Path part;
+        final CompletableFuture<Path> result = new CompletableFuture<>();
+        final ReentrantLock lock = new ReentrantLock();
+        FileChannel channel;                 // 缓存文件的追加句柄
+        long size = -1;                      // 图片字节数，收到第一块之前未知
+        long received;                       // 已写入缓存文件的字节数
+        long nextRequest;                    // 下一次请求的起始位置
+        int outstanding;                     // 已请求但还没有收到的数据块数
+
+        Download(String hash, Path part) {
+            this.hash = hash;
+            this.part = part;
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param client 所属客户端
+     */
+    public BlobClient(Client client) {
+        this.client = client;
+        this.cacheDir = Paths.get(CACHE_DIR);
+    }
+
+    /**
+     * 上传文件
+     * 在调用线程中计算摘要，数据块由接收线程在收到确认后发送
+     * @param file 图片文件
+     * @return 上传完成后以图片引用完成的Future
+     */
+    public CompletableFuture<BlobRef> upload(Path file) throws IOException {
+        BlobRef ref = new BlobRef(BlobRef.hash(file), Files.size(file), file.getFileName().toString());
+        Upload upload = new Upload(file, ref);
+        Upload existing = uploads.putIfAbsent(ref.getHash(), upload);
+        if (existing != null) {
+            return existing.result.thenApply(done -> ref); // 相同内容正在上传，只是文件名不同
+        }
+        upload.lock.lock();
+        try {
+            upload.expectedAcks.add(ANY_ACK);
+            send(MessageType.BLOB_UPLOAD, ref.getHash() + "," + ref.getSize() + ",0", null); // 查询服务器已接收的字节数
+        } finally {
+            upload.lock.unlock();
+        }
+        return upload.result;
+    }
+
+    /**
+     * 获取图片的本地缓存文件，本地没有时从服务器下载
+     * @param ref 图片引用
+     * @return 以缓存文件完成的Future
+     */
+    public CompletableFuture<Path> fetch(BlobRef ref) {
+        Path cached = cacheDir.resolve(ref.getHash());
+        if (Files.exists(cached)) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        Download download = new Download(ref.getHash(), cacheDir.resolve(ref.getHash() + PART_SUFFIX));
+        Download existing = downloads.putIfAbsent(ref.getHash(), download);
+        if (existing != null) {
+            return existing.result;
+        }
+        download.lock.lock();
+        try {
+            Files.createDirectories(cacheDir);
+            download.channel = FileChannel.open(download.part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            download.received = download.channel.size(); // 上次中断时已下载的部分
+            download.nextRequest = download.received;
+            requestChunk(download); // 第一块返回图片大小后再填满窗口
+        } catch (IOException e) {
+            fail(download, e);
+        } finally {
+            download.lock.unlock();
+        }
+        return download.result;
+    }
+
+    /**
+     * 处理服务器发来的图片传输消息
+     * @param message 服务器消息
+     * @return 是图片传输消息返回true
+     */
+    public boolean handle(Message message) {
+        switch (message.getType()) {
+            case BLOB_UPLOAD_ACK -> onUploadAck(message);
+            case BLOB_DATA -> onData(message);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 连接断开时让所有进行中的传输失败，已传输的部分保留，下次从中断处继续
+     */
+    public void failAll(IOException cause) {
+        for (Upload upload : uploads.values()) {
+            finish(upload, cause);
+        }
+        for (Download download : downloads.values()) {
+            fail(download, cause);
+        }
+    }
+
+    /**
+     * 收到上传确认：完成、失败，或按确认的字节数补发数据块
+     * 确认值与期望不符（例如另一个客户端同时上传了相同内容）时从服务器报告的位置重新发送
+     */
+    private void onUploadAck(Message message) {
+        String[] parts = message.getContent().split(",");
+        Upload upload = uploads.get(parts[0]);
+        if (upload == null) {
+            return;
+        }
+        long received = Long.parseLong(parts[1]);
+        BlobRef ref = upload.ref;
+        upload.lock.lock();
+        try {
+            if (received < 0) {
+                finish(upload, new IOException("Server rejected upload of " + ref.getName()));
+                return;
+            }
+            if (received >= ref.getSize()) {
+                finish(upload, null);
+                return;
+            }
+            if (upload.staleAcks > 0) {
+                upload.staleAcks--;
+                return;
+            }
+            Long expected = upload.expectedAcks.poll();
+            if (expected == null) {
+                return;
+            }
+            if (expected == ANY_ACK) {
+                upload.nextOffset = received; // 从服务器已接收的位置开始
+            } else if (expected != received) {
+                // 之后已发出的数据块都会被服务器忽略，它们的确认也不再有意义
+                upload.staleAcks = upload.expectedAcks.size();
+                upload.expectedAcks.clear();
+                upload.nextOffset = received;
+            }
+            fillUploadWindow(upload);
+        } catch (IOException e) {
+            finish(upload, e);
+        } finally {
+            upload.lock.unlock();
+        }
+    }
+
+    /**
+     * 发送数据块直到未确认的数据块达到窗口大小
+     */
+    private void fillUploadWindow(Upload upload) throws IOException {
+        BlobRef ref = upload.ref;
+        if (upload.channel == null) {
+            upload.channel = FileChannel.open(upload.file, StandardOpenOption.READ);
+        }
+        while (upload.expectedAcks.size() < WINDOW && upload.nextOffset < ref.getSize()) {
+            long offset = upload.nextOffset;
+            ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(BlobRef.CHUNK_SIZE, ref.getSize() - offset));
+            while (chunk.hasRemaining()) {
+                if (upload.channel.read(chunk, offset + chunk.position()) < 0) {
+                    throw new IOException(ref.getName() + " changed during upload");
+                }
+            }
+            upload.nextOffset = offset + chunk.capacity();
+            upload.expectedAcks.add(upload.nextOffset);
+            send(MessageType.BLOB_UPLOAD, ref.getHash() + "," + ref.getSize() + "," + offset, chunk.array());
+        }
+    }
+
+    /**
+     * 结束上传
+     * @param error 失败原因，成功时为null
+     */
+    private void finish(Upload upload, IOException error) {
+        uploads.remove(upload.ref.getHash(), upload);
+        upload.lock.lock();
+        try {
+            if (upload.channel != null) {
+                upload.channel.close();
+                upload.channel = null;
+            }
+        } catch (IOException e) {
+            LOG.warn("Error closing {}: {}", upload.file, e.getMessage());
+        } finally {
+            upload.lock.unlock();
+        }
+        if (error == null) {
+            upload.result.complete(upload.ref);
+        } else {
+            upload.result.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 收到数据块：按顺序追加到缓存文件，收齐后校验，否则继续请求
+     */
+    private void onData(Message message) {
+        String[] parts = message.getContent().split(",");
+        Download download = downloads.get(parts[0]);
+        if (download == null) {
+            return;
+        }
+        download.lock.lock();
+        try {
+            long size = Long.parseLong(parts[1]);
+            long offset = Long.parseLong(parts[2]);
+            if (size < 0) {
+                throw new IOException("Image " + download.hash + " not found on server");
+            }
+            download.size = size;
+            download.outstanding--;
+            byte[] chunk = message.getPayload();
+            if (offset == download.received && chunk != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                while (buffer.hasRemaining()) {
+                    download.channel.write(buffer, download.received + buffer.position());
+                }
+                download.received += chunk.length;
+            }
+            if (download.received >= size) {
+                completeDownload(download);
+                return;
+            }
+            if (download.outstanding == 0 && download.nextRequest > download.received) {
+                download.nextRequest = download.received; // 有数据块没有按顺序到达，从缺口处重新请求
+            }
+            while (download.outstanding < WINDOW && download.nextRequest < size) {
+                requestChunk(download);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(download, e);
+        } finally {
+            download.lock.unlock();
+        }
+    }
+
+    private void requestChunk(Download download) {
+        send(MessageType.BLOB_REQUEST, download.hash + "," + download.nextRequest, null);
+        download.nextRequest += BlobRef.CHUNK_SIZE;
+        download.outstanding++;
+    }
+
+    private void completeDownload(Download download) throws IOException {
+        download.channel.truncate(download.size);
+        download.channel.close();
+        download.channel = null;
+        if (!BlobRef.hash(download.part).equals(download.hash)) {
+            Files.delete(download.part);
+            throw new IOException("Image " + download.hash + " is corrupt");
+        }
+        Path cached = cacheDir.resolve(download.hash);
+        Files.move(download.part, cached, StandardCopyOption.REPLACE_EXISTING);
+        downloads.remove(download.hash, download);
+        download.result.complete(cached);
+    }
+
+    private void fail(Download download, Throwable cause) {
+        downloads.remove(download.hash, download);
+        download.lock.lock();
+        try {
+            if (download.channel != null) {
+                download.channel.close();
+                download.channel = null;
+            }
+        } catch (IOException e) {
+            LOG.warn("Error closing {}: {}", download.part, e.getMessage());
+        } finally {
+            download.lock.unlock();
+        }
+        download.result.completeExceptionally(cause);
+    }
+
+    private void send(MessageType type, String content, byte[] payload) {
+        Message message = new Message(type, client.getCurrentUser().getId(), "Server", content);
+        message.setPayload(payload);
+        client.sendMessage(message);
+    }
+}
@@ -21,8 +21,13 @@ import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 
+import com.simpleqq.common.HistoryPage;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.MemberPage;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.MessageType;
+import com.simpleqq.common.PresenceUpdate;
 
 /**
  * 主聊天窗口类
@@ -30,12 +35,15 @@ import com.simpleqq.common.MessageType;
  * 提供好友管理、群组管理、消息处理等核心功能
  */
 public class ChatWindow extends JFrame {
+    private static final Logger LOG = Log.getLogger(ChatWindow.class);
+
     private final Client client;                                    // 客户端连接对象
     private JTabbedPane tabbedPane;                          // 主标签页容器
     private JList<String> friendList;                       // 好友列表组件
     private JList<String> groupList;                        // 群组列表组件
     private DefaultListModel<String> friendListModel;       // 好友列表数据模型
     private DefaultListModel<String> groupListModel;        // 群组列表数据模型
+    private final Map<String, Integer> friendRows = new HashMap<>(); // 好友ID -> 好友列表中的行号，用于就地更新在线状态
     private final Map<String, SingleChatWindow> singleChatWindows; // 私聊窗口管理器
     private final Map<String, GroupChatWindow> groupChatWindows;   // 群聊窗口管理器
 
@@ -301,9 +309,12 @@ public class ChatWindow extends JFrame {
      * 支持的消息类型：
      * - TEXT_MESSAGE: 私聊文本消息，转发到对应的SingleChatWindow
      * - GROUP_MESSAGE: 群聊消息，转发到对应的GroupChatWindow
-     * - IMAGE_MESSAGE: 图片消息，自动保存并在聊天窗口显示
+     * - IMAGE_MESSAGE: 图片消息，按图片引用下载保存并在聊天窗口显示
      * - FRIEND_LIST: 好友列表更新，刷新主界面的好友显示
+     * - PRESENCE_UPDATE: 好友上线或下线，只更新对应好友的状态
      * - GROUP相关: 群组信息更新，包括邀请、成员变化等
+     * - HISTORY_RESPONSE: 聊天记录分页，转发到对应的聊天窗口
+     * - GROUP_MEMBERS_RESPONSE: 群组成员分页，转发到对应的群聊窗口
      * - 系统消息: 操作结果反馈，通过对话框或状态栏显示
      * 
      * @param message 接收到的消息对象
@@ -311,6 +322,7 @@ public class ChatWindow extends JFrame {
     private void handleIncomingMessage(Message message) {
         switch (message.getType()) {
             case FRIEND_LIST -> updateFriendList(message.getContent());
+            case PRESENCE_UPDATE -> applyPresenceUpdates(message.getContent());
             case TEXT_MESSAGE, IMAGE_MESSAGE -> handleChatMessage(message);
             case GROUP_MESSAGE -> {
                 GroupChatWindow gw = openGroupChatWindow(message.getReceiverId());
@@ -347,7 +359,9 @@ public class ChatWindow extends JFrame {
             }
             case GROUP_JOIN_FAIL -> JOptionPane.showMessageDialog(this, "加入群聊失败: " + message.getContent());
             case GET_GROUP_MEMBERS -> updateGroupMembers(message);
-            default -> System.out.println("Unhandled message type in ChatWindow: " + message.getType());
+            case HISTORY_RESPONSE -> handleHistoryResponse(message);
+            case GROUP_MEMBERS_RESPONSE -> handleMemberPage(message);
+            default -> LOG.debug("Unhandled message type in ChatWindow: {}", message.getType());
         }
     }
 
@@ -367,7 +381,50 @@ public class ChatWindow extends JFrame {
         } else if (sender.equals(currentUserId)) {
             SingleChatWindow sw = openSingleChatWindow(receiver);
             if (sw != null) sw.displayMessage(message);
+        } else if (message.getType() == MessageType.IMAGE_MESSAGE) {
+            // 群聊图片消息的接收者是群组ID
+            GroupChatWindow gw = openGroupChatWindow(receiver);
+            if (gw != null) gw.displayMessage(message);
+        }
+    }
+
+    /**
+     * 处理聊天记录分页响应
+     * 根据分页中的会话类型和对象ID交给已打开的聊天窗口显示
+     * @param message 聊天记录响应消息
+     */
+    private void handleHistoryResponse(Message message) {
+        HistoryPage page;
+        try {
+            page = HistoryPage.decode(message.getContent());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Malformed history response: {}", e.getMessage());
+            return;
+        }
+        if (page.isGroup()) {
+            GroupChatWindow gw = groupChatWindows.get(page.getTarget());
+            if (gw != null) gw.displayHistory(page);
+        } else {
+            SingleChatWindow sw = singleChatWindows.get(page.getTarget());
+            if (sw != null) sw.displayHistory(page);
+        }
+    }
+
+    /**
+     * 处理群组成员分页响应
+     * 交给已打开的对应群聊窗口显示
+     * @param message 群组成员分页响应消息
+     */
+    private void handleMemberPage(Message message) {
+        MemberPage page;
+        try {
+            page = MemberPage.decode(message.getContent());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Malformed group members response: {}", e.getMessage());
+            return;
         }
+        GroupChatWindow gw = groupChatWindows.get(page.getGroupId());
+        if (gw != null) gw.displayMemberPage(page);
     }
 
     /**
@@ -429,6 +486,7 @@ public class ChatWindow extends JFrame {
      */
     private void updateFriendList(String friendListStr) {
         friendListModel.clear();
+        friendRows.clear();
         if (friendListStr != null && !friendListStr.isEmpty()) {
             String[] friends = friendListStr.split(";");
             for (String friendInfo : friends) {
@@ -438,6 +496,7 @@ public class ChatWindow extends JFrame {
                     String username = parts[1];
                     String status = parts[2];
                     String displayText = id + " " + username + " (" + status + ")";
+                    friendRows.put(id, friendListModel.getSize());
                     friendListModel.addElement(displayText);
                 }
             }
@@ -447,6 +506,25 @@ public class ChatWindow extends JFrame {
         friendList.repaint();
     }
 
+    /**
+     * 应用好友在线状态变化
+     * 只替换对应好友所在的行，不清空和重建整个好友列表，不在列表中的用户被忽略
+     * @param content 状态变化，格式：id:status;id:status;...
+     */
+    private void applyPresenceUpdates(String content) {
+        for (PresenceUpdate update : PresenceUpdate.parse(content)) {
+            Integer row = friendRows.get(update.getUserId());
+            if (row == null || row >= friendListModel.getSize()) {
+                continue;
+            }
+            String displayText = friendListModel.getElementAt(row);
+            int statusStart = displayText.lastIndexOf(" (");
+            if (statusStart >= 0) {
+                friendListModel.set(row, displayText.substring(0, statusStart) + " (" + update.getStatus() + ")");
+            }
+        }
+    }
+
     /**
      * 更新群组列表
      * 解析服务器返回的群组列表数据并更新界面
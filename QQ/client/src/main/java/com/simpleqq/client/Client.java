@@ -1,13 +1,15 @@
 package com.simpleqq.client;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.function.Consumer;
 
+import com.simpleqq.common.FramedMessageStream;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.User;
+import com.simpleqq.common.WireProtocol;
 
 /**
  * 客户端核心类
@@ -15,46 +17,68 @@ import com.simpleqq.common.User;
  * 管理客户端的网络通信和消息处理
  */
 public class Client {
-    private static final String SERVER_IP = "127.0.0.1"; // 服务器IP地址
-    private static final int SERVER_PORT = 8888;          // 服务器端口号
+    private static final Logger LOG = Log.getLogger(Client.class);
+    private static final Logger MESSAGE_LOG = Log.getLogger("Client.messages"); // 逐条消息日志，默认关闭
+    private static final String DEFAULT_HOST = "127.0.0.1"; // 默认服务器地址
+    private static final int DEFAULT_PORT = 8888;             // 默认服务器端口号
+
+    private final String host;               // 服务器地址
+    private final int port;                  // 服务器端口号
 
     public Socket socket;                    // 与服务器的Socket连接
-    private ObjectOutputStream oos;          // 对象输出流，用于发送消息
-    private ObjectInputStream ois;           // 对象输入流，用于接收消息
+    private FramedMessageStream stream;      // 分帧消息流，用于收发消息
     private User currentUser;                // 当前登录的用户信息
     private Consumer<Message> messageListener; // 消息监听器，处理接收到的消息
+    private final BlobClient blobClient = new BlobClient(this); // 图片上传下载管理器
 
     /**
      * 默认构造函数
+     * 服务器地址可通过系统属性simpleqq.host和simpleqq.port覆盖
      */
     public Client() {
+        this(System.getProperty("simpleqq.host", DEFAULT_HOST), Integer.getInteger("simpleqq.port", DEFAULT_PORT));
+    }
+
+    /**
+     * 构造函数
+     * @param host 服务器地址
+     * @param port 服务器端口号
+     */
+    public Client(String host, int port) {
+        this.host = host;
+        this.port = port;
     }
 
     /**
      * 连接到服务器
-     * 建立Socket连接并启动消息接收线程
-     * @throws IOException 连接失败时抛出异常
+     * 建立Socket连接，协商协议版本（优先使用二进制编码）并启动消息接收线程
+     * @throws IOException 连接失败或协议协商失败时抛出异常
      */
     public void connect() throws IOException {
-        socket = new Socket(SERVER_IP, SERVER_PORT);
-        oos = new ObjectOutputStream(socket.getOutputStream());
-        ois = new ObjectInputStream(socket.getInputStream());
+        socket = new Socket(host, port);
+        stream = FramedMessageStream.connect(socket, WireProtocol.MAX_VERSION);
 
         // 启动消息接收线程
         new Thread(() -> {
             try {
                 while (true) {
                     // 持续监听服务器消息
-                    Message message = (Message) ois.readObject();
-                    System.out.println("Client received: " + message);
-                    
+                    Message message = stream.read();
+                    MESSAGE_LOG.debug("Client received: {}", message);
+
+                    // 图片数据块直接在接收线程处理，不经过界面线程
+                    if (blobClient.handle(message)) {
+                        continue;
+                    }
+
                     // 如果设置了消息监听器，则调用处理方法
                     if (messageListener != null) {
                         messageListener.accept(message);
                     }
                 }
-            } catch (IOException | ClassNotFoundException e) {
-                System.out.println("Server disconnected or error: " + e.getMessage());
+            } catch (IOException e) {
+                LOG.info("Server disconnected or error: {}", e.getMessage());
+                blobClient.failAll(e);
                 disconnect(); // 连接断开时自动清理资源
             }
         }).start();
@@ -68,8 +92,7 @@ public class Client {
     public void disconnect() {
         try {
             if (socket != null) socket.close();
-            if (ois != null) ois.close();
-            if (oos != null) oos.close();
+            if (stream != null) stream.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -82,8 +105,7 @@ public class Client {
     @SuppressWarnings("CallToPrintStackTrace")
     public void sendMessage(Message message) {
         try {
-            oos.writeObject(message);
-            oos.flush(); // 确保消息立即发送
+            stream.write(message); // 写出后立即flush
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -105,6 +127,14 @@ public class Client {
         this.currentUser = currentUser;
     }
 
+    /**
+     * 获取图片上传下载管理器
+     * @return 图片上传下载管理器
+     */
+    public BlobClient getBlobClient() {
+        return blobClient;
+    }
+
     /**
      * 设置消息监听器
      * @param listener 消息处理函数
@@ -3,32 +3,40 @@ package com.simpleqq.client;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.GridLayout;
+import java.awt.event.AdjustmentEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Base64;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
 
+import com.simpleqq.common.BlobRef;
+import com.simpleqq.common.HistoryPage;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.MemberPage;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.MessageType;
 
@@ -38,6 +46,8 @@ import com.simpleqq.common.MessageType;
  * 包含群成员管理、邀请功能等
  */
 public class GroupChatWindow extends JFrame {
+    private static final Logger LOG = Log.getLogger(GroupChatWindow.class);
+
     private final Client client;                           // 客户端连接对象
     private final String groupId;                          // 群组ID
     private JTextArea chatArea;                      // 聊天内容显示区域
@@ -46,9 +56,18 @@ public class GroupChatWindow extends JFrame {
     private JButton sendImageButton;                 // 发送图片按钮
     private JButton inviteMemberButton;              // 邀请成员按钮
     private JButton refreshMembersButton;            // 刷新成员列表按钮
+    private JCheckBox onlineOnlyBox;                 // 只看在线成员
     private JList<String> memberList;               // 群成员列表组件
+    private JScrollPane memberScrollPane;            // 群成员列表滚动面板
     private DefaultListModel<String> memberListModel; // 群成员列表数据模型
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss"); // 时间格式化器
+    private final SimpleDateFormat historyDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"); // 历史记录时间格式化器
+    private long nextHistorySequence;                                             // 请求更早一页时使用的起始序号，0表示尚未加载
+    private boolean hasMoreHistory;                                               // 服务器是否还有更早的记录
+    private boolean loadingHistory;                                               // 是否有未返回的历史记录请求
+    private long nextMemberCursor;                                                // 下一页成员的起始位置，全部加载后即已持有的成员版本号
+    private boolean hasMoreMembers;                                               // 服务器是否还有下一页成员
+    private boolean loadingMembers;                                               // 是否有未返回的成员请求
 
     /**
      * 构造函数
@@ -85,7 +104,9 @@ public class GroupChatWindow extends JFrame {
         chatArea.setEditable(false);        // 设置为只读
         chatArea.setLineWrap(true);         // 启用自动换行
         chatArea.setWrapStyleWord(true);    // 按单词换行
-        chatPanel.add(new JScrollPane(chatArea), BorderLayout.CENTER);
+        JScrollPane chatScrollPane = new JScrollPane(chatArea);
+        chatScrollPane.getVerticalScrollBar().addAdjustmentListener(this::onChatScrolled); // 滚动到顶部时加载更早的记录
+        chatPanel.add(chatScrollPane, BorderLayout.CENTER);
 
         // 创建输入面板
         JPanel inputPanel = new JPanel(new BorderLayout());
@@ -121,12 +142,20 @@ public class GroupChatWindow extends JFrame {
         memberListModel = new DefaultListModel<>();
         memberList = new JList<>(memberListModel);
         memberList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        memberListPanel.add(new JScrollPane(memberList), BorderLayout.CENTER);
+        memberScrollPane = new JScrollPane(memberList);
+        memberScrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                loadMoreMembersIfVisible(); // 滚动到底部时加载下一页成员
+            }
+        });
+        memberListPanel.add(memberScrollPane, BorderLayout.CENTER);
 
         // 创建成员操作按钮面板
-        JPanel memberButtonPanel = new JPanel(new GridLayout(2, 1));
+        JPanel memberButtonPanel = new JPanel(new GridLayout(3, 1));
+        onlineOnlyBox = new JCheckBox("只看在线");
         inviteMemberButton = new JButton("邀请成员");
         refreshMembersButton = new JButton("刷新成员");
+        memberButtonPanel.add(onlineOnlyBox);
         
         memberButtonPanel.add(inviteMemberButton);
         memberButtonPanel.add(refreshMembersButton);
@@ -145,6 +174,7 @@ public class GroupChatWindow extends JFrame {
         sendImageButton.addActionListener(e -> sendImage());
         inviteMemberButton.addActionListener(e -> inviteMember());
         refreshMembersButton.addActionListener(e -> refreshGroupMembers());
+        onlineOnlyBox.addActionListener(e -> requestMembers(0)); // 切换过滤条件后从头加载
     }
 
     /**
@@ -179,18 +209,16 @@ public class GroupChatWindow extends JFrame {
             sendImageButton.setEnabled(false);
             new Thread(() -> {
                 try {
-                    byte[] imageBytes = Files.readAllBytes(selectedFile.toPath());
-                    String base64Image = Base64.getEncoder().encodeToString(imageBytes);
-
-                    String imageContent = selectedFile.getName() + ":" + base64Image;
-                    Message message = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), groupId, imageContent);
+                    // 先上传图片数据，消息只携带图片引用
+                    BlobRef ref = client.getBlobClient().upload(selectedFile.toPath()).get();
+                    Message message = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), groupId, ref.encode());
                     client.sendMessage(message);
-
-                    // 在 EDT 上显示本地的文件名消息
-                    Message displayMessage = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), groupId, selectedFile.getName());
-                    SwingUtilities.invokeLater(() -> displayMessage(displayMessage));
-                } catch (IOException ex) {
-                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "发送图片失败: " + ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE));
+                    SwingUtilities.invokeLater(() -> displayMessage(message));
+                } catch (IOException | ExecutionException ex) {
+                    String reason = ex instanceof ExecutionException ? ex.getCause().getMessage() : ex.getMessage();
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "发送图片失败: " + reason, "错误", JOptionPane.ERROR_MESSAGE));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
                 } finally {
                     SwingUtilities.invokeLater(() -> sendImageButton.setEnabled(true));
                 }
@@ -213,11 +241,15 @@ public class GroupChatWindow extends JFrame {
 
     /**
      * 刷新群组成员列表
-     * 向服务器请求最新的群组成员信息
+     * 已加载全部成员时只请求此后新加入的成员；只看在线成员时在线状态可能已变化，从头重新加载
      */
     private void refreshGroupMembers() {
-        System.out.println("Refreshing group members for group: " + groupId);
-        requestGroupMembers();
+        LOG.debug("Refreshing group members for group: {}", groupId);
+        if (!onlineOnlyBox.isSelected() && !hasMoreMembers && nextMemberCursor > 0) {
+            requestMembers(nextMemberCursor);
+        } else {
+            requestMembers(0);
+        }
     }
 
     /**
@@ -234,8 +266,18 @@ public class GroupChatWindow extends JFrame {
         if (message.getType() == MessageType.IMAGE_MESSAGE) {
             // 处理群聊图片消息
             String content = message.getContent();
-            if (content.contains(":")) {
-                // 包含图片数据的消息，提取文件名
+            BlobRef ref = BlobRef.parse(content);
+            if (ref != null) {
+                displayContent = "[图片: " + ref.getName() + "]";
+                // 接收到的图片按需从服务器下载，相同的图片只下载一次
+                if (!message.getSenderId().equals(client.getCurrentUser().getId())) {
+                    chatArea.append(time + " [" + senderName + "]: " + displayContent + "\n");
+                    chatArea.setCaretPosition(chatArea.getDocument().getLength());
+                    saveReceivedImage(ref, new File("received_images"));
+                    return;
+                }
+            } else if (content.contains(":")) {
+                // 旧版客户端发送的内联图片数据，提取文件名
                 String fileName = content.split(":", 2)[0];
                 displayContent = "[图片: " + fileName + "]";
 
@@ -284,78 +326,144 @@ public class GroupChatWindow extends JFrame {
         chatArea.setCaretPosition(chatArea.getDocument().getLength()); // 滚动到底部
     }
 
+    /**
+     * 下载接收到的图片并另存到saveDir，完成后在聊天区域显示保存位置
+     * @param ref 图片引用
+     * @param saveDir 保存目录
+     */
+    private void saveReceivedImage(BlobRef ref, File saveDir) {
+        client.getBlobClient().fetch(ref).whenCompleteAsync((cached, error) -> {
+            String savedMsg;
+            try {
+                if (error != null) {
+                    throw new IOException(error.getMessage(), error);
+                }
+                saveDir.mkdirs();
+                File outputFile = new File(saveDir, new File(ref.getName()).getName());
+                Files.copy(cached, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                savedMsg = "(已保存到: " + outputFile.getAbsolutePath() + ")";
+            } catch (IOException ex) {
+                savedMsg = "(保存图片失败: " + ex.getMessage() + ")";
+            }
+            String text = savedMsg;
+            SwingUtilities.invokeLater(() -> {
+                chatArea.append("    " + text + "\n");
+                chatArea.setCaretPosition(chatArea.getDocument().getLength());
+            });
+        });
+    }
+
     /**
      * 加载群聊历史记录
-     * 从本地文件读取之前的群聊记录并显示
+     * 向服务器请求最新的一页记录，更早的记录在滚动到顶部时按页加载
      */
     private void loadChatHistory() {
-        String fileName = "chat_history_group_" + groupId + ".txt";
-        File historyFile = findExistingHistoryFile(fileName);
+        requestHistory(0);
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(historyFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                chatArea.append(line + "\n");
-            }
-        } catch (IOException e) {
-            System.err.println("No chat history found for group " + groupId + " at " + historyFile.getAbsolutePath() + ": " + e.getMessage());
-        }
+    /**
+     * 请求一页聊天记录
+     * @param beforeSequence 只请求序号小于该值的记录，0表示最新的记录
+     */
+    private void requestHistory(long beforeSequence) {
+        loadingHistory = true;
+        client.sendMessage(new Message(MessageType.HISTORY_REQUEST, client.getCurrentUser().getId(), groupId,
+            HistoryPage.formatRequest(true, beforeSequence, HistoryPage.DEFAULT_PAGE_SIZE)));
     }
 
-    // 查找已存在的历史文件：优先使用当前运行目录下的 .history，其次向上查找父目录中的 .history（最多3层）
-    private File findExistingHistoryFile(String fileName) {
-        File cwd = new File(System.getProperty("user.dir"));
-        File tryDir = new File(cwd, ".history");
-        File tryFile = new File(tryDir, fileName);
-        if (tryFile.exists()) {
-            System.out.println("Found history at: " + tryFile.getAbsolutePath());
-            return tryFile;
+    /**
+     * 显示服务器返回的一页历史记录
+     * 记录插入到聊天区域顶部；首页滚动到底部，更早的页保持当前阅读位置
+     * @param page 历史记录分页
+     */
+    public void displayHistory(HistoryPage page) {
+        boolean firstPage = nextHistorySequence == 0;
+        StringBuilder sb = new StringBuilder();
+        for (Message message : page.getMessages()) {
+            sb.append(formatHistoryLine(message)).append("\n");
         }
-
-        // 向上查找父目录的 .history（最多3层）以及可能的 server/.history
-        File dir = cwd;
-        for (int i = 0; i < 3; i++) {
-            dir = dir.getParentFile();
-            if (dir == null) break;
-            File parentHistory = new File(dir, ".history");
-            File parentFile = new File(parentHistory, fileName);
-            if (parentFile.exists()) {
-                System.out.println("Found history at parent: " + parentFile.getAbsolutePath());
-                return parentFile;
-            }
-            // 检查可能的 server/.history
-            File serverHistory = new File(dir, "server/.history");
-            File serverFile = new File(serverHistory, fileName);
-            if (serverFile.exists()) {
-                System.out.println("Found history at server: " + serverFile.getAbsolutePath());
-                return serverFile;
-            }
+        String text = sb.toString();
+        chatArea.insert(text, 0);
+        if (firstPage) {
+            chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        } else {
+            chatArea.setCaretPosition(text.length());
         }
+        nextHistorySequence = page.getNextBefore();
+        hasMoreHistory = page.hasMore();
+        loadingHistory = false;
+    }
 
-        // 再次从当前目录向上彻底查找 server/.history（直到根）
-        File cur = cwd;
-        while (cur != null) {
-            File serverHistory = new File(cur, "server/.history");
-            File serverFile = new File(serverHistory, fileName);
-            if (serverFile.exists()) {
-                System.out.println("Found history at ancestor server: " + serverFile.getAbsolutePath());
-                return serverFile;
-            }
-            cur = cur.getParentFile();
+    /**
+     * 格式化一条历史记录：日期时间 [发送者]: 内容
+     */
+    private String formatHistoryLine(Message message) {
+        String senderName = message.getSenderId().equals(client.getCurrentUser().getId()) ? "我" : message.getSenderId();
+        String content = message.getContent();
+        if (message.getType() == MessageType.IMAGE_MESSAGE) {
+            BlobRef ref = BlobRef.parse(content);
+            content = "[图片: " + (ref != null ? ref.getName() : content) + "]";
         }
+        return historyDateFormat.format(new Date(message.getTimestamp())) + " [" + senderName + "]: " + content;
+    }
 
-        // 如果都没找到，确保当前运行目录下的 .history 存在并返回默认路径
-        if (!tryDir.exists()) tryDir.mkdirs();
-        System.out.println("No existing history found; will try: " + tryFile.getAbsolutePath());
-        return tryFile;
+    /**
+     * 滚动到顶部时加载更早的一页记录
+     */
+    private void onChatScrolled(AdjustmentEvent e) {
+        if (!e.getValueIsAdjusting() && e.getValue() == 0 && hasMoreHistory && !loadingHistory) {
+            requestHistory(nextHistorySequence);
+        }
     }
 
     /**
      * 请求群组成员列表
-     * 向服务器发送获取群组成员的请求
+     * 打开窗口时请求第一页成员，之后的页在滚动到底部时加载
      */
     private void requestGroupMembers() {
-        client.sendMessage(new Message(MessageType.GET_GROUP_MEMBERS, client.getCurrentUser().getId(), "Server", groupId));
+        requestMembers(0);
+    }
+
+    /**
+     * 请求一页群组成员
+     * @param cursor 起始位置，0表示从头开始，已持有的版本号表示只要此后加入的成员
+     */
+    private void requestMembers(long cursor) {
+        loadingMembers = true;
+        client.sendMessage(new Message(MessageType.GROUP_MEMBERS_REQUEST, client.getCurrentUser().getId(), groupId,
+            MemberPage.formatRequest(cursor, MemberPage.DEFAULT_PAGE_SIZE, onlineOnlyBox.isSelected())));
+    }
+
+    /**
+     * 列表已滚动到底部（或还没有填满可见区域）且服务器还有成员时加载下一页
+     */
+    private void loadMoreMembersIfVisible() {
+        JScrollBar bar = memberScrollPane.getVerticalScrollBar();
+        if (hasMoreMembers && !loadingMembers && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum()) {
+            requestMembers(nextMemberCursor);
+        }
+    }
+
+    /**
+     * 显示服务器返回的一页成员
+     * 起始位置为0的页替换已有列表，其余的页追加在末尾；过滤条件已切换时忽略旧请求的响应
+     * @param page 群组成员分页
+     */
+    public void displayMemberPage(MemberPage page) {
+        if (page.isOnlineOnly() != onlineOnlyBox.isSelected()) {
+            return;
+        }
+        if (page.getCursor() == 0) {
+            memberListModel.clear();
+        }
+        for (MemberPage.Member member : page.getMembers()) {
+            memberListModel.addElement(member.id() + " " + member.username()); // ID + username
+        }
+        nextMemberCursor = page.getNextCursor();
+        hasMoreMembers = page.hasMore();
+        loadingMembers = false;
+        LOG.debug("Group {} members: {} shown, version {}", groupId, memberListModel.size(), page.getVersion());
+        SwingUtilities.invokeLater(this::loadMoreMembersIfVisible); // 列表没有填满可见区域时滚动条不会变化，布局后主动检查一次
     }
 
     /**
@@ -371,7 +479,7 @@ public class GroupChatWindow extends JFrame {
         // 强制刷新界面
         memberList.revalidate();
         memberList.repaint();
-        System.out.println("Updated group members list with " + members.size() + " members");
+        LOG.debug("Updated group members list with {} members", members.size());
     }
 
     /**
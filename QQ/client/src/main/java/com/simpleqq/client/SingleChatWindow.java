@@ -2,16 +2,17 @@ package com.simpleqq.client;
 
 import java.awt.BorderLayout;
 import java.awt.GridLayout;
+import java.awt.event.AdjustmentEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -23,6 +24,8 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
 
+import com.simpleqq.common.BlobRef;
+import com.simpleqq.common.HistoryPage;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.MessageType;
 
@@ -39,6 +42,10 @@ public class SingleChatWindow extends JFrame {
     private JButton sendButton;               // 发送文本消息按钮
     private JButton sendImageButton;          // 发送图片按钮
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss"); // 时间格式化器
+    private final SimpleDateFormat historyDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"); // 历史记录时间格式化器
+    private long nextHistorySequence;                                             // 请求更早一页时使用的起始序号，0表示尚未加载
+    private boolean hasMoreHistory;                                               // 服务器是否还有更早的记录
+    private boolean loadingHistory;                                               // 是否有未返回的历史记录请求
 
     /**
      * 构造函数
@@ -73,7 +80,9 @@ public class SingleChatWindow extends JFrame {
         chatArea.setEditable(false);        // 设置为只读
         chatArea.setLineWrap(true);         // 启用自动换行
         chatArea.setWrapStyleWord(true);    // 按单词换行
-        panel.add(new JScrollPane(chatArea), BorderLayout.CENTER);
+        JScrollPane chatScrollPane = new JScrollPane(chatArea);
+        chatScrollPane.getVerticalScrollBar().addAdjustmentListener(this::onChatScrolled); // 滚动到顶部时加载更早的记录
+        panel.add(chatScrollPane, BorderLayout.CENTER);
 
         // 创建输入面板
         JPanel inputPanel = new JPanel(new BorderLayout());
@@ -132,17 +141,16 @@ public class SingleChatWindow extends JFrame {
             sendImageButton.setEnabled(false);
             new Thread(() -> {
                 try {
-                    byte[] imageBytes = Files.readAllBytes(selectedFile.toPath());
-                    String base64Image = Base64.getEncoder().encodeToString(imageBytes);
-
-                    String imageContent = selectedFile.getName() + ":" + base64Image;
-                    Message message = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), friendId, imageContent);
+                    // 先上传图片数据，消息只携带图片引用
+                    BlobRef ref = client.getBlobClient().upload(selectedFile.toPath()).get();
+                    Message message = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), friendId, ref.encode());
                     client.sendMessage(message);
-
-                    Message displayMessage = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), friendId, selectedFile.getName());
-                    SwingUtilities.invokeLater(() -> displayMessage(displayMessage));
-                } catch (IOException ex) {
-                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "发送图片失败: " + ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE));
+                    SwingUtilities.invokeLater(() -> displayMessage(message));
+                } catch (IOException | ExecutionException ex) {
+                    String reason = ex instanceof ExecutionException ? ex.getCause().getMessage() : ex.getMessage();
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "发送图片失败: " + reason, "错误", JOptionPane.ERROR_MESSAGE));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
                 } finally {
                     SwingUtilities.invokeLater(() -> sendImageButton.setEnabled(true));
                 }
@@ -164,8 +172,18 @@ public class SingleChatWindow extends JFrame {
         if (message.getType() == MessageType.IMAGE_MESSAGE) {
             // 处理图片消息显示
             String content = message.getContent();
-            if (content.contains(":")) {
-                // 包含图片数据的消息，提取文件名
+            BlobRef ref = BlobRef.parse(content);
+            if (ref != null) {
+                displayContent = "[图片: " + ref.getName() + "]";
+                // 接收到的图片按需从服务器下载，相同的图片只下载一次
+                if (!message.getSenderId().equals(client.getCurrentUser().getId())) {
+                    chatArea.append(time + " [" + senderName + "]: " + displayContent + "\n");
+                    chatArea.setCaretPosition(chatArea.getDocument().getLength());
+                    saveReceivedImage(ref, new File("received_images_from_" + message.getSenderId()));
+                    return;
+                }
+            } else if (content.contains(":")) {
+                // 旧版客户端发送的内联图片数据，提取文件名
                 String fileName = content.split(":", 2)[0];
                 displayContent = "[图片: " + fileName + "]";
 
@@ -213,86 +231,94 @@ public class SingleChatWindow extends JFrame {
         chatArea.setCaretPosition(chatArea.getDocument().getLength()); // 滚动到底部
     }
 
+    /**
+     * 下载接收到的图片并另存到saveDir，完成后在聊天区域显示保存位置
+     * @param ref 图片引用
+     * @param saveDir 保存目录
+     */
+    private void saveReceivedImage(BlobRef ref, File saveDir) {
+        client.getBlobClient().fetch(ref).whenCompleteAsync((cached, error) -> {
+            String savedMsg;
+            try {
+                if (error != null) {
+                    throw new IOException(error.getMessage(), error);
+                }
+                saveDir.mkdirs();
+                File outputFile = new File(saveDir, new File(ref.getName()).getName());
+                Files.copy(cached, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                savedMsg = "(已保存到: " + outputFile.getAbsolutePath() + ")";
+            } catch (IOException ex) {
+                savedMsg = "(保存图片失败: " + ex.getMessage() + ")";
+            }
+            String text = savedMsg;
+            SwingUtilities.invokeLater(() -> {
+                chatArea.append("    " + text + "\n");
+                chatArea.setCaretPosition(chatArea.getDocument().getLength());
+            });
+        });
+    }
+
     /**
      * 加载聊天历史记录
-     * 从本地文件读取之前的聊天记录并显示
+     * 向服务器请求最新的一页记录，更早的记录在滚动到顶部时按页加载
      */
     private void loadChatHistory() {
-        // 将历史记录的读取放到后台，避免在创建窗口时阻塞 EDT
-        new Thread(() -> {
-            String currentUserId = client.getCurrentUser().getId();
-            String fileName;
-            if (currentUserId.compareTo(friendId) < 0) {
-                fileName = "chat_history_" + currentUserId + "_" + friendId + ".txt";
-            } else {
-                fileName = "chat_history_" + friendId + "_" + currentUserId + ".txt";
-            }
-            File historyFile = findExistingHistoryFile(fileName);
+        requestHistory(0);
+    }
 
-            try (BufferedReader reader = new BufferedReader(new FileReader(historyFile))) {
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    sb.append(line).append("\n");
-                }
-                String content = sb.toString();
-                SwingUtilities.invokeLater(() -> {
-                    chatArea.append(content);
-                    chatArea.setCaretPosition(chatArea.getDocument().getLength());
-                });
-            } catch (IOException e) {
-                System.err.println("No chat history found for " + friendId + " at " + historyFile.getAbsolutePath() + ": " + e.getMessage());
-            }
-        }).start();
+    /**
+     * 请求一页聊天记录
+     * @param beforeSequence 只请求序号小于该值的记录，0表示最新的记录
+     */
+    private void requestHistory(long beforeSequence) {
+        loadingHistory = true;
+        client.sendMessage(new Message(MessageType.HISTORY_REQUEST, client.getCurrentUser().getId(), friendId,
+            HistoryPage.formatRequest(false, beforeSequence, HistoryPage.DEFAULT_PAGE_SIZE)));
     }
 
-    // 查找已存在的历史文件：优先使用当前运行目录下的 .history，其次向上查找父目录中的 .history（最多3层），
-    // 并尝试查找 ancestor/server/.history（兼容 server 模块保存位置）。如果都没找到，返回当前运行目录下的目标路径（并创建 .history）。
-    private File findExistingHistoryFile(String fileName) {
-        File cwd = new File(System.getProperty("user.dir"));
-        File tryDir = new File(cwd, ".history");
-        File tryFile = new File(tryDir, fileName);
-        if (tryFile.exists()) {
-            System.out.println("Found history at: " + tryFile.getAbsolutePath());
-            return tryFile;
+    /**
+     * 显示服务器返回的一页历史记录
+     * 记录插入到聊天区域顶部；首页滚动到底部，更早的页保持当前阅读位置
+     * @param page 历史记录分页
+     */
+    public void displayHistory(HistoryPage page) {
+        boolean firstPage = nextHistorySequence == 0;
+        StringBuilder sb = new StringBuilder();
+        for (Message message : page.getMessages()) {
+            sb.append(formatHistoryLine(message)).append("\n");
         }
-
-        // 向上查找父目录的 .history（最多3层）以及可能的 server/.history
-        File dir = cwd;
-        for (int i = 0; i < 3; i++) {
-            dir = dir.getParentFile();
-            if (dir == null) break;
-            File parentHistory = new File(dir, ".history");
-            File parentFile = new File(parentHistory, fileName);
-            if (parentFile.exists()) {
-                System.out.println("Found history at parent: " + parentFile.getAbsolutePath());
-                return parentFile;
-            }
-            // 检查可能的 server/.history
-            File serverHistory = new File(dir, "server/.history");
-            File serverFile = new File(serverHistory, fileName);
-            if (serverFile.exists()) {
-                System.out.println("Found history at server: " + serverFile.getAbsolutePath());
-                return serverFile;
-            }
+        String text = sb.toString();
+        chatArea.insert(text, 0);
+        if (firstPage) {
+            chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        } else {
+            chatArea.setCaretPosition(text.length());
         }
+        nextHistorySequence = page.getNextBefore();
+        hasMoreHistory = page.hasMore();
+        loadingHistory = false;
+    }
 
-        // 再次从当前目录向上彻底查找 server/.history（直到根）
-        File cur = cwd;
-        while (cur != null) {
-            File serverHistory = new File(cur, "server/.history");
-            File serverFile = new File(serverHistory, fileName);
-            if (serverFile.exists()) {
-                System.out.println("Found history at ancestor server: " + serverFile.getAbsolutePath());
-                return serverFile;
-            }
-            cur = cur.getParentFile();
+    /**
+     * 格式化一条历史记录：日期时间 [发送者]: 内容
+     */
+    private String formatHistoryLine(Message message) {
+        String senderName = message.getSenderId().equals(client.getCurrentUser().getId()) ? "我" : message.getSenderId();
+        String content = message.getContent();
+        if (message.getType() == MessageType.IMAGE_MESSAGE) {
+            BlobRef ref = BlobRef.parse(content);
+            content = "[图片: " + (ref != null ? ref.getName() : content) + "]";
         }
+        return historyDateFormat.format(new Date(message.getTimestamp())) + " [" + senderName + "]: " + content;
+    }
 
-        // 如果都没找到，确保当前运行目录下的 .history 存在并返回默认路径
-        if (!tryDir.exists()) tryDir.mkdirs();
-        System.out.println("No existing history found; will try: " + tryFile.getAbsolutePath());
-        return tryFile;
+    /**
+     * 滚动到顶部时加载更早的一页记录
+     */
+    private void onChatScrolled(AdjustmentEvent e) {
+        if (!e.getValueIsAdjusting() && e.getValue() == 0 && hasMoreHistory && !loadingHistory) {
+            requestHistory(nextHistorySequence);
+        }
     }
 
 
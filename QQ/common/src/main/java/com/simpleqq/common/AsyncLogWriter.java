@@ -0,0 +1,136 @@
+package com.simpleqq.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志输出线程
+ * 记录日志的线程把记录放入LogRingBuffer后立即返回，后台守护线程批量取出并写入LogSink，
+ * 控制台等阻塞式输出不再出现在消息处理路径上。缓冲区满时丢弃新记录并计数，之后输出一条丢弃数量的警告。
+ */
+final class AsyncLogWriter implements Runnable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // 空闲时的最长等待
+
+    private final LogRingBuffer buffer;                   // 待输出的记录
+    private final LongAdder dropped = new LongAdder();     // 因缓冲区满被丢弃的记录数
+    private final Thread thread;                           // 后台输出线程
+    private volatile LogSink sink;                         // 输出目标
+    private volatile boolean waiting;                      // 后台线程是否正在等待新记录
+    private volatile boolean running = true;               // 是否继续运行
+    private volatile long written;                         // 已取出并输出的记录数，只由后台线程更新
+
+    /**
+     * 构造并启动后台线程
+     * @param capacity 缓冲区容量，必须是2的幂
+     * @param sink 输出目标
+     */
+    AsyncLogWriter(int capacity, LogSink sink) {
+        this.buffer = new LogRingBuffer(capacity);
+        this.sink = sink;
+        this.thread = new Thread(this, "simpleqq-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 提交一条记录，不阻塞
+     */
+    void submit(LogRecord record) {
+        if (!buffer.offer(record)) {
+            dropped.increment();
+            return;
+        }
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    void setSink(LogSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * 等待调用前提交的记录全部输出
+     * @param timeoutMillis 最长等待时间
+     * @return 在超时前全部输出返回true
+     */
+    boolean flush(long timeoutMillis) {
+        long target = buffer.claimed();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (written < target) {
+            if (!thread.isAlive() || System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * 输出剩余记录后停止后台线程
+     */
+    void close(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            boolean stopping = !running;
+            if (drain() == 0) {
+                if (stopping) {
+                    return;
+                }
+                waiting = true;
+                if (drain() == 0) { // 设置标志后再检查一次，避免错过生产者的唤醒
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    /**
+     * 输出缓冲区中当前可读的全部记录
+     * @return 输出的记录数
+     */
+    private int drain() {
+        LogSink target = sink;
+        int count = 0;
+        LogRecord record;
+        while ((record = buffer.poll()) != null) {
+            write(target, record);
+            count++;
+            written++; // 只有本线程写入
+        }
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            write(target, new LogRecord(System.currentTimeMillis(), LogLevel.WARN, thread.getName(),
+                "Log", "Dropped " + lost + " log records: buffer full"));
+        }
+        if (count > 0 || lost > 0) {
+            try {
+                target.flush();
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // 输出目标本身失败，只能直接报告
+            }
+        }
+        return count;
+    }
+
+    private static void write(LogSink target, LogRecord record) {
+        try {
+            target.write(record);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.simpleqq.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 紧凑二进制消息编解码器（协议版本2）
+ * 负载格式：
+ * <pre>
+ *   type       1字节，MessageType序号（0xFF表示null）
+ *   senderId   varint(字节数+1) + UTF-8字节，长度字段为0表示null
+ *   receiverId 同上
+ *   timestamp  varlong
+ *   content    varint(字节数+1) + UTF-8字节，长度字段为0表示null
+ *   payload    可选，varint(字节数+1) + 原始字节；payload为null时省略，旧版解码器会忽略这个尾部字段
+ * </pre>
+ * 与Java序列化相比没有类描述符和字段名，短消息的编码结果通常只有几十个字节
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    private static final MessageType[] TYPES = MessageType.values(); // 按序号查找消息类型
+    private static final int NULL_TYPE = 0xFF;                      // null类型标记
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        byte[] sender = utf8(message.getSenderId());
+        byte[] receiver = utf8(message.getReceiverId());
+        byte[] content = utf8(message.getContent());
+        byte[] payload = message.getPayload();
+        long timestamp = message.getTimestamp();
+
+        int size = 1 + sizeOfBytes(sender) + sizeOfBytes(receiver) + varLongSize(timestamp) + sizeOfBytes(content)
+            + (payload == null ? 0 : sizeOfBytes(payload));
+        byte[] out = new byte[size];
+        int pos = 0;
+        out[pos++] = (byte) (message.getType() == null ? NULL_TYPE : message.getType().ordinal());
+        pos = writeBytes(out, pos, sender);
+        pos = writeBytes(out, pos, receiver);
+        pos = writeVarLong(out, pos, timestamp);
+        pos = writeBytes(out, pos, content);
+        if (payload != null) {
+            writeBytes(out, pos, payload);
+        }
+        return out;
+    }
+
+    @Override
+    public Message decode(byte[] data, int offset, int length) throws IOException {
+        Reader reader = new Reader(data, offset, offset + length);
+        int typeIndex = reader.readByte() & 0xFF;
+        MessageType type;
+        if (typeIndex == NULL_TYPE) {
+            type = null;
+        } else if (typeIndex < TYPES.length) {
+            type = TYPES[typeIndex];
+        } else {
+            throw new IOException("Unknown message type index: " + typeIndex);
+        }
+        String sender = reader.readString();
+        String receiver = reader.readString();
+        long timestamp = reader.readVarLong();
+        String content = reader.readString();
+
+        Message message = new Message(type, sender, receiver, content);
+        message.setTimestamp(timestamp);
+        if (reader.hasRemaining()) {
+            message.setPayload(reader.readBytes());
+        }
+        return message;
+    }
+
+    @Override
+    public byte version() {
+        return WireProtocol.VERSION_BINARY;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOfBytes(byte[] bytes) {
+        return bytes == null ? 1 : varLongSize(bytes.length + 1L) + bytes.length;
+    }
+
+    private static int writeBytes(byte[] out, int pos, byte[] bytes) {
+        if (bytes == null) {
+            out[pos] = 0;
+            return pos + 1;
+        }
+        pos = writeVarLong(out, pos, bytes.length + 1L);
+        System.arraycopy(bytes, 0, out, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    /**
+     * 计算无符号varlong编码所需字节数（每字节7位有效数据）
+     */
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static int writeVarLong(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * 负载读取游标，所有越界读取都转换为IOException
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] data, int offset, int end) {
+            this.data = data;
+            this.pos = offset;
+            this.end = end;
+        }
+
+        byte readByte() throws IOException {
+            if (pos >= end) {
+                throw new IOException("Truncated message frame");
+            }
+            return data[pos++];
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        boolean hasRemaining() {
+            return pos < end;
+        }
+
+        String readString() throws IOException {
+            long lengthPlusOne = readVarLong();
+            if (lengthPlusOne == 0) {
+                return null;
+            }
+            long length = lengthPlusOne - 1;
+            if (length > end - pos) {
+                throw new IOException("Truncated string field");
+            }
+            String value = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+
+        byte[] readBytes() throws IOException {
+            long lengthPlusOne = readVarLong();
+            if (lengthPlusOne == 0) {
+                return null;
+            }
+            long length = lengthPlusOne - 1;
+            if (length > end - pos) {
+                throw new IOException("Truncated bytes field");
+            }
+            byte[] value = Arrays.copyOfRange(data, pos, pos + (int) length);
+            pos += (int) length;
+            return value;
+        }
+    }
+}
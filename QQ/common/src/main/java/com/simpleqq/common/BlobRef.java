@@ -0,0 +1,129 @@
+package com.simpleqq.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 图片引用
+ * 图片数据按SHA-256摘要存放在服务器的内容寻址存储中，IMAGE_MESSAGE的内容只携带encode()生成的"摘要:字节数:文件名"，
+ * 接收方按摘要取回数据，相同的图片只上传和下载一次。
+ *
+ * 上传：客户端发送BLOB_UPLOAD，内容为"摘要,字节数,偏移"，负载为从偏移开始的一块数据（不带负载表示查询进度），
+ * 服务器回复BLOB_UPLOAD_ACK，内容为"摘要,已接收字节数"，-1表示上传失败；已接收字节数等于总字节数即上传完成。
+ * 下载：客户端发送BLOB_REQUEST，内容为"摘要,偏移"，服务器回复BLOB_DATA，内容为"摘要,字节数,偏移"，
+ * 负载为从偏移开始的一块数据，图片不存在时字节数为-1。
+ */
+public class BlobRef {
+    public static final int CHUNK_SIZE = 64 * 1024;       // 每个数据块的字节数
+    private static final int HASH_LENGTH = 64;            // SHA-256十六进制摘要长度
+
+    private final String hash;                            // SHA-256摘要（小写十六进制）
+    private final long size;                              // 字节数
+    private final String name;                            // 原始文件名
+
+    /**
+     * 构造函数
+     * @param hash SHA-256摘要（小写十六进制）
+     * @param size 字节数
+     * @param name 原始文件名
+     */
+    public BlobRef(String hash, long size, String name) {
+        if (!isValidHash(hash)) {
+            throw new IllegalArgumentException("Invalid blob hash: " + hash);
+        }
+        this.hash = hash;
+        this.size = size;
+        this.name = name;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 编码为IMAGE_MESSAGE的消息内容
+     * @return 格式：摘要:字节数:文件名
+     */
+    public String encode() {
+        return hash + ":" + size + ":" + name;
+    }
+
+    /**
+     * 解析IMAGE_MESSAGE的消息内容
+     * @param content 消息内容
+     * @return 图片引用，内容不是图片引用（如旧版客户端的"文件名:Base64"）时返回null
+     */
+    public static BlobRef parse(String content) {
+        if (content == null || content.length() < HASH_LENGTH + 3 || content.charAt(HASH_LENGTH) != ':') {
+            return null;
+        }
+        String hash = content.substring(0, HASH_LENGTH);
+        int colon = content.indexOf(':', HASH_LENGTH + 1);
+        if (!isValidHash(hash) || colon < 0) {
+            return null;
+        }
+        try {
+            long size = Long.parseLong(content.substring(HASH_LENGTH + 1, colon));
+            return size < 0 ? null : new BlobRef(hash, size, content.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 判断是否为合法的摘要，摘要同时用作文件名，因此只接受小写十六进制
+     */
+    public static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计算文件的SHA-256摘要，逐块读取，不把整个文件读入内存
+     * @param file 文件
+     * @return 小写十六进制摘要
+     */
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 创建SHA-256摘要计算器
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // 所有Java平台都必须支持SHA-256
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.simpleqq.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分帧消息流
+ * 在阻塞式的输入输出流之上按WireProtocol读写消息帧
+ * 写操作由锁保护，可以被多个线程安全地调用；
+ * 使用ReentrantLock而不是synchronized，避免虚拟线程在Socket写出时钉住载体线程
+ */
+public class FramedMessageStream implements Closeable {
+    private final DataInputStream in;     // 帧输入流
+    private final DataOutputStream out;   // 帧输出流
+    private final MessageCodec codec;     // 协商得到的编解码器
+    private final ReentrantLock writeLock = new ReentrantLock(); // 写锁
+
+    /**
+     * 构造函数
+     * @param in 已完成握手的输入流
+     * @param out 已完成握手的输出流
+     * @param codec 消息编解码器
+     */
+    public FramedMessageStream(InputStream in, OutputStream out, MessageCodec codec) {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.codec = codec;
+    }
+
+    /**
+     * 以客户端身份在Socket上完成握手并创建分帧消息流
+     * @param socket 已连接的Socket
+     * @param version 期望使用的协议版本
+     * @return 握手成功后的消息流
+     * @throws IOException 握手失败或服务器不支持分帧协议时抛出
+     */
+    public static FramedMessageStream connect(Socket socket, byte version) throws IOException {
+        OutputStream rawOut = socket.getOutputStream();
+        rawOut.write(WireProtocol.handshake(version));
+        rawOut.flush();
+
+        InputStream rawIn = new BufferedInputStream(socket.getInputStream());
+        byte[] reply = new byte[WireProtocol.HANDSHAKE_LENGTH];
+        new DataInputStream(rawIn).readFully(reply);
+        if (!WireProtocol.isHandshake(reply) || reply[3] == 0) {
+            throw new IOException("Server rejected protocol version " + version);
+        }
+        return new FramedMessageStream(rawIn, rawOut, WireProtocol.codecFor(reply[3]));
+    }
+
+    /**
+     * 读取下一条消息，阻塞直到整帧到达
+     * @return 解码后的消息
+     * @throws IOException 连接关闭或数据损坏时抛出
+     */
+    public Message read() throws IOException {
+        byte[] payload = WireProtocol.readFrame(in);
+        return codec.decode(payload, 0, payload.length);
+    }
+
+    /**
+     * 写出一条消息并立即flush
+     * @param message 要发送的消息
+     */
+    public void write(Message message) throws IOException {
+        byte[] payload = codec.encode(message);
+        writeLock.lock();
+        try {
+            WireProtocol.writeFrame(out, payload);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 按顺序写出一批消息，整批只flush一次
+     * @param messages 要发送的消息
+     */
+    public void writeAll(List<Message> messages) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            payloads.add(codec.encode(message));
+        }
+        writeFrames(payloads);
+    }
+
+    /**
+     * 按顺序写出一批已用当前编解码器编码的负载，整批只flush一次
+     * 负载数组只读不改，可以与其他连接共享
+     * @param payloads 帧负载
+     */
+    public void writeFrames(List<byte[]> payloads) throws IOException {
+        writeLock.lock();
+        try {
+            for (byte[] payload : payloads) {
+                WireProtocol.writeFrame(out, payload);
+            }
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 获取当前使用的编解码器
+     * @return 编解码器
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            out.close();
+        }
+    }
+}
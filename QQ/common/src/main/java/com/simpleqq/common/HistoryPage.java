@@ -0,0 +1,124 @@
+package com.simpleqq.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 聊天记录分页
+ * 客户端发送HISTORY_REQUEST，内容为formatRequest()生成的"类型,起始序号,条数"，
+ * 服务器返回HISTORY_RESPONSE，内容为encode()生成的分页数据，发送者字段为好友ID或群组ID。
+ *
+ * 每页包含起始序号之前最新的若干条消息（按时间从旧到新排列），
+ * 客户端向上翻页时把getNextBefore()作为下一次请求的起始序号。
+ *
+ * 编码格式见PageFields：字符串字段为"长度:内容"，数字字段以';'结尾，因此消息内容可以包含任意字符。
+ */
+public class HistoryPage {
+    public static final int DEFAULT_PAGE_SIZE = 50;  // 默认每页条数
+    public static final int MAX_PAGE_SIZE = 200;     // 服务器允许的最大每页条数
+    public static final String PRIVATE = "private";  // 私聊记录
+    public static final String GROUP = "group";      // 群聊记录
+
+    private final boolean group;          // 是否为群聊记录
+    private final String target;          // 好友ID或群组ID
+    private final List<Message> messages; // 本页消息，从旧到新
+    private final long nextBefore;        // 请求更早一页时使用的起始序号
+    private final boolean hasMore;        // 是否还有更早的记录
+
+    /**
+     * 构造函数
+     * @param group 是否为群聊记录
+     * @param target 好友ID或群组ID
+     * @param messages 本页消息，从旧到新
+     * @param nextBefore 本页最早一条消息的序号
+     * @param hasMore 是否还有更早的记录
+     */
+    public HistoryPage(boolean group, String target, List<Message> messages, long nextBefore, boolean hasMore) {
+        this.group = group;
+        this.target = target;
+        this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+        this.nextBefore = nextBefore;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * 生成分页请求内容
+     * @param group 是否为群聊记录
+     * @param beforeSequence 只返回序号小于该值的消息，0表示从最新的消息开始
+     * @param limit 最多返回的条数
+     * @return 请求内容，格式：类型,起始序号,条数
+     */
+    public static String formatRequest(boolean group, long beforeSequence, int limit) {
+        return (group ? GROUP : PRIVATE) + "," + beforeSequence + "," + limit;
+    }
+
+    public boolean isGroup() {
+        return group;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public long getNextBefore() {
+        return nextBefore;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * 编码为HISTORY_RESPONSE的消息内容
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(group ? GROUP : PRIVATE).append(';');
+        PageFields.writeString(sb, target);
+        sb.append(nextBefore).append(';').append(hasMore ? 1 : 0).append(';').append(messages.size()).append(';');
+        for (Message message : messages) {
+            PageFields.writeString(sb, message.getType() == null ? null : message.getType().name());
+            PageFields.writeString(sb, message.getSenderId());
+            PageFields.writeString(sb, message.getReceiverId());
+            sb.append(message.getTimestamp()).append(';');
+            PageFields.writeString(sb, message.getContent());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解码HISTORY_RESPONSE的消息内容
+     * @param content 消息内容
+     * @return 分页数据
+     * @throws IllegalArgumentException 内容格式错误时抛出
+     */
+    public static HistoryPage decode(String content) {
+        try {
+            PageFields.Reader reader = new PageFields.Reader(content);
+            boolean group = GROUP.equals(reader.readToken());
+            String target = reader.readString();
+            long nextBefore = reader.readLong();
+            boolean hasMore = reader.readLong() != 0;
+            int count = (int) reader.readLong();
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String type = reader.readString();
+                String sender = reader.readString();
+                String receiver = reader.readString();
+                long timestamp = reader.readLong();
+                Message message = new Message(type == null ? null : MessageType.valueOf(type), sender, receiver,
+                    reader.readString());
+                message.setTimestamp(timestamp);
+                messages.add(message);
+            }
+            return new HistoryPage(group, target, messages, nextBefore, hasMore);
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed history page", e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.simpleqq.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 并发延迟直方图
+ * 采用对数-线性分桶：每个2的幂区间再均分为16个子桶，相对误差不超过1/16，
+ * 桶数固定为960个，记录操作无锁，适合在热路径上统计纳秒级延迟并读取百分位数
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;                     // 每个区间的子桶位数
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;      // 每个区间的子桶数
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS; // 覆盖全部非负long
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT); // 各桶计数
+    private final LongAdder count = new LongAdder();                  // 记录总数
+    private final LongAdder sum = new LongAdder();                    // 记录值之和
+    private final AtomicLong max = new AtomicLong();                  // 最大值
+
+    /**
+     * 记录一个值，负数按0记录
+     * @param value 延迟值（单位由调用方决定，通常为纳秒）
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 其他线程更新了最大值，重试
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << shift;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * 获取百分位数
+     * 返回该百分位所在桶的上界（不超过记录到的最大值）
+     * @param percentile 百分位，取值0到100
+     * @return 百分位对应的值，没有记录时返回0
+     */
+    public long percentile(double percentile) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                long upper = i + 1 < BUCKET_COUNT ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * 以微秒为单位输出统计摘要（假定记录值为纳秒）
+     * @return 形如"count=100 mean=12.3us p50=10us p90=20us p99=40us p999=50us max=51us"的字符串
+     */
+    public String summary() {
+        return String.format("count=%d mean=%.1fus p50=%dus p90=%dus p99=%dus p999=%dus max=%dus",
+            getCount(), getMean() / 1000.0, percentile(50) / 1000, percentile(90) / 1000,
+            percentile(99) / 1000, percentile(99.9) / 1000, getMax() / 1000);
+    }
+
+    /**
+     * 清空所有记录
+     * 与并发的record之间不保证原子性，仅用于统计周期切换
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
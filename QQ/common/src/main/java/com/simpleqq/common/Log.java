@@ -0,0 +1,85 @@
+package com.simpleqq.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 异步日志入口
+ * 所有Logger共享一个LogRingBuffer和一个后台输出线程，默认输出到控制台，可以用setSink()替换输出目标。
+ * 进程退出时通过关闭钩子输出剩余的日志。
+ *
+ * 可通过JVM系统属性配置：
+ * simpleqq.log.level（全局级别，默认INFO）、simpleqq.log.level.记录器名（单个记录器的级别）、
+ * simpleqq.log.sample.记录器名（采样间隔N，每N次记录输出1次）、simpleqq.log.bufferSize（缓冲区条数，2的幂，默认8192）。
+ * 记录器名为类的简单名称，逐条消息的日志使用“类名.messages”，默认为DEBUG级别因而关闭。
+ */
+public final class Log {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;                 // 默认缓冲区条数
+    private static final long SHUTDOWN_FLUSH_MILLIS = 2000;             // 退出时最长等待输出的时间
+
+    private static final Map<String, Logger> LOGGERS = new ConcurrentHashMap<>(); // 已创建的记录器
+    private static final AsyncLogWriter WRITER =
+        new AsyncLogWriter(Integer.getInteger("simpleqq.log.bufferSize", DEFAULT_BUFFER_SIZE), LogSink.CONSOLE);
+    private static volatile LogLevel level = LogLevel.parse(System.getProperty("simpleqq.log.level", "INFO")); // 全局级别
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> WRITER.close(SHUTDOWN_FLUSH_MILLIS), "simpleqq-log-shutdown"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * 获取类对应的日志记录器，名称为类的简单名称
+     */
+    public static Logger getLogger(Class<?> type) {
+        return getLogger(type.getSimpleName());
+    }
+
+    /**
+     * 获取日志记录器，同名的记录器只创建一次
+     * 创建时读取该名称的级别和采样系统属性
+     */
+    public static Logger getLogger(String name) {
+        return LOGGERS.computeIfAbsent(name, key -> {
+            Logger logger = new Logger(key);
+            String loggerLevel = System.getProperty("simpleqq.log.level." + key);
+            if (loggerLevel != null) {
+                logger.setLevel(LogLevel.parse(loggerLevel));
+            }
+            logger.setSampleEvery(Integer.getInteger("simpleqq.log.sample." + key, 1));
+            return logger;
+        });
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * 设置全局级别，对没有单独设置级别的记录器生效
+     */
+    public static void setLevel(LogLevel newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * 替换输出目标，之后取出的记录写入新的目标
+     */
+    public static void setSink(LogSink sink) {
+        WRITER.setSink(sink);
+    }
+
+    /**
+     * 等待已提交的日志全部输出
+     * @param timeoutMillis 最长等待时间
+     * @return 在超时前全部输出返回true
+     */
+    public static boolean flush(long timeoutMillis) {
+        return WRITER.flush(timeoutMillis);
+    }
+
+    static void submit(LogRecord record) {
+        WRITER.submit(record);
+    }
+}
@@ -0,0 +1,23 @@
+package com.simpleqq.common;
+
+/**
+ * 日志级别，按严重程度从低到高排列
+ * OFF只用作阈值，表示关闭日志记录器
+ */
+public enum LogLevel {
+    DEBUG,  // 调试信息，如逐条消息的收发
+    INFO,   // 运行状态，如启动、上下线
+    WARN,   // 可恢复的异常情况，如截断损坏的文件尾
+    ERROR,  // 操作失败
+    OFF;    // 不记录任何日志
+
+    /**
+     * 解析级别名称，忽略大小写和首尾空白
+     * @param name 级别名称
+     * @return 日志级别
+     * @throws IllegalArgumentException 名称无法识别时抛出
+     */
+    public static LogLevel parse(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,70 @@
+package com.simpleqq.common;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 一条日志记录
+ * 调用线程只填充字段，时间格式化和输出都在后台线程中完成
+ */
+public final class LogRecord {
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final long timestamp;        // 记录时间（毫秒）
+    private final LogLevel level;        // 日志级别
+    private final String thread;         // 记录日志的线程名
+    private final String logger;         // 日志记录器名称
+    private final String message;        // 已格式化的日志内容
+
+    /**
+     * 构造函数
+     * @param timestamp 记录时间（毫秒）
+     * @param level 日志级别
+     * @param thread 记录日志的线程名
+     * @param logger 日志记录器名称
+     * @param message 已格式化的日志内容
+     */
+    public LogRecord(long timestamp, LogLevel level, String thread, String logger, String message) {
+        this.timestamp = timestamp;
+        this.level = level;
+        this.thread = thread;
+        this.logger = logger;
+        this.message = message;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    public String getLogger() {
+        return logger;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 格式化为一行文本
+     * @return 格式：时间 级别 [线程] 记录器 - 内容
+     */
+    public String format() {
+        return TIME_FORMAT.format(Instant.ofEpochMilli(timestamp)) + " " + level + " [" + thread + "] "
+            + logger + " - " + message;
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
@@ -0,0 +1,81 @@
+package com.simpleqq.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界无锁多生产者单消费者环形缓冲区
+ * 每个槽位带一个序号：序号等于写入位置时槽位空闲，等于写入位置+1时数据可读。
+ * 生产者用CAS抢占写入位置，写入数据后发布序号；消费者只有一个，读指针不需要同步。
+ * 缓冲区满时offer()立即返回false，生产者从不阻塞也不加锁。
+ */
+final class LogRingBuffer {
+    private final LogRecord[] slots;                       // 数据槽，可见性由sequences保证
+    private final AtomicLongArray sequences;               // 各槽位的序号
+    private final int mask;                                // 容量-1，用于取模
+    private final AtomicLong tail = new AtomicLong();      // 下一个写入位置
+    private long head;                                     // 下一个读取位置，只由消费者访问
+
+    /**
+     * 构造函数
+     * @param capacity 容量，必须是2的幂
+     */
+    LogRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        slots = new LogRecord[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * 放入一条记录，可以在任意线程并发调用
+     * @return 缓冲区已满时返回false
+     */
+    boolean offer(LogRecord record) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = record;
+                    sequences.set(index, position + 1); // 发布
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                return false; // 槽位还没有被消费者释放
+            } else {
+                position = tail.get(); // 其他生产者已经占用了该位置
+            }
+        }
+    }
+
+    /**
+     * 取出一条记录，只能由消费者线程调用
+     * @return 没有可读的记录时返回null
+     */
+    LogRecord poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        LogRecord record = slots[index];
+        slots[index] = null;
+        sequences.set(index, head + slots.length); // 释放槽位给下一轮写入
+        head++;
+        return record;
+    }
+
+    /**
+     * 已被生产者占用的位置总数，包括还没发布的位置
+     */
+    long claimed() {
+        return tail.get();
+    }
+}
@@ -0,0 +1,36 @@
+package com.simpleqq.common;
+
+/**
+ * 日志输出目标
+ * 所有方法只由日志后台线程调用，实现不需要考虑并发；写入可以阻塞，不会影响记录日志的线程
+ */
+public interface LogSink {
+
+    /**
+     * 输出一条日志
+     * @param record 日志记录
+     */
+    void write(LogRecord record);
+
+    /**
+     * 一批日志输出完毕后调用，缓冲输出的实现在这里刷新
+     */
+    default void flush() {
+    }
+
+    /**
+     * 控制台输出：DEBUG和INFO写入标准输出，WARN和ERROR写入标准错误
+     */
+    LogSink CONSOLE = new LogSink() {
+        @Override
+        public void write(LogRecord record) {
+            (record.getLevel().compareTo(LogLevel.WARN) >= 0 ? System.err : System.out).println(record.format());
+        }
+
+        @Override
+        public void flush() {
+            System.out.flush();
+            System.err.flush();
+        }
+    };
+}
@@ -0,0 +1,193 @@
+package com.simpleqq.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 日志记录器
+ * 通过Log.getLogger()获取。日志内容使用{}占位符，只有级别启用且通过采样时才格式化参数，
+ * 关闭的日志不产生字符串拼接；格式化后的记录交给后台线程输出，调用线程不会阻塞在控制台写入上。
+ *
+ * 采样用于逐条消息的日志：设置为N时每N次记录只输出1次，只在实际调用记录方法时计数，
+ * 用isXxxEnabled()提前判断不影响采样。
+ */
+public final class Logger {
+    private final String name;                             // 记录器名称
+    private final AtomicLong sampleCounter = new AtomicLong(); // 采样计数
+    private volatile LogLevel level;                       // 单独设置的级别，null表示使用全局级别
+    private volatile int sampleEvery = 1;                  // 每N次记录输出1次
+
+    Logger(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 设置本记录器的级别
+     * @param level 级别，null表示使用全局级别
+     */
+    public void setLevel(LogLevel level) {
+        this.level = level;
+    }
+
+    /**
+     * 设置采样间隔
+     * @param sampleEvery 每N次记录输出1次，1表示全部输出
+     */
+    public void setSampleEvery(int sampleEvery) {
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("sampleEvery must be positive: " + sampleEvery);
+        }
+        this.sampleEvery = sampleEvery;
+    }
+
+    /**
+     * 判断级别是否启用，不考虑采样
+     */
+    public boolean isEnabled(LogLevel level) {
+        LogLevel threshold = this.level;
+        if (threshold == null) {
+            threshold = Log.getLevel();
+        }
+        return level != LogLevel.OFF && level.compareTo(threshold) >= 0;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public void debug(String message) {
+        if (accept(LogLevel.DEBUG)) {
+            submit(LogLevel.DEBUG, message);
+        }
+    }
+
+    public void debug(String pattern, Object arg) {
+        if (accept(LogLevel.DEBUG)) {
+            submit(LogLevel.DEBUG, format(pattern, arg));
+        }
+    }
+
+    public void debug(String pattern, Object arg1, Object arg2) {
+        if (accept(LogLevel.DEBUG)) {
+            submit(LogLevel.DEBUG, format(pattern, arg1, arg2));
+        }
+    }
+
+    public void debug(String pattern, Object... args) {
+        if (accept(LogLevel.DEBUG)) {
+            submit(LogLevel.DEBUG, format(pattern, args));
+        }
+    }
+
+    public void info(String message) {
+        if (accept(LogLevel.INFO)) {
+            submit(LogLevel.INFO, message);
+        }
+    }
+
+    public void info(String pattern, Object arg) {
+        if (accept(LogLevel.INFO)) {
+            submit(LogLevel.INFO, format(pattern, arg));
+        }
+    }
+
+    public void info(String pattern, Object arg1, Object arg2) {
+        if (accept(LogLevel.INFO)) {
+            submit(LogLevel.INFO, format(pattern, arg1, arg2));
+        }
+    }
+
+    public void info(String pattern, Object... args) {
+        if (accept(LogLevel.INFO)) {
+            submit(LogLevel.INFO, format(pattern, args));
+        }
+    }
+
+    public void warn(String message) {
+        if (accept(LogLevel.WARN)) {
+            submit(LogLevel.WARN, message);
+        }
+    }
+
+    public void warn(String pattern, Object arg) {
+        if (accept(LogLevel.WARN)) {
+            submit(LogLevel.WARN, format(pattern, arg));
+        }
+    }
+
+    public void warn(String pattern, Object arg1, Object arg2) {
+        if (accept(LogLevel.WARN)) {
+            submit(LogLevel.WARN, format(pattern, arg1, arg2));
+        }
+    }
+
+    public void warn(String pattern, Object... args) {
+        if (accept(LogLevel.WARN)) {
+            submit(LogLevel.WARN, format(pattern, args));
+        }
+    }
+
+    public void error(String message) {
+        if (accept(LogLevel.ERROR)) {
+            submit(LogLevel.ERROR, message);
+        }
+    }
+
+    public void error(String pattern, Object arg) {
+        if (accept(LogLevel.ERROR)) {
+            submit(LogLevel.ERROR, format(pattern, arg));
+        }
+    }
+
+    public void error(String pattern, Object arg1, Object arg2) {
+        if (accept(LogLevel.ERROR)) {
+            submit(LogLevel.ERROR, format(pattern, arg1, arg2));
+        }
+    }
+
+    public void error(String pattern, Object... args) {
+        if (accept(LogLevel.ERROR)) {
+            submit(LogLevel.ERROR, format(pattern, args));
+        }
+    }
+
+    /**
+     * 判断本次记录是否输出：级别启用且通过采样
+     */
+    private boolean accept(LogLevel level) {
+        if (!isEnabled(level)) {
+            return false;
+        }
+        int every = sampleEvery;
+        return every == 1 || sampleCounter.getAndIncrement() % every == 0;
+    }
+
+    private void submit(LogLevel level, String message) {
+        Log.submit(new LogRecord(System.currentTimeMillis(), level, Thread.currentThread().getName(), name, message));
+    }
+
+    /**
+     * 依次用参数替换{}占位符，多余的参数追加在末尾
+     */
+    static String format(String pattern, Object... args) {
+        StringBuilder sb = new StringBuilder(pattern.length() + 32 * args.length);
+        int from = 0;
+        int used = 0;
+        while (used < args.length) {
+            int at = pattern.indexOf("{}", from);
+            if (at < 0) {
+                break;
+            }
+            sb.append(pattern, from, at).append(args[used++]);
+            from = at + 2;
+        }
+        sb.append(pattern, from, pattern.length());
+        for (; used < args.length; used++) {
+            sb.append(' ').append(args[used]);
+        }
+        return sb.toString();
+    }
+}
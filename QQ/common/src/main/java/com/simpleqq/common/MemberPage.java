@@ -0,0 +1,147 @@
+package com.simpleqq.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 群组成员分页
+ * 客户端发送GROUP_MEMBERS_REQUEST，接收者为群组ID，内容为formatRequest()生成的"起始位置,条数,过滤"，
+ * 服务器返回GROUP_MEMBERS_RESPONSE，内容为encode()生成的分页数据，发送者字段为群组ID。
+ *
+ * 成员按入群先后排列且只会追加，因此成员版本号就是成员数，位置i的成员在版本i+1时加入。
+ * 起始位置既是分页游标也是增量查询的起点：从0开始按getNextCursor()翻页得到完整列表，
+ * 之后以已持有的版本号作为起始位置请求，只会返回此后加入的成员。
+ * 起始位置超过服务器当前版本时（如服务器数据被回滚）服务器从0开始返回，客户端见到getCursor()为0时应替换已有列表。
+ * 只看在线成员时，游标仍是完整成员列表中的位置，离线成员被跳过但照常推进游标。
+ *
+ * 编码格式见PageFields，用户ID和用户名可以包含任意字符。
+ */
+public class MemberPage {
+    public static final int DEFAULT_PAGE_SIZE = 200; // 默认每页条数
+    public static final int MAX_PAGE_SIZE = 1000;    // 服务器允许的最大每页条数
+    public static final String ALL = "all";          // 返回所有成员
+    public static final String ONLINE = "online";    // 只返回在线成员
+
+    /**
+     * 一位群成员
+     * @param id 用户ID
+     * @param username 用户名
+     * @param online 是否在线
+     */
+    public record Member(String id, String username, boolean online) {
+    }
+
+    private final String groupId;         // 群组ID
+    private final long version;           // 响应时的成员版本号
+    private final long cursor;            // 本页在成员列表中的起始位置
+    private final long nextCursor;        // 下一页的起始位置，没有更多时等于version
+    private final boolean hasMore;        // 是否还有下一页
+    private final boolean onlineOnly;     // 是否只包含在线成员
+    private final List<Member> members;   // 本页成员，按入群先后排列
+
+    /**
+     * 构造函数
+     * @param groupId 群组ID
+     * @param version 响应时的成员版本号
+     * @param cursor 本页起始位置
+     * @param nextCursor 下一页的起始位置
+     * @param hasMore 是否还有下一页
+     * @param onlineOnly 是否只包含在线成员
+     * @param members 本页成员
+     */
+    public MemberPage(String groupId, long version, long cursor, long nextCursor, boolean hasMore, boolean onlineOnly,
+            List<Member> members) {
+        this.groupId = groupId;
+        this.version = version;
+        this.cursor = cursor;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+        this.onlineOnly = onlineOnly;
+        this.members = Collections.unmodifiableList(new ArrayList<>(members));
+    }
+
+    /**
+     * 生成分页请求内容
+     * @param cursor 起始位置，0表示从头开始，传入已持有的版本号表示只要此后加入的成员
+     * @param limit 最多返回的条数
+     * @param onlineOnly 是否只返回在线成员
+     * @return 请求内容，格式：起始位置,条数,过滤
+     */
+    public static String formatRequest(long cursor, int limit, boolean onlineOnly) {
+        return cursor + "," + limit + "," + (onlineOnly ? ONLINE : ALL);
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public boolean isOnlineOnly() {
+        return onlineOnly;
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * 编码为GROUP_MEMBERS_RESPONSE的消息内容
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        PageFields.writeString(sb, groupId);
+        sb.append(version).append(';').append(cursor).append(';').append(nextCursor).append(';')
+            .append(hasMore ? 1 : 0).append(';').append(onlineOnly ? 1 : 0).append(';')
+            .append(members.size()).append(';');
+        for (Member member : members) {
+            PageFields.writeString(sb, member.id());
+            PageFields.writeString(sb, member.username());
+            sb.append(member.online() ? 1 : 0).append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解码GROUP_MEMBERS_RESPONSE的消息内容
+     * @param content 消息内容
+     * @return 分页数据
+     * @throws IllegalArgumentException 内容格式错误时抛出
+     */
+    public static MemberPage decode(String content) {
+        try {
+            PageFields.Reader reader = new PageFields.Reader(content);
+            String groupId = reader.readString();
+            long version = reader.readLong();
+            long cursor = reader.readLong();
+            long nextCursor = reader.readLong();
+            boolean hasMore = reader.readLong() != 0;
+            boolean onlineOnly = reader.readLong() != 0;
+            int count = (int) reader.readLong();
+            List<Member> members = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = reader.readString();
+                String username = reader.readString();
+                members.add(new Member(id, username, reader.readLong() != 0));
+            }
+            return new MemberPage(groupId, version, cursor, nextCursor, hasMore, onlineOnly, members);
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed member page", e);
+        }
+    }
+}
@@ -8,11 +8,14 @@ import java.io.Serializable;
  * 实现Serializable接口以支持对象序列化传输
  */
 public class Message implements Serializable {
+    private static final long serialVersionUID = -3361438997695522486L; // 固定为加入payload字段之前的计算值，兼容旧版客户端
+
     private MessageType type;     // 消息类型，决定消息的处理方式
     private String senderId;      // 发送者用户ID
     private String receiverId;    // 接收者用户ID（群聊时为群组ID）
     private long timestamp;       // 消息时间戳，用于排序和显示时间
-    private String content;       // 消息内容（文本内容或图片数据）
+    private String content;       // 消息内容（文本内容或图片引用）
+    private byte[] payload;       // 二进制负载（图片分块数据），大部分消息为null
 
     /**
      * 构造函数
@@ -50,6 +53,10 @@ public class Message implements Serializable {
         return content;
     }
 
+    public byte[] getPayload() {
+        return payload;
+    }
+
     // Setter方法
     public void setType(MessageType type) {
         this.type = type;
@@ -71,6 +78,10 @@ public class Message implements Serializable {
         this.content = content;
     }
 
+    public void setPayload(byte[] payload) {
+        this.payload = payload;
+    }
+
     /**
      * 重写toString方法，便于调试和日志输出
      */
@@ -82,6 +93,7 @@ public class Message implements Serializable {
                ", receiverId='" + receiverId + '\'' +
                ", timestamp=" + timestamp +
                ", content='" + content + '\'' +
+               (payload == null ? "" : ", payload=" + payload.length + " bytes") +
                '}';
     }
 }
\ No newline at end of file
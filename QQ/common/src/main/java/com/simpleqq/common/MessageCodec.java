@@ -0,0 +1,35 @@
+package com.simpleqq.common;
+
+import java.io.IOException;
+
+/**
+ * 消息编解码器接口
+ * 负责Message对象与单个帧负载字节之间的相互转换
+ * 帧的长度前缀由WireProtocol统一处理，编解码器只关心负载本身
+ */
+public interface MessageCodec {
+
+    /**
+     * 将消息编码为帧负载
+     * @param message 要编码的消息
+     * @return 编码后的字节数组
+     * @throws IOException 编码失败时抛出
+     */
+    byte[] encode(Message message) throws IOException;
+
+    /**
+     * 从帧负载解码消息
+     * @param data 负载所在的字节数组
+     * @param offset 负载起始位置
+     * @param length 负载长度
+     * @return 解码得到的消息
+     * @throws IOException 数据损坏或格式不正确时抛出
+     */
+    Message decode(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * 获取该编解码器对应的协议版本号
+     * @return 握手时协商使用的版本号
+     */
+    byte version();
+}
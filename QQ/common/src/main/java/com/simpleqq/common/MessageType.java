@@ -3,6 +3,7 @@ package com.simpleqq.common;
 /**
  * 消息类型枚举
  * 定义了系统中所有可能的消息类型，用于客户端和服务器之间的通信协议
+ * 注意：二进制协议按序号编码消息类型，新增类型只能追加在末尾，不能调整已有顺序
  */
 public enum MessageType {
     // 用户认证相关消息类型
@@ -43,5 +44,25 @@ public enum MessageType {
     
     // 系统消息类型
     SERVER_MESSAGE,           // 服务器系统消息
-    GET_PENDING_REQUESTS      // 获取待处理请求列表
+    GET_PENDING_REQUESTS,     // 获取待处理请求列表
+
+    // 聊天记录相关类型
+    HISTORY_REQUEST,          // 分页查询聊天记录
+    HISTORY_RESPONSE,         // 聊天记录分页响应
+
+    // 图片存储相关类型
+    BLOB_UPLOAD,              // 上传图片数据块
+    BLOB_UPLOAD_ACK,          // 图片上传进度确认
+    BLOB_REQUEST,             // 请求图片数据块
+    BLOB_DATA,                // 图片数据块
+
+    // 在线状态相关类型
+    PRESENCE_UPDATE,          // 好友在线状态变化（增量）
+
+    // 群组成员分页相关类型
+    GROUP_MEMBERS_REQUEST,    // 分页或增量查询群组成员
+    GROUP_MEMBERS_RESPONSE,   // 群组成员分页响应
+
+    // 聊天记录存储内部类型
+    GROUP_IMAGE_MESSAGE       // 群聊图片的聊天记录，只在服务器内部使用，返回给客户端前转换为IMAGE_MESSAGE
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package com.simpleqq.common;
+
+/**
+ * 分页响应的字段编码，HistoryPage和MemberPage共用
+ * 字符串字段为"长度:内容"（null编码为"-1:"），数字字段以';'结尾，因此字符串可以包含任意字符。
+ */
+final class PageFields {
+
+    private PageFields() {
+    }
+
+    static void writeString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("-1:");
+        } else {
+            sb.append(value.length()).append(':').append(value);
+        }
+    }
+
+    /**
+     * 按顺序读取编码后的字段
+     */
+    static final class Reader {
+        private final String content;
+        private int pos;
+
+        Reader(String content) {
+            this.content = content;
+        }
+
+        String readToken() {
+            int end = content.indexOf(';', pos);
+            if (end < 0) {
+                throw new IndexOutOfBoundsException("Missing field terminator at " + pos);
+            }
+            String token = content.substring(pos, end);
+            pos = end + 1;
+            return token;
+        }
+
+        long readLong() {
+            return Long.parseLong(readToken());
+        }
+
+        String readString() {
+            int colon = content.indexOf(':', pos);
+            if (colon < 0) {
+                throw new IndexOutOfBoundsException("Missing string length at " + pos);
+            }
+            int length = Integer.parseInt(content.substring(pos, colon));
+            pos = colon + 1;
+            if (length < 0) {
+                return null;
+            }
+            String value = content.substring(pos, pos + length);
+            pos += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.simpleqq.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 好友在线状态变化
+ * 好友上线或下线时服务器发送PRESENCE_UPDATE，内容为encode()生成的"用户ID:状态"，多条之间以';'分隔，
+ * 客户端在本地好友列表上逐条更新对应好友的状态，不再重新获取整份好友列表。
+ * 状态取值与FRIEND_LIST中的相同：online或offline。
+ */
+public class PresenceUpdate {
+    public static final String ONLINE = "online";    // 在线
+    public static final String OFFLINE = "offline";  // 离线
+
+    private final String userId;  // 状态变化的用户ID
+    private final boolean online; // 新状态是否为在线
+
+    /**
+     * 构造函数
+     * @param userId 状态变化的用户ID
+     * @param online 新状态是否为在线
+     */
+    public PresenceUpdate(String userId, boolean online) {
+        this.userId = userId;
+        this.online = online;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * 获取状态文字
+     * @return online或offline
+     */
+    public String getStatus() {
+        return online ? ONLINE : OFFLINE;
+    }
+
+    /**
+     * 编码为PRESENCE_UPDATE的消息内容
+     * @param updates 状态变化，按发生顺序排列
+     * @return 格式：用户ID:状态;用户ID:状态;...
+     */
+    public static String encode(List<PresenceUpdate> updates) {
+        StringBuilder sb = new StringBuilder();
+        for (PresenceUpdate update : updates) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(update.userId).append(':').append(update.getStatus());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析PRESENCE_UPDATE的消息内容，格式不正确的条目被忽略
+     * @param content 消息内容
+     * @return 状态变化，按发生顺序排列
+     */
+    public static List<PresenceUpdate> parse(String content) {
+        List<PresenceUpdate> updates = new ArrayList<>();
+        if (content == null || content.isEmpty()) {
+            return updates;
+        }
+        for (String entry : content.split(";")) {
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String status = entry.substring(colon + 1);
+            if (ONLINE.equals(status) || OFFLINE.equals(status)) {
+                updates.add(new PresenceUpdate(entry.substring(0, colon), ONLINE.equals(status)));
+            }
+        }
+        return updates;
+    }
+
+    @Override
+    public String toString() {
+        return userId + ":" + getStatus();
+    }
+}
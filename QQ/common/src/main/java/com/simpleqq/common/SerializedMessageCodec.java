@@ -0,0 +1,38 @@
+package com.simpleqq.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * 基于Java序列化的消息编解码器（协议版本1）
+ * 每一帧是一个独立的序列化流，帧之间不共享类描述符，
+ * 因此可以被非阻塞传输层逐帧解码
+ */
+public class SerializedMessageCodec implements MessageCodec {
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] data, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+            return (Message) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid message frame", e);
+        }
+    }
+
+    @Override
+    public byte version() {
+        return WireProtocol.VERSION_SERIALIZED;
+    }
+}
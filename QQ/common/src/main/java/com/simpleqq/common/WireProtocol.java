@@ -0,0 +1,110 @@
+package com.simpleqq.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 分帧传输协议定义
+ * 客户端连接后首先发送4字节握手："SQQ" + 期望的协议版本号，
+ * 服务器回复同样格式的4字节，其中版本号为双方协商后的结果。
+ * 握手完成后，每条消息都以"4字节大端长度 + 负载"的帧形式传输。
+ */
+public final class WireProtocol {
+    public static final byte VERSION_SERIALIZED = 1;          // 协议版本1：负载为Java序列化的Message
+    public static final byte VERSION_BINARY = 2;              // 协议版本2：负载为紧凑二进制编码的Message
+    public static final byte MAX_VERSION = VERSION_BINARY;    // 当前支持的最高协议版本
+
+    public static final int HANDSHAKE_LENGTH = 4;             // 握手长度：3字节魔数 + 1字节版本号
+    public static final int FRAME_HEADER_LENGTH = 4;          // 帧头长度：4字节负载长度
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024; // 单帧最大负载，防止恶意长度耗尽内存
+
+    private static final byte[] MAGIC = {'S', 'Q', 'Q'};      // 握手魔数
+
+    private WireProtocol() {
+    }
+
+    /**
+     * 构造握手字节
+     * @param version 协议版本号
+     * @return 4字节握手数据
+     */
+    public static byte[] handshake(byte version) {
+        return new byte[] {MAGIC[0], MAGIC[1], MAGIC[2], version};
+    }
+
+    /**
+     * 判断给定字节是否以握手魔数开头
+     * @param data 至少包含3个字节的数据
+     * @return 是分帧协议握手返回true
+     */
+    public static boolean isHandshake(byte[] data) {
+        return data.length >= MAGIC.length
+            && data[0] == MAGIC[0] && data[1] == MAGIC[1] && data[2] == MAGIC[2];
+    }
+
+    /**
+     * 根据客户端请求的版本协商最终使用的版本
+     * @param requested 客户端期望的版本
+     * @return 双方都支持的最高版本，无法协商时返回0
+     */
+    public static byte negotiate(byte requested) {
+        if (requested < VERSION_SERIALIZED) {
+            return 0;
+        }
+        return (byte) Math.min(requested, MAX_VERSION);
+    }
+
+    /**
+     * 判断连接是否能接收PRESENCE_UPDATE增量
+     * 该类型与二进制协议同时加入，旧版对象流客户端和只支持版本1的客户端的MessageType中没有它，
+     * 反序列化时会抛出异常并断开连接，只能继续接收完整的FRIEND_LIST
+     * @param version 协商的协议版本，旧版对象流连接为0
+     * @return 版本2及以上返回true
+     */
+    public static boolean supportsPresenceUpdates(int version) {
+        return version >= VERSION_BINARY;
+    }
+
+    /**
+     * 获取指定协议版本对应的编解码器
+     * @param version 协议版本号
+     * @return 编解码器实例
+     * @throws IllegalArgumentException 版本不受支持时抛出
+     */
+    public static MessageCodec codecFor(byte version) {
+        if (version == VERSION_SERIALIZED) {
+            return new SerializedMessageCodec();
+        }
+        if (version == VERSION_BINARY) {
+            return new BinaryMessageCodec();
+        }
+        throw new IllegalArgumentException("Unsupported protocol version: " + version);
+    }
+
+    /**
+     * 写出一帧（不负责flush）
+     * @param out 输出流
+     * @param payload 帧负载
+     */
+    public static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * 读取一帧的负载
+     * @param in 输入流
+     * @return 帧负载
+     * @throws IOException 连接关闭或帧长度非法时抛出
+     */
+    public static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+}
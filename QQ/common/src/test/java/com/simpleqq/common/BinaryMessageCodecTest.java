@@ -0,0 +1,127 @@
+package com.simpleqq.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryMessageCodecTest {
+
+    private final BinaryMessageCodec codec = new BinaryMessageCodec();
+
+    private Message roundTrip(Message message) throws IOException {
+        byte[] data = codec.encode(message);
+        return codec.decode(data, 0, data.length);
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSenderId(), actual.getSenderId());
+        assertEquals(expected.getReceiverId(), actual.getReceiverId());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+
+    @Test
+    public void roundTripsEveryMessageType() throws IOException {
+        for (MessageType type : MessageType.values()) {
+            Message m = new Message(type, "u1", "u2", "内容 " + type);
+            assertSameMessage(m, roundTrip(m));
+        }
+    }
+
+    @Test
+    public void preservesNullAndEmptyFields() throws IOException {
+        Message nulls = new Message(null, null, null, null);
+        assertSameMessage(nulls, roundTrip(nulls));
+
+        Message empty = new Message(MessageType.TEXT_MESSAGE, "", "", "");
+        assertSameMessage(empty, roundTrip(empty));
+    }
+
+    @Test
+    public void roundTripsLargeContentAndExtremeTimestamps() throws IOException {
+        char[] chars = new char[200_000];
+        Arrays.fill(chars, '图');
+        Message large = new Message(MessageType.IMAGE_MESSAGE, "a", "b", "pic.png:" + new String(chars));
+        assertSameMessage(large, roundTrip(large));
+
+        for (long ts : new long[] {0L, 127L, 128L, Long.MAX_VALUE, -1L}) {
+            Message m = new Message(MessageType.TEXT_MESSAGE, "a", "b", "x");
+            m.setTimestamp(ts);
+            assertSameMessage(m, roundTrip(m));
+        }
+    }
+
+    @Test
+    public void decodesFromOffsetWithinBuffer() throws IOException {
+        Message m = new Message(MessageType.GROUP_MESSAGE, "a", "g1", "hi");
+        byte[] data = codec.encode(m);
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 5, data.length);
+        assertSameMessage(m, codec.decode(padded, 5, data.length));
+    }
+
+    @Test
+    public void isMuchSmallerThanJavaSerialization() throws IOException {
+        Message m = new Message(MessageType.TEXT_MESSAGE, "10001", "10002", "hello");
+        int binary = codec.encode(m).length;
+        int serialized = new SerializedMessageCodec().encode(m).length;
+        assertTrue(binary * 5 < serialized, "binary=" + binary + ", serialized=" + serialized);
+    }
+
+    @Test
+    public void rejectsTruncatedOrCorruptFrames() throws IOException {
+        byte[] data = codec.encode(new Message(MessageType.TEXT_MESSAGE, "sender", "receiver", "content"));
+        for (int length = 0; length < data.length; length++) {
+            final int len = length;
+            assertThrows(IOException.class, () -> codec.decode(data, 0, len));
+        }
+
+        byte[] badType = data.clone();
+        badType[0] = (byte) 0x7F;
+        assertThrows(IOException.class, () -> codec.decode(badType, 0, badType.length));
+    }
+
+    @Test
+    public void roundTripsOptionalPayload() throws IOException {
+        Message chunk = new Message(MessageType.BLOB_DATA, "Server", "u1", "hash,3,0");
+        chunk.setPayload(new byte[] {1, 0, (byte) 0xFF});
+        Message decoded = roundTrip(chunk);
+        assertSameMessage(chunk, decoded);
+        assertArrayEquals(chunk.getPayload(), decoded.getPayload());
+
+        Message empty = new Message(MessageType.BLOB_DATA, "Server", "u1", "hash,0,0");
+        empty.setPayload(new byte[0]);
+        assertArrayEquals(new byte[0], roundTrip(empty).getPayload());
+
+        // 没有负载的消息编码与加入payload字段之前完全相同
+        Message plain = new Message(MessageType.TEXT_MESSAGE, "a", "b", "hi");
+        Message withPayload = new Message(MessageType.TEXT_MESSAGE, "a", "b", "hi");
+        withPayload.setTimestamp(plain.getTimestamp());
+        withPayload.setPayload(new byte[] {7});
+        byte[] plainBytes = codec.encode(plain);
+        byte[] payloadBytes = codec.encode(withPayload);
+        assertNull(roundTrip(plain).getPayload());
+        assertArrayEquals(plainBytes, Arrays.copyOf(payloadBytes, plainBytes.length));
+    }
+
+    @Test
+    public void serializedCodecKeepsPayload() throws IOException {
+        SerializedMessageCodec serialized = new SerializedMessageCodec();
+        Message chunk = new Message(MessageType.BLOB_UPLOAD, "u1", "Server", "hash,2,0");
+        chunk.setPayload(new byte[] {4, 2});
+        byte[] data = serialized.encode(chunk);
+        assertArrayEquals(chunk.getPayload(), serialized.decode(data, 0, data.length).getPayload());
+    }
+
+    @Test
+    public void negotiatesBinaryVersion() {
+        assertEquals(WireProtocol.VERSION_BINARY, WireProtocol.negotiate(WireProtocol.MAX_VERSION));
+        assertEquals(WireProtocol.VERSION_SERIALIZED, WireProtocol.negotiate(WireProtocol.VERSION_SERIALIZED));
+        assertEquals(WireProtocol.VERSION_BINARY, WireProtocol.negotiate((byte) 9));
+        assertInstanceOf(BinaryMessageCodec.class, WireProtocol.codecFor(WireProtocol.VERSION_BINARY));
+    }
+}
@@ -0,0 +1,44 @@
+package com.simpleqq.common;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlobRefTest {
+
+    private static final String HASH = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad"; // SHA-256("abc")
+
+    @Test
+    public void encodeAndParse() {
+        BlobRef ref = new BlobRef(HASH, 3, "a:b.png");
+        BlobRef parsed = BlobRef.parse(ref.encode());
+        assertEquals(HASH, parsed.getHash());
+        assertEquals(3, parsed.getSize());
+        assertEquals("a:b.png", parsed.getName());
+    }
+
+    @Test
+    public void legacyInlineImagesAreNotRefs() {
+        assertNull(BlobRef.parse("cat.png:iVBORw0KGgo="));
+        assertNull(BlobRef.parse("cat.png"));
+        assertNull(BlobRef.parse(null));
+        assertNull(BlobRef.parse(HASH.toUpperCase() + ":3:x"));
+        assertNull(BlobRef.parse(HASH + ":-3:x"));
+        assertNull(BlobRef.parse(HASH + ":3"));
+        assertThrows(IllegalArgumentException.class, () -> new BlobRef("../etc/passwd", 1, "x"));
+    }
+
+    @Test
+    public void hashesFileContent() throws Exception {
+        Path file = Files.createTempFile("blobref", ".bin");
+        try {
+            Files.write(file, new byte[] {'a', 'b', 'c'});
+            assertEquals(HASH, BlobRef.hash(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.simpleqq.common;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryPageTest {
+
+    @Test
+    public void roundTripKeepsMessagesWithDelimitersInContent() {
+        Message text = new Message(MessageType.TEXT_MESSAGE, "u1", "u2", "a;b:c,d|e\n你好");
+        text.setTimestamp(123L);
+        Message image = new Message(MessageType.IMAGE_MESSAGE, "u2", "u1", "cat.png");
+        HistoryPage page = new HistoryPage(false, "u2", List.of(text, image), 41L, true);
+
+        HistoryPage decoded = HistoryPage.decode(page.encode());
+        assertFalse(decoded.isGroup());
+        assertEquals("u2", decoded.getTarget());
+        assertEquals(41L, decoded.getNextBefore());
+        assertTrue(decoded.hasMore());
+        assertEquals(2, decoded.getMessages().size());
+        Message first = decoded.getMessages().get(0);
+        assertEquals(MessageType.TEXT_MESSAGE, first.getType());
+        assertEquals("u1", first.getSenderId());
+        assertEquals("u2", first.getReceiverId());
+        assertEquals(123L, first.getTimestamp());
+        assertEquals("a;b:c,d|e\n你好", first.getContent());
+        assertEquals("cat.png", decoded.getMessages().get(1).getContent());
+    }
+
+    @Test
+    public void emptyGroupPage() {
+        HistoryPage decoded = HistoryPage.decode(new HistoryPage(true, "g1", List.of(), 0L, false).encode());
+        assertTrue(decoded.isGroup());
+        assertEquals("g1", decoded.getTarget());
+        assertTrue(decoded.getMessages().isEmpty());
+        assertFalse(decoded.hasMore());
+    }
+
+    @Test
+    public void malformedContentIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> HistoryPage.decode("private;5:u2"));
+        assertThrows(IllegalArgumentException.class, () -> HistoryPage.decode("private;99:u2;"));
+    }
+
+    @Test
+    public void requestFormat() {
+        assertEquals("group,0,50", HistoryPage.formatRequest(true, 0, HistoryPage.DEFAULT_PAGE_SIZE));
+        assertEquals("private,17,20", HistoryPage.formatRequest(false, 17, 20));
+    }
+}
@@ -0,0 +1,128 @@
+package com.simpleqq.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 异步日志测试类
+ * 验证占位符格式化、级别与采样过滤、后台线程输出顺序，以及环形缓冲区在多生产者下不丢失、满时不阻塞
+ */
+public class LogTest {
+
+    private final List<LogRecord> records = new ArrayList<>(); // 只由日志后台线程写入，flush后读取
+
+    @BeforeEach
+    public void setup() {
+        Log.setSink(records::add);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        Log.flush(5000);
+        Log.setSink(LogSink.CONSOLE);
+        Log.setLevel(LogLevel.INFO);
+    }
+
+    private List<String> flushed() {
+        assertTrue(Log.flush(5000));
+        List<String> messages = new ArrayList<>();
+        for (LogRecord record : records) {
+            messages.add(record.getLogger() + ":" + record.getLevel() + ":" + record.getMessage());
+        }
+        return messages;
+    }
+
+    @Test
+    public void formatsPlaceholders() {
+        assertEquals("a 1 b 2", Logger.format("a {} b {}", 1, 2));
+        assertEquals("a 1 b {}", Logger.format("a {} b {}", 1));
+        assertEquals("a null x y", Logger.format("a {}", null, "x", "y"));
+        assertEquals("no args", Logger.format("no args"));
+    }
+
+    @Test
+    public void filtersByLevelAndSamples() {
+        Logger logger = Log.getLogger("LogTest.levels");
+        logger.debug("hidden {}", new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("disabled log must not format arguments");
+            }
+        });
+        logger.info("shown {}", 1);
+        logger.setLevel(LogLevel.WARN);
+        logger.info("hidden");
+        logger.error("error {} {}", "a", "b");
+        logger.setLevel(null);
+        Log.setLevel(LogLevel.DEBUG);
+        assertTrue(logger.isDebugEnabled());
+        logger.setSampleEvery(3);
+        for (int i = 0; i < 7; i++) {
+            logger.debug("sample {}", i);
+        }
+        assertEquals(List.of("LogTest.levels:INFO:shown 1", "LogTest.levels:ERROR:error a b",
+            "LogTest.levels:DEBUG:sample 0", "LogTest.levels:DEBUG:sample 3", "LogTest.levels:DEBUG:sample 6"), flushed());
+        assertSame(logger, Log.getLogger("LogTest.levels"));
+    }
+
+    @Test
+    public void concurrentProducersKeepPerThreadOrder() throws Exception {
+        int threads = 4;
+        int perThread = 1000; // 总数小于默认缓冲区，输出线程即使停顿也不会丢弃
+        Logger logger = Log.getLogger("LogTest.concurrent");
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    logger.info("{}", id * perThread + i);
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(Log.flush(5000));
+        int[] last = new int[threads];
+        java.util.Arrays.fill(last, -1);
+        for (LogRecord record : records) {
+            int value = Integer.parseInt(record.getMessage());
+            int id = value / perThread;
+            assertTrue(value % perThread > last[id], "out of order: " + value);
+            last[id] = value % perThread;
+        }
+        assertEquals(threads * perThread, records.size());
+    }
+
+    @Test
+    public void ringBufferRejectsWhenFull() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(new LogRecord(i, LogLevel.INFO, "t", "l", "m" + i)));
+        }
+        assertFalse(buffer.offer(new LogRecord(4, LogLevel.INFO, "t", "l", "m4")));
+        assertEquals("m0", buffer.poll().getMessage());
+        assertTrue(buffer.offer(new LogRecord(5, LogLevel.INFO, "t", "l", "m5")));
+        for (String expected : new String[] {"m1", "m2", "m3", "m5"}) {
+            assertEquals(expected, buffer.poll().getMessage());
+        }
+        assertNull(buffer.poll());
+        assertThrows(IllegalArgumentException.class, () -> new LogRingBuffer(6));
+    }
+}
@@ -0,0 +1,46 @@
+package com.simpleqq.common;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemberPageTest {
+
+    @Test
+    public void roundTripKeepsMembersWithDelimitersInNames() {
+        MemberPage page = new MemberPage("g;1", 1200L, 200L, 400L, true, false, List.of(
+            new MemberPage.Member("u1", "a;b:c,d|e 你好", true),
+            new MemberPage.Member("u:2", "", false)));
+
+        MemberPage decoded = MemberPage.decode(page.encode());
+        assertEquals("g;1", decoded.getGroupId());
+        assertEquals(1200L, decoded.getVersion());
+        assertEquals(200L, decoded.getCursor());
+        assertEquals(400L, decoded.getNextCursor());
+        assertTrue(decoded.hasMore());
+        assertFalse(decoded.isOnlineOnly());
+        assertEquals(page.getMembers(), decoded.getMembers());
+    }
+
+    @Test
+    public void emptyOnlineOnlyPage() {
+        MemberPage decoded = MemberPage.decode(new MemberPage("g1", 3L, 3L, 3L, false, true, List.of()).encode());
+        assertTrue(decoded.isOnlineOnly());
+        assertFalse(decoded.hasMore());
+        assertTrue(decoded.getMembers().isEmpty());
+    }
+
+    @Test
+    public void malformedContentIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> MemberPage.decode("2:g1;5;0;5"));
+        assertThrows(IllegalArgumentException.class, () -> MemberPage.decode("2:g1;5;0;5;0;0;2;2:u1"));
+    }
+
+    @Test
+    public void requestFormat() {
+        assertEquals("0,200,all", MemberPage.formatRequest(0, MemberPage.DEFAULT_PAGE_SIZE, false));
+        assertEquals("17,50,online", MemberPage.formatRequest(17, 50, true));
+    }
+}
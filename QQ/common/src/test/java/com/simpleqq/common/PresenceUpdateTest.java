@@ -0,0 +1,32 @@
+package com.simpleqq.common;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceUpdateTest {
+
+    @Test
+    public void encodeAndParse() {
+        String content = PresenceUpdate.encode(List.of(new PresenceUpdate("alice", true), new PresenceUpdate("b:o", false)));
+        assertEquals("alice:online;b:o:offline", content);
+
+        List<PresenceUpdate> updates = PresenceUpdate.parse(content);
+        assertEquals(2, updates.size());
+        assertEquals("alice", updates.get(0).getUserId());
+        assertTrue(updates.get(0).isOnline());
+        assertEquals("b:o", updates.get(1).getUserId());
+        assertEquals(PresenceUpdate.OFFLINE, updates.get(1).getStatus());
+    }
+
+    @Test
+    public void malformedEntriesAreSkipped() {
+        assertTrue(PresenceUpdate.parse(null).isEmpty());
+        assertTrue(PresenceUpdate.parse("").isEmpty());
+        List<PresenceUpdate> updates = PresenceUpdate.parse("alice;:online;bob:away;carol:online");
+        assertEquals(1, updates.size());
+        assertEquals("carol", updates.get(0).getUserId());
+    }
+}
@@ -0,0 +1,276 @@
+package com.simpleqq.loadgen;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 压测参数
+ * 可通过JVM系统属性（-Dsimpleqq.loadgen.xxx=...）覆盖，服务器地址沿用客户端的simpleqq.host和simpleqq.port
+ */
+public class LoadConfig {
+    private static final String DEFAULT_MIX = "text=60,group=30,image=5,friend=5";
+
+    /**
+     * 模拟用户的动作
+     */
+    public enum Action {
+        TEXT,       // 给随机一位好友发私聊文本
+        GROUP,      // 在自己所在的群里发文本
+        IMAGE,      // 查询上传进度后给随机一位好友发图片引用
+        FRIEND      // 向随机一位非好友发好友请求，对方收到后拒绝
+    }
+
+    private String host = "127.0.0.1";                  // 服务器地址
+    private int port = 8888;                            // 服务器端口号
+    private int users = 1000;                           // 模拟用户数
+    private int groupSize = 20;                         // 每个群的人数，用户按编号依次分组
+    private int friends = 2;                            // 每个用户向编号在其后的几位用户发好友请求
+    private final Map<Action, Integer> mix = parseMix(DEFAULT_MIX); // 各动作的权重
+    private long thinkMillis = 1000;                    // 两次动作之间的平均间隔（指数分布）
+    private int durationSeconds = 60;                   // 压测持续时间，不含建立连接等准备阶段
+    private int rampUpSeconds = 10;                     // 用户在这段时间内陆续开始发送
+    private int textBytes = 64;                         // 文本消息的内容长度
+    private int imageBytes = 32 * 1024;                 // 每张图片的字节数
+    private int images = 4;                             // 准备阶段上传的不同图片数
+    private int connectThreads = 16;                    // 准备阶段并行建立连接的线程数
+    private int senderThreads = Runtime.getRuntime().availableProcessors(); // 调度发送动作的线程数
+    private int reportSeconds = 5;                      // 压测期间输出进度的间隔
+    private String prefix = "lg" + Long.toString(System.currentTimeMillis(), 36); // 用户和群组ID前缀，默认每次运行不同
+
+    /**
+     * 从系统属性读取参数
+     * 支持的属性：simpleqq.host、simpleqq.port、simpleqq.loadgen.users、simpleqq.loadgen.groupSize、
+     * simpleqq.loadgen.friends、simpleqq.loadgen.mix（如text=60,group=30,image=5,friend=5）、
+     * simpleqq.loadgen.thinkMillis、simpleqq.loadgen.duration、simpleqq.loadgen.rampUp、simpleqq.loadgen.textBytes、
+     * simpleqq.loadgen.imageBytes、simpleqq.loadgen.images、simpleqq.loadgen.connectThreads、
+     * simpleqq.loadgen.senderThreads、simpleqq.loadgen.report、simpleqq.loadgen.prefix
+     * @return 压测参数
+     */
+    public static LoadConfig fromSystemProperties() {
+        LoadConfig config = new LoadConfig();
+        config.setHost(System.getProperty("simpleqq.host", config.getHost()));
+        config.setPort(Integer.getInteger("simpleqq.port", config.getPort()));
+        config.setUsers(Integer.getInteger("simpleqq.loadgen.users", config.getUsers()));
+        config.setGroupSize(Integer.getInteger("simpleqq.loadgen.groupSize", config.getGroupSize()));
+        config.setFriends(Integer.getInteger("simpleqq.loadgen.friends", config.getFriends()));
+        String mix = System.getProperty("simpleqq.loadgen.mix");
+        if (mix != null) {
+            config.setMix(mix);
+        }
+        config.setThinkMillis(Long.getLong("simpleqq.loadgen.thinkMillis", config.getThinkMillis()));
+        config.setDurationSeconds(Integer.getInteger("simpleqq.loadgen.duration", config.getDurationSeconds()));
+        config.setRampUpSeconds(Integer.getInteger("simpleqq.loadgen.rampUp", config.getRampUpSeconds()));
+        config.setTextBytes(Integer.getInteger("simpleqq.loadgen.textBytes", config.getTextBytes()));
+        config.setImageBytes(Integer.getInteger("simpleqq.loadgen.imageBytes", config.getImageBytes()));
+        config.setImages(Integer.getInteger("simpleqq.loadgen.images", config.getImages()));
+        config.setConnectThreads(Integer.getInteger("simpleqq.loadgen.connectThreads", config.getConnectThreads()));
+        config.setSenderThreads(Integer.getInteger("simpleqq.loadgen.senderThreads", config.getSenderThreads()));
+        config.setReportSeconds(Integer.getInteger("simpleqq.loadgen.report", config.getReportSeconds()));
+        config.setPrefix(System.getProperty("simpleqq.loadgen.prefix", config.getPrefix()));
+        return config;
+    }
+
+    /**
+     * 解析动作权重
+     * @param text 格式：动作=权重，逗号分隔，未列出的动作权重为0
+     * @return 各动作的权重
+     * @throws IllegalArgumentException 动作名未知、权重为负或全部为0时抛出
+     */
+    static Map<Action, Integer> parseMix(String text) {
+        Map<Action, Integer> weights = new EnumMap<>(Action.class);
+        for (Action action : Action.values()) {
+            weights.put(action, 0);
+        }
+        int total = 0;
+        for (String part : text.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid message mix entry: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight in message mix: " + part);
+            }
+            weights.put(Action.valueOf(pair[0].trim().toUpperCase()), weight);
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Message mix has no positive weight: " + text);
+        }
+        return weights;
+    }
+
+    /**
+     * 按权重随机选择下一个动作
+     * @param random 随机数生成器
+     * @return 动作
+     */
+    public Action pickAction(Random random) {
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        int n = random.nextInt(total);
+        for (Map.Entry<Action, Integer> entry : mix.entrySet()) {
+            n -= entry.getValue();
+            if (n < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
+    /**
+     * 按平均间隔抽取一次思考时间，服从指数分布，使发送时刻接近泊松过程
+     * @param random 随机数生成器
+     * @return 思考时间（毫秒）
+     */
+    public long nextThinkMillis(Random random) {
+        return (long) (-thinkMillis * Math.log(1 - random.nextDouble()));
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public void setUsers(int users) {
+        if (users < 2) {
+            throw new IllegalArgumentException("At least 2 users are required: " + users);
+        }
+        this.users = users;
+    }
+
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    public void setGroupSize(int groupSize) {
+        if (groupSize < 2) {
+            throw new IllegalArgumentException("Group size must be at least 2: " + groupSize);
+        }
+        this.groupSize = groupSize;
+    }
+
+    public int getFriends() {
+        return friends;
+    }
+
+    public void setFriends(int friends) {
+        if (friends < 1) {
+            throw new IllegalArgumentException("Each user needs at least one friend: " + friends);
+        }
+        this.friends = friends;
+    }
+
+    public Map<Action, Integer> getMix() {
+        return mix;
+    }
+
+    public void setMix(String text) {
+        mix.putAll(parseMix(text));
+    }
+
+    public long getThinkMillis() {
+        return thinkMillis;
+    }
+
+    public void setThinkMillis(long thinkMillis) {
+        this.thinkMillis = thinkMillis;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(int durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    public int getRampUpSeconds() {
+        return rampUpSeconds;
+    }
+
+    public void setRampUpSeconds(int rampUpSeconds) {
+        this.rampUpSeconds = rampUpSeconds;
+    }
+
+    public int getTextBytes() {
+        return textBytes;
+    }
+
+    public void setTextBytes(int textBytes) {
+        this.textBytes = textBytes;
+    }
+
+    public int getImageBytes() {
+        return imageBytes;
+    }
+
+    public void setImageBytes(int imageBytes) {
+        this.imageBytes = imageBytes;
+    }
+
+    public int getImages() {
+        return images;
+    }
+
+    public void setImages(int images) {
+        this.images = images;
+    }
+
+    public int getConnectThreads() {
+        return connectThreads;
+    }
+
+    public void setConnectThreads(int connectThreads) {
+        this.connectThreads = connectThreads;
+    }
+
+    public int getSenderThreads() {
+        return senderThreads;
+    }
+
+    public void setSenderThreads(int senderThreads) {
+        this.senderThreads = senderThreads;
+    }
+
+    public int getReportSeconds() {
+        return reportSeconds;
+    }
+
+    public void setReportSeconds(int reportSeconds) {
+        this.reportSeconds = reportSeconds;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public String toString() {
+        return "users=" + users + " groupSize=" + groupSize + " friends=" + friends + " mix=" + mix
+            + " thinkMillis=" + thinkMillis + " duration=" + durationSeconds + "s rampUp=" + rampUpSeconds
+            + "s server=" + host + ":" + port + " prefix=" + prefix;
+    }
+}
@@ -0,0 +1,347 @@
+package com.simpleqq.loadgen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.simpleqq.common.BlobRef;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+
+/**
+ * 无界面压测客户端
+ * 经分帧协议模拟大量同时在线的用户，按配置的动作权重和思考时间持续发送私聊、群聊、图片和好友请求，
+ * 统计吞吐量和端到端延迟百分位数。服务器需单独启动，每次运行默认使用新的用户ID前缀，不影响已有数据。
+ *
+ * 准备阶段：每个群的第一位用户登录并建群，其余用户登录后由群主邀请入群；每个用户向编号在其后的若干位用户发好友请求，
+ * 对方自动接受；第一位用户上传若干张图片。准备完成后清空统计，用户在爬坡时间内陆续开始发送，持续到设定时间结束。
+ *
+ * 用法：java -Dsimpleqq.loadgen.users=2000 -jar loadgen/target/loadgen.jar
+ */
+public class LoadGenerator {
+    private static final Logger LOG = Log.getLogger(LoadGenerator.class);
+    private static final long SETUP_TIMEOUT_SECONDS = 120; // 准备阶段每一步的等待上限
+    private static final long DRAIN_MILLIS = 1000;         // 停止发送后等待在途消息送达的时间
+
+    /**
+     * 准备阶段上传的图片
+     * @param hash SHA-256摘要
+     * @param data 图片数据
+     */
+    record Image(String hash, byte[] data) {
+    }
+
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final SimulatedUser[] users;
+    private final List<Image> images = new ArrayList<>();
+    private final Map<String, Integer> pendingUploads = new ConcurrentHashMap<>(); // 上传中的图片摘要 -> 字节数
+    private final String padding;                          // 文本消息的填充内容
+    private final long epoch = System.nanoTime();          // clock()的零点
+    private volatile CountDownLatch setupLatch = new CountDownLatch(0); // 准备阶段当前步骤的完成计数
+    private volatile boolean stopping;
+
+    /**
+     * 构造函数
+     * @param config 压测参数
+     * @throws IllegalArgumentException 好友数过多，无法在用户之间做出不重复的好友关系时抛出
+     */
+    public LoadGenerator(LoadConfig config) {
+        if (2 * config.getFriends() >= config.getUsers()) {
+            throw new IllegalArgumentException("Too many friends per user for " + config.getUsers() + " users: "
+                + config.getFriends());
+        }
+        this.config = config;
+        this.users = new SimulatedUser[config.getUsers()];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new SimulatedUser(this, i);
+        }
+        this.padding = "x".repeat(Math.max(0, config.getTextBytes()));
+    }
+
+    LoadConfig getConfig() {
+        return config;
+    }
+
+    public LoadStats getStats() {
+        return stats;
+    }
+
+    String getPadding() {
+        return padding;
+    }
+
+    /**
+     * 压测时钟，写入消息内容的发送时刻，始终为非负数
+     * @return 自压测开始以来的纳秒数
+     */
+    long clock() {
+        return System.nanoTime() - epoch;
+    }
+
+    String userId(int index) {
+        return config.getPrefix() + "-" + index;
+    }
+
+    String groupId(int index) {
+        return config.getPrefix() + "-g" + index / config.getGroupSize();
+    }
+
+    private boolean isGroupOwner(int index) {
+        return index % config.getGroupSize() == 0;
+    }
+
+    /**
+     * 判断另一个用户是否为计划内的好友，即编号相差不超过friends
+     */
+    boolean isPlannedFriend(int index, String otherId) {
+        String expected = config.getPrefix() + "-";
+        if (otherId == null || !otherId.startsWith(expected)) {
+            return false;
+        }
+        int other;
+        try {
+            other = Integer.parseInt(otherId.substring(expected.length()));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        int distance = Math.floorMod(other - index, users.length);
+        return distance != 0 && Math.min(distance, users.length - distance) <= config.getFriends();
+    }
+
+    String randomFriend(int index, Random random) {
+        int offset = 1 + random.nextInt(config.getFriends());
+        return userId(Math.floorMod(random.nextBoolean() ? index + offset : index - offset, users.length));
+    }
+
+    /**
+     * 随机选择一位非好友
+     * @return 用户ID，所有其他用户都是好友时返回null
+     */
+    String randomStranger(int index, Random random) {
+        if (users.length <= 2 * config.getFriends() + 1) {
+            return null;
+        }
+        while (true) {
+            int other = random.nextInt(users.length);
+            String otherId = userId(other);
+            if (other != index && !isPlannedFriend(index, otherId)) {
+                return otherId;
+            }
+        }
+    }
+
+    Image randomImage(Random random) {
+        return images.get(random.nextInt(images.size()));
+    }
+
+    /**
+     * 准备阶段的一步完成，由接收线程调用
+     */
+    void setupStepDone() {
+        setupLatch.countDown();
+    }
+
+    /**
+     * 处理上传确认，准备阶段的图片全部收齐时完成一步
+     * @param content 确认内容，格式：摘要,已接收字节数
+     */
+    void onUploadAck(String content) {
+        String[] parts = content.split(",");
+        Integer size = parts.length == 2 ? pendingUploads.get(parts[0]) : null;
+        if (size != null && Long.parseLong(parts[1]) == size && pendingUploads.remove(parts[0]) != null) {
+            setupStepDone();
+        }
+    }
+
+    /**
+     * 建立连接、群组、好友关系并上传图片
+     * @throws IOException 连接失败、登录被拒绝或某一步超时时抛出
+     */
+    public void setup() throws IOException {
+        long start = System.nanoTime();
+        List<SimulatedUser> owners = new ArrayList<>();
+        List<SimulatedUser> others = new ArrayList<>();
+        for (int i = 0; i < users.length; i++) {
+            (isGroupOwner(i) ? owners : others).add(users[i]);
+        }
+
+        // 群主先登录并建群，建群时服务器会刷新所有在线用户的群组列表，此时在线的人越少越好
+        connectAll(owners);
+        runStep("create groups", owners.size(), () -> {
+            for (int i = 0; i < users.length; i += config.getGroupSize()) {
+                users[i].createGroup(groupId(i));
+            }
+        });
+        connectAll(others);
+        LOG.info("{} users logged in", users.length);
+
+        runStep("join groups", others.size(), () -> {
+            for (int i = 0; i < users.length; i++) {
+                if (!isGroupOwner(i)) {
+                    users[i - i % config.getGroupSize()].inviteToGroup(userId(i), groupId(i));
+                }
+            }
+        });
+        runStep("make friends", users.length * config.getFriends(), () -> {
+            for (int i = 0; i < users.length; i++) {
+                for (int k = 1; k <= config.getFriends(); k++) {
+                    users[i].requestFriend(userId((i + k) % users.length));
+                }
+            }
+        });
+
+        Random random = new Random(config.getPrefix().hashCode());
+        for (int i = 0; i < Math.max(1, config.getImages()); i++) {
+            byte[] data = new byte[config.getImageBytes()];
+            random.nextBytes(data);
+            String hash = HexFormat.of().formatHex(BlobRef.newDigest().digest(data));
+            images.add(new Image(hash, data));
+            pendingUploads.put(hash, data.length);
+        }
+        runStep("upload images", images.size(), () -> {
+            for (Image image : images) {
+                users[0].upload(image.hash(), image.data());
+            }
+        });
+        LOG.info("Setup finished in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void connectAll(List<SimulatedUser> batch) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, config.getConnectThreads()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (SimulatedUser user : batch) {
+                futures.add(pool.submit(() -> {
+                    user.connect();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 执行准备阶段的一步并等待服务器全部确认
+     * @param name 步骤名，用于日志
+     * @param expected 需要的确认数
+     * @param step 发出请求的动作
+     */
+    private void runStep(String name, int expected, Runnable step) throws IOException {
+        CountDownLatch latch = new CountDownLatch(expected);
+        setupLatch = latch;
+        step.run();
+        try {
+            if (!latch.await(SETUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException("Timed out during setup step '" + name + "', "
+                    + latch.getCount() + " of " + expected + " confirmations missing");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during setup step '" + name + "'", e);
+        }
+        LOG.debug("Setup step '{}' done ({} confirmations)", name, expected);
+    }
+
+    /**
+     * 按配置的时长发送负载并输出报告
+     */
+    public void run() throws InterruptedException {
+        stats.reset();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(1, config.getSenderThreads()));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long rampUpMillis = TimeUnit.SECONDS.toMillis(config.getRampUpSeconds());
+        for (SimulatedUser user : users) {
+            long delay = rampUpMillis > 0 ? random.nextLong(rampUpMillis) : 0;
+            scheduler.schedule(() -> act(scheduler, user), delay, TimeUnit.MILLISECONDS);
+        }
+
+        long start = System.nanoTime();
+        long[] last = {start, 0, 0}; // 上次报告的时刻、发送总数、送达总数
+        scheduler.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            long sent = stats.getSent();
+            long delivered = stats.getDelivered();
+            LOG.info("{}", stats.progress((now - last[0]) / 1e9, last[1], last[2]));
+            last[0] = now;
+            last[1] = sent;
+            last[2] = delivered;
+        }, config.getReportSeconds(), Math.max(1, config.getReportSeconds()), TimeUnit.SECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.getDurationSeconds()));
+        stopping = true;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        Thread.sleep(DRAIN_MILLIS);
+        LOG.info("Load test finished ({})\n{}", config, stats.report(seconds));
+    }
+
+    /**
+     * 执行用户的一个动作并按思考时间安排下一个
+     */
+    private void act(ScheduledExecutorService scheduler, SimulatedUser user) {
+        if (stopping) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        user.perform(config.pickAction(random));
+        if (!stopping) {
+            scheduler.schedule(() -> act(scheduler, user), config.nextThinkMillis(random), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 关闭所有连接
+     */
+    public void close() {
+        for (SimulatedUser user : users) {
+            user.close();
+        }
+    }
+
+    /**
+     * 主方法，程序入口点
+     * @param args 命令行参数（未使用，参数通过系统属性传入）
+     */
+    public static void main(String[] args) {
+        LoadGenerator generator = null;
+        try {
+            LoadConfig config = LoadConfig.fromSystemProperties();
+            LOG.info("Starting load test: {}", config);
+            generator = new LoadGenerator(config);
+            generator.setup();
+            generator.run();
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Load test failed: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (generator != null) {
+                generator.close();
+            }
+            Log.flush(1000);
+        }
+    }
+}
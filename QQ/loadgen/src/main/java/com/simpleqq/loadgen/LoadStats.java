@@ -0,0 +1,138 @@
+package com.simpleqq.loadgen;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.simpleqq.common.LatencyHistogram;
+import com.simpleqq.loadgen.LoadConfig.Action;
+
+/**
+ * 压测统计
+ * 按动作分别统计发送数、送达数和端到端延迟，所有计数都可以被发送线程和各连接的接收线程并发更新。
+ * 文本、群聊和图片的延迟是发送方写出到接收方读到的时间，群消息每个接收者各记一次；
+ * 好友请求的延迟是发出请求到收到对方拒绝的往返时间。
+ */
+public class LoadStats {
+    private final Map<Action, LongAdder> sent = new EnumMap<>(Action.class);           // 各动作的发送数
+    private final Map<Action, LongAdder> delivered = new EnumMap<>(Action.class);      // 各动作的送达数
+    private final Map<Action, LatencyHistogram> latency = new EnumMap<>(Action.class); // 各动作的端到端延迟（纳秒）
+    private final LatencyHistogram windowLatency = new LatencyHistogram(); // 当前报告周期内所有动作的延迟
+    private final LongAdder blobBytes = new LongAdder();      // 接收方下载的图片字节数
+    private final LongAdder notices = new LongAdder();        // 服务器回复的提示消息数（失败、对方离线等）
+    private final LongAdder sendFailures = new LongAdder();   // 写出失败的次数
+    private final LongAdder disconnects = new LongAdder();    // 压测期间意外断开的连接数
+
+    public LoadStats() {
+        for (Action action : Action.values()) {
+            sent.put(action, new LongAdder());
+            delivered.put(action, new LongAdder());
+            latency.put(action, new LatencyHistogram());
+        }
+    }
+
+    void recordSent(Action action) {
+        sent.get(action).increment();
+    }
+
+    /**
+     * 记录一次送达
+     * @param action 动作
+     * @param nanos 端到端延迟（纳秒）
+     */
+    void recordDelivered(Action action, long nanos) {
+        delivered.get(action).increment();
+        latency.get(action).record(nanos);
+        windowLatency.record(nanos);
+    }
+
+    void recordBlobBytes(int bytes) {
+        blobBytes.add(bytes);
+    }
+
+    void recordNotice() {
+        notices.increment();
+    }
+
+    void recordSendFailure() {
+        sendFailures.increment();
+    }
+
+    void recordDisconnect() {
+        disconnects.increment();
+    }
+
+    public long getSent() {
+        long total = 0;
+        for (LongAdder adder : sent.values()) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    public long getDelivered() {
+        long total = 0;
+        for (LongAdder adder : delivered.values()) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    public LatencyHistogram getLatency(Action action) {
+        return latency.get(action);
+    }
+
+    /**
+     * 清空所有统计，准备阶段结束、正式计时前调用
+     */
+    void reset() {
+        for (Action action : Action.values()) {
+            sent.get(action).reset();
+            delivered.get(action).reset();
+            latency.get(action).reset();
+        }
+        windowLatency.reset();
+        blobBytes.reset();
+        notices.reset();
+        sendFailures.reset();
+        disconnects.reset();
+    }
+
+    /**
+     * 生成一行周期进度并开始新的周期
+     * @param seconds 距离上次报告的秒数
+     * @param lastSent 上次报告时的发送总数
+     * @param lastDelivered 上次报告时的送达总数
+     * @return 进度描述
+     */
+    String progress(double seconds, long lastSent, long lastDelivered) {
+        String line = String.format("sent=%.0f/s delivered=%.0f/s p50=%dus p99=%dus max=%dus notices=%d disconnects=%d",
+            (getSent() - lastSent) / seconds, (getDelivered() - lastDelivered) / seconds,
+            windowLatency.percentile(50) / 1000, windowLatency.percentile(99) / 1000, windowLatency.getMax() / 1000,
+            notices.sum(), disconnects.sum());
+        windowLatency.reset();
+        return line;
+    }
+
+    /**
+     * 生成最终报告
+     * @param seconds 正式计时的秒数
+     * @return 多行报告
+     */
+    String report(double seconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Throughput: sent=%.1f/s delivered=%.1f/s over %.1fs%n",
+            getSent() / seconds, getDelivered() / seconds, seconds));
+        for (Action action : Action.values()) {
+            long count = sent.get(action).sum();
+            if (count == 0) {
+                continue;
+            }
+            sb.append(String.format("  %-6s sent=%d delivered=%d %s%n", action.name().toLowerCase(), count,
+                delivered.get(action).sum(), latency.get(action).summary()));
+        }
+        sb.append(String.format("Image bytes downloaded=%d, server notices=%d, send failures=%d, disconnects=%d",
+            blobBytes.sum(), notices.sum(), sendFailures.sum(), disconnects.sum()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,254 @@
+package com.simpleqq.loadgen;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.simpleqq.common.BlobRef;
+import com.simpleqq.common.FramedMessageStream;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.WireProtocol;
+import com.simpleqq.loadgen.LoadConfig.Action;
+
+/**
+ * 一个模拟用户
+ * 持有一条分帧协议连接，由发送线程调度执行动作，由自己的接收线程处理服务器推送：
+ * 记录收到的消息的端到端延迟、下载收到的图片、自动接受计划内的好友请求和群邀请、拒绝其它好友请求。
+ * 消息内容以发送时刻的LoadGenerator.clock()开头，发送方和接收方在同一进程内，可以直接相减得到延迟。
+ */
+class SimulatedUser {
+    private static final Logger LOG = Log.getLogger(SimulatedUser.class);
+    private static final long READER_STACK_BYTES = 256 * 1024; // 接收线程栈大小，数千个连接时控制内存占用
+    private static final String PASSWORD = "pwd";
+
+    private final LoadGenerator generator;
+    private final int index;                              // 用户编号
+    private final String id;                              // 用户ID
+    private final ReentrantLock writeLock = new ReentrantLock(); // 发送线程和接收线程都会写出
+    private final Map<String, Long> pendingFriendRequests = new ConcurrentHashMap<>(); // 目标用户 -> 发出请求的时刻
+    private Socket socket;
+    private FramedMessageStream stream;
+    private volatile boolean closed;
+
+    SimulatedUser(LoadGenerator generator, int index) {
+        this.generator = generator;
+        this.index = index;
+        this.id = generator.userId(index);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * 建立连接、注册并登录，登录成功后启动接收线程
+     * 用户已存在时注册失败，直接用相同的密码登录
+     * @throws IOException 连接失败或登录被拒绝时抛出
+     */
+    void connect() throws IOException {
+        LoadConfig config = generator.getConfig();
+        socket = new Socket(config.getHost(), config.getPort());
+        socket.setTcpNoDelay(true);
+        stream = FramedMessageStream.connect(socket, WireProtocol.MAX_VERSION);
+        stream.write(new Message(MessageType.REGISTER, id, "Server", id + "," + id + "," + PASSWORD));
+        stream.write(new Message(MessageType.LOGIN, id, "Server", id + "," + PASSWORD));
+        while (true) {
+            Message message = stream.read();
+            if (message.getType() == MessageType.LOGIN_SUCCESS) {
+                break;
+            }
+            if (message.getType() == MessageType.LOGIN_FAIL) {
+                throw new IOException("Login failed for " + id + ": " + message.getContent());
+            }
+        }
+        Thread reader = new Thread(null, this::readLoop, "loadgen-" + id, READER_STACK_BYTES);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * 关闭连接，接收线程随之退出
+     */
+    void close() {
+        closed = true;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // 关闭时的异常无需处理
+        }
+    }
+
+    /**
+     * 写出一条消息
+     * @return 写出失败（连接已断开）时返回false
+     */
+    boolean send(Message message) {
+        writeLock.lock();
+        try {
+            stream.write(message);
+            return true;
+        } catch (IOException e) {
+            if (!closed) {
+                generator.getStats().recordSendFailure();
+            }
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void createGroup(String groupId) {
+        send(new Message(MessageType.CREATE_GROUP, id, "Server", groupId));
+    }
+
+    void inviteToGroup(String invitedId, String groupId) {
+        send(new Message(MessageType.GROUP_INVITE, id, invitedId, groupId));
+    }
+
+    void requestFriend(String targetId) {
+        send(new Message(MessageType.FRIEND_REQUEST, id, targetId, ""));
+    }
+
+    /**
+     * 上传一张图片，所有数据块连续发出，服务器按顺序确认
+     */
+    void upload(String hash, byte[] data) {
+        int offset = 0;
+        do {
+            int length = Math.min(BlobRef.CHUNK_SIZE, data.length - offset);
+            byte[] chunk = new byte[length];
+            System.arraycopy(data, offset, chunk, 0, length);
+            Message message = new Message(MessageType.BLOB_UPLOAD, id, "Server", hash + "," + data.length + "," + offset);
+            message.setPayload(chunk);
+            send(message);
+            offset += length;
+        } while (offset < data.length);
+    }
+
+    /**
+     * 执行一个动作，由发送线程调用
+     * @param action 动作
+     */
+    void perform(Action action) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LoadConfig config = generator.getConfig();
+        Message message;
+        switch (action) {
+            case TEXT -> message = new Message(MessageType.TEXT_MESSAGE, id, generator.randomFriend(index, random),
+                generator.clock() + " " + generator.getPadding());
+            case GROUP -> message = new Message(MessageType.GROUP_MESSAGE, id, generator.groupId(index),
+                generator.clock() + " " + generator.getPadding());
+            case IMAGE -> {
+                LoadGenerator.Image image = generator.randomImage(random);
+                // 与真实客户端一样先查询上传进度，图片已在准备阶段上传，服务器直接确认已完成
+                send(new Message(MessageType.BLOB_UPLOAD, id, "Server", image.hash() + "," + config.getImageBytes() + ",0"));
+                BlobRef ref = new BlobRef(image.hash(), config.getImageBytes(), "lg-" + generator.clock() + ".png");
+                message = new Message(MessageType.IMAGE_MESSAGE, id, generator.randomFriend(index, random), ref.encode());
+            }
+            case FRIEND -> {
+                String target = generator.randomStranger(index, random);
+                if (target == null) {
+                    return; // 所有用户都已是好友
+                }
+                pendingFriendRequests.put(target, System.nanoTime());
+                message = new Message(MessageType.FRIEND_REQUEST, id, target, "");
+            }
+            default -> throw new IllegalArgumentException("Unknown action: " + action);
+        }
+        if (send(message)) {
+            generator.getStats().recordSent(action);
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                handle(stream.read());
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOG.warn("User {} disconnected: {}", id, e.getMessage());
+                generator.getStats().recordDisconnect();
+            }
+        }
+    }
+
+    private void handle(Message message) {
+        LoadStats stats = generator.getStats();
+        switch (message.getType()) {
+            case TEXT_MESSAGE -> recordLatency(Action.TEXT, message.getContent(), 0);
+            case GROUP_MESSAGE -> recordLatency(Action.GROUP, message.getContent(), 0);
+            case IMAGE_MESSAGE -> {
+                BlobRef ref = BlobRef.parse(message.getContent());
+                if (ref != null) {
+                    recordLatency(Action.IMAGE, ref.getName(), "lg-".length());
+                    download(ref);
+                }
+            }
+            case BLOB_DATA -> {
+                if (message.getPayload() != null) {
+                    stats.recordBlobBytes(message.getPayload().length);
+                }
+            }
+            case BLOB_UPLOAD_ACK -> generator.onUploadAck(message.getContent());
+            case FRIEND_REQUEST -> {
+                String requesterId = message.getSenderId();
+                MessageType reply = generator.isPlannedFriend(index, requesterId)
+                    ? MessageType.FRIEND_ACCEPT : MessageType.FRIEND_REJECT;
+                send(new Message(reply, id, requesterId, ""));
+            }
+            case FRIEND_ACCEPT -> generator.setupStepDone();
+            case FRIEND_REJECT -> {
+                Long start = pendingFriendRequests.remove(message.getSenderId());
+                if (start != null) {
+                    stats.recordDelivered(Action.FRIEND, System.nanoTime() - start);
+                }
+            }
+            case GROUP_INVITE -> send(new Message(MessageType.GROUP_ACCEPT, id, "Server", message.getContent()));
+            case CREATE_GROUP_SUCCESS, GROUP_JOIN_SUCCESS -> generator.setupStepDone();
+            case CREATE_GROUP_FAIL, GROUP_JOIN_FAIL -> {
+                LOG.warn("User {} group setup failed: {}", id, message.getContent());
+                generator.setupStepDone();
+            }
+            case SERVER_MESSAGE -> stats.recordNotice();
+            default -> {
+                // 好友列表、群组列表等推送与压测无关
+            }
+        }
+    }
+
+    /**
+     * 从文本开头解析发送时刻并记录延迟，不是压测发出的消息时忽略
+     */
+    private void recordLatency(Action action, String text, int from) {
+        if (text == null) {
+            return;
+        }
+        long sentAt = 0;
+        int i = from;
+        while (i < text.length() && Character.isDigit(text.charAt(i))) {
+            sentAt = sentAt * 10 + (text.charAt(i) - '0');
+            i++;
+        }
+        if (i > from) {
+            generator.getStats().recordDelivered(action, generator.clock() - sentAt);
+        }
+    }
+
+    /**
+     * 像真实客户端一样下载收到的图片，所有数据块请求连续发出
+     */
+    private void download(BlobRef ref) {
+        for (long offset = 0; offset < ref.getSize(); offset += BlobRef.CHUNK_SIZE) {
+            send(new Message(MessageType.BLOB_REQUEST, id, "Server", ref.getHash() + "," + offset));
+        }
+    }
+}
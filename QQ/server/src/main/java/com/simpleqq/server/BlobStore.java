@@ -0,0 +1,333 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.simpleqq.common.BlobRef;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+
+/**
+ * 内容寻址的图片存储
+ * 完整的图片保存为baseDir/摘要前两位/摘要，内容不可变；上传中的数据追加到baseDir/tmp/摘要.part，
+ * 收齐后校验SHA-256再移动到最终位置。相同的图片只保存一份，已存在的图片再次上传时直接报告完成。
+ * 摘要随数据块增量计算，完成时不需要重新读取整个文件；未完成的上传在服务器重启后保留，
+ * 客户端可以从已接收的位置继续，此时先读取已接收的部分恢复摘要状态。
+ *
+ * 上传按摘要分段加锁，不同图片的上传并行写盘。每个用户未完成上传的数据总量有上限，
+ * 上传中的数据记在最近写入它的用户名下；超过partTtlMillis没有写入的未完成上传被删除，
+ * 清理在写入时顺带进行，每SWEEP_INTERVAL_MILLIS最多一次。
+ */
+public class BlobStore {
+    private static final Logger LOG = Log.getLogger(BlobStore.class);
+    public static final long DEFAULT_PART_TTL_MILLIS = 24L * 60 * 60 * 1000; // 未完成上传的默认保留时间
+    private static final long SWEEP_INTERVAL_MILLIS = 60_000;  // 清理过期上传的最小间隔
+    private static final String TMP_DIR = "tmp";          // 上传中的临时文件目录
+    private static final String PART_SUFFIX = ".part";
+
+    private final Path baseDir;                           // 存储根目录
+    private final long maxBlobBytes;                      // 单个图片的最大字节数
+    private final long maxPendingBytesPerUser;            // 每个用户未完成上传的最大字节数
+    private final long partTtlMillis;                     // 未完成上传的保留时间
+    private final StripedLock locks = new StripedLock(StripedLock.DEFAULT_STRIPES); // 按摘要分段的上传锁
+    private final Map<String, Part> parts = new ConcurrentHashMap<>(); // 进行中的上传，各项由所在段的锁保护
+    private final Map<String, Long> pendingBytes = new ConcurrentHashMap<>(); // 用户 -> 名下未完成上传的字节数
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis()); // 上次清理时间
+
+    /**
+     * 进行中的上传
+     */
+    private static final class Part {
+        final MessageDigest digest;   // 已接收部分的摘要状态
+        String owner;                 // 计入其名下的用户
+        long charged;                 // 计入owner名下的字节数
+
+        Part(MessageDigest digest) {
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * 构造函数，每个用户未完成上传的上限为单个图片上限的4倍，未完成上传保留一天
+     * @param baseDir 存储根目录
+     * @param maxBlobBytes 单个图片的最大字节数
+     */
+    public BlobStore(Path baseDir, long maxBlobBytes) {
+        this(baseDir, maxBlobBytes, 4 * maxBlobBytes, DEFAULT_PART_TTL_MILLIS);
+    }
+
+    /**
+     * 构造函数
+     * @param baseDir 存储根目录
+     * @param maxBlobBytes 单个图片的最大字节数
+     * @param maxPendingBytesPerUser 每个用户未完成上传的最大字节数
+     * @param partTtlMillis 未完成上传多久没有写入后被删除
+     */
+    public BlobStore(Path baseDir, long maxBlobBytes, long maxPendingBytesPerUser, long partTtlMillis) {
+        this.baseDir = baseDir;
+        this.maxBlobBytes = maxBlobBytes;
+        this.maxPendingBytesPerUser = maxPendingBytesPerUser;
+        this.partTtlMillis = partTtlMillis;
+    }
+
+    /**
+     * 判断图片是否已完整保存
+     */
+    public boolean contains(String hash) {
+        return BlobRef.isValidHash(hash) && Files.exists(blobPath(hash));
+    }
+
+    /**
+     * 获取已保存图片的字节数
+     * @return 字节数，图片不存在时返回-1
+     */
+    public long size(String hash) throws IOException {
+        if (!contains(hash)) {
+            return -1;
+        }
+        return Files.size(blobPath(hash));
+    }
+
+    /**
+     * 写入一块上传数据
+     * 只接受从已接收位置开始的数据块，其它位置的数据块被忽略，调用方把返回值告诉客户端以便重新同步
+     * @param userId 上传的用户
+     * @param hash 图片摘要
+     * @param size 图片总字节数
+     * @param offset 数据块在图片中的偏移
+     * @param data 数据块，null表示只查询进度
+     * @return 已接收的字节数，等于size时上传完成
+     * @throws IllegalArgumentException 摘要非法、大小超过上限、数据块越过总字节数或用户未完成的上传过多时抛出
+     * @throws IOException 写入失败或收齐后摘要不符时抛出，摘要不符时已接收的数据被丢弃
+     */
+    public long write(String userId, String hash, long size, long offset, byte[] data) throws IOException {
+        if (!BlobRef.isValidHash(hash)) {
+            throw new IllegalArgumentException("Invalid blob hash: " + hash);
+        }
+        if (size < 0 || size > maxBlobBytes) {
+            throw new IllegalArgumentException("Blob size out of range: " + size);
+        }
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL_MILLIS && lastSweep.compareAndSet(last, now)) {
+            expireStaleParts();
+        }
+        locks.lock(hash);
+        try {
+            Path blob = blobPath(hash);
+            if (Files.exists(blob)) {
+                return Files.size(blob); // 已有相同内容的图片
+            }
+            Path part = partPath(hash);
+            long received = Files.exists(part) ? Files.size(part) : 0;
+            if (received > size) {
+                Files.delete(part); // 之前的上传声明了不同的大小
+                dropPart(hash);
+                received = 0;
+            }
+            if (data != null && data.length > 0 && offset == received) {
+                if (received + data.length > size) {
+                    throw new IllegalArgumentException("Chunk exceeds blob size: " + (received + data.length) + " > " + size);
+                }
+                Part state = partOf(hash, part);
+                charge(state, userId, data.length);
+                Files.createDirectories(part.getParent());
+                try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    dropPart(hash); // 可能只写入了一部分，下次从文件重建摘要
+                    throw e;
+                }
+                state.digest.update(data);
+                received += data.length;
+            }
+            if (received == size) {
+                complete(hash, part, blob);
+            }
+            return received;
+        } finally {
+            locks.unlock(hash);
+        }
+    }
+
+    /**
+     * 把上传中的数据和即将写入的数据块记到userId名下
+     * 之前由其他用户写入的部分随之转到userId名下
+     * @throws IllegalArgumentException 超过用户未完成上传的上限时抛出，此时不做任何修改
+     */
+    private void charge(Part state, String userId, long bytes) {
+        long moved = userId.equals(state.owner) ? 0 : state.charged;
+        if (!reserve(userId, moved + bytes)) {
+            throw new IllegalArgumentException("Too many unfinished uploads for " + userId);
+        }
+        if (moved > 0 && state.owner != null) {
+            release(state.owner, moved);
+        }
+        state.owner = userId;
+        state.charged += bytes;
+    }
+
+    private boolean reserve(String userId, long bytes) {
+        boolean[] reserved = {false};
+        pendingBytes.compute(userId, (user, current) -> {
+            long total = (current == null ? 0 : current) + bytes;
+            if (total > maxPendingBytesPerUser) {
+                return current;
+            }
+            reserved[0] = true;
+            return total;
+        });
+        return reserved[0];
+    }
+
+    private void release(String userId, long bytes) {
+        pendingBytes.computeIfPresent(userId, (user, current) -> current > bytes ? current - bytes : null);
+    }
+
+    /**
+     * 丢弃上传的内存状态并退还计入的字节数，调用时必须持有该摘要的锁
+     */
+    private void dropPart(String hash) {
+        Part state = parts.remove(hash);
+        if (state != null && state.owner != null) {
+            release(state.owner, state.charged);
+        }
+    }
+
+    /**
+     * 获取用户名下未完成上传的字节数
+     */
+    public long getPendingBytes(String userId) {
+        return pendingBytes.getOrDefault(userId, 0L);
+    }
+
+    /**
+     * 删除超过保留时间没有写入的未完成上传
+     */
+    void expireStaleParts() {
+        Path tmp = baseDir.resolve(TMP_DIR);
+        if (!Files.isDirectory(tmp)) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - partTtlMillis;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tmp, "*" + PART_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String hash = name.substring(0, name.length() - PART_SUFFIX.length());
+                if (!BlobRef.isValidHash(hash)) {
+                    continue;
+                }
+                locks.lock(hash);
+                try {
+                    if (Files.exists(file) && Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                        Files.delete(file);
+                        dropPart(hash);
+                        LOG.info("Removed unfinished upload {}", hash);
+                    }
+                } finally {
+                    locks.unlock(hash);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to remove unfinished uploads in {}: {}", tmp, e.getMessage());
+        }
+    }
+
+    /**
+     * 校验收齐的数据并移动到最终位置
+     */
+    private void complete(String hash, Path part, Path blob) throws IOException {
+        if (!Files.exists(part)) {
+            Files.createDirectories(part.getParent());
+            Files.createFile(part); // 空图片
+        }
+        String actual = HexFormat.of().formatHex(partOf(hash, part).digest.digest());
+        dropPart(hash);
+        if (!actual.equals(hash)) {
+            Files.delete(part);
+            throw new IOException("Blob hash mismatch: expected " + hash + " but was " + actual);
+        }
+        Files.createDirectories(blob.getParent());
+        Files.move(part, blob, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 获取上传中数据的状态，服务器重启后首次使用时读取已接收的部分重建摘要
+     * 重建的状态还没有计入任何用户名下，下一次写入时整体计入写入者名下
+     */
+    private Part partOf(String hash, Path part) throws IOException {
+        Part state = parts.get(hash);
+        if (state == null) {
+            MessageDigest digest = BlobRef.newDigest();
+            long existing = 0;
+            if (Files.exists(part)) {
+                byte[] buffer = new byte[BlobRef.CHUNK_SIZE];
+                try (InputStream in = Files.newInputStream(part)) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, n);
+                        existing += n;
+                    }
+                }
+            }
+            state = new Part(digest);
+            state.charged = existing;
+            parts.put(hash, state);
+        }
+        return state;
+    }
+
+    /**
+     * 读取已保存图片的一块数据
+     * @param hash 图片摘要
+     * @param offset 起始偏移
+     * @param maxLength 最多读取的字节数
+     * @return 数据块，偏移位于末尾时为空数组；图片不存在时返回null
+     */
+    public byte[] read(String hash, long offset, int maxLength) throws IOException {
+        if (!contains(hash)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(blobPath(hash), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (offset < 0 || offset > size) {
+                throw new IllegalArgumentException("Offset out of range: " + offset);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(maxLength, size - offset));
+            readFully(channel, buffer, offset, hash);
+            return buffer.array();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, String hash) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Blob file truncated: " + hash);
+            }
+        }
+    }
+
+    private Path blobPath(String hash) {
+        return baseDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path partPath(String hash) {
+        return baseDir.resolve(TMP_DIR).resolve(hash + PART_SUFFIX);
+    }
+}
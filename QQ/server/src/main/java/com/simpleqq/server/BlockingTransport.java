@@ -0,0 +1,123 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+
+/**
+ * 阻塞式传输层
+ * 使用ServerSocket接受连接，为每个连接创建独立的ClientHandler线程；
+ * 指定执行器时（如虚拟线程执行器），ClientHandler的读循环改为提交到执行器运行。
+ * 每个连接的发送队列由写出执行器上的任务批量写出：平台线程模式使用共享的缓存线程池，
+ * 虚拟线程模式下写出任务同样运行在虚拟线程上
+ */
+public class BlockingTransport implements ServerTransport {
+    private static final Logger LOG = Log.getLogger(BlockingTransport.class);
+
+    private final Server server;               // 服务器实例引用
+    private final ExecutorService handlerExecutor; // 运行读循环的执行器，为null时每个连接启动一个平台线程
+    private final ExecutorService writerExecutor;  // 运行发送队列写出任务的执行器
+    private ServerSocket serverSocket;         // 监听Socket
+    private Thread acceptor;                   // 接受连接的线程
+
+    public BlockingTransport(Server server) {
+        this(server, null);
+    }
+
+    /**
+     * 构造函数
+     * @param server 服务器实例
+     * @param handlerExecutor 运行每个连接读循环的执行器
+     */
+    public BlockingTransport(Server server, ExecutorService handlerExecutor) {
+        this(server, handlerExecutor, newWriterPool());
+    }
+
+    /**
+     * 构造函数
+     * @param server 服务器实例
+     * @param handlerExecutor 运行每个连接读循环的执行器，为null时每个连接启动一个平台线程
+     * @param writerExecutor 运行发送队列写出任务的执行器
+     */
+    public BlockingTransport(Server server, ExecutorService handlerExecutor, ExecutorService writerExecutor) {
+        this.server = server;
+        this.handlerExecutor = handlerExecutor;
+        this.writerExecutor = writerExecutor;
+    }
+
+    /**
+     * 平台线程模式下的写出线程池，空闲线程60秒后回收
+     */
+    private static ExecutorService newWriterPool() {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "simpleqq-writer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        acceptor = new Thread(this::acceptLoop, "simpleqq-acceptor");
+        acceptor.start();
+    }
+
+    /**
+     * 持续监听客户端连接请求
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void acceptLoop() {
+        try {
+            while (!serverSocket.isClosed()) {
+                // 等待客户端连接
+                Socket clientSocket = serverSocket.accept();
+                LOG.info("New client connected: {}", clientSocket.getInetAddress().getHostAddress());
+
+                if (handlerExecutor != null) {
+                    // 流的建立与读循环都在执行器线程中完成，不阻塞接受线程
+                    handlerExecutor.execute(() -> new ClientHandler(clientSocket, server, writerExecutor).run());
+                } else {
+                    // 为每个客户端创建独立的处理线程
+                    new ClientHandler(clientSocket, server, writerExecutor).start();
+                }
+            }
+        } catch (IOException e) {
+            if (!serverSocket.isClosed()) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    @Override
+    public void awaitTermination() throws InterruptedException {
+        if (acceptor != null) {
+            acceptor.join();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close server socket: {}", e.getMessage());
+        }
+        if (handlerExecutor != null) {
+            handlerExecutor.shutdownNow(); // 中断阻塞在读取上的虚拟线程
+        }
+        writerExecutor.shutdownNow();
+    }
+}
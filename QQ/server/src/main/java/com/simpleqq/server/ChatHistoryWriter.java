@@ -0,0 +1,474 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.simpleqq.common.BinaryMessageCodec;
+import com.simpleqq.common.HistoryPage;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageCodec;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * 聊天记录写入器（组提交预写日志）
+ * 所有处理线程把消息放入队列后立即返回一个Future，由单个写入线程批量取出：
+ * 一批记录通过同一个FileChannel一次写入chat.wal，再按FsyncPolicy决定是否fsync，
+ * 记录被刷盘（或策略为never时写入操作系统缓存）后Future以记录序号完成，即该消息的持久化点。
+ *
+ * 日志记录格式：[4字节负载长度][4字节CRC32][8字节序号][二进制编码的消息]，CRC覆盖序号和负载。
+ * 启动时扫描日志恢复序号，末尾不完整或校验失败的记录被截断。
+ *
+ * 预写日志是聊天记录的持久化来源；写入线程同时把每批记录追加到.history/conversations下
+ * 按会话分段的SegmentedHistoryStore，分页查询readHistory()只读取该存储中目标位置附近的记录。
+ * 分段存储平时不单独刷盘，启动时把检查点之后的日志记录重放进去。
+ *
+ * 日志超过checkpointBytes后，写入线程在所有记录都已完成时做一次检查点：分段存储刷盘并记录当前最大序号，
+ * 然后把日志截断为空。日志因此不会无限增长，启动时也只需重放上次检查点之后的记录；
+ * 检查点写入后、截断前崩溃留下的旧记录在启动时只校验不解码。
+ */
+public class ChatHistoryWriter implements AutoCloseable {
+    private static final Logger LOG = Log.getLogger(ChatHistoryWriter.class);
+    public static final String WAL_FILE_NAME = "chat.wal";              // 预写日志文件名
+    public static final String CONVERSATIONS_DIR = "conversations";     // 分段存储目录名
+    private static final String PRIVATE_CONVERSATION_PREFIX = "private:"; // 私聊会话ID前缀
+    private static final String GROUP_CONVERSATION_PREFIX = "group:";     // 群聊会话ID前缀
+    static final int RECORD_HEADER_LENGTH = 16;                         // 记录头：长度 + CRC + 序号
+    private static final int MAX_BATCH = 1024;                          // 单次组提交的最大记录数
+    private static final long MAX_RECORDS_SYNC_DELAY_MS = 1000;         // records策略下未凑满N条时的最长刷盘延迟
+    public static final long DEFAULT_CHECKPOINT_BYTES = 64L * 1024 * 1024; // 日志超过该大小后做检查点并截断
+
+    private final FsyncPolicy policy;                                   // 刷盘策略
+    private final MessageCodec codec = new BinaryMessageCodec();        // 日志记录编码
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>(); // 待写入的记录
+    private final FileChannel channel;                                  // 预写日志通道
+    private final Thread writerThread;                                  // 写入线程
+    private final SegmentedHistoryStore store;                          // 按会话分段的聊天记录存储
+    private final long checkpointBytes;                                 // 触发检查点的日志大小
+    private long nextSequence;                                          // 下一条记录的序号，仅写入线程访问
+    private boolean storeBehind;                                        // 分段存储是否缺少记录（追加失败），仅写入线程访问
+    private volatile long durableSequence;                              // 已持久化的最大序号
+    private volatile boolean closed;                                    // 是否已关闭
+
+    /**
+     * 等待写入的记录
+     */
+    private static final class PendingRecord {
+        final Message message;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        long sequence;
+
+        PendingRecord(Message message) {
+            this.message = message;
+        }
+    }
+
+    private static final PendingRecord CLOSE = new PendingRecord(null); // 关闭标记
+
+    /**
+     * 构造函数，打开（或创建）预写日志并启动写入线程
+     * @param historyDir 聊天记录目录
+     * @param policy 刷盘策略
+     * @throws IOException 日志文件无法打开或恢复时抛出
+     */
+    public ChatHistoryWriter(Path historyDir, FsyncPolicy policy) throws IOException {
+        this(historyDir, policy, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * 构造函数，打开（或创建）预写日志并启动写入线程
+     * @param historyDir 聊天记录目录
+     * @param policy 刷盘策略
+     * @param checkpointBytes 日志超过该大小后做检查点并截断
+     * @throws IOException 日志文件无法打开或恢复时抛出
+     */
+    public ChatHistoryWriter(Path historyDir, FsyncPolicy policy, long checkpointBytes) throws IOException {
+        this.policy = policy;
+        this.checkpointBytes = checkpointBytes;
+        Files.createDirectories(historyDir);
+        store = new SegmentedHistoryStore(historyDir.resolve(CONVERSATIONS_DIR),
+            SegmentedHistoryStore.DEFAULT_SEGMENT_BYTES);
+        channel = FileChannel.open(historyDir.resolve(WAL_FILE_NAME),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long recovered = Math.max(recover(), store.getCheckpoint());
+        nextSequence = Math.max(recovered, store.getSequenceFloor()) + 1;
+        durableSequence = nextSequence - 1;
+        writerThread = new Thread(this::writeLoop, "simpleqq-history-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 扫描日志找到最后一条完整记录，截断其后的残缺数据，
+     * 同时把检查点之后、分段存储中缺少的记录重放进去
+     * @return 检查点之后最大的记录序号，没有这样的记录返回0
+     */
+    private long recover() throws IOException {
+        long[] last = {0};
+        long validEnd = scan(channel, store.getCheckpoint(), (sequence, position, message) -> {
+            last[0] = Math.max(last[0], sequence);
+            String conversationId = conversationId(message);
+            if (conversationId != null) {
+                store.append(conversationId, sequence, message);
+            }
+        });
+        if (validEnd < channel.size()) {
+            LOG.warn("Truncating {} bytes of torn chat log tail.", channel.size() - validEnd);
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+        return last[0];
+    }
+
+    /**
+     * 日志记录回调
+     */
+    interface RecordVisitor {
+        void visit(long sequence, long position, Message message) throws IOException;
+    }
+
+    /**
+     * 从头顺序扫描日志
+     * @param channel 日志通道
+     * @param visitor 每条完整记录的回调
+     * @return 最后一条完整记录之后的位置
+     */
+    static long scan(FileChannel channel, RecordVisitor visitor) throws IOException {
+        return scan(channel, 0, visitor);
+    }
+
+    /**
+     * 从头顺序扫描日志，序号不大于checkpoint的记录只校验不解码
+     * @param channel 日志通道
+     * @param checkpoint 检查点序号
+     * @param visitor 检查点之后每条完整记录的回调
+     * @return 最后一条完整记录之后的位置
+     */
+    static long scan(FileChannel channel, long checkpoint, RecordVisitor visitor) throws IOException {
+        MessageCodec codec = new BinaryMessageCodec();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        long position = 0;
+        long size = channel.size();
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_LENGTH <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            int storedCrc = header.getInt(4);
+            long sequence = header.getLong(8);
+            if (length < 0 || length > WireProtocol.MAX_FRAME_LENGTH
+                    || position + RECORD_HEADER_LENGTH + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + RECORD_HEADER_LENGTH);
+            crc.reset();
+            crc.update(header.array(), 8, 8);
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != storedCrc) {
+                break;
+            }
+            if (sequence > checkpoint) {
+                visitor.visit(sequence, position, codec.decode(payload.array(), 0, length));
+            }
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        return position;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of chat log");
+            }
+        }
+    }
+
+    /**
+     * 追加一条聊天记录
+     * @param message 聊天消息，提交后不得再修改
+     * @return 记录持久化后以序号完成的Future；写入失败时异常完成
+     */
+    public CompletableFuture<Long> append(Message message) {
+        PendingRecord record = new PendingRecord(message);
+        if (closed) {
+            record.future.completeExceptionally(new IOException("Chat history writer is closed"));
+            return record.future;
+        }
+        queue.add(record);
+        return record.future;
+    }
+
+    /**
+     * 分页读取某个会话的聊天记录
+     * 只返回已持久化的记录，由分段存储的稀疏索引定位，不扫描整个会话
+     * @param group 是否为群聊
+     * @param userId 请求者ID
+     * @param target 好友ID或群组ID
+     * @param beforeSequence 只返回序号小于该值的记录，0或负数表示从最新的记录开始
+     * @param limit 最多返回的条数
+     * @return 从旧到新排列的分页数据
+     */
+    public HistoryPage readHistory(boolean group, String userId, String target, long beforeSequence, int limit)
+            throws IOException {
+        long durableEnd = durableSequence + 1;
+        long before = beforeSequence <= 0 ? durableEnd : Math.min(beforeSequence, durableEnd);
+        SegmentedHistoryStore.Slice slice = store.readBefore(conversationId(group, userId, target), before, limit);
+        for (Message message : slice.getMessages()) {
+            if (message.getType() == MessageType.GROUP_IMAGE_MESSAGE) {
+                message.setType(MessageType.IMAGE_MESSAGE); // 客户端按IMAGE_MESSAGE显示图片
+            }
+        }
+        long nextBefore = slice.getMessages().isEmpty() ? before : slice.getSequence(0);
+        return new HistoryPage(group, target, slice.getMessages(), nextBefore, slice.hasMore());
+    }
+
+    /**
+     * 获取已持久化的最大记录序号
+     */
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * 写入线程主循环：取出一批记录组提交，按策略刷盘并完成Future
+     */
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        List<PendingRecord> unsynced = new ArrayList<>();
+        long lastSync = System.nanoTime();
+        long committedEnd = 0;  // 当前批次之前的日志末尾
+        boolean running = true;
+        while (running) {
+            try {
+                PendingRecord first;
+                long deadline = syncDeadline(lastSync);
+                if (!unsynced.isEmpty() && deadline != Long.MAX_VALUE) {
+                    first = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } else {
+                    first = queue.take();
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+                if (batch.remove(CLOSE)) {
+                    running = false;
+                    queue.drainTo(batch); // 关闭前到达的记录也要写完
+                    batch.remove(CLOSE);
+                }
+
+                if (!batch.isEmpty()) {
+                    committedEnd = channel.position();
+                    writeBatch(batch);
+                    unsynced.addAll(batch);
+                    batch.clear();
+                }
+                if (!unsynced.isEmpty() && (!running || shouldSync(unsynced.size(), lastSync))) {
+                    if (policy.getMode() != FsyncPolicy.Mode.NEVER) {
+                        channel.force(false);
+                    }
+                    lastSync = System.nanoTime();
+                    durableSequence = unsynced.get(unsynced.size() - 1).sequence;
+                    for (PendingRecord record : unsynced) {
+                        record.future.complete(record.sequence);
+                    }
+                    unsynced.clear();
+                }
+                if (unsynced.isEmpty() && !storeBehind && channel.position() >= checkpointBytes) {
+                    checkpoint();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Failed to write chat history: {}", e);
+                if (!batch.isEmpty()) {
+                    truncateTo(committedEnd); // 丢弃写了一半的批次，避免后续记录跟在残缺数据后面
+                }
+                for (PendingRecord record : batch) {
+                    record.future.completeExceptionally(e);
+                }
+                for (PendingRecord record : unsynced) {
+                    record.future.completeExceptionally(e);
+                }
+                batch.clear();
+                unsynced.clear();
+            }
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close chat history store: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 检查点：日志中的记录都已追加到分段存储，分段存储刷盘后日志可以整体截断
+     * 只在所有记录都已完成时调用；截断失败时日志保留，启动时按检查点跳过
+     */
+    private void checkpoint() {
+        long sequence = nextSequence - 1;
+        long size = 0;
+        try {
+            size = channel.position();
+            store.checkpoint(sequence);
+        } catch (IOException e) {
+            LOG.warn("Failed to checkpoint chat history store: {}", e.getMessage());
+            return;
+        }
+        try {
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            LOG.info("Checkpointed chat history at sequence {}, truncated {} bytes of chat log.", sequence, size);
+        } catch (IOException e) {
+            LOG.warn("Failed to truncate chat log after checkpoint: {}", e.getMessage());
+        }
+    }
+
+    private void truncateTo(long position) {
+        try {
+            channel.truncate(position);
+            channel.position(position);
+        } catch (IOException e) {
+            LOG.warn("Failed to truncate chat log: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 有未刷盘记录时，最迟必须刷盘的时间点
+     * records策略下即使未凑满N条，也不让Future无限期等待
+     */
+    private long syncDeadline(long lastSync) {
+        return switch (policy.getMode()) {
+            case INTERVAL -> lastSync + TimeUnit.MILLISECONDS.toNanos(policy.getValue());
+            case RECORDS -> lastSync + TimeUnit.MILLISECONDS.toNanos(MAX_RECORDS_SYNC_DELAY_MS);
+            default -> Long.MAX_VALUE;
+        };
+    }
+
+    private boolean shouldSync(int unsyncedCount, long lastSync) {
+        return switch (policy.getMode()) {
+            case ALWAYS, NEVER -> true;
+            case RECORDS -> unsyncedCount >= policy.getValue() || System.nanoTime() >= syncDeadline(lastSync);
+            case INTERVAL -> System.nanoTime() >= syncDeadline(lastSync);
+        };
+    }
+
+    /**
+     * 为一批记录分配序号，一次写入日志，再追加到分段存储
+     */
+    private void writeBatch(List<PendingRecord> batch) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(batch.size());
+        int total = 0;
+        for (PendingRecord record : batch) {
+            byte[] payload = codec.encode(record.message);
+            payloads.add(payload);
+            total += RECORD_HEADER_LENGTH + payload.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < batch.size(); i++) {
+            PendingRecord record = batch.get(i);
+            byte[] payload = payloads.get(i);
+            record.sequence = nextSequence++;
+            int start = buffer.position();
+            buffer.putInt(payload.length).putInt(0).putLong(record.sequence).put(payload);
+            crc.reset();
+            crc.update(buffer.array(), start + 8, 8 + payload.length);
+            buffer.putInt(start + 4, (int) crc.getValue());
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        try {
+            for (PendingRecord record : batch) {
+                String conversationId = conversationId(record.message);
+                if (conversationId != null) {
+                    store.append(conversationId, record.sequence, record.message);
+                }
+            }
+        } catch (IOException e) {
+            // 分段存储可以从日志重建，写入失败不影响日志记录的持久化；此后不再做检查点，日志保留到下次启动重放
+            LOG.error("Failed to update chat history store: {}", e.getMessage());
+            storeBehind = true;
+        }
+    }
+
+    /**
+     * 获取消息所属的会话ID
+     * 私聊会话ID为private:加按字母序排列的两个用户ID，群聊（包括群聊图片）为group:加群组ID，
+     * 各个ID先经过PathNames编码，编码结果不含':'，因此不同的用户或群组组合不会得到相同的会话ID
+     * @param message 聊天消息
+     * @return 会话ID，非聊天消息返回null
+     */
+    public static String conversationId(Message message) {
+        if (message.getType() == null) {
+            return null;
+        }
+        return switch (message.getType()) {
+            case TEXT_MESSAGE, IMAGE_MESSAGE -> conversationId(false, message.getSenderId(), message.getReceiverId());
+            case GROUP_MESSAGE, GROUP_IMAGE_MESSAGE -> conversationId(true, message.getSenderId(), message.getReceiverId());
+            default -> null;
+        };
+    }
+
+    /**
+     * 获取用户与好友或群组之间的会话ID
+     * @param group 是否为群聊
+     * @param userId 用户ID
+     * @param target 好友ID或群组ID
+     * @return 会话ID
+     */
+    public static String conversationId(boolean group, String userId, String target) {
+        if (group) {
+            return GROUP_CONVERSATION_PREFIX + PathNames.encode(target);
+        }
+        String user = PathNames.encode(userId);
+        String other = PathNames.encode(target);
+        return PRIVATE_CONVERSATION_PREFIX + (userId.compareTo(target) < 0 ? user + ":" + other : other + ":" + user);
+    }
+
+    /**
+     * 写完已提交的记录、刷盘并关闭日志
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 与close并发提交、排在关闭标记之后的记录
+        PendingRecord late;
+        while ((late = queue.poll()) != null) {
+            late.future.completeExceptionally(new IOException("Chat history writer is closed"));
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close chat log: {}", e.getMessage());
+        }
+    }
+}
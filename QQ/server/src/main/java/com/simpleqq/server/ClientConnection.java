@@ -0,0 +1,53 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+
+import com.simpleqq.common.Message;
+
+/**
+ * 客户端连接的发送通道
+ * 屏蔽阻塞流与非阻塞通道在写出消息上的差异，ClientHandler只通过该接口向客户端发送消息
+ */
+public interface ClientConnection {
+
+    /**
+     * 发送消息给客户端
+     * 实现应把消息放入连接自己的发送队列后立即返回，由连接的写出方批量写出；
+     * 连接已关闭或因慢消费者策略被断开时，消息被丢弃而不是抛出异常，
+     * 避免一个接收方的问题中断发送方的处理流程
+     * @param message 要发送的消息
+     * @throws IOException 同步写出的实现在写出失败时抛出
+     */
+    default void send(Message message) throws IOException {
+        send(OutboundFrame.of(message));
+    }
+
+    /**
+     * 发送一个可能被多个连接共享的消息帧
+     * @param frame 消息帧
+     * @throws IOException 同步写出的实现在写出失败时抛出
+     */
+    void send(OutboundFrame frame) throws IOException;
+
+    /**
+     * 获取发送队列中积压的消息数，批量投递时据此施加背压
+     * 同步写出的实现没有发送队列，返回0
+     * @return 积压的消息数
+     */
+    default int getQueuedCount() {
+        return 0;
+    }
+
+    /**
+     * 获取握手时协商的协议版本
+     * @return 协议版本号，旧版对象流连接返回0
+     */
+    default int getProtocolVersion() {
+        return 0;
+    }
+
+    /**
+     * 关闭连接，可重复调用
+     */
+    void close();
+}
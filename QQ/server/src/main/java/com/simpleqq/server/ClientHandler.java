@@ -1,43 +1,78 @@
 package com.simpleqq.server;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.Executor;
+
+import com.simpleqq.common.BlobRef;
+import com.simpleqq.common.FramedMessageStream;
+import com.simpleqq.common.HistoryPage;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.MemberPage;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.MessageType;
 import com.simpleqq.common.User;
+import com.simpleqq.common.WireProtocol;
 
 /**
  * 客户端处理器类
  * 每个连接的客户端都有一个对应的ClientHandler线程
  * 负责处理单个客户端的所有消息请求和响应
+ * 非阻塞传输模式下不启动线程，由NIO事件循环调用handleMessage驱动
  */
 public class ClientHandler extends Thread {
+    private static final Logger LOG = Log.getLogger(ClientHandler.class);
+    private static final Logger MESSAGE_LOG = Log.getLogger("ClientHandler.messages"); // 逐条消息日志，默认关闭
+
     private Socket socket;              // 客户端Socket连接
     private Server server;              // 服务器实例引用
     private ObjectInputStream ois;      // 对象输入流，用于接收客户端消息
     private ObjectOutputStream oos;     // 对象输出流，用于发送消息给客户端
+    private FramedMessageStream framed; // 分帧消息流，新版客户端使用
+    private Executor writer;            // 运行发送队列写出任务的执行器
+    private volatile ClientConnection connection; // 消息发送通道
     private String userId;              // 当前连接的用户ID
 
     /**
      * 构造函数
+     * 流的建立和协议识别推迟到run中完成，避免慢客户端阻塞接受线程；
+     * 发送队列在调用线程上直接写出
      * @param socket 客户端Socket连接
      * @param server 服务器实例
      */
-    @SuppressWarnings("CallToPrintStackTrace")
     public ClientHandler(Socket socket, Server server) {
+        this(socket, server, Runnable::run);
+    }
+
+    /**
+     * 构造函数（阻塞传输层使用）
+     * @param socket 客户端Socket连接
+     * @param server 服务器实例
+     * @param writer 运行发送队列写出任务的执行器
+     */
+    ClientHandler(Socket socket, Server server, Executor writer) {
         this.socket = socket;
         this.server = server;
-        try {
-            // 注意：必须先创建输出流，再创建输入流，避免死锁
-            oos = new ObjectOutputStream(socket.getOutputStream());
-            ois = new ObjectInputStream(socket.getInputStream());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        this.writer = writer;
+    }
+
+    /**
+     * 构造函数（非阻塞传输层使用）
+     * 由NioConnection在事件循环线程上调用handleMessage驱动，不会作为独立线程启动
+     * @param server 服务器实例
+     * @param connection 非阻塞发送通道
+     */
+    ClientHandler(Server server, ClientConnection connection) {
+        this.server = server;
+        this.connection = connection;
     }
 
     /**
@@ -50,7 +85,7 @@ public class ClientHandler extends Thread {
 
     /**
      * 获取输出流对象
-     * @return 对象输出流
+     * @return 对象输出流，分帧协议的连接返回null
      */
     public ObjectOutputStream getOos() {
         return oos;
@@ -58,53 +93,24 @@ public class ClientHandler extends Thread {
 
     /**
      * 线程主方法
-     * 持续监听客户端消息并进行处理
+     * 识别客户端协议后持续监听客户端消息并进行处理
      */
     @Override
     @SuppressWarnings("CallToPrintStackTrace")
     public void run() {
         try {
+            openStreams();
             while (true) {
                 // 接收客户端消息
-                Message message = (Message) ois.readObject();
-                System.out.println("Received message from client: " + message);
-
-                // 根据消息类型分发处理
-                switch (message.getType()) {
-                    case LOGIN -> handleLogin(message);
-                    case REGISTER -> handleRegister(message);
-                    case FRIEND_REQUEST -> handleFriendRequest(message);
-                    case FRIEND_ACCEPT -> handleFriendAccept(message);
-                    case FRIEND_REJECT -> handleFriendReject(message);
-                    case DELETE_FRIEND -> handleDeleteFriend(message);
-                    case TEXT_MESSAGE -> handleTextMessage(message);
-                    case GROUP_MESSAGE -> handleGroupMessage(message);
-                    case IMAGE_MESSAGE -> handleImageMessage(message);
-                    case GROUP_INVITE -> handleGroupInvite(message);
-                    case GROUP_ACCEPT -> handleGroupAccept(message);
-                    case GROUP_REJECT -> handleGroupReject(message);
-                    case CREATE_GROUP -> handleCreateGroup(message);
-                    case GET_GROUPS -> sendGroupList(message.getSenderId());
-                    case GET_PENDING_REQUESTS -> sendPendingRequests(message.getSenderId());
-                    case GET_GROUP_MEMBERS -> sendGroupMembers(message.getContent(), message.getSenderId());
-                    case FRIEND_LIST -> sendFriendList(message.getSenderId());
-                    default -> System.out.println("Unknown message type: " + message.getType());
-                }
+                handleMessage(readMessage());
             }
         } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Client " + userId + " disconnected.");
-            // 客户端断开连接时的清理工作
-            server.removeClient(userId);
-            if (userId != null) {
-                User user = server.getUserManager().getUserById(userId);
-                if (user != null) {
-                    user.setOnline(false);
-                    notifyFriendsStatusChange(userId); // 通知好友状态变化
-                }
-            }
+            onDisconnect();
         } finally {
             // 关闭资源
             try {
+                if (connection != null) connection.close();
+                if (framed != null) framed.close();
                 if (ois != null) ois.close();
                 if (oos != null) oos.close();
                 if (socket != null) socket.close();
@@ -114,6 +120,94 @@ public class ClientHandler extends Thread {
         }
     }
 
+    /**
+     * 读取客户端的前4个字节判断协议：
+     * 以握手魔数开头的是分帧协议客户端，协商版本后使用对应编解码器；
+     * 否则按旧版Java对象流处理，前4个字节是对象流头，重置后交给ObjectInputStream读取
+     */
+    private void openStreams() throws IOException {
+        BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+        in.mark(WireProtocol.HANDSHAKE_LENGTH);
+        byte[] header = new byte[WireProtocol.HANDSHAKE_LENGTH];
+        new DataInputStream(in).readFully(header);
+
+        if (WireProtocol.isHandshake(header)) {
+            OutputStream out = socket.getOutputStream();
+            byte version = WireProtocol.negotiate(header[3]);
+            out.write(WireProtocol.handshake(version));
+            out.flush();
+            if (version == 0) {
+                throw new IOException("Unsupported protocol version " + header[3]);
+            }
+            framed = new FramedMessageStream(in, out, WireProtocol.codecFor(version));
+            connection = new QueuedConnection(new FramedStreamSink(framed, socket),
+                OutboundQueue.forConfig(server.getConfig()), writer, version);
+        } else {
+            in.reset();
+            // 注意：必须先创建输出流，再创建输入流，避免死锁
+            oos = new ObjectOutputStream(socket.getOutputStream());
+            ois = new ObjectInputStream(in);
+            connection = new QueuedConnection(new ObjectStreamSink(oos, socket),
+                OutboundQueue.forConfig(server.getConfig()), writer, 0);
+        }
+    }
+
+    private Message readMessage() throws IOException, ClassNotFoundException {
+        return framed != null ? framed.read() : (Message) ois.readObject();
+    }
+
+    /**
+     * 根据消息类型分发处理
+     * 阻塞模式下由run循环调用，非阻塞模式下由事件循环调用
+     * @param message 客户端发来的消息
+     */
+    void handleMessage(Message message) throws IOException {
+        MESSAGE_LOG.debug("Received message from client: {}", message);
+        long start = System.nanoTime();
+
+        switch (message.getType()) {
+            case LOGIN -> handleLogin(message);
+            case REGISTER -> handleRegister(message);
+            case FRIEND_REQUEST -> handleFriendRequest(message);
+            case FRIEND_ACCEPT -> handleFriendAccept(message);
+            case FRIEND_REJECT -> handleFriendReject(message);
+            case DELETE_FRIEND -> handleDeleteFriend(message);
+            case TEXT_MESSAGE -> handleTextMessage(message);
+            case GROUP_MESSAGE -> handleGroupMessage(message);
+            case IMAGE_MESSAGE -> handleImageMessage(message);
+            case GROUP_INVITE -> handleGroupInvite(message);
+            case GROUP_ACCEPT -> handleGroupAccept(message);
+            case GROUP_REJECT -> handleGroupReject(message);
+            case CREATE_GROUP -> handleCreateGroup(message);
+            case GET_GROUPS -> sendGroupList(message.getSenderId());
+            case GET_PENDING_REQUESTS -> sendPendingRequests(message.getSenderId());
+            case GET_GROUP_MEMBERS -> sendGroupMembers(message.getContent(), message.getSenderId());
+            case GROUP_MEMBERS_REQUEST -> handleGroupMembersRequest(message);
+            case FRIEND_LIST -> sendFriendList(message.getSenderId());
+            case HISTORY_REQUEST -> handleHistoryRequest(message);
+            case BLOB_UPLOAD -> handleBlobUpload(message);
+            case BLOB_REQUEST -> handleBlobRequest(message);
+            default -> LOG.warn("Unknown message type: {}", message.getType());
+        }
+        server.getMetrics().recordHandled(message.getType(), System.nanoTime() - start);
+    }
+
+    /**
+     * 客户端断开连接时的清理工作
+     * 从在线列表移除并通知好友状态变化
+     */
+    void onDisconnect() {
+        LOG.info("Client {} disconnected.", userId);
+        if (userId != null) {
+            server.removeClient(userId);
+            User user = server.getUserManager().getUserById(userId);
+            if (user != null) {
+                user.setOnline(false);
+                server.getPresence().publish(userId, false); // 通知好友状态变化
+            }
+        }
+    }
+
     /**
      * 处理用户登录请求
      * 验证用户凭据并建立会话
@@ -144,7 +238,10 @@ public class ClientHandler extends Thread {
             sendPendingRequests(id);
             
             // 通知好友用户上线
-            notifyFriendsStatusChange(id);
+            server.getPresence().publish(id, true);
+
+            // 在后台分批投递离线期间收到的消息，不阻塞登录响应
+            server.getOfflineInbox().startDelivery(id);
         } else {
             sendMessage(new Message(MessageType.LOGIN_FAIL, "Server", id, "Invalid ID or password."));
         }
@@ -203,6 +300,7 @@ public class ClientHandler extends Thread {
         String requesterId = message.getReceiverId(); // 原始请求发送者
 
         if (server.getUserManager().acceptFriendRequest(acceptorId, requesterId)) {
+            server.getResponses().invalidateFriendship(acceptorId, requesterId);
             sendMessage(new Message(MessageType.ADD_FRIEND_SUCCESS, "Server", acceptorId, 
                 "You are now friends with " + requesterId + "."));
             
@@ -255,7 +353,8 @@ public class ClientHandler extends Thread {
         String targetId = message.getReceiverId();
 
         if (server.getUserManager().deleteFriend(requesterId, targetId)) {
-            sendMessage(new Message(MessageType.DELETE_FRIEND_SUCCESS, "Server", requesterId, 
+            server.getResponses().invalidateFriendship(requesterId, targetId);
+            sendMessage(new Message(MessageType.DELETE_FRIEND_SUCCESS, "Server", requesterId,
                 "Friend deleted: " + targetId));
             
             // 通知被删除方
@@ -267,7 +366,7 @@ public class ClientHandler extends Thread {
             }
             sendFriendList(requesterId); // 更新删除方的好友列表
         } else {
-            sendMessage(new Message(MessageType.DELETE_FRIEND_FAIL, "Server", requesterId, 
+            sendMessage(new Message(MessageType.DELETE_FRIEND_FAIL, "Server", requesterId,
                 "Failed to delete friend: " + targetId));
         }
     }
@@ -285,13 +384,10 @@ public class ClientHandler extends Thread {
             return;
         }
 
-        // 转发消息给接收者
-        ClientHandler receiverHandler = server.getOnlineClients().get(message.getReceiverId());
-        if (receiverHandler != null) {
-            receiverHandler.sendMessage(message);
-        } else {
+        // 转发消息给接收者，不在线时保存到离线收件箱
+        if (!server.deliverOrStore(message.getReceiverId(), OutboundFrame.of(message))) {
             sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", message.getSenderId(), 
-                "User " + message.getReceiverId() + " is offline."));
+                "User " + message.getReceiverId() + " is offline. The message will be delivered when they log in."));
         }
         
         // 保存聊天记录
@@ -313,19 +409,11 @@ public class ClientHandler extends Thread {
                 return;
             }
             
-            // 转发给群内其他成员（不包括发送者）
-            for (String memberId : groupMembers) {
-                if (!memberId.equals(message.getSenderId())) { // 不发送给自己
-                    ClientHandler memberHandler = server.getOnlineClients().get(memberId);
-                    if (memberHandler != null) {
-                        // 创建新的消息对象，确保消息类型正确
-                        Message groupMsg = new Message(MessageType.GROUP_MESSAGE, 
-                            message.getSenderId(), message.getReceiverId(), message.getContent());
-                        groupMsg.setTimestamp(message.getTimestamp());
-                        memberHandler.sendMessage(groupMsg);
-                    }
-                }
-            }
+            // 交给扇出引擎转发给群内其他成员（不包括发送者），所有成员共享同一个编码结果
+            Message groupMsg = new Message(MessageType.GROUP_MESSAGE,
+                message.getSenderId(), message.getReceiverId(), message.getContent());
+            groupMsg.setTimestamp(message.getTimestamp());
+            server.getGroupFanout().fanout(groupMsg, groupMembers);
         } else {
             sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", message.getSenderId(), 
                 "Group " + message.getReceiverId() + " does not exist."));
@@ -341,6 +429,14 @@ public class ClientHandler extends Thread {
      * @param message 图片消息
      */
     private void handleImageMessage(Message message) throws IOException {
+        // 新版客户端先上传图片，消息只携带图片引用；旧版客户端的"文件名:Base64"原样转发
+        BlobRef ref = BlobRef.parse(message.getContent());
+        if (ref != null && !server.getBlobStore().contains(ref.getHash())) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", message.getSenderId(),
+                "Image " + ref.getName() + " has not been uploaded."));
+            return;
+        }
+
         // 判断是群聊还是单聊
         List<String> groupMembers = server.getGroupManager().getGroupMembers(message.getReceiverId());
         if (groupMembers != null) {
@@ -351,15 +447,8 @@ public class ClientHandler extends Thread {
                 return;
             }
             
-            // 转发给所有其他成员
-            for (String memberId : groupMembers) {
-                if (!memberId.equals(message.getSenderId())) {
-                    ClientHandler memberHandler = server.getOnlineClients().get(memberId);
-                    if (memberHandler != null) {
-                        memberHandler.sendMessage(message);
-                    }
-                }
-            }
+            // 交给扇出引擎转发给所有其他成员
+            server.getGroupFanout().fanout(message, groupMembers);
         } else {
             // 单聊图片消息处理
             if (!server.getUserManager().areFriends(message.getSenderId(), message.getReceiverId())) {
@@ -368,24 +457,174 @@ public class ClientHandler extends Thread {
                 return;
             }
             
-            // 直接转发给接收者
-            ClientHandler receiverHandler = server.getOnlineClients().get(message.getReceiverId());
-            if (receiverHandler != null) {
-                receiverHandler.sendMessage(message);
-            } else {
+            // 直接转发给接收者，不在线时保存到离线收件箱
+            if (!server.deliverOrStore(message.getReceiverId(), OutboundFrame.of(message))) {
                 sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", message.getSenderId(), 
-                    "User " + message.getReceiverId() + " is offline."));
+                    "User " + message.getReceiverId() + " is offline. The image will be delivered when they log in."));
             }
         }
         
-        // 保存聊天记录（只保存文件名）
+        // 保存聊天记录（图片引用，旧版消息只保存文件名）；群聊图片使用单独的类型，归入群聊会话
         String content = message.getContent();
-        String fileName = content.contains(":") ? content.split(":", 2)[0] : content;
-        Message historyMessage = new Message(MessageType.IMAGE_MESSAGE, 
-            message.getSenderId(), message.getReceiverId(), fileName);
+        if (ref == null) {
+            content = content.contains(":") ? content.split(":", 2)[0] : content;
+        }
+        MessageType historyType = groupMembers != null ? MessageType.GROUP_IMAGE_MESSAGE : MessageType.IMAGE_MESSAGE;
+        Message historyMessage = new Message(historyType, 
+            message.getSenderId(), message.getReceiverId(), content);
         server.saveChatMessage(historyMessage);
     }
 
+    /**
+     * 处理图片上传
+     * 每个数据块都回复已接收的字节数，客户端据此发送下一块或从中断处继续
+     * @param message 上传消息，内容格式：摘要,字节数,偏移，负载为数据块
+     */
+    private void handleBlobUpload(Message message) throws IOException {
+        String requesterId = message.getSenderId();
+        if (userId == null || !userId.equals(requesterId)) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId, "Please log in first."));
+            return;
+        }
+        String[] parts = message.getContent() == null ? new String[0] : message.getContent().split(",");
+        String hash = parts.length > 0 ? parts[0] : "";
+        long received;
+        try {
+            long size = Long.parseLong(parts[1]);
+            long offset = Long.parseLong(parts[2]);
+            received = server.getBlobStore().write(requesterId, hash, size, offset, message.getPayload());
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException | IOException e) {
+            LOG.warn("Blob upload from {} failed: {}", requesterId, e.getMessage());
+            received = -1;
+        }
+        sendMessage(new Message(MessageType.BLOB_UPLOAD_ACK, "Server", requesterId, hash + "," + received));
+    }
+
+    /**
+     * 处理图片下载
+     * 每个请求回复一个数据块，客户端可以不等回复连续发送多个请求，回复按请求顺序发出
+     * @param message 下载请求，内容格式：摘要,偏移
+     */
+    private void handleBlobRequest(Message message) throws IOException {
+        String requesterId = message.getSenderId();
+        if (userId == null || !userId.equals(requesterId)) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId, "Please log in first."));
+            return;
+        }
+        String[] parts = message.getContent() == null ? new String[0] : message.getContent().split(",");
+        String hash = parts.length > 0 ? parts[0] : "";
+        long offset;
+        try {
+            offset = Long.parseLong(parts[1]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId, "Invalid image request."));
+            return;
+        }
+        BlobStore blobs = server.getBlobStore();
+        long size = blobs.size(hash);
+        byte[] chunk = null;
+        if (size >= 0 && offset >= 0 && offset <= size) {
+            chunk = blobs.read(hash, offset, BlobRef.CHUNK_SIZE);
+        }
+        Message data = new Message(MessageType.BLOB_DATA, "Server", requesterId,
+            hash + "," + (chunk == null ? -1 : size) + "," + offset);
+        data.setPayload(chunk);
+        sendMessage(data);
+    }
+
+    /**
+     * 处理聊天记录分页查询
+     * 私聊只能查询自己与好友的会话，群聊要求请求者是群成员
+     * @param message 查询消息，接收者为好友ID或群组ID，内容格式：类型,起始序号,条数
+     */
+    private void handleHistoryRequest(Message message) throws IOException {
+        String requesterId = message.getSenderId();
+        String target = message.getReceiverId();
+        if (userId == null || !userId.equals(requesterId)) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId, "Please log in first."));
+            return;
+        }
+        String[] parts = message.getContent() == null ? new String[0] : message.getContent().split(",");
+        boolean group;
+        long beforeSequence;
+        int limit;
+        try {
+            group = HistoryPage.GROUP.equals(parts[0]);
+            beforeSequence = Long.parseLong(parts[1]);
+            limit = Math.max(1, Math.min(HistoryPage.MAX_PAGE_SIZE, Integer.parseInt(parts[2])));
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId, "Invalid history request."));
+            return;
+        }
+        if (group) {
+            List<String> members = server.getGroupManager().getGroupMembers(target);
+            if (members == null || !members.contains(requesterId)) {
+                sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId,
+                    "You are not a member of group " + target + "."));
+                return;
+            }
+        } else if (!server.getUserManager().areFriends(requesterId, target)) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId,
+                "You are not friends with " + target + "."));
+            return;
+        }
+
+        HistoryPage page = server.loadHistory(requesterId, group, target, beforeSequence, limit);
+        // 发送者字段填写会话对象，客户端据此找到对应的聊天窗口
+        sendMessage(new Message(MessageType.HISTORY_RESPONSE, target, requesterId, page.encode()));
+    }
+
+    /**
+     * 处理群组成员分页查询
+     * 要求请求者是群成员；只看在线成员时跳过离线成员，扫描到凑满条数或到达当前版本为止
+     * @param message 查询消息，接收者为群组ID，内容格式：起始位置,条数,过滤
+     */
+    private void handleGroupMembersRequest(Message message) throws IOException {
+        String requesterId = message.getSenderId();
+        String groupId = message.getReceiverId();
+        if (userId == null || !userId.equals(requesterId)) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId, "Please log in first."));
+            return;
+        }
+        String[] parts = message.getContent() == null ? new String[0] : message.getContent().split(",");
+        long cursor;
+        int limit;
+        boolean onlineOnly;
+        try {
+            cursor = Math.max(0, Long.parseLong(parts[0]));
+            limit = Math.max(1, Math.min(MemberPage.MAX_PAGE_SIZE, Integer.parseInt(parts[1])));
+            onlineOnly = MemberPage.ONLINE.equals(parts[2]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId, "Invalid group members request."));
+            return;
+        }
+        GroupManager groups = server.getGroupManager();
+        List<String> members = groups.getGroupMembers(groupId);
+        if (members == null || !groups.isMember(requesterId, groupId)) {
+            sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", requesterId,
+                "You are not a member of group " + groupId + "."));
+            return;
+        }
+
+        // 成员只追加不移除，读到的版本号之前的位置都是稳定的
+        long version = groups.getMembershipVersion(groupId);
+        if (cursor > version) {
+            cursor = 0; // 客户端持有的版本比服务器新，从头返回，客户端据此替换已有列表
+        }
+        List<MemberPage.Member> page = new ArrayList<>(Math.min(limit, (int) (version - cursor)));
+        long position = cursor;
+        while (position < version && page.size() < limit) {
+            String memberId = members.get((int) position++);
+            boolean online = server.isUserOnline(memberId);
+            User member = server.getUserManager().getUserById(memberId);
+            if (member != null && (online || !onlineOnly)) {
+                page.add(new MemberPage.Member(memberId, member.getUsername(), online));
+            }
+        }
+        MemberPage result = new MemberPage(groupId, version, cursor, position, position < version, onlineOnly, page);
+        sendMessage(new Message(MessageType.GROUP_MEMBERS_RESPONSE, groupId, requesterId, result.encode()));
+    }
+
     /**
      * 处理群组邀请
      * 发送群组邀请给目标用户
@@ -421,6 +660,7 @@ public class ClientHandler extends Thread {
         String groupId = message.getContent();
 
         if (server.getGroupManager().acceptGroupInvite(acceptorId, groupId)) {
+            server.getResponses().invalidateMembership(acceptorId, groupId);
             sendMessage(new Message(MessageType.GROUP_JOIN_SUCCESS, "Server", acceptorId, groupId));
             
             // 通知所有群成员有新成员加入
@@ -485,37 +725,45 @@ public class ClientHandler extends Thread {
 
     /**
      * 发送消息给客户端
+     * 消息进入该连接的发送队列后立即返回，不等待写出；连接已关闭时消息被丢弃
      * @param message 要发送的消息对象
      */
     public void sendMessage(Message message) throws IOException {
-        oos.writeObject(message);
-        oos.flush(); // 确保消息立即发送
+        connection.send(message);
+    }
+
+    /**
+     * 发送共享的消息帧，群消息扇出时使用
+     * @param frame 消息帧
+     */
+    void sendFrame(OutboundFrame frame) throws IOException {
+        connection.send(frame);
+    }
+
+    /**
+     * 获取发送队列中积压的消息数
+     * @return 积压的消息数，连接尚未建立时返回0
+     */
+    int getOutboundBacklog() {
+        ClientConnection current = connection;
+        return current == null ? 0 : current.getQueuedCount();
+    }
+
+    /**
+     * 判断客户端能否接收PRESENCE_UPDATE增量，不能的只接收完整的好友列表
+     */
+    boolean supportsPresenceUpdates() {
+        ClientConnection current = connection;
+        return current != null && WireProtocol.supportsPresenceUpdates(current.getProtocolVersion());
     }
 
     /**
      * 发送好友列表给客户端
-     * 包含好友的ID、用户名和在线状态
+     * 包含好友的ID、用户名和在线状态，从响应缓存取得已编码的消息帧
      * @param userId 请求用户的ID
      */
     public void sendFriendList(String userId) throws IOException {
-        List<String> friendIds = server.getUserManager().getFriends(userId);
-        
-        StringBuilder sb = new StringBuilder();
-        for (String friendId : friendIds) {
-            User friendUser = server.getUserManager().getUserById(friendId);
-            if (friendUser != null) {
-                // 检查好友是否在线
-                boolean isOnline = server.isUserOnline(friendId);
-                String status = isOnline ? "online" : "offline";
-                String friendInfo = friendUser.getId() + ":" + friendUser.getUsername() + ":" + status;
-                sb.append(friendInfo).append(";");
-            }
-        }
-        if (sb.length() > 0) {
-            sb.setLength(sb.length() - 1); // 移除末尾的分号
-        }
-        
-        sendMessage(new Message(MessageType.FRIEND_LIST, "Server", userId, sb.toString()));
+        sendFrame(server.getResponses().friendList(userId));
     }
 
     /**
@@ -523,15 +771,7 @@ public class ClientHandler extends Thread {
      * @param userId 请求用户的ID
      */
     public void sendGroupList(String userId) throws IOException {
-        List<String> groupIds = server.getGroupManager().getUserGroups(userId);
-        StringBuilder sb = new StringBuilder();
-        for (String groupId : groupIds) {
-            sb.append(groupId).append(";");
-        }
-        if (sb.length() > 0) {
-            sb.setLength(sb.length() - 1); // 移除末尾的分号
-        }
-        sendMessage(new Message(MessageType.GET_GROUPS, "Server", userId, sb.toString()));
+        sendFrame(server.getResponses().groupList(userId));
     }
 
     /**
@@ -568,47 +808,11 @@ public class ClientHandler extends Thread {
 
     /**
      * 发送群组成员列表给客户端
-     * 包含成员的ID、用户名和在线状态
+     * 包含成员的ID、用户名和在线状态，同一群组的所有请求者共享响应缓存中的消息帧
      * @param groupId 群组ID
-     * @param requesterId 请求者ID
+     * @param requesterId 请求者ID（未使用，消息帧的接收者字段为空）
      */
     public void sendGroupMembers(String groupId, String requesterId) throws IOException {
-        List<String> members = server.getGroupManager().getGroupMembers(groupId);
-        StringBuilder sb = new StringBuilder();
-        if (members != null) {
-            for (String memberId : members) {
-                User memberUser = server.getUserManager().getUserById(memberId);
-                if (memberUser != null) {
-                    // 检查成员是否在线
-                    boolean isOnline = server.isUserOnline(memberId);
-                    String status = isOnline ? "online" : "offline";
-                    sb.append(memberUser.getId()).append(":").append(memberUser.getUsername())
-                      .append(":").append(status).append(";");
-                }
-            }
-        }
-        if (sb.length() > 0) {
-            sb.setLength(sb.length() - 1); // 移除末尾的分号
-        }
-        sendMessage(new Message(MessageType.GET_GROUP_MEMBERS, groupId, requesterId, sb.toString()));
-    }
-
-    /**
-     * 通知好友状态变化
-     * 当用户上线或下线时，通知其所有好友更新状态
-     * @param userId 状态发生变化的用户ID
-     */
-    private void notifyFriendsStatusChange(String userId) {
-        List<String> friends = server.getUserManager().getFriends(userId);
-        for (String friendId : friends) {
-            ClientHandler friendHandler = server.getOnlineClients().get(friendId);
-            if (friendHandler != null) {
-                try {
-                    friendHandler.sendFriendList(friendId); // 发送更新的好友列表
-                } catch (IOException e) {
-                    System.err.println("Failed to notify friend " + friendId + " of status change: " + e.getMessage());
-                }
-            }
-        }
+        sendFrame(server.getResponses().groupMembers(groupId));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.simpleqq.common.FramedMessageStream;
+
+/**
+ * 基于FramedMessageStream的写出端
+ * 阻塞模式下服务于完成协议握手的新版客户端
+ */
+class FramedStreamSink implements MessageSink {
+    private final FramedMessageStream stream;   // 分帧消息流
+    private final Socket socket;                // 客户端Socket
+
+    FramedStreamSink(FramedMessageStream stream, Socket socket) {
+        this.stream = stream;
+        this.socket = socket;
+    }
+
+    @Override
+    public void write(List<OutboundFrame> batch) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(batch.size());
+        for (OutboundFrame frame : batch) {
+            payloads.add(frame.payload(stream.getCodec()));
+        }
+        stream.writeFrames(payloads);
+    }
+
+    /**
+     * 直接关闭Socket而不是输出流：关闭流会先flush，
+     * 在写出任务阻塞于慢接收方时会等待同一把写锁
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 连接已断开，忽略关闭异常
+        }
+    }
+}
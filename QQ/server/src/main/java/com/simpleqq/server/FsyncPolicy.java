@@ -0,0 +1,99 @@
+package com.simpleqq.server;
+
+/**
+ * 聊天记录预写日志和离线收件箱的刷盘策略
+ * 决定一次组提交写入操作系统缓存后何时调用fsync，以及写入请求的持久化Future何时完成；
+ * 离线收件箱按每个用户的追加通道计算records，interval由后台线程统一刷盘
+ */
+public final class FsyncPolicy {
+
+    /**
+     * 刷盘模式
+     */
+    public enum Mode {
+        ALWAYS,     // 每次组提交后都fsync
+        RECORDS,    // 累计N条未刷盘记录后fsync
+        INTERVAL,   // 距上次fsync超过N毫秒后fsync
+        NEVER       // 从不主动fsync，写入操作系统缓存即视为完成
+    }
+
+    private final Mode mode;    // 刷盘模式
+    private final long value;   // RECORDS模式下的记录数，INTERVAL模式下的毫秒数
+
+    private FsyncPolicy(Mode mode, long value) {
+        this.mode = mode;
+        this.value = value;
+    }
+
+    public static FsyncPolicy always() {
+        return new FsyncPolicy(Mode.ALWAYS, 0);
+    }
+
+    public static FsyncPolicy never() {
+        return new FsyncPolicy(Mode.NEVER, 0);
+    }
+
+    /**
+     * 每累计records条记录刷盘一次
+     */
+    public static FsyncPolicy everyRecords(int records) {
+        if (records < 1) {
+            throw new IllegalArgumentException("records must be positive: " + records);
+        }
+        return new FsyncPolicy(Mode.RECORDS, records);
+    }
+
+    /**
+     * 每隔millis毫秒刷盘一次
+     */
+    public static FsyncPolicy everyMillis(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("millis must be positive: " + millis);
+        }
+        return new FsyncPolicy(Mode.INTERVAL, millis);
+    }
+
+    /**
+     * 解析配置字符串
+     * @param spec always、never、records:N 或 interval:毫秒数
+     * @return 刷盘策略
+     * @throws IllegalArgumentException 格式错误时抛出
+     */
+    public static FsyncPolicy parse(String spec) {
+        String s = spec.trim().toLowerCase();
+        int colon = s.indexOf(':');
+        String name = colon < 0 ? s : s.substring(0, colon);
+        return switch (name) {
+            case "always" -> always();
+            case "never" -> never();
+            case "records" -> everyRecords((int) parseValue(spec, s, colon));
+            case "interval" -> everyMillis(parseValue(spec, s, colon));
+            default -> throw new IllegalArgumentException("Unknown fsync policy: " + spec);
+        };
+    }
+
+    private static long parseValue(String spec, String s, int colon) {
+        if (colon < 0) {
+            throw new IllegalArgumentException("Missing value in fsync policy: " + spec);
+        }
+        return Long.parseLong(s.substring(colon + 1).trim());
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return switch (mode) {
+            case ALWAYS -> "always";
+            case NEVER -> "never";
+            case RECORDS -> "records:" + value;
+            case INTERVAL -> "interval:" + value;
+        };
+    }
+}
@@ -0,0 +1,186 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.simpleqq.common.BinaryMessageCodec;
+import com.simpleqq.common.LatencyHistogram;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+
+/**
+ * 群消息扇出引擎
+ * 群消息只包装成一个共享的OutboundFrame（按协议版本只编码一次），
+ * 群成员按用户ID哈希固定划分到若干个单线程工作者上，各工作者并行把消息帧放入成员的发送队列，
+ * 离线成员的消息由工作者写入离线收件箱。
+ *
+ * 顺序保证：同一成员总是由同一个工作者投递，且一条消息对所有工作者的提交在锁内原子完成，
+ * 因此同一群的消息在每个成员处都按相同的顺序到达。
+ * 扇出延迟（从提交到最后一个成员入队）记录在延迟直方图中。
+ */
+public class GroupFanout {
+    private static final Logger LOG = Log.getLogger(GroupFanout.class);
+    private static final BinaryMessageCodec BINARY_CODEC = new BinaryMessageCodec(); // 预编码使用的编解码器
+
+    private final Server server;                      // 服务器实例引用
+    private final int workerCount;                    // 工作者数量
+    private final LatencyHistogram latency = new LatencyHistogram(); // 扇出延迟（纳秒）
+    private final LatencyHistogram sizes = new LatencyHistogram();   // 每条群消息的成员数
+    private final ReentrantLock submitLock = new ReentrantLock(); // 保证一条消息对所有工作者的提交是原子的
+    private volatile ExecutorService[] workers;       // 单线程工作者，未启动时为null
+
+    /**
+     * 构造函数
+     * @param server 服务器实例
+     * @param workerCount 工作者线程数
+     */
+    public GroupFanout(Server server, int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+        }
+        this.server = server;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * 启动工作者线程
+     */
+    public void start() {
+        ExecutorService[] started = new ExecutorService[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            String name = "simpleqq-fanout-" + i;
+            started[i] = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        workers = started;
+    }
+
+    /**
+     * 把消息投递给群内除发送者外的所有在线成员
+     * 未启动时在调用线程上同步投递
+     * @param message 要投递的消息，提交后不得再修改
+     * @param members 群成员ID列表（调用方提供的快照）
+     */
+    public void fanout(Message message, List<String> members) {
+        long start = System.nanoTime();
+        sizes.record(members.size());
+        OutboundFrame frame = OutboundFrame.of(message);
+        try {
+            frame.payload(BINARY_CODEC); // 预先按最常用的协议编码一次，所有接收方共享
+        } catch (IOException e) {
+            LOG.error("Failed to encode group message: {}", e.getMessage());
+        }
+        String senderId = message.getSenderId();
+
+        ExecutorService[] current = workers;
+        if (current == null) {
+            deliver(frame, members, senderId);
+            latency.record(System.nanoTime() - start);
+            return;
+        }
+
+        List<List<String>> partitions = new ArrayList<>(current.length);
+        for (int i = 0; i < current.length; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (String memberId : members) {
+            if (!memberId.equals(senderId)) {
+                partitions.get(Math.floorMod(memberId.hashCode(), current.length)).add(memberId);
+            }
+        }
+
+        AtomicInteger remaining = new AtomicInteger();
+        for (List<String> partition : partitions) {
+            if (!partition.isEmpty()) {
+                remaining.incrementAndGet();
+            }
+        }
+        if (remaining.get() == 0) {
+            latency.record(System.nanoTime() - start);
+            return;
+        }
+
+        submitLock.lock();
+        try {
+            for (int i = 0; i < current.length; i++) {
+                List<String> partition = partitions.get(i);
+                if (partition.isEmpty()) {
+                    continue;
+                }
+                Runnable task = () -> {
+                    deliver(frame, partition, senderId);
+                    if (remaining.decrementAndGet() == 0) {
+                        latency.record(System.nanoTime() - start);
+                    }
+                };
+                try {
+                    current[i].execute(task);
+                } catch (RejectedExecutionException e) {
+                    // 服务器正在关闭，在调用线程上完成投递
+                    task.run();
+                }
+            }
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * 把消息帧放入一组成员的发送队列，跳过发送者；离线成员的消息保存到离线收件箱
+     */
+    private void deliver(OutboundFrame frame, List<String> memberIds, String senderId) {
+        for (String memberId : memberIds) {
+            if (!memberId.equals(senderId)) {
+                server.deliverOrStore(memberId, frame);
+            }
+        }
+    }
+
+    /**
+     * 获取扇出延迟直方图（纳秒）
+     * @return 延迟直方图
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    /**
+     * 获取扇出成员数直方图
+     * @return 每条群消息的成员数分布
+     */
+    public LatencyHistogram getSizeHistogram() {
+        return sizes;
+    }
+
+    /**
+     * 停止工作者线程，已提交的扇出任务会执行完毕
+     */
+    public void shutdown() {
+        ExecutorService[] current = workers;
+        workers = null;
+        if (current == null) {
+            return;
+        }
+        for (ExecutorService worker : current) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : current) {
+                worker.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
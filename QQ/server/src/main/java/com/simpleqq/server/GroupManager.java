@@ -1,28 +1,41 @@
 package com.simpleqq.server;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.simpleqq.common.LatencyHistogram;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
 
 /**
  * 群组管理器类
  * 负责群组创建、成员管理、群组邀请等功能
- * 使用文件系统进行数据持久化存储
+ * 使用文件系统进行数据持久化存储：groups.txt和group_invites.txt是快照，
+ * 每次修改只向groups.journal追加一条记录，启动时加载快照后重放日志，日志过长时在后台压缩成新快照
+ *
+ * 并发：成员列表、邀请列表和反向索引都是并发容器，读操作不加锁；
+ * 建群只锁住该群组所在的段，邀请、接受、拒绝锁住被邀请者和群组所在的段，不同群组的修改可以同时进行。
  */
 public class GroupManager {
+    private static final Logger LOG = Log.getLogger(GroupManager.class);
+
     private final String groupsFile;              // 群组信息文件
     private final String groupInvitesFile; // 群组邀请文件
+    private final Journal journal;         // 变更日志
 
-    private final Map<String, List<String>> groups;              // 群组映射表，key为群组ID，value为成员ID列表
-    private final Map<String, List<String>> pendingGroupInvites; // 待处理群组邀请，key为被邀请者ID，value为群组ID列表
+    private final Map<String, List<String>> groups;              // 群组映射表，key为群组ID，value为成员ID列表（写时复制，读取方遍历时不加锁）
+    private final Map<String, List<String>> pendingGroupInvites; // 待处理群组邀请，key为被邀请者ID，value为群组ID列表（写时复制）
+    private final Map<String, Set<String>> userGroups;           // 成员反向索引，key为用户ID，value为所在群组ID集合
+    private final StripedLock locks = new StripedLock(StripedLock.DEFAULT_STRIPES); // 写操作分段锁，按群组ID和用户ID选段；不使用synchronized，避免虚拟线程在文件I/O时被钉住载体线程
 
     /**
      * 构造函数
@@ -36,6 +49,16 @@ public class GroupManager {
      * Construct GroupManager reading/writing files under provided basePath
      */
     public GroupManager(String basePath) {
+        this(basePath, Journal.DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * 构造函数（可指定 basePath 和日志压缩阈值）
+     * 加载快照后重放变更日志，日志末尾崩溃时写了一半的记录会被丢弃
+     * @param basePath 数据文件目录
+     * @param compactThreshold 日志记录数达到该值后在后台压缩成快照
+     */
+    public GroupManager(String basePath, int compactThreshold) {
         String sep = System.getProperty("file.separator");
         if (basePath.endsWith("/") || basePath.endsWith("\\")) {
             this.groupsFile = basePath + "groups.txt";
@@ -44,11 +67,14 @@ public class GroupManager {
             this.groupsFile = basePath + sep + "groups.txt";
             this.groupInvitesFile = basePath + sep + "group_invites.txt";
         }
+        this.journal = new Journal(Paths.get(basePath, "groups.journal"), compactThreshold);
 
         groups = new ConcurrentHashMap<>();
         pendingGroupInvites = new ConcurrentHashMap<>();
+        userGroups = new ConcurrentHashMap<>();
         loadGroups();
         loadGroupInvites();
+        replayJournal();
     }
 
     /**
@@ -67,37 +93,32 @@ public class GroupManager {
                     // 从第二个元素开始都是成员ID
                     for (int i = 1; i < parts.length; i++) {
                         members.add(parts[i]);
+                        indexMember(parts[i], groupId);
                     }
-                    groups.put(groupId, members);
+                    groups.put(groupId, new CopyOnWriteArrayList<>(members));
                 }
             }
-            System.out.println("Loaded " + groups.size() + " groups.");
+            LOG.info("Loaded {} groups.", groups.size());
         } catch (FileNotFoundException e) {
-            System.out.println("Groups file not found. Creating a new one.");
+            LOG.info("Groups file not found. Creating a new one.");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * 保存群组信息到文件
-     * 将内存中的群组数据写入文件进行持久化
+     * 群组信息快照内容，每行格式：群组ID|成员ID1|成员ID2|...
      */
-    @SuppressWarnings("CallToPrintStackTrace")
-    private void saveGroups() {
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(groupsFile))) {
-            for (Map.Entry<String, List<String>> entry : groups.entrySet()) {
-                StringBuilder sb = new StringBuilder(entry.getKey());
-                for (String memberId : entry.getValue()) {
-                    sb.append("|").append(memberId);
-                }
-                writer.write(sb.toString());
-                writer.newLine();
+    private List<String> groupLines() {
+        List<String> lines = new ArrayList<>(groups.size());
+        for (Map.Entry<String, List<String>> entry : groups.entrySet()) {
+            StringBuilder sb = new StringBuilder(entry.getKey());
+            for (String memberId : entry.getValue()) {
+                sb.append("|").append(memberId);
             }
-            System.out.println("Saved " + groups.size() + " groups.");
-        } catch (IOException e) {
-            e.printStackTrace();
+            lines.add(sb.toString());
         }
+        return lines;
     }
 
     /**
@@ -113,33 +134,156 @@ public class GroupManager {
                 if (parts.length == 2) {
                     String invitedId = parts[0];
                     String groupId = parts[1];
-                    pendingGroupInvites.computeIfAbsent(invitedId, k -> new ArrayList<>()).add(groupId);
+                    pendingGroupInvites.computeIfAbsent(invitedId, k -> new CopyOnWriteArrayList<>()).add(groupId);
                 }
             }
-            System.out.println("Loaded group invites.");
+            LOG.info("Loaded group invites.");
         } catch (FileNotFoundException e) {
-            System.out.println("Group invites file not found. Creating a new one.");
+            LOG.info("Group invites file not found. Creating a new one.");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * 保存群组邀请信息到文件
+     * 群组邀请快照内容，每行格式：被邀请者ID|群组ID
+     */
+    private List<String> groupInviteLines() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : pendingGroupInvites.entrySet()) {
+            for (String groupId : entry.getValue()) {
+                lines.add(entry.getKey() + "|" + groupId);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 在快照之上重放变更日志
      */
     @SuppressWarnings("CallToPrintStackTrace")
-    private void saveGroupInvites() {
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(groupInvitesFile))) {
-            for (Map.Entry<String, List<String>> entry : pendingGroupInvites.entrySet()) {
-                String invitedId = entry.getKey();
-                for (String groupId : entry.getValue()) {
-                    writer.write(invitedId + "|" + groupId);
-                    writer.newLine();
+    private void replayJournal() {
+        try {
+            int replayed = journal.open(this::apply);
+            LOG.info("Replayed {} group journal records.", replayed);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        journal.compactIfNeeded(this::compact);
+    }
+
+    /**
+     * 应用一条变更记录
+     * 实时修改和启动重放共用此方法；每种记录都是幂等的赋值操作，重复应用结果不变
+     * @param record 操作名及参数
+     */
+    private void apply(String[] record) {
+        switch (record[0]) {
+            case "CREATE" -> {
+                if (!groups.containsKey(record[1])) {
+                    List<String> members = new CopyOnWriteArrayList<>();
+                    members.add(record[2]); // 创建者自动成为第一个成员
+                    groups.put(record[1], members);
+                    indexMember(record[2], record[1]);
                 }
             }
-            System.out.println("Saved group invites.");
+            case "INVITE" -> {
+                List<String> invites = pendingGroupInvites.computeIfAbsent(record[1], k -> new CopyOnWriteArrayList<>());
+                if (!invites.contains(record[2])) {
+                    invites.add(record[2]);
+                }
+            }
+            case "ACCEPT" -> {
+                removeInvite(record[1], record[2]);
+                List<String> members = groups.computeIfAbsent(record[2], k -> new CopyOnWriteArrayList<>());
+                if (!members.contains(record[1])) {
+                    members.add(record[1]); // 同一群组的修改持有同一段锁，先查后加不会重复
+                }
+                indexMember(record[1], record[2]);
+            }
+            case "REJECT" -> removeInvite(record[1], record[2]);
+            default -> LOG.warn("Unknown group journal record: {}", record[0]);
+        }
+    }
+
+    /**
+     * 在反向索引中登记群成员
+     */
+    private void indexMember(String userId, String groupId) {
+        userGroups.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(groupId);
+    }
+
+    private void removeInvite(String invitedId, String groupId) {
+        List<String> invites = pendingGroupInvites.get(invitedId);
+        if (invites != null) {
+            invites.remove(groupId);
+        }
+    }
+
+    /**
+     * 记录并应用一次修改，必须在持有记录所涉及群组和用户的段锁时调用
+     * 日志写入失败时仍然修改内存状态，与原先保存文件失败时的行为一致
+     * @param record 操作名及参数
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void record(String... record) {
+        try {
+            journal.append(record);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        apply(record);
+        journal.compactIfNeeded(this::compact);
+    }
+
+    /**
+     * 把当前状态压缩成快照并清空日志
+     * 锁住所有段后只复制状态并切换日志，快照文件在锁外写出，不阻塞其他修改
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    public void compact() {
+        List<String> groupSnapshot;
+        List<String> inviteSnapshot;
+        locks.lockAll();
+        try {
+            groupSnapshot = groupLines();
+            inviteSnapshot = groupInviteLines();
+            journal.rotate();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            locks.unlockAll();
+        }
+        try {
+            Journal.writeSnapshot(Paths.get(groupsFile), groupSnapshot);
+            Journal.writeSnapshot(Paths.get(groupInvitesFile), inviteSnapshot);
+            journal.discardRotated();
+            LOG.info("Compacted group journal: {} groups.", groupSnapshot.size());
+        } catch (IOException e) {
+            e.printStackTrace(); // 旧日志保留，下次启动或压缩时仍会重放
+        }
+    }
+
+    /**
+     * 获取保存修改（追加变更日志）的耗时直方图（纳秒）
+     */
+    public LatencyHistogram getSaveLatency() {
+        return journal.getAppendLatency();
+    }
+
+    /**
+     * 关闭变更日志
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    public void close() {
+        locks.lockAll();
+        try {
+            journal.close();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            locks.unlockAll();
         }
     }
 
@@ -147,17 +291,22 @@ public class GroupManager {
      * 创建新群组
      * @param groupId 群组ID，必须唯一
      * @param creatorId 创建者用户ID，自动成为群组第一个成员
-     * @return 创建成功返回true，群组ID已存在返回false
+     * @return 创建成功返回true，群组ID已存在或含有'|'、换行时返回false
      */
-    public synchronized boolean createGroup(String groupId, String creatorId) {
-        if (groups.containsKey(groupId)) {
-            return false; // 群组ID已存在
+    public boolean createGroup(String groupId, String creatorId) {
+        locks.lock(groupId);
+        try {
+            if (groups.containsKey(groupId)) {
+                return false; // 群组ID已存在
+            }
+            if (!Journal.isValidField(groupId) || !Journal.isValidField(creatorId)) {
+                return false; // 含有分隔符或换行，无法持久化
+            }
+            record("CREATE", groupId, creatorId); // 创建者自动成为第一个成员
+            return true;
+        } finally {
+            locks.unlock(groupId);
         }
-        List<String> members = new ArrayList<>();
-        members.add(creatorId); // 创建者自动成为第一个成员
-        groups.put(groupId, members);
-        saveGroups();
-        return true;
     }
 
     /**
@@ -167,27 +316,35 @@ public class GroupManager {
      * @param groupId 群组ID
      * @return 邀请发送成功返回true，失败返回false
      */
-    public synchronized boolean sendGroupInvite(String inviterId, String invitedId, String groupId) {
-        // 检查群组是否存在
-        if (!groups.containsKey(groupId)) {
-            return false; // 群组不存在
-        }
+    public boolean sendGroupInvite(String inviterId, String invitedId, String groupId) {
+        locks.lock(invitedId, groupId);
+        try {
+            // 检查群组是否存在
+            if (!groups.containsKey(groupId)) {
+                return false; // 群组不存在
+            }
         
-        // 检查被邀请用户是否已经是群成员
-        if (groups.get(groupId).contains(invitedId)) {
-            return false; // 用户已经是群成员
-        }
+            // 检查被邀请用户是否已经是群成员
+            if (groups.get(groupId).contains(invitedId)) {
+                return false; // 用户已经是群成员
+            }
 
-        // 允许重新发送邀请（简化处理，实际应用中可能需要更复杂的逻辑）
-        if (pendingGroupInvites.containsKey(invitedId) && 
-            pendingGroupInvites.get(invitedId).contains(groupId)) {
-            return true; // 邀请已存在，但允许重新发送
-        }
+            // 允许重新发送邀请（简化处理，实际应用中可能需要更复杂的逻辑）
+            if (pendingGroupInvites.containsKey(invitedId) && 
+                pendingGroupInvites.get(invitedId).contains(groupId)) {
+                return true; // 邀请已存在，但允许重新发送
+            }
+
+            if (!Journal.isValidField(invitedId)) {
+                return false; // 含有分隔符或换行，无法持久化
+            }
 
-        // 添加到待处理邀请列表
-        pendingGroupInvites.computeIfAbsent(invitedId, k -> new ArrayList<>()).add(groupId);
-        saveGroupInvites();
-        return true;
+            // 添加到待处理邀请列表
+            record("INVITE", invitedId, groupId);
+            return true;
+        } finally {
+            locks.unlock(invitedId, groupId);
+        }
     }
 
     /**
@@ -197,16 +354,19 @@ public class GroupManager {
      * @param groupId 群组ID
      * @return 接受成功返回true，失败返回false
      */
-    public synchronized boolean acceptGroupInvite(String invitedId, String groupId) {
-        List<String> invites = pendingGroupInvites.get(invitedId);
-        if (invites != null && invites.remove(groupId)) {
-            // 将用户添加到群组成员列表
-            groups.computeIfAbsent(groupId, k -> new ArrayList<>()).add(invitedId);
-            saveGroups();
-            saveGroupInvites();
-            return true;
+    public boolean acceptGroupInvite(String invitedId, String groupId) {
+        locks.lock(invitedId, groupId);
+        try {
+            List<String> invites = pendingGroupInvites.get(invitedId);
+            if (invites != null && invites.contains(groupId)) {
+                // 移除邀请并将用户添加到群组成员列表
+                record("ACCEPT", invitedId, groupId);
+                return true;
+            }
+            return false;
+        } finally {
+            locks.unlock(invitedId, groupId);
         }
-        return false;
     }
 
     /**
@@ -216,13 +376,18 @@ public class GroupManager {
      * @param groupId 群组ID
      * @return 拒绝成功返回true，失败返回false
      */
-    public synchronized boolean rejectGroupInvite(String invitedId, String groupId) {
-        List<String> invites = pendingGroupInvites.get(invitedId);
-        if (invites != null && invites.remove(groupId)) {
-            saveGroupInvites();
-            return true;
+    public boolean rejectGroupInvite(String invitedId, String groupId) {
+        locks.lock(invitedId, groupId);
+        try {
+            List<String> invites = pendingGroupInvites.get(invitedId);
+            if (invites != null && invites.contains(groupId)) {
+                record("REJECT", invitedId, groupId);
+                return true;
+            }
+            return false;
+        } finally {
+            locks.unlock(invitedId, groupId);
         }
-        return false;
     }
 
     /**
@@ -234,6 +399,30 @@ public class GroupManager {
         return groups.get(groupId);
     }
 
+    /**
+     * 获取群组的成员版本号
+     * 成员只会按入群先后追加、不会移除，版本号即成员数，位置i的成员在版本i+1时加入；
+     * 持有版本v的客户端从位置v开始读取即可得到此后加入的成员
+     * @param groupId 群组ID
+     * @return 版本号，群组不存在返回-1
+     */
+    public long getMembershipVersion(String groupId) {
+        List<String> members = groups.get(groupId);
+        return members == null ? -1 : members.size();
+    }
+
+    /**
+     * 判断用户是否为群成员
+     * 查成员反向索引，不需要遍历成员列表
+     * @param userId 用户ID
+     * @param groupId 群组ID
+     * @return 是群成员返回true
+     */
+    public boolean isMember(String userId, String groupId) {
+        Set<String> joined = userGroups.get(userId);
+        return joined != null && joined.contains(groupId);
+    }
+
     /**
      * 获取用户的待处理群组邀请列表
      * @param userId 用户ID
@@ -245,15 +434,13 @@ public class GroupManager {
 
     /**
      * 获取用户加入的所有群组列表
-     * 通过遍历所有群组找出包含指定用户的群组
+     * 直接查成员反向索引，耗时只与该用户所在的群组数有关
      * @param userId 用户ID
-     * @return 群组ID列表
+     * @return 群组ID列表（新的列表，调用方可以修改）
      */
     public List<String> getUserGroups(String userId) {
-        return groups.entrySet().stream()
-                .filter(entry -> entry.getValue().contains(userId)) // 过滤包含该用户的群组
-                .map(Map.Entry::getKey)                              // 提取群组ID
-                .collect(Collectors.toList());                       // 收集为列表
+        Set<String> joined = userGroups.get(userId);
+        return joined == null ? new ArrayList<>() : new ArrayList<>(joined);
     }
 
     /**
@@ -0,0 +1,178 @@
+package com.simpleqq.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+/**
+ * 聊天记录迁移工具
+ * 把.history目录下旧版的chat_history_*.txt文本文件转换为SegmentedHistoryStore的分段格式，
+ * 转换后的文本文件移动到.history/migrated目录。
+ *
+ * 文本文件包含了预写日志中的全部聊天记录，迁移的记录从日志之后分配新的序号，
+ * 并把分配过的最大序号记录到存储中，服务器重启后不会再把日志中的旧记录重放到已迁移的会话。
+ * 必须在服务器停止时、首次启动使用分段存储的版本之前运行；分段存储中已有记录的会话会被跳过。
+ * 旧版文本文件名由两个用户ID以'_'拼接，不同的用户组合可能写进同一个文件，因此按每条消息的发送者和接收者
+ * 重新计算会话ID，而不是沿用文件名。
+ *
+ * 用法：java -cp server.jar:common.jar com.simpleqq.server.HistoryMigration [.history目录]
+ */
+public final class HistoryMigration {
+    private static final Logger LOG = Log.getLogger(HistoryMigration.class);
+    static final String MIGRATED_DIR = "migrated";       // 已迁移的文本文件目录
+    private static final String FILE_PREFIX = "chat_history_";
+    private static final String GROUP_FILE_PREFIX = "chat_history_group_";
+    private static final Pattern LINE = Pattern.compile(
+        "^(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}) \\[(.*?)\\] to \\[(.*?)\\]: (.*)$"); // 文本记录行
+    private static final Pattern IMAGE = Pattern.compile("^\\[图片: (.*)\\]$");          // 图片消息内容
+
+    private HistoryMigration() {
+    }
+
+    /**
+     * 迁移目录下的所有文本聊天记录
+     * @param historyDir .history目录
+     * @return 迁移的消息条数
+     */
+    public static int migrate(Path historyDir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(historyDir)) {
+            list.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(FILE_PREFIX) && name.endsWith(".txt");
+            }).sorted().forEach(files::add);
+        }
+        if (files.isEmpty()) {
+            return 0;
+        }
+
+        long walSequence = 0;
+        Path wal = historyDir.resolve(ChatHistoryWriter.WAL_FILE_NAME);
+        if (Files.exists(wal)) {
+            long[] last = {0};
+            try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.READ)) {
+                ChatHistoryWriter.scan(channel, (sequence, position, message) -> last[0] = sequence);
+            }
+            walSequence = last[0];
+        }
+
+        int migrated = 0;
+        Path migratedDir = historyDir.resolve(MIGRATED_DIR);
+        Files.createDirectories(migratedDir);
+        try (SegmentedHistoryStore store = new SegmentedHistoryStore(
+                historyDir.resolve(ChatHistoryWriter.CONVERSATIONS_DIR), SegmentedHistoryStore.DEFAULT_SEGMENT_BYTES)) {
+            // 日志在检查点后被截断，其中的最大序号可能小于已经分配过的序号
+            long sequence = Math.max(Math.max(walSequence, store.getCheckpoint()), store.getSequenceFloor());
+            Set<String> migratedConversations = new HashSet<>(); // 本次迁移写入过的会话
+            Set<String> skippedConversations = new HashSet<>();  // 迁移前已有分段记录的会话
+            for (Path file : files) {
+                List<Message> messages = parse(file);
+                if (messages.isEmpty()) {
+                    continue;
+                }
+                int count = 0;
+                boolean skipped = false;
+                for (Message message : messages) {
+                    String conversationId = ChatHistoryWriter.conversationId(message);
+                    if (skippedConversations.contains(conversationId)) {
+                        skipped = true;
+                        continue;
+                    }
+                    if (!migratedConversations.contains(conversationId)) {
+                        if (store.getLastSequence(conversationId) > 0) {
+                            LOG.warn("Skipping {} messages: conversation {} already has segmented history.",
+                                file.getFileName(), conversationId);
+                            skippedConversations.add(conversationId);
+                            skipped = true;
+                            continue;
+                        }
+                        migratedConversations.add(conversationId);
+                    }
+                    store.append(conversationId, ++sequence, message);
+                    count++;
+                }
+                store.setSequenceFloor(sequence);
+                if (!skipped) {
+                    // 有跳过的消息时保留文件，由管理员处理；再次运行时已迁移的会话同样会被跳过
+                    Files.move(file, migratedDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                }
+                migrated += count;
+                LOG.info("Migrated {} messages from {}", count, file.getFileName());
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * 解析一个文本聊天记录文件
+     * 不符合记录格式的行视为上一条消息内容中的换行
+     * @param file 文本文件，使用平台默认字符集
+     * @return 按文件顺序排列的消息
+     */
+    static List<Message> parse(Path file) throws IOException {
+        boolean group = file.getFileName().toString().startsWith(GROUP_FILE_PREFIX);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        List<Message> messages = new ArrayList<>();
+        // 与原来的FileWriter写入方式一致使用平台默认字符集，无法解码的字节被替换而不是报错
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file),
+                Charset.defaultCharset()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = LINE.matcher(line);
+                if (!matcher.matches()) {
+                    if (!messages.isEmpty()) {
+                        Message previous = messages.get(messages.size() - 1);
+                        previous.setContent(previous.getContent() + "\n" + line);
+                    }
+                    continue;
+                }
+                String content = matcher.group(4);
+                MessageType type = group ? MessageType.GROUP_MESSAGE : MessageType.TEXT_MESSAGE;
+                Matcher image = IMAGE.matcher(content);
+                if (!group && image.matches()) {
+                    type = MessageType.IMAGE_MESSAGE;
+                    content = image.group(1);
+                }
+                Message message = new Message(type, matcher.group(2), matcher.group(3), content);
+                try {
+                    message.setTimestamp(dateFormat.parse(matcher.group(1)).getTime());
+                } catch (ParseException e) {
+                    throw new IOException("Invalid timestamp in " + file + ": " + line, e);
+                }
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 主方法
+     * @param args 可选的.history目录路径，默认为当前目录下的.history
+     */
+    public static void main(String[] args) throws IOException {
+        Path historyDir = Paths.get(args.length > 0 ? args[0] : ".history");
+        int migrated = migrate(historyDir);
+        LOG.info("Migrated {} messages in {}", migrated, historyDir.toAbsolutePath());
+    }
+}
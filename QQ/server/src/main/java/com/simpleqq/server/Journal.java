@@ -0,0 +1,309 @@
+package com.simpleqq.server;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.simpleqq.common.LatencyHistogram;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+
+/**
+ * 追加式变更日志
+ * 管理器的每次修改只向日志追加一行，启动时先加载快照文件再重放日志；
+ * 日志记录数超过阈值后由后台线程把内存状态压缩成新的快照。
+ *
+ * 记录格式：CRC32（8位十六进制）|字段1|字段2...，使用UTF-8编码。
+ * 字段不能包含'|'和换行，与快照文件的限制相同。
+ * 末尾不完整或校验失败的记录视为崩溃时写了一半，重放时截断。
+ *
+ * 压缩流程：在管理器锁内复制状态并调用rotate()把当前日志并入.old文件，
+ * 锁外写出快照，再调用discardRotated()删除.old文件。
+ * 快照替换后、.old删除前崩溃会在新快照上重放旧记录，因此记录必须是幂等的赋值操作。
+ */
+public class Journal implements Closeable {
+    private static final Logger LOG = Log.getLogger(Journal.class);
+    public static final int DEFAULT_COMPACT_THRESHOLD = 10000; // 默认触发压缩的记录数
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "simpleqq-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    }); // 所有日志共用的后台压缩线程
+
+    private final Path file;                 // 当前日志文件
+    private final Path rotatedFile;          // 压缩进行中的旧日志文件
+    private final int compactThreshold;      // 触发压缩的记录数
+    private final ReentrantLock lock = new ReentrantLock(); // 保护通道和记录计数
+    private final AtomicBoolean compacting = new AtomicBoolean(); // 是否已有压缩任务
+    private final LatencyHistogram appendLatency = new LatencyHistogram(); // 追加记录的耗时（纳秒），含等锁时间
+    private FileChannel channel;             // 日志写入通道，open()之后可用
+    private int recordCount;                 // 自上次压缩以来的记录数
+
+    /**
+     * 日志记录回调
+     */
+    public interface RecordHandler {
+        void apply(String[] fields);
+    }
+
+    /**
+     * 构造函数
+     * @param file 日志文件路径
+     * @param compactThreshold 记录数达到该值后建议压缩
+     */
+    public Journal(Path file, int compactThreshold) {
+        if (compactThreshold < 1) {
+            throw new IllegalArgumentException("compactThreshold must be positive: " + compactThreshold);
+        }
+        this.file = file;
+        this.rotatedFile = file.resolveSibling(file.getFileName() + ".old");
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * 重放日志并打开日志用于追加
+     * 应在加载快照之后调用；先重放未完成压缩的旧日志，再重放当前日志
+     * @param handler 每条有效记录的回调
+     * @return 重放的记录数
+     */
+    public int open(RecordHandler handler) throws IOException {
+        lock.lock();
+        try {
+            int replayed = 0;
+            if (Files.exists(rotatedFile)) {
+                replayed += replay(rotatedFile, handler, false);
+            }
+            replayed += replay(file, handler, true);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+            recordCount = replayed;
+            return replayed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int replay(Path path, RecordHandler handler, boolean truncateTail) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        byte[] data = Files.readAllBytes(path);
+        int count = 0;
+        int start = 0;
+        int newline;
+        while ((newline = indexOf(data, (byte) '\n', start)) >= 0) {
+            String[] fields = decode(new String(data, start, newline - start, StandardCharsets.UTF_8));
+            if (fields == null) {
+                break;
+            }
+            handler.apply(fields);
+            count++;
+            start = newline + 1;
+        }
+        if (start < data.length) {
+            LOG.warn("Discarding {} bytes of torn journal tail in {}", data.length - start, path);
+            if (truncateTail) {
+                try (FileChannel truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    truncate.truncate(start);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int indexOf(byte[] data, byte value, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 校验并拆分一行记录
+     * @return 字段数组，校验失败返回null
+     */
+    static String[] decode(String line) {
+        int separator = line.indexOf('|');
+        if (separator != 8) {
+            return null;
+        }
+        String body = line.substring(separator + 1);
+        try {
+            if (Long.parseLong(line.substring(0, separator), 16) != crc(body)) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return body.split("\\|", -1);
+    }
+
+    static String encode(String... fields) {
+        String body = String.join("|", fields);
+        return String.format("%08x", crc(body)) + "|" + body + "\n";
+    }
+
+    private static long crc(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * 检查字段是否可以写入日志和快照
+     * @param field 字段值
+     * @return 不为null且不含'|'和换行时返回true
+     */
+    public static boolean isValidField(String field) {
+        return field != null && field.indexOf('|') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0;
+    }
+
+    /**
+     * 追加一条记录
+     * 记录写入操作系统缓存后返回，不单独fsync
+     * @param fields 记录字段，第一个字段通常是操作名
+     * @throws IllegalArgumentException 字段含有分隔符或换行时抛出
+     */
+    public void append(String... fields) throws IOException {
+        for (String field : fields) {
+            if (!isValidField(field)) {
+                throw new IllegalArgumentException("Invalid journal field: " + field);
+            }
+        }
+        long start = System.nanoTime();
+        ByteBuffer buffer = ByteBuffer.wrap(encode(fields).getBytes(StandardCharsets.UTF_8));
+        lock.lock();
+        try {
+            if (channel == null) {
+                throw new IOException("Journal is not open: " + file);
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            recordCount++;
+        } finally {
+            lock.unlock();
+        }
+        appendLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * 获取追加记录的耗时直方图（纳秒）
+     */
+    public LatencyHistogram getAppendLatency() {
+        return appendLatency;
+    }
+
+    /**
+     * 获取自上次压缩以来的记录数
+     */
+    public int getRecordCount() {
+        lock.lock();
+        try {
+            return recordCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录数达到阈值时在后台线程上执行压缩，同一日志同时只有一个压缩任务
+     * @param compaction 压缩操作，内部应依次调用rotate()、写快照、discardRotated()
+     */
+    public void compactIfNeeded(Runnable compaction) {
+        if (getRecordCount() < compactThreshold || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        COMPACTOR.execute(() -> {
+            try {
+                compaction.run();
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    /**
+     * 把当前日志并入.old文件并开始新的日志
+     * 必须在持有管理器锁、且已复制好内存状态时调用
+     */
+    public void rotate() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (Files.exists(rotatedFile)) {
+                // 上次压缩未完成，旧日志仍然需要保留
+                Files.write(rotatedFile, Files.readAllBytes(file), StandardOpenOption.APPEND);
+                Files.delete(file);
+            } else if (Files.exists(file)) {
+                Files.move(file, rotatedFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+            recordCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 快照写出成功后删除.old文件
+     */
+    public void discardRotated() throws IOException {
+        Files.deleteIfExists(rotatedFile);
+    }
+
+    /**
+     * 原子地替换快照文件：先写临时文件并刷盘，再重命名覆盖
+     * 使用平台默认字符集，与原有的FileReader读取方式保持一致
+     * @param target 快照文件
+     * @param lines 快照内容，每个元素一行
+     */
+    public static void writeSnapshot(Path target, List<String> lines) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(temp), Charset.defaultCharset()))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        try (FileChannel sync = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            sync.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
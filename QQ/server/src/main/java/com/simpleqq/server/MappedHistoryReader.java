@@ -0,0 +1,262 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.simpleqq.common.BinaryMessageCodec;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageCodec;
+
+/**
+ * 内存映射的聊天记录读取器
+ * 通过FileChannel.map只读映射SegmentedHistoryStore的段文件，定位记录时只读取记录头中的长度、序号和时间戳，
+ * 不复制也不解码其余记录；只有最终返回的记录才校验CRC并解码。
+ *
+ * 每个段文件整体映射一次并缓存复用，返回的视图以调用方给出的有效长度为界。末尾的段由SegmentedHistoryStore
+ * 预分配到段大小，继续追加的记录仍在已有映射之内，只有有效长度超出映射（如未预分配的文件）时才重新映射；
+ * 超过上限时丢弃最久未使用的映射，被丢弃的映射在垃圾回收时解除。读取方法可以在任意线程并发调用。
+ * 除了供SegmentedHistoryStore查询使用，readLast()不需要打开存储，也可以直接读取任意会话目录（如客户端缓存）。
+ */
+public class MappedHistoryReader {
+    public static final int DEFAULT_MAX_MAPPINGS = 256;             // 默认保留的映射数
+    private static final int HEADER = SegmentedHistoryStore.RECORD_HEADER_LENGTH;
+
+    private final int maxMappings;                                  // 保留的映射数上限
+    private final MessageCodec codec = new BinaryMessageCodec();    // 记录负载解码
+    private final ReentrantLock lock = new ReentrantLock();         // 保护映射缓存
+    private final Map<Path, MappedByteBuffer> mappings = new LinkedHashMap<>(16, 0.75f, true); // 段文件映射（LRU）
+    private int mapCount;                                           // 创建过的映射数，由lock保护
+
+    public MappedHistoryReader() {
+        this(DEFAULT_MAX_MAPPINGS);
+    }
+
+    /**
+     * 构造函数
+     * @param maxMappings 保留的映射数上限
+     */
+    public MappedHistoryReader(int maxMappings) {
+        if (maxMappings <= 0) {
+            throw new IllegalArgumentException("maxMappings must be positive: " + maxMappings);
+        }
+        this.maxMappings = maxMappings;
+    }
+
+    /**
+     * 读取会话目录中最后limit条记录
+     * 从最后一个段的末尾开始，按稀疏索引划分的区间向前遍历记录头收集记录位置，凑够limit条后只解码这些记录。
+     * 索引文件缺失时整段遍历；段尾不完整的记录和预分配的零字节被忽略，因此可以读取正在被追加的目录。
+     * @param conversationDir 会话目录
+     * @param limit 最多返回的条数
+     * @return 从旧到新排列的消息，目录不存在时为空
+     */
+    public List<Message> readLast(Path conversationDir, int limit) throws IOException {
+        List<Message> result = new ArrayList<>();
+        if (limit <= 0 || !Files.isDirectory(conversationDir)) {
+            return result;
+        }
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(conversationDir)) {
+            segments = files.filter(path -> path.getFileName().toString().endsWith(SegmentedHistoryStore.SEGMENT_SUFFIX))
+                .sorted(Comparator.reverseOrder()) // 段文件名是补零的起始序号，按名称倒序即从新到旧
+                .toList();
+        }
+
+        List<ByteBuffer> buffers = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        List<int[]> positions = new ArrayList<>();
+        int collected = 0;
+        for (Path segment : segments) {
+            ByteBuffer data = map(segment, Files.size(segment));
+            long[] starts = chunkStarts(segment, data.limit());
+            // 从段尾的索引区间开始向前，每个区间只遍历记录头
+            for (int k = starts.length - 1; k >= 0 && collected < limit; k--) {
+                int end = k + 1 < starts.length ? (int) starts[k + 1] : data.limit();
+                int[] found = new int[64];
+                int count = 0;
+                int position = (int) starts[k];
+                while (position + HEADER <= end) {
+                    int length = data.getInt(position);
+                    if (length <= 0 || length > end - position - HEADER) {
+                        break; // 未写完的记录或预分配的空间
+                    }
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = position;
+                    position += HEADER + length;
+                }
+                buffers.add(data);
+                files.add(segment);
+                positions.add(Arrays.copyOf(found, count));
+                collected += count;
+            }
+            if (collected >= limit) {
+                break;
+            }
+        }
+
+        int skip = Math.max(0, collected - limit);
+        for (int s = buffers.size() - 1; s >= 0; s--) {
+            for (int position : positions.get(s)) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                result.add(decode(buffers.get(s), position, files.get(s)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取段文件的索引项偏移，作为向前遍历的区间起点
+     * 索引文件缺失或残缺时退化为从段首开始的一个区间
+     */
+    private static long[] chunkStarts(Path segment, int size) throws IOException {
+        String name = segment.getFileName().toString();
+        String base = name.substring(0, name.length() - SegmentedHistoryStore.SEGMENT_SUFFIX.length());
+        Path indexFile = segment.resolveSibling(base + SegmentedHistoryStore.INDEX_SUFFIX);
+        if (!Files.exists(indexFile)) {
+            return new long[] {0};
+        }
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        long[] starts = new long[index.remaining() / SegmentedHistoryStore.INDEX_ENTRY_LENGTH + 1];
+        int count = 1; // starts[0]为段首
+        while (index.remaining() >= SegmentedHistoryStore.INDEX_ENTRY_LENGTH) {
+            index.getLong();
+            index.getLong();
+            long offset = index.getLong();
+            if (offset == 0) {
+                continue; // 第一个索引项指向段首
+            }
+            if (offset <= starts[count - 1] || offset >= size) {
+                break; // 与数据不一致的索引项之后不再使用
+            }
+            starts[count++] = offset;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * 获取段文件前size字节的只读视图
+     * 映射覆盖整个文件，已有映射不小于size时直接复用；
+     * 返回的视图各自独立，调用方使用绝对位置读取，多个线程可以同时读取同一个映射
+     * @param segmentFile 段文件
+     * @param size 有效数据长度，不能超过文件长度
+     */
+    ByteBuffer map(Path segmentFile, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("History segment too large to map: " + segmentFile);
+        }
+        lock.lock();
+        try {
+            MappedByteBuffer mapped = mappings.get(segmentFile);
+            if (mapped == null || mapped.capacity() < size) {
+                try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+                    long length = Math.min(Integer.MAX_VALUE, Math.max(size, channel.size()));
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                }
+                mapCount++;
+                mappings.put(segmentFile, mapped);
+                if (mappings.size() > maxMappings) {
+                    Iterator<MappedByteBuffer> eldest = mappings.values().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            return mapped.duplicate().limit((int) size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取创建过的映射数，仅用于测试
+     */
+    int getMapCount() {
+        lock.lock();
+        try {
+            return mapCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃所有映射
+     */
+    void clear() {
+        lock.lock();
+        try {
+            mappings.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取下一条记录的位置，只读取记录头中的长度
+     * @param data 段文件视图
+     * @param position 记录位置
+     * @param end 区间终点，记录不能越过该位置
+     * @param file 段文件，用于错误信息
+     */
+    static int next(ByteBuffer data, int position, int end, Path file) throws IOException {
+        int length = data.getInt(position);
+        if (length < 0 || length > end - position - HEADER) {
+            throw new IOException("Corrupt history record in " + file + " at " + position);
+        }
+        return position + HEADER + length;
+    }
+
+    /**
+     * 读取记录头中的序号
+     */
+    static long sequence(ByteBuffer data, int position) {
+        return data.getLong(position + 8);
+    }
+
+    /**
+     * 读取记录头中的时间戳
+     */
+    static long timestamp(ByteBuffer data, int position) {
+        return data.getLong(position + 16);
+    }
+
+    /**
+     * 校验并解码一条记录
+     * @param data 段文件视图
+     * @param position 记录位置
+     * @param file 段文件，用于错误信息
+     */
+    Message decode(ByteBuffer data, int position, Path file) throws IOException {
+        int length = data.getInt(position);
+        if (length < 0 || length > data.limit() - position - HEADER) {
+            throw new IOException("Corrupt history record in " + file + " at " + position);
+        }
+        byte[] record = new byte[HEADER + length];
+        data.get(position, record);
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, HEADER - 8 + length);
+        if ((int) crc.getValue() != data.getInt(position + 4)) {
+            throw new IOException("Corrupt history record in " + file + " at " + position);
+        }
+        return codec.decode(record, HEADER, length);
+    }
+}
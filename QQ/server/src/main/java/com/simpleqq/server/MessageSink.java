@@ -0,0 +1,23 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 阻塞流上的消息写出端
+ * 由QueuedConnection的写出任务调用，一批消息只flush一次
+ */
+interface MessageSink {
+
+    /**
+     * 按顺序写出一批消息并flush
+     * @param batch 要写出的消息帧，至少包含一条
+     * @throws IOException 写出失败时抛出
+     */
+    void write(List<OutboundFrame> batch) throws IOException;
+
+    /**
+     * 关闭底层流，可重复调用
+     */
+    void close();
+}
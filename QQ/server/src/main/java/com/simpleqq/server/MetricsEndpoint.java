@@ -0,0 +1,66 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 指标HTTP端点
+ * 使用JDK自带的HttpServer在本机回环地址上提供GET /metrics，返回MetricsRegistry的Prometheus文本格式输出。
+ * 只监听回环地址，需要远程采集时通过反向代理或SSH隧道暴露。
+ */
+public class MetricsEndpoint implements AutoCloseable {
+    private static final Logger LOG = Log.getLogger(MetricsEndpoint.class);
+    public static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer httpServer;               // HTTP服务器，使用单个分发线程处理请求
+
+    /**
+     * 绑定端口并开始服务
+     * @param port 端口，0表示自动分配
+     * @param registry 要输出的指标
+     * @throws IOException 端口绑定失败时抛出
+     */
+    public MetricsEndpoint(int port, MetricsRegistry registry) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext(PATH, exchange -> handle(exchange, registry));
+        httpServer.start();
+        LOG.info("Metrics available at http://{}:{}{}", InetAddress.getLoopbackAddress().getHostAddress(),
+            getPort(), PATH);
+    }
+
+    private static void handle(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * 获取实际监听的端口
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+    }
+}
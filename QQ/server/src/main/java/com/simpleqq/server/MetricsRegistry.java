@@ -0,0 +1,157 @@
+package com.simpleqq.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import com.simpleqq.common.LatencyHistogram;
+
+/**
+ * 指标注册表
+ * 计数器为LongAdder，直方图为LatencyHistogram，记录时直接操作这些对象，不经过注册表，也不加锁；
+ * 注册只在启动时发生，由锁保护。scrape()按Prometheus文本格式（0.0.4）输出全部指标，
+ * 直方图输出为summary类型的若干分位数及_sum/_count。
+ *
+ * 同名指标组成一个指标族，共享HELP和TYPE，用标签区分，标签以已格式化的字符串传入，如type="LOGIN"。
+ */
+public class MetricsRegistry {
+    public static final double NANOS_TO_SECONDS = 1e-9;                // 纳秒直方图以秒输出
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};  // 直方图输出的分位数
+
+    private final ReentrantLock lock = new ReentrantLock();            // 保护families
+    private final Map<String, Family> families = new LinkedHashMap<>(); // 按注册顺序排列的指标族
+
+    /**
+     * 指标族：同名、同类型、不同标签的一组指标
+     */
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;                                 // counter、gauge或summary
+        final List<Sample> samples = new ArrayList<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * 指标族中的一个指标，value、histogram按类型二选一
+     */
+    private record Sample(String labels, LongSupplier value, LatencyHistogram histogram, double scale) {
+    }
+
+    /**
+     * 注册一个计数器
+     * @param name 指标名，按约定以_total结尾
+     * @param labels 标签，如type="LOGIN"，没有标签时为空字符串
+     * @param help 说明
+     * @return 计数器，调用方直接递增
+     */
+    public LongAdder counter(String name, String labels, String help) {
+        LongAdder counter = new LongAdder();
+        add(name, help, "counter", new Sample(labels, counter::sum, null, 0));
+        return counter;
+    }
+
+    /**
+     * 注册一个在输出时求值的仪表
+     * @param value 取值函数，在输出线程调用
+     */
+    public void gauge(String name, String labels, String help, LongSupplier value) {
+        add(name, help, "gauge", new Sample(labels, value, null, 0));
+    }
+
+    /**
+     * 注册一个新的直方图
+     * @param scale 输出时乘以的系数，纳秒延迟用NANOS_TO_SECONDS
+     * @return 直方图，调用方直接记录
+     */
+    public LatencyHistogram histogram(String name, String labels, String help, double scale) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        register(name, labels, help, histogram, scale);
+        return histogram;
+    }
+
+    /**
+     * 注册一个已有的直方图，如组件自己维护的延迟统计
+     */
+    public void register(String name, String labels, String help, LatencyHistogram histogram, double scale) {
+        add(name, help, "summary", new Sample(labels, null, histogram, scale));
+    }
+
+    private void add(String name, String help, String type, Sample sample) {
+        lock.lock();
+        try {
+            Family family = families.computeIfAbsent(name, key -> new Family(key, help, type));
+            if (!family.type.equals(type)) {
+                throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type);
+            }
+            for (Sample existing : family.samples) {
+                if (existing.labels().equals(sample.labels())) {
+                    throw new IllegalArgumentException("Duplicate metric " + name + "{" + sample.labels() + "}");
+                }
+            }
+            family.samples.add(sample);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按Prometheus文本格式输出全部指标
+     * @return 文本，每个指标族以HELP和TYPE行开头
+     */
+    public String scrape() {
+        List<Family> snapshot;
+        List<List<Sample>> samples = new ArrayList<>();
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(families.values());
+            for (Family family : snapshot) {
+                samples.add(new ArrayList<>(family.samples));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        StringBuilder sb = new StringBuilder(4096);
+        for (int i = 0; i < snapshot.size(); i++) {
+            Family family = snapshot.get(i);
+            sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Sample sample : samples.get(i)) {
+                if (sample.histogram() == null) {
+                    line(sb, family.name, sample.labels(), null, Long.toString(sample.value().getAsLong()));
+                    continue;
+                }
+                LatencyHistogram histogram = sample.histogram();
+                for (double quantile : QUANTILES) {
+                    line(sb, family.name, sample.labels(), "quantile=\"" + quantile + "\"",
+                        Double.toString(histogram.percentile(quantile * 100) * sample.scale()));
+                }
+                line(sb, family.name + "_sum", sample.labels(), null, Double.toString(histogram.getSum() * sample.scale()));
+                line(sb, family.name + "_count", sample.labels(), null, Long.toString(histogram.getCount()));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, String labels, String extraLabel, String value) {
+        sb.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            sb.append('{').append(labels);
+            if (extraLabel != null) {
+                sb.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+}
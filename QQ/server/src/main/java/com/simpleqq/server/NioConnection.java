@@ -0,0 +1,412 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageCodec;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * 非阻塞连接
+ * 在事件循环线程上完成握手、拆帧和解码，解码后的消息在工作线程池上按到达顺序串行交给ClientHandler分发，
+ * 断开处理排在已收到的消息之后；未处理的消息积压到MAX_PENDING_INBOUND条时暂停读取，消化到一半后恢复。
+ * 本连接的发送队列超过低水位时也暂停处理，等事件循环写出后再继续，连续请求产生的回复不会越积越多。
+ * 任意线程都可以调用send，消息进入连接的OutboundQueue，由事件循环线程批量编码后
+ * 以gathering write一次写出多帧；Socket发送缓冲区满时等待OP_WRITE，不阻塞调用方。
+ */
+final class NioConnection implements ClientConnection {
+    private static final Logger LOG = Log.getLogger(NioConnection.class);
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;   // 初始读缓冲区大小
+    private static final int MAX_BATCH = 64;                     // 单次gathering write的最大消息数，也是工作线程单次处理的最大任务数
+    private static final int MAX_PENDING_INBOUND = 256;          // 暂停读取前允许积压的未处理消息数
+
+    private final SocketChannel channel;                         // 客户端通道
+    private final NioEventLoop loop;                             // 所属事件循环
+    private final ClientHandler handler;                         // 消息分发处理器
+    private final Executor workers;                              // 处理消息的工作线程池
+    private final Queue<Runnable> inbound = new ConcurrentLinkedQueue<>(); // 待在工作线程上串行执行的任务
+    private final AtomicBoolean draining = new AtomicBoolean();  // 是否已提交处理任务
+    private final AtomicInteger pendingInbound = new AtomicInteger(); // 已解码尚未处理完的消息数
+    private final OutboundQueue outbound;                        // 发送队列
+    private final Deque<ByteBuffer> pendingWrites = new ArrayDeque<>(); // 已编码尚未写完的帧，仅事件循环线程访问
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(); // 是否已提交写出任务
+    private SelectionKey key;                                    // 选择键
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); // 读缓冲区（写模式）
+    private int requiredCapacity;                                // 当前不完整帧所需的缓冲区容量
+    private volatile MessageCodec codec;                         // 握手后协商得到的编解码器
+    private volatile boolean closed;                             // 是否已关闭
+    private volatile boolean closing;                            // 是否已请求关闭，其他线程请求时关闭在事件循环线程上稍后完成
+    private volatile boolean readPaused;                         // 是否因积压过多暂停读取
+    private volatile boolean awaitingFlush;                      // 是否因发送积压暂停处理消息
+
+    NioConnection(SocketChannel channel, NioEventLoop loop, Executor workers, Server server) {
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+        this.handler = new ClientHandler(server, this);
+        this.outbound = OutboundQueue.forConfig(server.getConfig());
+    }
+
+    void register(Selector selector) throws ClosedChannelException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * 处理就绪事件，仅在事件循环线程调用
+     * @param key 就绪的选择键
+     */
+    void handle(SelectionKey key) {
+        try {
+            if (key.isReadable()) {
+                onReadable();
+            }
+            if (!closed && key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Closing connection {}: {}", remoteAddress(), e);
+            close();
+        }
+    }
+
+    private void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        processReadBuffer();
+    }
+
+    /**
+     * 从读缓冲区解码尽可能多的帧，暂停读取时剩余的帧留在缓冲区中
+     */
+    private void processReadBuffer() throws IOException {
+        readBuffer.flip();
+        requiredCapacity = 0;
+        if (codec != null || readHandshake()) {
+            while (!closed && !readPaused && decodeFrame()) {
+                // 持续解码直到缓冲区中没有完整的帧
+            }
+        }
+        if (closed) {
+            return;
+        }
+
+        if (requiredCapacity > readBuffer.capacity()) {
+            // 帧大于当前缓冲区，扩容后保留已读到的部分
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(requiredCapacity, readBuffer.capacity() * 2));
+            larger.put(readBuffer);
+            readBuffer = larger;
+        } else {
+            readBuffer.compact();
+            if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+                // 大帧处理完毕后释放大缓冲区，避免空闲连接长期占用内存
+                readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            }
+        }
+    }
+
+    /**
+     * 读取并校验客户端握手，回复协商后的版本
+     * @return 握手完成返回true
+     */
+    private boolean readHandshake() throws IOException {
+        if (readBuffer.remaining() < WireProtocol.HANDSHAKE_LENGTH) {
+            return false;
+        }
+        byte[] handshake = new byte[WireProtocol.HANDSHAKE_LENGTH];
+        readBuffer.get(handshake);
+        if (!WireProtocol.isHandshake(handshake)) {
+            LOG.info("Rejecting non-framed client {} on NIO transport.", remoteAddress());
+            close();
+            return false;
+        }
+
+        byte version = WireProtocol.negotiate(handshake[3]);
+        pendingWrites.addLast(ByteBuffer.wrap(WireProtocol.handshake(version)));
+        if (version == 0) {
+            flush();
+            close();
+            return false;
+        }
+        codec = WireProtocol.codecFor(version);
+        flush();
+        return true;
+    }
+
+    /**
+     * 尝试从读缓冲区解码一帧
+     * @return 解码出一条消息返回true，数据不足返回false
+     */
+    private boolean decodeFrame() throws IOException {
+        if (readBuffer.remaining() < WireProtocol.FRAME_HEADER_LENGTH) {
+            return false;
+        }
+        int length = readBuffer.getInt(readBuffer.position());
+        if (length < 0 || length > WireProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        int frameLength = WireProtocol.FRAME_HEADER_LENGTH + length;
+        if (readBuffer.remaining() < frameLength) {
+            requiredCapacity = frameLength;
+            return false;
+        }
+
+        int payloadStart = readBuffer.position() + WireProtocol.FRAME_HEADER_LENGTH;
+        Message message = codec.decode(readBuffer.array(), readBuffer.arrayOffset() + payloadStart, length);
+        readBuffer.position(payloadStart + length);
+        if (pendingInbound.incrementAndGet() >= MAX_PENDING_INBOUND) {
+            pauseReading();
+        }
+        dispatch(() -> handleInbound(message));
+        return true;
+    }
+
+    /**
+     * 在工作线程上处理一条消息
+     */
+    private void handleInbound(Message message) {
+        try {
+            handler.handleMessage(message);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Closing connection {}: {}", remoteAddress(), e);
+            close();
+        } finally {
+            if (pendingInbound.decrementAndGet() <= MAX_PENDING_INBOUND / 2 && readPaused) {
+                loop.execute(this::resumeReading);
+            }
+        }
+    }
+
+    /**
+     * 积压过多时停止读取，仅在事件循环线程调用
+     */
+    private void pauseReading() {
+        readPaused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        if (pendingInbound.get() <= MAX_PENDING_INBOUND / 2) {
+            loop.execute(this::resumeReading); // 暂停前工作线程已经消化完积压，解码结束后再恢复
+        }
+    }
+
+    /**
+     * 恢复读取并解码暂停时留在缓冲区中的帧，仅在事件循环线程调用
+     */
+    private void resumeReading() {
+        if (!readPaused || closed) {
+            return;
+        }
+        readPaused = false;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        try {
+            processReadBuffer();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Closing connection {}: {}", remoteAddress(), e);
+            close();
+        }
+    }
+
+    /**
+     * 把任务排入本连接的串行队列，由工作线程按提交顺序执行
+     */
+    private void dispatch(Runnable task) {
+        inbound.add(task);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                workers.execute(this::drainInbound);
+            } catch (RejectedExecutionException e) {
+                drainInbound(); // 服务器停止时工作线程池已关闭，就地执行剩余任务
+            }
+        }
+    }
+
+    /**
+     * 执行一批任务后让出工作线程，避免一个连接独占线程；仍有任务时重新提交
+     */
+    private void drainInbound() {
+        for (int i = 0; i < MAX_BATCH; i++) {
+            if (!closing && outbound.isBacklogged()) {
+                // 先放开处理标志再登记等待，写出后由事件循环重新提交；登记后再检查一次，避免写出恰好在此之前完成
+                draining.set(false);
+                awaitingFlush = true;
+                if (!outbound.isBacklogged()) {
+                    resumeDrain();
+                }
+                return;
+            }
+            Runnable task = inbound.poll();
+            if (task == null) {
+                break;
+            }
+            task.run();
+        }
+        draining.set(false);
+        if (!inbound.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void resumeDrain() {
+        if (awaitingFlush) {
+            awaitingFlush = false;
+            scheduleDrain();
+        }
+    }
+
+    @Override
+    public void send(OutboundFrame frame) {
+        if (closing) {
+            return;
+        }
+        OutboundQueue.OfferResult result;
+        try {
+            result = outbound.offer(frame);
+        } catch (IOException e) {
+            LOG.warn("Failed to spill outbound message for {}: {}", remoteAddress(), e.getMessage());
+            close();
+            return;
+        }
+        if (result == OutboundQueue.OfferResult.OVERFLOW) {
+            LOG.info("Disconnecting slow consumer {} with {} queued messages.", remoteAddress(), outbound.size());
+            close();
+            return;
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public int getQueuedCount() {
+        return outbound.size();
+    }
+
+    @Override
+    public int getProtocolVersion() {
+        MessageCodec current = codec;
+        return current == null ? 0 : current.version();
+    }
+
+    /**
+     * 安排写出：事件循环线程上直接写，其他线程提交一次写任务
+     */
+    private void scheduleFlush() {
+        if (loop.inEventLoop()) {
+            flushOrClose();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                flushOrClose();
+            });
+        }
+    }
+
+    private void flushOrClose() {
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * 尽可能多地写出：先写完上一批剩余的帧，再从发送队列取下一批编码写出；
+     * Socket发送缓冲区满时注册OP_WRITE等待可写，仅在事件循环线程调用
+     */
+    private void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        while (true) {
+            if (pendingWrites.isEmpty() && !fillPendingWrites()) {
+                break;
+            }
+            channel.write(pendingWrites.toArray(new ByteBuffer[0]));
+            while (!pendingWrites.isEmpty() && !pendingWrites.peekFirst().hasRemaining()) {
+                pendingWrites.pollFirst();
+            }
+            if (!pendingWrites.isEmpty()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * 从发送队列取出一批消息帧，按连接的编解码器取得负载
+     * @return 取到消息返回true
+     */
+    private boolean fillPendingWrites() throws IOException {
+        MessageCodec current = codec;
+        if (current == null) {
+            return false; // 握手完成前不发送消息
+        }
+        List<OutboundFrame> batch = outbound.poll(MAX_BATCH);
+        for (OutboundFrame frame : batch) {
+            // 负载可能被多个连接共享，只包装不复制，帧头单独写出
+            byte[] payload = frame.payload(current);
+            ByteBuffer header = ByteBuffer.allocate(WireProtocol.FRAME_HEADER_LENGTH);
+            header.putInt(0, payload.length);
+            pendingWrites.addLast(header);
+            pendingWrites.addLast(ByteBuffer.wrap(payload));
+        }
+        if (awaitingFlush && !outbound.isBacklogged()) {
+            resumeDrain();
+        }
+        return !batch.isEmpty();
+    }
+
+    @Override
+    public void close() {
+        closing = true;
+        if (!loop.inEventLoop()) {
+            loop.execute(this::close);
+            return;
+        }
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 连接已断开，忽略关闭异常
+        }
+        pendingWrites.clear();
+        outbound.close();
+        dispatch(handler::onDisconnect);
+    }
+
+    private String remoteAddress() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+
+/**
+ * NIO事件循环
+ * 每个事件循环独占一个线程和一个Selector，负责其名下所有连接的读写事件。
+ * 其他线程需要操作连接时，通过execute提交任务到事件循环线程执行。
+ */
+final class NioEventLoop implements Runnable {
+    private static final Logger LOG = Log.getLogger(NioEventLoop.class);
+
+    private final Server server;                                     // 服务器实例引用
+    private final Executor workers;                                  // 处理消息的工作线程池
+    private final Selector selector;                                 // 多路复用选择器
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // 待在循环线程上执行的任务
+    private final Thread thread;                                     // 事件循环线程
+    private volatile boolean running = true;                         // 运行标志
+
+    NioEventLoop(Server server, Executor workers, String name) throws IOException {
+        this.server = server;
+        this.workers = workers;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * 判断当前线程是否为事件循环线程
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 提交任务到事件循环线程执行
+     * @param task 任务
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 将新接受的连接注册到本事件循环
+     * @param channel 已设置为非阻塞的SocketChannel
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            NioConnection connection = new NioConnection(channel, this, workers, server);
+            try {
+                connection.register(selector);
+            } catch (ClosedChannelException e) {
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * 请求停止事件循环，已注册的连接会被全部关闭
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                LOG.warn("Selector failure in {}: {}", thread.getName(), e.getMessage());
+                break;
+            }
+            runTasks();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid()) {
+                    ((NioConnection) key.attachment()).handle(key);
+                }
+            }
+        }
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Task failed in {}: {}", thread.getName(), e);
+            }
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            ((NioConnection) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close selector: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+
+/**
+ * 基于Selector的非阻塞传输层
+ * 一个接收线程负责accept，新连接按轮询方式分配给固定数量的NioEventLoop，
+ * 连接数增长时线程数保持不变。客户端必须使用WireProtocol分帧协议连接。
+ * 消息处理会读写磁盘（日志、图片、离线消息、聊天记录），因此事件循环只负责拆帧和Socket读写，
+ * 解码后的消息交给固定大小的工作线程池按连接串行处理，一次慢速磁盘操作不会拖住同一循环上的其他连接。
+ */
+public class NioTransport implements ServerTransport {
+    private static final Logger LOG = Log.getLogger(NioTransport.class);
+
+    private final Server server;               // 服务器实例引用
+    private final int ioThreads;               // 事件循环数量
+    private final int workerThreads;           // 工作线程数量
+    private ExecutorService workers;           // 处理消息的工作线程池
+    private NioEventLoop[] loops;              // 事件循环数组
+    private ServerSocketChannel serverChannel; // 监听通道
+    private Thread acceptor;                   // 接受连接的线程
+    private int nextLoop;                      // 下一个分配的事件循环下标
+
+    public NioTransport(Server server, int ioThreads, int workerThreads) {
+        this.server = server;
+        this.ioThreads = ioThreads;
+        this.workerThreads = workerThreads;
+    }
+
+    @Override
+    public void start(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        AtomicInteger counter = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, task -> {
+            Thread thread = new Thread(task, "simpleqq-nio-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        loops = new NioEventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new NioEventLoop(server, workers, "simpleqq-nio-" + i);
+            loops[i].start();
+        }
+        acceptor = new Thread(this::acceptLoop, "simpleqq-nio-acceptor");
+        acceptor.start();
+    }
+
+    /**
+     * 接受连接并分配给事件循环
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void acceptLoop() {
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                LOG.info("New client connected: {}", channel.getRemoteAddress());
+
+                NioEventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                loop.register(channel);
+            }
+        } catch (IOException e) {
+            if (serverChannel.isOpen()) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        if (serverChannel == null) {
+            return -1;
+        }
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void awaitTermination() throws InterruptedException {
+        if (acceptor != null) {
+            acceptor.join();
+        }
+        if (loops != null) {
+            for (NioEventLoop loop : loops) {
+                loop.join();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close server channel: {}", e.getMessage());
+        }
+        if (loops != null) {
+            for (NioEventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+        if (workers != null) {
+            // 事件循环关闭连接时会提交断开处理，等循环退出后再关闭工作线程池，让已提交的消息处理完
+            try {
+                if (loops != null) {
+                    for (NioEventLoop loop : loops) {
+                        loop.join();
+                    }
+                }
+                workers.shutdown();
+                if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                    LOG.warn("NIO workers did not finish within 5 seconds.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
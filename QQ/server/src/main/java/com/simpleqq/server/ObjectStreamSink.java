@@ -0,0 +1,41 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * 基于ObjectOutputStream的写出端
+ * 阻塞模式下兼容旧版客户端的Java对象流协议
+ */
+class ObjectStreamSink implements MessageSink {
+    private final ObjectOutputStream oos;   // 对象输出流
+    private final Socket socket;            // 客户端Socket
+
+    ObjectStreamSink(ObjectOutputStream oos, Socket socket) {
+        this.oos = oos;
+        this.socket = socket;
+    }
+
+    @Override
+    public void write(List<OutboundFrame> batch) throws IOException {
+        for (OutboundFrame frame : batch) {
+            oos.writeObject(frame.getMessage());
+        }
+        oos.flush(); // 整批写完后flush一次
+    }
+
+    /**
+     * 直接关闭Socket而不是输出流：关闭流会先flush，
+     * 在写出任务阻塞于慢接收方时会等待同一把写锁
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 连接已断开，忽略关闭异常
+        }
+    }
+}
@@ -0,0 +1,683 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import com.simpleqq.common.BinaryMessageCodec;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageCodec;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * 离线消息收件箱
+ * 接收方不在线（或仍有未投递的积压）时，私聊、图片和群消息按用户追加到磁盘：
+ * 每个用户一个目录，消息依次追加到分段文件，段写满后新开一段，段文件名是该段第一条记录的逻辑偏移；
+ * cursor文件保存下一条未投递记录的逻辑偏移。内存中只保存每个用户的段列表和游标，
+ * 积压十万条以上的用户也不会把消息读入堆。
+ *
+ * 用户登录后由后台线程按批读取积压放入连接的发送队列，发送队列积压过多时暂停，不阻塞登录响应；
+ * 投递期间新到达的消息继续追加到收件箱末尾，保证按到达顺序投递。
+ * 消息放入发送队列即视为已投递（游标前移），之后连接断开时队列中的消息不会重发。
+ *
+ * 每个用户最后一段的追加通道保持打开，最多同时打开MAX_OPEN_APPENDERS个，超出时关闭最久未写入的。
+ * 持久性由FsyncPolicy决定：always在deliver返回前刷盘；records:N每个用户累计N条刷盘一次；
+ * interval:毫秒数由后台线程定时刷盘；never只写入操作系统缓存。除always外，进程崩溃不会丢消息，
+ * 但机器掉电时可能丢失最后一个刷盘周期内（records模式下为每个用户最多N-1条）的离线消息。
+ * 游标文件不刷盘，掉电后游标可能回退，已投递的消息会再投递一次。
+ *
+ * 记录格式：[4字节负载长度][4字节CRC32][二进制编码的消息]
+ */
+public class OfflineInbox {
+    private static final Logger LOG = Log.getLogger(OfflineInbox.class);
+    static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;  // 默认段大小
+    static final int DELIVERY_BATCH = 256;                     // 每批读取的消息数
+    private static final int RECORD_HEADER_LENGTH = 8;         // 记录头：长度 + CRC
+    private static final long BACKLOG_PAUSE_MILLIS = 5;        // 发送队列积压过多时的等待间隔
+    private static final String SEGMENT_SUFFIX = ".seg";       // 段文件后缀
+    private static final String CURSOR_FILE = "cursor";        // 游标文件名
+    static final int MAX_OPEN_APPENDERS = 64;                  // 同时打开的追加通道上限
+
+    private final Path baseDir;                                // .offline目录
+    private final Function<String, ClientHandler> onlineLookup; // 按用户ID查找在线连接
+    private final int maxBacklog;                              // 投递时允许的发送队列积压上限
+    private final int segmentBytes;                            // 段大小
+    private final MessageCodec codec = new BinaryMessageCodec(); // 记录编码
+    private final Map<String, UserInbox> inboxes = new ConcurrentHashMap<>(); // 有积压或正在投递的用户
+    private final ExecutorService delivery;                    // 投递线程池
+    private final FsyncPolicy fsyncPolicy;                     // 刷盘策略
+    private final ReentrantLock appendersLock = new ReentrantLock(); // 保护appenders
+    private final LinkedHashMap<UserInbox, Boolean> appenders = new LinkedHashMap<>(16, 0.75f, true); // 打开了追加通道的收件箱，按写入顺序（LRU）
+    private final Set<UserInbox> unsyncedInboxes = ConcurrentHashMap.newKeySet(); // interval模式下等待刷盘的收件箱
+    private final ScheduledExecutorService syncer;             // interval模式下的刷盘线程，其他模式为null
+
+    /**
+     * 单个用户的收件箱，所有字段由lock保护
+     */
+    private final class UserInbox {
+        final ReentrantLock lock = new ReentrantLock();
+        final Path dir;
+        final TreeMap<Long, Path> segments = new TreeMap<>(); // 段起始偏移 -> 段文件
+        long endOffset;      // 下一条记录的逻辑偏移
+        long cursor;         // 下一条未投递记录的逻辑偏移
+        boolean loaded;      // 是否已从磁盘加载
+        boolean draining;    // 是否有投递任务在运行
+        boolean retired;     // 已清空并从映射表移除，需要重新获取
+        FileChannel appender; // 最后一段的追加通道，null表示未打开
+        int unsynced;        // 已写入追加通道但尚未刷盘的记录数
+
+        UserInbox(String userId) {
+            this.dir = baseDir.resolve(PathNames.encode(userId));
+        }
+
+        boolean isEmpty() {
+            return cursor >= endOffset;
+        }
+    }
+
+    /**
+     * 一批读出的消息及其后的逻辑偏移
+     */
+    private record Batch(List<Message> messages, long nextOffset) {
+    }
+
+    /**
+     * 构造函数，登记磁盘上已有积压的用户
+     * @param baseDir 收件箱根目录
+     * @param onlineLookup 按用户ID查找在线连接，不在线返回null
+     * @param maxBacklog 投递时连接发送队列允许的积压上限
+     * @param fsyncPolicy 离线消息的刷盘策略
+     */
+    public OfflineInbox(Path baseDir, Function<String, ClientHandler> onlineLookup, int maxBacklog,
+            FsyncPolicy fsyncPolicy) {
+        this(baseDir, onlineLookup, maxBacklog, DEFAULT_SEGMENT_BYTES, fsyncPolicy);
+    }
+
+    OfflineInbox(Path baseDir, Function<String, ClientHandler> onlineLookup, int maxBacklog, int segmentBytes,
+            FsyncPolicy fsyncPolicy) {
+        this.baseDir = baseDir;
+        this.onlineLookup = onlineLookup;
+        this.maxBacklog = Math.max(1, maxBacklog);
+        this.segmentBytes = segmentBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        AtomicInteger threadIds = new AtomicInteger();
+        this.delivery = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "simpleqq-offline-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (fsyncPolicy.getMode() == FsyncPolicy.Mode.INTERVAL) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "simpleqq-offline-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncUnsynced, fsyncPolicy.getValue(), fsyncPolicy.getValue(),
+                TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+        if (Files.isDirectory(baseDir)) {
+            try (DirectoryStream<Path> dirs = Files.newDirectoryStream(baseDir)) {
+                for (Path dir : dirs) {
+                    String userId = PathNames.decode(dir.getFileName().toString());
+                    inboxes.put(userId, new UserInbox(userId));
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to list offline inboxes in {}: {}", baseDir, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 判断消息是否需要离线保存
+     * @param message 消息
+     * @return 私聊、图片和群消息返回true
+     */
+    public static boolean isStorable(Message message) {
+        MessageType type = message.getType();
+        return type == MessageType.TEXT_MESSAGE || type == MessageType.IMAGE_MESSAGE
+            || type == MessageType.GROUP_MESSAGE;
+    }
+
+    /**
+     * 投递一条消息：用户在线且没有积压时直接放入发送队列，否则追加到收件箱
+     * @param userId 接收方ID
+     * @param frame 消息帧
+     * @return 直接投递返回true，保存到收件箱（或因类型不需保存而丢弃）返回false
+     */
+    public boolean deliver(String userId, OutboundFrame frame) throws IOException {
+        ClientHandler handler = onlineLookup.apply(userId);
+        if (handler != null && !inboxes.containsKey(userId)) {
+            handler.sendFrame(frame);
+            return true;
+        }
+        if (!isStorable(frame.getMessage())) {
+            if (handler != null) {
+                handler.sendFrame(frame); // 非聊天消息不参与排队
+                return true;
+            }
+            return false;
+        }
+        while (true) {
+            UserInbox inbox = inboxes.computeIfAbsent(userId, UserInbox::new);
+            inbox.lock.lock();
+            try {
+                if (inbox.retired) {
+                    continue;
+                }
+                load(inbox);
+                if (handler != null && !inbox.draining && inbox.isEmpty()) {
+                    retire(userId, inbox);
+                    handler.sendFrame(frame);
+                    return true;
+                }
+                append(inbox, frame.getMessage());
+            } finally {
+                inbox.lock.unlock();
+            }
+            // 追加后再次确认：用户可能在查找之后刚刚登录，需要为其安排投递
+            if (onlineLookup.apply(userId) != null) {
+                startDelivery(userId);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 为在线用户安排积压投递，已有投递任务或没有积压时直接返回
+     * @param userId 用户ID
+     */
+    public void startDelivery(String userId) {
+        UserInbox inbox = inboxes.get(userId);
+        if (inbox == null) {
+            return;
+        }
+        inbox.lock.lock();
+        try {
+            if (inbox.retired || inbox.draining) {
+                return;
+            }
+            inbox.draining = true;
+        } finally {
+            inbox.lock.unlock();
+        }
+        try {
+            delivery.execute(() -> drain(userId, inbox));
+        } catch (RejectedExecutionException e) {
+            // 服务器正在关闭，积压留到下次登录
+            inbox.lock.lock();
+            try {
+                inbox.draining = false;
+            } finally {
+                inbox.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 投递任务：按批读出积压放入发送队列，直到清空或用户下线
+     */
+    private void drain(String userId, UserInbox inbox) {
+        int delivered = 0;
+        try {
+            while (true) {
+                ClientHandler handler = onlineLookup.apply(userId);
+                if (handler == null) {
+                    stopDraining(inbox);
+                    // 放弃标记后再次检查，避免与重新登录错过
+                    if (onlineLookup.apply(userId) != null) {
+                        startDelivery(userId);
+                    }
+                    return;
+                }
+                if (handler.getOutboundBacklog() > maxBacklog) {
+                    Thread.sleep(BACKLOG_PAUSE_MILLIS); // 等待连接写出，避免触发慢消费者策略
+                    continue;
+                }
+                inbox.lock.lock();
+                try {
+                    load(inbox);
+                    Batch batch = readBatch(inbox, DELIVERY_BATCH);
+                    if (batch.messages().isEmpty()) {
+                        inbox.draining = false;
+                        if (inbox.isEmpty()) {
+                            retire(userId, inbox);
+                        }
+                        if (delivered > 0) {
+                            LOG.info("Delivered {} offline messages to {}.", delivered, userId);
+                        }
+                        return;
+                    }
+                    for (Message message : batch.messages()) {
+                        handler.sendMessage(message);
+                    }
+                    commit(inbox, batch.nextOffset());
+                    delivered += batch.messages().size();
+                } finally {
+                    inbox.lock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopDraining(inbox);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Failed to deliver offline messages to {}: {}", userId, e.getMessage());
+            stopDraining(inbox);
+        }
+    }
+
+    private void stopDraining(UserInbox inbox) {
+        inbox.lock.lock();
+        try {
+            inbox.draining = false;
+        } finally {
+            inbox.lock.unlock();
+        }
+    }
+
+    /**
+     * 获取用户尚未投递的消息数，需要扫描磁盘，仅用于管理和测试
+     * @param userId 用户ID
+     * @return 积压的消息数
+     */
+    public long getPendingCount(String userId) throws IOException {
+        UserInbox inbox = inboxes.get(userId);
+        if (inbox == null) {
+            return 0;
+        }
+        inbox.lock.lock();
+        try {
+            if (inbox.retired) {
+                return 0;
+            }
+            load(inbox);
+            long count = 0;
+            long saved = inbox.cursor;
+            try {
+                Batch batch;
+                while (!(batch = readBatch(inbox, DELIVERY_BATCH)).messages().isEmpty()) {
+                    count += batch.messages().size();
+                    inbox.cursor = batch.nextOffset();
+                }
+            } finally {
+                inbox.cursor = saved;
+            }
+            return count;
+        } finally {
+            inbox.lock.unlock();
+        }
+    }
+
+    /**
+     * 获取当前打开的追加通道数，仅用于测试
+     */
+    int getOpenAppenderCount() {
+        appendersLock.lock();
+        try {
+            return appenders.size();
+        } finally {
+            appendersLock.unlock();
+        }
+    }
+
+    /**
+     * 停止投递和刷盘线程，按刷盘策略刷盘后关闭追加通道，未投递的积压保留在磁盘上
+     */
+    public void shutdown() {
+        delivery.shutdownNow();
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        try {
+            delivery.awaitTermination(5, TimeUnit.SECONDS);
+            if (syncer != null) {
+                syncer.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<UserInbox> open;
+        appendersLock.lock();
+        try {
+            open = new ArrayList<>(appenders.keySet());
+        } finally {
+            appendersLock.unlock();
+        }
+        for (UserInbox inbox : open) {
+            inbox.lock.lock();
+            try {
+                closeAppender(inbox, true);
+            } finally {
+                inbox.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * interval模式的定时任务：刷盘所有有未刷盘记录的收件箱
+     */
+    private void syncUnsynced() {
+        for (UserInbox inbox : unsyncedInboxes) {
+            unsyncedInboxes.remove(inbox);
+            inbox.lock.lock();
+            try {
+                if (inbox.appender != null && inbox.unsynced > 0) {
+                    inbox.appender.force(false);
+                    inbox.unsynced = 0;
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to sync offline inbox {}: {}", inbox.dir, e.getMessage());
+            } finally {
+                inbox.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 登记刚打开的追加通道，超过上限时从最久未写入的开始关闭
+     * 只关闭能立即拿到锁的收件箱，避免与持有其他收件箱锁的线程互相等待；忙碌的跳过，换下一个
+     */
+    private void registerAppender(UserInbox inbox) {
+        List<UserInbox> candidates;
+        int excess;
+        appendersLock.lock();
+        try {
+            appenders.put(inbox, Boolean.TRUE);
+            excess = appenders.size() - MAX_OPEN_APPENDERS;
+            if (excess <= 0) {
+                return;
+            }
+            candidates = new ArrayList<>(appenders.keySet());
+        } finally {
+            appendersLock.unlock();
+        }
+        for (UserInbox victim : candidates) {
+            if (excess <= 0) {
+                break;
+            }
+            if (victim != inbox && victim.lock.tryLock()) {
+                try {
+                    if (victim.appender != null) {
+                        closeAppender(victim, true);
+                        excess--;
+                    }
+                } finally {
+                    victim.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭收件箱的追加通道，调用时必须持有该收件箱的锁
+     * @param sync 是否先按刷盘策略刷掉未刷盘的记录，收件箱即将删除时不需要
+     */
+    private void closeAppender(UserInbox inbox, boolean sync) {
+        FileChannel channel = inbox.appender;
+        if (channel == null) {
+            return;
+        }
+        inbox.appender = null;
+        try {
+            if (sync && inbox.unsynced > 0 && fsyncPolicy.getMode() != FsyncPolicy.Mode.NEVER) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to sync offline inbox {}: {}", inbox.dir, e.getMessage());
+        } finally {
+            inbox.unsynced = 0;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close offline segment in {}: {}", inbox.dir, e.getMessage());
+            }
+            unsyncedInboxes.remove(inbox);
+            appendersLock.lock();
+            try {
+                appenders.remove(inbox);
+            } finally {
+                appendersLock.unlock();
+            }
+        }
+    }
+
+    // ---- 以下方法必须在持有对应UserInbox锁时调用 ----
+
+    /**
+     * 从磁盘加载段列表和游标，截断最后一段末尾写了一半的记录
+     */
+    private void load(UserInbox inbox) throws IOException {
+        if (inbox.loaded) {
+            return;
+        }
+        inbox.loaded = true;
+        if (!Files.isDirectory(inbox.dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox.dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                inbox.segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        if (inbox.segments.isEmpty()) {
+            return;
+        }
+        Map.Entry<Long, Path> tail = inbox.segments.lastEntry();
+        try (FileChannel channel = FileChannel.open(tail.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long validEnd = scanValidEnd(channel);
+            if (validEnd < channel.size()) {
+                LOG.warn("Truncating torn offline record in {}", tail.getValue());
+                channel.truncate(validEnd);
+            }
+            inbox.endOffset = tail.getKey() + validEnd;
+        }
+        Path cursorFile = inbox.dir.resolve(CURSOR_FILE);
+        long cursor = inbox.segments.firstKey();
+        if (Files.exists(cursorFile)) {
+            byte[] bytes = Files.readAllBytes(cursorFile);
+            if (bytes.length == Long.BYTES) {
+                cursor = Math.max(cursor, ByteBuffer.wrap(bytes).getLong());
+            }
+        }
+        inbox.cursor = Math.min(cursor, inbox.endOffset);
+    }
+
+    private static long scanValidEnd(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        long position = 0;
+        long size = channel.size();
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_LENGTH <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length < 0 || length > WireProtocol.MAX_FRAME_LENGTH
+                    || position + RECORD_HEADER_LENGTH + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + RECORD_HEADER_LENGTH);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of offline segment");
+            }
+        }
+    }
+
+    /**
+     * 追加一条记录，当前段写满时新开一段
+     */
+    private void append(UserInbox inbox, Message message) throws IOException {
+        byte[] payload = codec.encode(message);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+
+        Map.Entry<Long, Path> tail = inbox.segments.lastEntry();
+        if (tail == null || inbox.endOffset - tail.getKey() >= segmentBytes) {
+            closeAppender(inbox, true);
+            Files.createDirectories(inbox.dir);
+            Path file = inbox.dir.resolve(String.format("%020d", inbox.endOffset) + SEGMENT_SUFFIX);
+            inbox.segments.put(inbox.endOffset, file);
+            tail = inbox.segments.lastEntry();
+        }
+        if (inbox.appender == null) {
+            inbox.appender = FileChannel.open(tail.getValue(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            registerAppender(inbox);
+        } else {
+            appendersLock.lock();
+            try {
+                appenders.get(inbox); // 更新LRU顺序
+            } finally {
+                appendersLock.unlock();
+            }
+        }
+        try {
+            while (record.hasRemaining()) {
+                inbox.appender.write(record);
+            }
+        } catch (IOException e) {
+            closeAppender(inbox, false); // 写失败的通道不再复用，下次重新打开
+            throw e;
+        }
+        inbox.endOffset += RECORD_HEADER_LENGTH + payload.length;
+        inbox.unsynced++;
+        switch (fsyncPolicy.getMode()) {
+            case ALWAYS -> syncAppender(inbox);
+            case RECORDS -> {
+                if (inbox.unsynced >= fsyncPolicy.getValue()) {
+                    syncAppender(inbox);
+                }
+            }
+            case INTERVAL -> unsyncedInboxes.add(inbox);
+            case NEVER -> {
+            }
+        }
+    }
+
+    private static void syncAppender(UserInbox inbox) throws IOException {
+        inbox.appender.force(false);
+        inbox.unsynced = 0;
+    }
+
+    /**
+     * 从游标处读出最多max条消息，不跨段
+     */
+    private Batch readBatch(UserInbox inbox, int max) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        if (inbox.isEmpty()) {
+            return new Batch(messages, inbox.cursor);
+        }
+        Map.Entry<Long, Path> segment = inbox.segments.floorEntry(inbox.cursor);
+        Long nextBase = inbox.segments.higherKey(segment.getKey());
+        long segmentEnd = nextBase != null ? nextBase : inbox.endOffset;
+        long offset = inbox.cursor;
+        try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+            CRC32 crc = new CRC32();
+            while (messages.size() < max && offset + RECORD_HEADER_LENGTH <= segmentEnd) {
+                long position = offset - segment.getKey();
+                header.clear();
+                readFully(channel, header, position);
+                int length = header.getInt(0);
+                if (length < 0 || offset + RECORD_HEADER_LENGTH + length > segmentEnd) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + RECORD_HEADER_LENGTH);
+                crc.reset();
+                crc.update(payload.array(), 0, length);
+                if ((int) crc.getValue() != header.getInt(4)) {
+                    break;
+                }
+                messages.add(codec.decode(payload.array(), 0, length));
+                offset += RECORD_HEADER_LENGTH + length;
+            }
+        }
+        if (messages.isEmpty() && offset < segmentEnd) {
+            // 段内数据损坏，跳过该段剩余部分
+            LOG.warn("Skipping corrupt offline records in {}", segment.getValue());
+            offset = segmentEnd;
+            inbox.cursor = offset;
+            return readBatch(inbox, max);
+        }
+        return new Batch(messages, offset);
+    }
+
+    /**
+     * 前移游标并删除已投递完的段
+     */
+    private void commit(UserInbox inbox, long cursor) throws IOException {
+        inbox.cursor = cursor;
+        Long current = inbox.segments.floorKey(Math.min(cursor, inbox.endOffset - 1));
+        while (!inbox.segments.isEmpty() && current != null && inbox.segments.firstKey() < current) {
+            Files.deleteIfExists(inbox.segments.pollFirstEntry().getValue());
+        }
+        // 清空时也要写游标：收件箱退役前可能又追加了新消息，重启后不能从旧游标重投
+        ByteBuffer bytes = ByteBuffer.allocate(Long.BYTES).putLong(cursor);
+        bytes.flip();
+        try (FileChannel channel = FileChannel.open(inbox.dir.resolve(CURSOR_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, bytes.position());
+            }
+        }
+    }
+
+    /**
+     * 收件箱已清空：删除磁盘文件并从映射表移除
+     */
+    private void retire(String userId, UserInbox inbox) throws IOException {
+        inbox.retired = true;
+        closeAppender(inbox, false);
+        // 删除完文件再移除映射，否则新建的收件箱可能在同一目录下写入时被这里删掉
+        try {
+            for (Path segment : inbox.segments.values()) {
+                Files.deleteIfExists(segment);
+            }
+            inbox.segments.clear();
+            Files.deleteIfExists(inbox.dir.resolve(CURSOR_FILE));
+            Files.deleteIfExists(inbox.dir);
+        } finally {
+            inboxes.remove(userId, inbox);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageCodec;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * 待发送的消息帧
+ * 包装一条消息并按协议版本缓存编码结果，群消息扇出时所有接收方共享同一个实例，
+ * 同一版本的负载只编码一次。缓存的字节数组创建后不再修改，可被多个连接同时写出。
+ */
+public final class OutboundFrame {
+    private final Message message;          // 原始消息，创建后不应再修改
+    private volatile byte[] binaryPayload;  // 协议版本2的编码缓存
+    private volatile byte[] serializedPayload; // 协议版本1的编码缓存
+
+    private OutboundFrame(Message message) {
+        this.message = message;
+    }
+
+    /**
+     * 包装一条消息
+     * @param message 要发送的消息
+     * @return 消息帧
+     */
+    public static OutboundFrame of(Message message) {
+        return new OutboundFrame(message);
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * 获取指定编解码器下的负载，首次调用时编码并缓存
+     * 并发的首次调用可能重复编码，结果相同，不影响正确性
+     * @param codec 连接协商得到的编解码器
+     * @return 编码后的负载，调用方不得修改
+     */
+    public byte[] payload(MessageCodec codec) throws IOException {
+        byte version = codec.version();
+        if (version == WireProtocol.VERSION_BINARY) {
+            byte[] cached = binaryPayload;
+            if (cached == null) {
+                cached = codec.encode(message);
+                binaryPayload = cached;
+            }
+            return cached;
+        }
+        if (version == WireProtocol.VERSION_SERIALIZED) {
+            byte[] cached = serializedPayload;
+            if (cached == null) {
+                cached = codec.encode(message);
+                serializedPayload = cached;
+            }
+            return cached;
+        }
+        return codec.encode(message);
+    }
+}
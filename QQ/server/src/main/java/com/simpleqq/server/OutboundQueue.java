@@ -0,0 +1,187 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 每个连接独占的有界发送队列
+ * 任意线程都可以投递消息，由连接自己的写出任务批量取出写出。
+ * 内存中的积压达到高水位时按SlowConsumerPolicy处理：
+ * DROP丢弃新消息直到回落到低水位；DISCONNECT通知调用方断开连接；
+ * SPILL把后续消息按顺序溢写到临时文件，内存队列回落到低水位后再读回。
+ */
+final class OutboundQueue {
+
+    /**
+     * 投递结果
+     */
+    enum OfferResult {
+        QUEUED,     // 已进入内存队列
+        SPILLED,    // 已溢写到文件
+        DROPPED,    // 已丢弃
+        OVERFLOW    // 达到高水位且策略为DISCONNECT，调用方应断开连接
+    }
+
+    private final int highWatermark;             // 高水位（消息条数）
+    private final int lowWatermark;              // 低水位（消息条数）
+    private final SlowConsumerPolicy policy;     // 慢消费者策略
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<OutboundFrame> memory = new ArrayDeque<>(); // 内存中的待发送消息
+    private SpillFile spill;                     // 溢写文件，首次溢写时创建
+    private boolean dropping;                    // DROP策略下是否处于丢弃状态
+    private long droppedCount;                   // 累计丢弃的消息数
+    private boolean closed;                      // 是否已关闭
+
+    /**
+     * 构造函数
+     * @param highWatermark 高水位，必须为正数
+     * @param lowWatermark 低水位，必须小于高水位
+     * @param policy 慢消费者策略
+     */
+    OutboundQueue(int highWatermark, int lowWatermark, SlowConsumerPolicy policy) {
+        if (highWatermark < 1 || lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("Invalid watermarks: high=" + highWatermark + ", low=" + lowWatermark);
+        }
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.policy = policy;
+    }
+
+    /**
+     * 根据服务器配置创建队列
+     */
+    static OutboundQueue forConfig(ServerConfig config) {
+        return new OutboundQueue(config.getOutboundHighWatermark(), config.getOutboundLowWatermark(),
+            config.getSlowConsumerPolicy());
+    }
+
+    /**
+     * 投递一条消息
+     * @param frame 要发送的消息帧
+     * @return 投递结果
+     * @throws IOException 溢写文件写入失败时抛出
+     */
+    OfferResult offer(OutboundFrame frame) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return OfferResult.DROPPED;
+            }
+            if (spill != null && !spill.isEmpty()) {
+                // 溢写期间所有新消息都排在文件尾部，保证发送顺序
+                spill.append(frame.getMessage());
+                return OfferResult.SPILLED;
+            }
+            if (dropping) {
+                if (memory.size() > lowWatermark) {
+                    droppedCount++;
+                    return OfferResult.DROPPED;
+                }
+                dropping = false;
+            }
+            if (memory.size() >= highWatermark) {
+                switch (policy) {
+                    case DROP -> {
+                        dropping = true;
+                        droppedCount++;
+                        return OfferResult.DROPPED;
+                    }
+                    case DISCONNECT -> {
+                        return OfferResult.OVERFLOW;
+                    }
+                    case SPILL -> {
+                        if (spill == null) {
+                            spill = new SpillFile();
+                        }
+                        spill.append(frame.getMessage());
+                        return OfferResult.SPILLED;
+                    }
+                }
+            }
+            memory.addLast(frame);
+            return OfferResult.QUEUED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出一批待发送消息
+     * 内存队列回落到低水位时先从溢写文件读回一部分
+     * @param max 最多取出的条数
+     * @return 按投递顺序排列的消息帧，队列为空时返回空列表
+     * @throws IOException 溢写文件读取失败时抛出
+     */
+    List<OutboundFrame> poll(int max) throws IOException {
+        lock.lock();
+        try {
+            if (spill != null && !spill.isEmpty() && memory.size() <= lowWatermark) {
+                spill.readInto(memory, highWatermark - memory.size());
+            }
+            int n = Math.min(max, memory.size());
+            List<OutboundFrame> batch = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                batch.add(memory.pollFirst());
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取积压的消息总数（内存 + 溢写文件）
+     */
+    int size() {
+        lock.lock();
+        try {
+            return memory.size() + (spill != null ? spill.size() : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 积压是否超过低水位，NIO连接据此暂停处理该客户端的后续请求
+     */
+    boolean isBacklogged() {
+        return size() > lowWatermark;
+    }
+
+    /**
+     * 获取累计丢弃的消息数
+     */
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭队列，丢弃积压的消息并删除溢写文件
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            memory.clear();
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.simpleqq.server;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 文件名编码工具
+ * 把用户ID、会话ID等任意字符串转换为可以直接作为单级目录名的字符串，离线收件箱和分段聊天记录共用。
+ * 编码是单射的：除字母、数字和"-*_"之外的字符都被百分号编码，'.'也被编码，避免出现"."和".."。
+ * 编码结果中不会出现':'，调用方可以用它拼接多个编码后的部分而不产生歧义。
+ */
+final class PathNames {
+
+    private PathNames() {
+    }
+
+    /**
+     * 编码为目录名
+     * @param name 任意字符串
+     * @return 安全的目录名
+     */
+    static String encode(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8).replace(".", "%2E");
+    }
+
+    /**
+     * 还原encode()编码前的字符串
+     * @param encoded 目录名
+     * @return 原字符串
+     */
+    static String decode(String encoded) {
+        return URLDecoder.decode(encoded, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,185 @@
+package com.simpleqq.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.PresenceUpdate;
+
+/**
+ * 在线状态变化合并器
+ * 服务器重启后大量用户在几秒内重新登录，逐个通知会让每个在线用户收到与上线好友数相同条数的消息。
+ * 合并器把状态变化缓存一个时间窗口，窗口结束时：
+ * 同一用户在窗口内上线又下线（或下线又上线）的变化相互抵消，不通知任何人；
+ * 其余变化按接收者分组，每个在线接收者只收到一条包含全部变化的PRESENCE_UPDATE
+ * （不支持增量的旧版客户端收到一份完整的FRIEND_LIST）。
+ * 未启动或窗口为0时在调用线程上立即通知。
+ */
+public class PresenceAggregator {
+    private static final Logger LOG = Log.getLogger(PresenceAggregator.class);
+
+    /**
+     * 一个用户在当前窗口内的状态变化
+     */
+    private static final class Change {
+        private final boolean first;  // 窗口内第一次变化后的状态，窗口开始前的状态与之相反
+        private boolean latest;       // 窗口内最后一次变化后的状态
+        private int count;            // 窗口内的变化次数
+
+        Change(boolean online) {
+            this.first = online;
+        }
+
+        /**
+         * 窗口结束时的状态与开始前不同才需要通知
+         */
+        boolean isNetChange() {
+            return latest == first;
+        }
+    }
+
+    private final Server server;                      // 服务器实例引用
+    private final PresenceNotifier notifier;          // 发送通知
+    private final long windowMillis;                  // 合并窗口（毫秒）
+    private final ReentrantLock lock = new ReentrantLock(); // 保护pending的记录和交换
+    private Map<String, Change> pending = new LinkedHashMap<>(); // 当前窗口内的变化，按第一次变化的先后排列
+    private volatile ScheduledExecutorService flusher; // 窗口定时器，未启动时为null
+
+    /**
+     * 构造函数
+     * @param server 服务器实例
+     * @param windowMillis 合并窗口（毫秒），0表示不合并
+     */
+    public PresenceAggregator(Server server, long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis must not be negative: " + windowMillis);
+        }
+        this.server = server;
+        this.notifier = new PresenceNotifier(server);
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * 启动窗口定时器，窗口为0时不启动
+     */
+    public void start() {
+        if (windowMillis == 0) {
+            return;
+        }
+        ScheduledExecutorService started = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "simpleqq-presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        started.scheduleWithFixedDelay(this::flushSafely, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        flusher = started;
+    }
+
+    /**
+     * 记录一个用户的状态变化
+     * @param userId 状态变化的用户ID
+     * @param online 新状态是否为在线
+     */
+    public void publish(String userId, boolean online) {
+        if (flusher == null) {
+            int notified = notifier.publish(userId, online);
+            server.getMetrics().recordPresence(1, 0, notified, 0);
+            return;
+        }
+        lock.lock();
+        try {
+            Change change = pending.computeIfAbsent(userId, k -> new Change(online));
+            change.latest = online;
+            change.count++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.error("Failed to flush presence updates: {}", e.toString()); // 不让异常终止定时任务
+        }
+    }
+
+    /**
+     * 结束当前窗口，合并并发出通知
+     * 由定时器调用，停止时也会调用一次，发出最后一个窗口内的变化
+     */
+    void flush() {
+        Map<String, Change> batch;
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        } finally {
+            lock.unlock();
+        }
+
+        Map<String, List<PresenceUpdate>> byRecipient = new LinkedHashMap<>();
+        long changes = 0;
+        long collapsed = 0;
+        long unbatched = 0; // 不合并时需要发送的通知数
+        for (Map.Entry<String, Change> entry : batch.entrySet()) {
+            String userId = entry.getKey();
+            Change change = entry.getValue();
+            changes += change.count;
+            boolean notify = change.isNetChange();
+            if (!notify) {
+                collapsed += change.count;
+            }
+            PresenceUpdate update = new PresenceUpdate(userId, change.latest);
+            for (String friendId : server.getUserManager().getFriends(userId)) {
+                if (!server.isUserOnline(friendId)) {
+                    continue;
+                }
+                unbatched += change.count;
+                if (notify) {
+                    byRecipient.computeIfAbsent(friendId, k -> new ArrayList<>()).add(update);
+                }
+            }
+        }
+
+        long sent = 0;
+        for (Map.Entry<String, List<PresenceUpdate>> entry : byRecipient.entrySet()) {
+            if (notifier.send(entry.getKey(), entry.getValue())) {
+                sent++;
+            }
+        }
+        server.getMetrics().recordPresence(changes, collapsed, sent, Math.max(0, unbatched - sent));
+    }
+
+    /**
+     * 停止窗口定时器并发出尚未发出的变化，之后的变化立即通知
+     */
+    public void shutdown() {
+        ScheduledExecutorService current = flusher;
+        flusher = null;
+        if (current == null) {
+            return;
+        }
+        current.shutdown();
+        try {
+            current.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+}
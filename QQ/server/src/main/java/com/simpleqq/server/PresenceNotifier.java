@@ -0,0 +1,102 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.PresenceUpdate;
+
+/**
+ * 好友在线状态通知
+ * 用户上线或下线时，只向其在线好友发送一条PRESENCE_UPDATE增量（用户ID和新状态），
+ * 所有接收方共享同一个消息帧，编码一次；接收方在本地好友列表上就地更新，不再重发整份好友列表，
+ * 一次上下线的开销与好友数成正比，而不是与好友数的平方成正比。
+ * 旧版对象流客户端和协议版本1的客户端不认识PRESENCE_UPDATE，仍然发送完整的FRIEND_LIST（来自响应缓存）。
+ * 开启合并窗口时由PresenceAggregator调用send()，每个接收者一条消息携带窗口内的全部变化。
+ */
+public class PresenceNotifier {
+    private static final Logger LOG = Log.getLogger(PresenceNotifier.class);
+
+    private final Server server;
+
+    /**
+     * 构造函数
+     * @param server 服务器实例
+     */
+    public PresenceNotifier(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * 通知在线好友某个用户的状态变化
+     * @param userId 状态变化的用户ID
+     * @param online 新状态是否为在线
+     * @return 收到通知的好友数
+     */
+    public int publish(String userId, boolean online) {
+        List<String> friends = server.getUserManager().getFriends(userId);
+        OutboundFrame frame = null;
+        int notified = 0;
+        for (String friendId : friends) {
+            ClientHandler friendHandler = server.getOnlineClients().get(friendId);
+            if (friendHandler == null) {
+                continue;
+            }
+            if (!friendHandler.supportsPresenceUpdates()) {
+                if (sendFriendList(friendHandler, friendId)) {
+                    notified++;
+                }
+                continue;
+            }
+            if (frame == null) {
+                // 接收者字段留空，所有好友共享同一个消息帧
+                frame = OutboundFrame.of(new Message(MessageType.PRESENCE_UPDATE, "Server", "",
+                    PresenceUpdate.encode(List.of(new PresenceUpdate(userId, online)))));
+            }
+            try {
+                friendHandler.sendFrame(frame);
+                notified++;
+            } catch (IOException e) {
+                LOG.warn("Failed to notify friend {} of status change: {}", friendId, e.getMessage());
+            }
+        }
+        return notified;
+    }
+
+    /**
+     * 向一个接收者发送一批状态变化，不支持增量的接收者改为收到完整的好友列表
+     * @param recipientId 接收者ID
+     * @param updates 状态变化，按发生顺序排列
+     * @return 接收者在线并已放入其发送队列时返回true
+     */
+    public boolean send(String recipientId, List<PresenceUpdate> updates) {
+        ClientHandler handler = server.getOnlineClients().get(recipientId);
+        if (handler == null || updates.isEmpty()) {
+            return false;
+        }
+        if (!handler.supportsPresenceUpdates()) {
+            return sendFriendList(handler, recipientId);
+        }
+        try {
+            handler.sendMessage(new Message(MessageType.PRESENCE_UPDATE, "Server", recipientId,
+                PresenceUpdate.encode(updates)));
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to notify {} of status changes: {}", recipientId, e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean sendFriendList(ClientHandler handler, String recipientId) {
+        try {
+            handler.sendFriendList(recipientId);
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to send friend list to {}: {}", recipientId, e.getMessage());
+            return false;
+        }
+    }
+}
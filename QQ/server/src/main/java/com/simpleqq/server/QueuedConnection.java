@@ -0,0 +1,116 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+
+/**
+ * 阻塞模式下带发送队列的连接
+ * send只把消息放入OutboundQueue，由提交到写出执行器的任务按顺序取出批量写出，
+ * 同一连接同一时刻最多只有一个写出任务，调用方不会被慢接收方的Socket阻塞
+ */
+final class QueuedConnection implements ClientConnection {
+    private static final Logger LOG = Log.getLogger(QueuedConnection.class);
+    static final int MAX_BATCH = 64;                  // 单次写出（一次flush）的最大消息数
+
+    private final MessageSink sink;                   // 底层写出端
+    private final OutboundQueue queue;                // 发送队列
+    private final Executor writer;                    // 运行写出任务的执行器
+    private final int protocolVersion;                // 协商的协议版本，旧版对象流为0
+    private final AtomicBoolean draining = new AtomicBoolean(); // 是否已有写出任务在运行
+    private volatile boolean closed;                  // 是否已关闭
+
+    QueuedConnection(MessageSink sink, OutboundQueue queue, Executor writer, int protocolVersion) {
+        this.sink = sink;
+        this.queue = queue;
+        this.writer = writer;
+        this.protocolVersion = protocolVersion;
+    }
+
+    @Override
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    @Override
+    public void send(OutboundFrame frame) {
+        if (closed) {
+            return;
+        }
+        OutboundQueue.OfferResult result;
+        try {
+            result = queue.offer(frame);
+        } catch (IOException e) {
+            LOG.warn("Failed to spill outbound message, closing connection: {}", e.getMessage());
+            close();
+            return;
+        }
+        if (result == OutboundQueue.OfferResult.OVERFLOW) {
+            LOG.info("Disconnecting slow consumer with {} queued messages.", queue.size());
+            close();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // 服务器正在关闭
+                draining.set(false);
+                close();
+            }
+        }
+    }
+
+    /**
+     * 写出任务：持续取出批量消息写出，直到队列为空
+     */
+    private void drain() {
+        try {
+            while (!closed) {
+                List<OutboundFrame> batch = queue.poll(MAX_BATCH);
+                if (batch.isEmpty()) {
+                    draining.set(false);
+                    // 释放标记后再次检查，避免与并发的send错过唤醒
+                    if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                sink.write(batch);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * 获取因慢消费者策略丢弃的消息数
+     */
+    long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.close();
+        sink.close(); // 关闭Socket，读循环随之退出并完成下线清理
+    }
+}
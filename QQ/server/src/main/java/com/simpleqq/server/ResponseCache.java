@@ -0,0 +1,173 @@
+package com.simpleqq.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.User;
+
+/**
+ * 列表响应缓存
+ * 按用户缓存好友列表和群组列表、按群组缓存成员列表的消息帧，客户端每次刷新或打开群聊窗口都会请求这些列表，
+ * 命中时只需一次查表，连编码结果也直接复用。
+ *
+ * 失效规则：好友关系变化时清除双方的好友列表，入群和建群时清除该用户的群组列表和该群的成员列表，
+ * 用户上线或下线时清除其所有好友的好友列表和其所在群组的成员列表。
+ * 生成在ConcurrentHashMap.computeIfAbsent内完成，与同一key的清除互斥：先修改状态再清除，
+ * 就不会留下按旧状态生成的缓存。
+ * 只缓存在线用户的列表和已存在群组的成员列表，用户下线时清除其条目，缓存大小受在线人数和群组数限制。
+ * 判断是否在线与插入缓存之间用户可能已经下线、清除也已执行，因此插入后再判断一次，已下线就撤回刚插入的条目。
+ */
+public class ResponseCache {
+    /**
+     * 缓存的列表种类，用于统计命中率
+     */
+    public enum Kind {
+        FRIENDS,    // 好友列表
+        GROUPS,     // 群组列表
+        MEMBERS     // 群组成员列表
+    }
+
+    private final Server server;                                                    // 服务器实例引用
+    private final Map<String, OutboundFrame> friendLists = new ConcurrentHashMap<>();  // 用户ID -> FRIEND_LIST消息帧
+    private final Map<String, OutboundFrame> groupLists = new ConcurrentHashMap<>();   // 用户ID -> GET_GROUPS消息帧
+    private final Map<String, OutboundFrame> groupMembers = new ConcurrentHashMap<>(); // 群组ID -> GET_GROUP_MEMBERS消息帧
+
+    /**
+     * 构造函数
+     * @param server 服务器实例
+     */
+    public ResponseCache(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * 获取好友列表消息帧
+     * @param userId 用户ID
+     * @return 发给该用户的FRIEND_LIST消息帧，内容格式：id:username:status;...
+     */
+    public OutboundFrame friendList(String userId) {
+        return lookup(Kind.FRIENDS, friendLists, userId, server::isUserOnline, this::buildFriendList);
+    }
+
+    /**
+     * 获取群组列表消息帧
+     * @param userId 用户ID
+     * @return 发给该用户的GET_GROUPS消息帧，内容格式：groupId;groupId;...
+     */
+    public OutboundFrame groupList(String userId) {
+        return lookup(Kind.GROUPS, groupLists, userId, server::isUserOnline, this::buildGroupList);
+    }
+
+    /**
+     * 获取群组成员列表消息帧
+     * 接收者字段留空，同一群组的所有请求者共享同一个消息帧
+     * @param groupId 群组ID
+     * @return GET_GROUP_MEMBERS消息帧，发送者为群组ID，内容格式：id:username:status;...，群组不存在时内容为空
+     */
+    public OutboundFrame groupMembers(String groupId) {
+        return lookup(Kind.MEMBERS, groupMembers, groupId,
+            id -> server.getGroupManager().getGroupMembers(id) != null, this::buildGroupMembers);
+    }
+
+    private OutboundFrame lookup(Kind kind, Map<String, OutboundFrame> cache, String key, Predicate<String> cacheable,
+            Function<String, OutboundFrame> builder) {
+        OutboundFrame frame = cache.get(key);
+        if (frame != null) {
+            server.getMetrics().recordListResponse(kind, true);
+            return frame;
+        }
+        server.getMetrics().recordListResponse(kind, false);
+        if (!cacheable.test(key)) {
+            return builder.apply(key);
+        }
+        frame = cache.computeIfAbsent(key, builder);
+        if (!cacheable.test(key)) {
+            cache.remove(key, frame); // 插入前已下线，下线时的清除已经执行过
+        }
+        return frame;
+    }
+
+    /**
+     * 获取缓存的条目数，仅用于测试
+     */
+    int size() {
+        return friendLists.size() + groupLists.size() + groupMembers.size();
+    }
+
+    /**
+     * 好友关系变化后清除双方的好友列表
+     */
+    public void invalidateFriendship(String userId1, String userId2) {
+        friendLists.remove(userId1);
+        friendLists.remove(userId2);
+    }
+
+    /**
+     * 用户加入或创建群组后清除其群组列表和该群的成员列表
+     */
+    public void invalidateMembership(String userId, String groupId) {
+        groupLists.remove(userId);
+        groupMembers.remove(groupId);
+    }
+
+    /**
+     * 用户上线或下线后清除依赖其在线状态的列表
+     * @param userId 状态变化的用户ID
+     */
+    public void invalidatePresence(String userId) {
+        for (String friendId : server.getUserManager().getFriends(userId)) {
+            friendLists.remove(friendId);
+        }
+        for (String groupId : server.getGroupManager().getUserGroups(userId)) {
+            groupMembers.remove(groupId);
+        }
+    }
+
+    /**
+     * 用户下线时清除其自己的列表，不在线的用户不占用缓存
+     */
+    public void evict(String userId) {
+        friendLists.remove(userId);
+        groupLists.remove(userId);
+    }
+
+    private OutboundFrame buildFriendList(String userId) {
+        return OutboundFrame.of(new Message(MessageType.FRIEND_LIST, "Server", userId,
+            encodeUsers(server.getUserManager().getFriends(userId))));
+    }
+
+    private OutboundFrame buildGroupList(String userId) {
+        return OutboundFrame.of(new Message(MessageType.GET_GROUPS, "Server", userId,
+            String.join(";", server.getGroupManager().getUserGroups(userId))));
+    }
+
+    private OutboundFrame buildGroupMembers(String groupId) {
+        List<String> members = server.getGroupManager().getGroupMembers(groupId);
+        return OutboundFrame.of(new Message(MessageType.GET_GROUP_MEMBERS, groupId, "",
+            members == null ? "" : encodeUsers(members)));
+    }
+
+    /**
+     * 编码用户列表，跳过不存在的用户
+     * @return 格式：id:username:status;...
+     */
+    private String encodeUsers(List<String> userIds) {
+        StringBuilder sb = new StringBuilder();
+        for (String id : userIds) {
+            User user = server.getUserManager().getUserById(id);
+            if (user != null) {
+                if (sb.length() > 0) {
+                    sb.append(';');
+                }
+                sb.append(user.getId()).append(':').append(user.getUsername()).append(':')
+                    .append(server.isUserOnline(id) ? "online" : "offline");
+            }
+        }
+        return sb.toString();
+    }
+}
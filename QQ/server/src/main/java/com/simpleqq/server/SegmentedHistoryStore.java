@@ -0,0 +1,849 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.simpleqq.common.BinaryMessageCodec;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageCodec;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * 分段聊天记录存储
+ * 每个会话一个目录，记录按序号追加到固定大小的段文件，段文件以第一条记录的序号命名（%020d.seg）；
+ * 同名的.idx文件是该段的稀疏索引，段内每INDEX_INTERVAL条记录写一个索引项[序号][时间戳][偏移]。
+ * "某序号之前最新的N条"和"某时间点之前的记录"先二分查找段，再二分查找索引项，
+ * 只遍历目标位置附近的几个索引区间的记录头，不扫描整个会话；段文件通过MappedHistoryReader内存映射读取，
+ * 只解码最终返回的记录。
+ *
+ * 记录格式：[4字节负载长度][4字节CRC32][8字节序号][8字节时间戳][二进制编码的消息]，CRC覆盖序号、时间戳和负载。
+ * 记录时间戳取消息时间戳与会话上一条记录时间戳的较大值，保证会话内单调不减，可以二分查找。
+ *
+ * 正在追加的段文件预分配到段大小（稀疏文件），查询可以一次映射整个段，追加后不需要重新映射；
+ * 关闭追加句柄时截断到有效长度，打开时清除崩溃遗留的预分配空间。
+ * 段文件平时不单独刷盘，持久性由chat.wal保证：打开会话时截断残缺的段尾部并补齐索引，
+ * ChatHistoryWriter启动时再把序号大于会话最后一条记录的日志记录重放进来，因此append对已有序号是幂等的。
+ * checkpoint()把上次检查点以来写过的段文件和索引刷盘，再记录检查点序号，
+ * 此后不大于该序号的日志记录不再需要，ChatHistoryWriter据此截断chat.wal。
+ * 追加只应由一个线程进行（写入线程或离线迁移工具），查询可以在任意线程并发进行。
+ * 查询不获取appendLock，只在会话锁内复制所需段的快照（文件、有效长度和索引项数），映射、遍历和解码都在锁外进行，
+ * 段文件只追加，快照中的有效长度之内的数据不会再变化，因此慢查询不会阻塞写入线程；查询不存在的会话直接返回空结果，不缓存。
+ * 已加载的会话最多缓存MAX_CACHED_CONVERSATIONS个，超出时淘汰最久未访问且没有打开追加句柄的会话。
+ */
+public class SegmentedHistoryStore implements AutoCloseable {
+    private static final Logger LOG = Log.getLogger(SegmentedHistoryStore.class);
+    public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;  // 默认段文件大小
+    static final int RECORD_HEADER_LENGTH = 24;                       // 记录头：长度 + CRC + 序号 + 时间戳
+    static final int INDEX_ENTRY_LENGTH = 24;                         // 索引项：序号 + 时间戳 + 偏移
+    static final int INDEX_INTERVAL = 64;                             // 每隔多少条记录写一个索引项
+    private static final int MAX_OPEN_SEGMENTS = 64;                  // 保持打开的段文件句柄数
+    static final int MAX_CACHED_CONVERSATIONS = 1024;                 // 缓存的已加载会话数上限
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+    private static final String SEQUENCE_FLOOR_FILE = "sequence";     // 迁移工具分配过的最大序号
+    private static final String CHECKPOINT_FILE = "checkpoint";       // 已刷盘的最大序号
+
+    private final Path baseDir;                                       // 存储根目录
+    private final int segmentBytes;                                   // 段文件大小上限
+    private final MessageCodec codec = new BinaryMessageCodec();      // 记录负载编码
+    private final MappedHistoryReader reader = new MappedHistoryReader(); // 查询使用的段文件映射
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>(); // 已加载的会话
+    private final StripedLock loadLocks = new StripedLock(StripedLock.DEFAULT_STRIPES); // 按会话ID串行化加载，同一会话不会被加载两次
+    private final ReentrantLock appendLock = new ReentrantLock();     // 串行化追加并保护打开的句柄
+    private final Map<Conversation, Boolean> appenders = new LinkedHashMap<>(16, 0.75f, true); // 打开了段文件句柄的会话（LRU）
+    private final Set<Path> unsyncedFiles = new HashSet<>();          // 上次检查点后写过且句柄已关闭的文件，由appendLock保护
+    private volatile long checkpointSequence;                         // 检查点序号，不大于它的记录都已刷盘
+
+    /**
+     * 单个段文件及其稀疏索引，字段由所属会话的锁保护
+     */
+    private static final class Segment {
+        final long baseSequence;
+        final Path dataFile;
+        final Path indexFile;
+        long size;                           // 有效数据长度
+        int recordCount;                     // 段内记录数，只对末尾的段维护
+        long[] sequences = new long[16];     // 索引项：记录序号
+        long[] timestamps = new long[16];    // 索引项：记录时间戳
+        long[] offsets = new long[16];       // 索引项：记录在段内的偏移
+        int entries;
+
+        Segment(Path dir, long baseSequence) {
+            this.baseSequence = baseSequence;
+            String name = String.format("%020d", baseSequence);
+            this.dataFile = dir.resolve(name + SEGMENT_SUFFIX);
+            this.indexFile = dir.resolve(name + INDEX_SUFFIX);
+        }
+
+        void addEntry(long sequence, long timestamp, long offset) {
+            if (entries == sequences.length) {
+                sequences = Arrays.copyOf(sequences, entries * 2);
+                timestamps = Arrays.copyOf(timestamps, entries * 2);
+                offsets = Arrays.copyOf(offsets, entries * 2);
+            }
+            sequences[entries] = sequence;
+            timestamps[entries] = timestamp;
+            offsets[entries] = offset;
+            entries++;
+        }
+    }
+
+    /**
+     * 查询使用的段快照，在会话锁内创建
+     * 索引数组只追加，前entries项创建后不再修改，扩容时换成新数组，因此快照可以直接引用而不复制
+     */
+    private record SegmentView(Path dataFile, long size, long[] sequences, long[] timestamps, long[] offsets,
+            int entries) {
+
+        SegmentView(Segment segment) {
+            this(segment.dataFile, segment.size, segment.sequences, segment.timestamps, segment.offsets, segment.entries);
+        }
+
+        /**
+         * 索引项k覆盖的区间终点
+         */
+        long chunkEnd(int k) {
+            return k + 1 < entries ? offsets[k + 1] : size;
+        }
+    }
+
+    /**
+     * 单个会话的段列表
+     */
+    private static final class Conversation {
+        final Path dir;
+        final ReentrantLock lock = new ReentrantLock(); // 保护段列表和末尾状态
+        final List<Segment> segments = new ArrayList<>();
+        long lastSequence;                   // 最后一条记录的序号，空会话为0
+        long lastTimestamp;                  // 最后一条记录的时间戳
+        FileChannel data;                    // 末尾段的追加句柄，由appendLock保护
+        FileChannel index;                   // 末尾段索引的追加句柄，由appendLock保护
+        Segment open;                        // 追加句柄对应的段，由appendLock保护
+        boolean dirty;                       // 追加句柄上次检查点后是否写过，由appendLock保护
+        volatile long lastAccess;            // 最近一次访问的时间（System.nanoTime），用于淘汰
+
+        Conversation(Path dir) {
+            this.dir = dir;
+        }
+
+        Segment tail() {
+            return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        }
+    }
+
+    /**
+     * 查询结果：从旧到新的消息和对应序号
+     */
+    public static final class Slice {
+        private final List<Message> messages;
+        private final long[] sequences;
+        private final boolean hasMore;
+
+        Slice(List<Message> messages, long[] sequences, boolean hasMore) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.sequences = sequences;
+            this.hasMore = hasMore;
+        }
+
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        /**
+         * 获取第i条消息的序号
+         */
+        public long getSequence(int i) {
+            return sequences[i];
+        }
+
+        /**
+         * 是否还有更早的记录
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param baseDir 存储根目录，每个会话一个子目录
+     * @param segmentBytes 段文件大小上限，单条记录超过该值时独占一个段
+     */
+    public SegmentedHistoryStore(Path baseDir, int segmentBytes) throws IOException {
+        if (segmentBytes < RECORD_HEADER_LENGTH) {
+            throw new IllegalArgumentException("segmentBytes too small: " + segmentBytes);
+        }
+        this.baseDir = baseDir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(baseDir);
+        checkpointSequence = readSequence(CHECKPOINT_FILE);
+    }
+
+    /**
+     * 追加一条记录
+     * 序号不大于会话最后一条记录时忽略，重放日志时据此跳过已经写入的记录
+     * @param conversationId 会话ID
+     * @param sequence 记录序号，会话内必须递增
+     * @param message 聊天消息
+     * @return 写入返回true，已存在而跳过返回false
+     */
+    public boolean append(String conversationId, long sequence, Message message) throws IOException {
+        appendLock.lock();
+        try {
+            Conversation conversation = conversation(conversationId);
+            if (sequence <= conversation.lastSequence) {
+                return false;
+            }
+            byte[] payload = codec.encode(message);
+            long timestamp = Math.max(message.getTimestamp(), conversation.lastTimestamp);
+            Segment tail = conversation.tail();
+            if (tail == null || (tail.size > 0 && tail.size + RECORD_HEADER_LENGTH + payload.length > segmentBytes)) {
+                closeAppender(conversation);
+                tail = new Segment(conversation.dir, sequence);
+                Files.createDirectories(conversation.dir);
+                Files.deleteIfExists(tail.indexFile); // 上次创建后未写入任何记录的残留
+                lockedAdd(conversation, tail);
+            }
+            openAppender(conversation, tail);
+            conversation.dirty = true;
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length);
+            record.putInt(payload.length).putInt(0).putLong(sequence).putLong(timestamp).put(payload);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 8, RECORD_HEADER_LENGTH - 8 + payload.length);
+            record.putInt(4, (int) crc.getValue());
+            record.flip();
+            long offset = tail.size;
+            while (record.hasRemaining()) {
+                conversation.data.write(record, offset + record.position());
+            }
+            boolean indexed = tail.recordCount % INDEX_INTERVAL == 0;
+            if (indexed) {
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_LENGTH);
+                entry.putLong(sequence).putLong(timestamp).putLong(offset).flip();
+                while (entry.hasRemaining()) {
+                    conversation.index.write(entry);
+                }
+            }
+
+            conversation.lock.lock();
+            try {
+                if (indexed) {
+                    tail.addEntry(sequence, timestamp, offset);
+                }
+                tail.size = offset + RECORD_HEADER_LENGTH + payload.length;
+                tail.recordCount++;
+                conversation.lastSequence = sequence;
+                conversation.lastTimestamp = timestamp;
+            } finally {
+                conversation.lock.unlock();
+            }
+            return true;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private static void lockedAdd(Conversation conversation, Segment segment) {
+        conversation.lock.lock();
+        try {
+            conversation.segments.add(segment);
+        } finally {
+            conversation.lock.unlock();
+        }
+    }
+
+    /**
+     * 打开末尾段的追加句柄，超过上限时关闭最久未使用的句柄
+     */
+    private void openAppender(Conversation conversation, Segment tail) throws IOException {
+        appenders.put(conversation, Boolean.TRUE);
+        if (conversation.data != null) {
+            return;
+        }
+        if (appenders.size() > MAX_OPEN_SEGMENTS) {
+            Iterator<Conversation> eldest = appenders.keySet().iterator();
+            closeAppender(eldest.next());
+        }
+        conversation.data = FileChannel.open(tail.dataFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        conversation.index = FileChannel.open(tail.indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        conversation.open = tail;
+        if (conversation.data.size() < segmentBytes) {
+            conversation.data.write(ByteBuffer.allocate(1), segmentBytes - 1); // 预分配，只有最后一个字节实际写入
+        }
+    }
+
+    private void closeAppender(Conversation conversation) throws IOException {
+        appenders.remove(conversation);
+        if (conversation.dirty) {
+            // 关闭句柄不刷盘，留到下次检查点统一刷盘
+            unsyncedFiles.add(conversation.open.dataFile);
+            unsyncedFiles.add(conversation.open.indexFile);
+            conversation.dirty = false;
+        }
+        try {
+            if (conversation.data != null) {
+                conversation.data.truncate(conversation.open.size); // 去掉预分配的空间
+                conversation.data.close();
+            }
+            if (conversation.index != null) {
+                conversation.index.close();
+            }
+        } finally {
+            conversation.data = null;
+            conversation.index = null;
+            conversation.open = null;
+        }
+    }
+
+    /**
+     * 记录检查点
+     * 先把上次检查点以来写过的段文件和索引刷盘，再原子地写入检查点序号
+     * @param sequence 已追加到本存储的最大序号，调用方保证不大于它的记录都已追加
+     * @throws IOException 刷盘或写入失败时抛出，此时检查点保持不变
+     */
+    public void checkpoint(long sequence) throws IOException {
+        appendLock.lock();
+        try {
+            for (Conversation conversation : appenders.keySet()) {
+                if (conversation.dirty) {
+                    conversation.data.force(false);
+                    conversation.index.force(false);
+                    conversation.dirty = false;
+                }
+            }
+            for (Iterator<Path> it = unsyncedFiles.iterator(); it.hasNext();) {
+                Path file = it.next();
+                if (Files.exists(file)) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.force(false);
+                    }
+                }
+                it.remove();
+            }
+            Journal.writeSnapshot(baseDir.resolve(CHECKPOINT_FILE), List.of(Long.toString(sequence)));
+            checkpointSequence = sequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 获取检查点序号
+     * @return 不大于该序号的记录都已刷盘，没有检查点时为0
+     */
+    public long getCheckpoint() {
+        return checkpointSequence;
+    }
+
+    /**
+     * 获取会话的最后一条记录序号
+     * @param conversationId 会话ID
+     * @return 序号，会话不存在时为0
+     */
+    public long getLastSequence(String conversationId) throws IOException {
+        Conversation conversation = existing(conversationId);
+        if (conversation == null) {
+            return 0;
+        }
+        conversation.lock.lock();
+        try {
+            return conversation.lastSequence;
+        } finally {
+            conversation.lock.unlock();
+        }
+    }
+
+    /**
+     * 读取序号小于beforeSequence的最新若干条记录
+     * @param conversationId 会话ID
+     * @param beforeSequence 序号上限（不含），0或负数表示从最新的记录开始
+     * @param limit 最多返回的条数
+     * @return 从旧到新排列的记录
+     */
+    public Slice readBefore(String conversationId, long beforeSequence, int limit) throws IOException {
+        long before = beforeSequence <= 0 ? Long.MAX_VALUE : beforeSequence;
+        Conversation conversation = existing(conversationId);
+        if (conversation == null) {
+            return new Slice(new ArrayList<>(), new long[0], false);
+        }
+        int s;
+        SegmentView segment;
+        conversation.lock.lock();
+        try {
+            s = lastSegmentBefore(conversation.segments, before);
+            segment = s < 0 ? null : new SegmentView(conversation.segments.get(s));
+        } finally {
+            conversation.lock.unlock();
+        }
+        if (s < 0 || limit <= 0) {
+            return new Slice(new ArrayList<>(), new long[0], s >= 0);
+        }
+        // 从目标所在的索引区间开始向前逐个区间遍历记录头，直到凑够limit条，最后只解码返回的记录；
+        // 段列表只在末尾追加，更早的段的位置不变，需要时再取它的快照
+        List<ByteBuffer> chunkData = new ArrayList<>();
+        List<int[]> chunkPositions = new ArrayList<>();
+        List<Path> chunkFiles = new ArrayList<>();
+        int collected = 0;
+        int k = lastIndexBelow(segment.sequences(), segment.entries(), before);
+        while (s >= 0 && collected < limit) {
+            ByteBuffer data = reader.map(segment.dataFile(), segment.size());
+            int[] positions = recordsBefore(data, segment, k, before);
+            chunkData.add(data);
+            chunkPositions.add(positions);
+            chunkFiles.add(segment.dataFile());
+            collected += positions.length;
+            if (--k < 0 && --s >= 0) {
+                segment = view(conversation, s);
+                k = segment.entries() - 1;
+            }
+        }
+
+        List<Message> result = new ArrayList<>(Math.min(collected, limit));
+        long[] resultSequences = new long[Math.min(collected, limit)];
+        int skip = Math.max(0, collected - limit);
+        for (int c = chunkData.size() - 1; c >= 0; c--) {
+            ByteBuffer data = chunkData.get(c);
+            for (int position : chunkPositions.get(c)) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                resultSequences[result.size()] = MappedHistoryReader.sequence(data, position);
+                result.add(reader.decode(data, position, chunkFiles.get(c)));
+            }
+        }
+        return new Slice(result, resultSequences, collected > limit || s >= 0);
+    }
+
+    private static SegmentView view(Conversation conversation, int s) {
+        conversation.lock.lock();
+        try {
+            return new SegmentView(conversation.segments.get(s));
+        } finally {
+            conversation.lock.unlock();
+        }
+    }
+
+    /**
+     * 查找时间戳不小于timestamp的第一条记录的序号
+     * 与readBefore组合即可读取某时间点之前的记录
+     * @param conversationId 会话ID
+     * @param timestamp 时间点（毫秒）
+     * @return 记录序号，所有记录都早于该时间点时返回最后一条记录的序号加1
+     */
+    public long sequenceAt(String conversationId, long timestamp) throws IOException {
+        Conversation conversation = existing(conversationId);
+        if (conversation == null) {
+            return 1;
+        }
+        SegmentView segment;
+        long nextSequence;                   // 快照段之后的第一条记录的序号
+        conversation.lock.lock();
+        try {
+            List<Segment> segments = conversation.segments;
+            // 换段时新段先加入列表再写入第一条记录，还没有索引项的末尾段不参与查找
+            int searchable = segments.size();
+            if (searchable > 0 && segments.get(searchable - 1).entries == 0) {
+                searchable--;
+            }
+            int lo = 0;
+            int hi = searchable - 1;
+            int s = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (segments.get(mid).timestamps[0] < timestamp) {
+                    s = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (s < 0) {
+                return searchable == 0 ? conversation.lastSequence + 1 : segments.get(0).baseSequence;
+            }
+            segment = new SegmentView(segments.get(s));
+            nextSequence = s + 1 < searchable ? segments.get(s + 1).baseSequence : conversation.lastSequence + 1;
+        } finally {
+            conversation.lock.unlock();
+        }
+        int k = lastIndexBelow(segment.timestamps(), segment.entries(), timestamp);
+        ByteBuffer data = reader.map(segment.dataFile(), segment.size());
+        int end = (int) segment.chunkEnd(k);
+        for (int position = (int) segment.offsets()[k]; position < end;
+                position = MappedHistoryReader.next(data, position, end, segment.dataFile())) {
+            if (MappedHistoryReader.timestamp(data, position) >= timestamp) {
+                return MappedHistoryReader.sequence(data, position);
+            }
+        }
+        if (k + 1 < segment.entries()) {
+            return segment.sequences()[k + 1];
+        }
+        return nextSequence;
+    }
+
+    /**
+     * 读取时间戳早于timestamp的最新若干条记录
+     */
+    public Slice readBeforeTime(String conversationId, long timestamp, int limit) throws IOException {
+        return readBefore(conversationId, sequenceAt(conversationId, timestamp), limit);
+    }
+
+    private static int lastSegmentBefore(List<Segment> segments, long before) {
+        int lo = 0;
+        int hi = segments.size() - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segments.get(mid).baseSequence < before) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 在升序数组的前count个元素中查找最后一个小于value的位置，第一个元素总是满足条件
+     */
+    private static int lastIndexBelow(long[] values, int count, long value) {
+        int index = Arrays.binarySearch(values, 0, count, value);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            while (index > 0 && values[index - 1] == value) {
+                index--; // 时间戳可能重复，取第一个相等的位置
+            }
+        }
+        return Math.max(0, index - 1);
+    }
+
+    /**
+     * 遍历索引项k覆盖的区间的记录头，返回序号小于before的记录位置
+     */
+    private static int[] recordsBefore(ByteBuffer data, SegmentView segment, int k, long before) throws IOException {
+        int[] positions = new int[INDEX_INTERVAL];
+        int count = 0;
+        int end = (int) segment.chunkEnd(k);
+        for (int position = (int) segment.offsets()[k]; position < end;
+                position = MappedHistoryReader.next(data, position, end, segment.dataFile())) {
+            if (MappedHistoryReader.sequence(data, position) >= before) {
+                break; // 区间内序号递增
+            }
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = position;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * 追加时获取会话，首次访问时加载段列表和索引并恢复末尾的段，会话不存在时创建
+     * 调用时必须持有appendLock
+     */
+    private Conversation conversation(String conversationId) throws IOException {
+        Conversation conversation = conversations.get(conversationId);
+        if (conversation == null) {
+            conversation = loadCached(conversationId);
+        }
+        conversation.lastAccess = System.nanoTime();
+        return conversation;
+    }
+
+    /**
+     * 查询时获取会话，不获取appendLock
+     * @return 会话，既未加载也没有目录时返回null，不为不存在的会话创建缓存项
+     */
+    private Conversation existing(String conversationId) throws IOException {
+        Conversation conversation = conversations.get(conversationId);
+        if (conversation == null) {
+            if (!Files.isDirectory(baseDir.resolve(PathNames.encode(conversationId)))) {
+                return null;
+            }
+            conversation = loadCached(conversationId);
+        }
+        conversation.lastAccess = System.nanoTime();
+        return conversation;
+    }
+
+    private Conversation loadCached(String conversationId) throws IOException {
+        Conversation conversation;
+        loadLocks.lock(conversationId);
+        try {
+            conversation = conversations.get(conversationId);
+            if (conversation != null) {
+                return conversation;
+            }
+            conversation = load(baseDir.resolve(PathNames.encode(conversationId)));
+            conversation.lastAccess = System.nanoTime();
+            conversations.put(conversationId, conversation);
+        } finally {
+            loadLocks.unlock(conversationId);
+        }
+        if (conversations.size() > MAX_CACHED_CONVERSATIONS) {
+            evictIdle();
+        }
+        return conversation;
+    }
+
+    /**
+     * 淘汰最久未访问的会话，直到缓存降到上限的3/4
+     * 需要appendLock，保证被淘汰的会话没有正在进行的追加；查询线程拿不到锁时跳过，留给下一次加载
+     */
+    private void evictIdle() {
+        if (!appendLock.tryLock()) {
+            return;
+        }
+        try {
+            // 先记下访问时间再排序，排序期间查询线程仍会更新lastAccess
+            record Idle(String id, Conversation conversation, long lastAccess) {
+            }
+            List<Idle> idle = new ArrayList<>();
+            for (Map.Entry<String, Conversation> entry : conversations.entrySet()) {
+                Conversation conversation = entry.getValue();
+                if (!appenders.containsKey(conversation)) {
+                    idle.add(new Idle(entry.getKey(), conversation, conversation.lastAccess));
+                }
+            }
+            idle.sort((a, b) -> Long.compare(a.lastAccess(), b.lastAccess()));
+            int excess = conversations.size() - MAX_CACHED_CONVERSATIONS * 3 / 4;
+            for (int i = 0; i < idle.size() && i < excess; i++) {
+                conversations.remove(idle.get(i).id(), idle.get(i).conversation());
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 获取已缓存的会话数，仅用于测试
+     */
+    int getCachedConversationCount() {
+        return conversations.size();
+    }
+
+    private Conversation load(Path dir) throws IOException {
+        Conversation conversation = new Conversation(dir);
+        if (!Files.isDirectory(dir)) {
+            return conversation;
+        }
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                .forEach(name -> bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        Collections.sort(bases);
+        for (long base : bases) {
+            Segment segment = new Segment(dir, base);
+            segment.size = Files.size(segment.dataFile);
+            loadIndex(segment);
+            conversation.segments.add(segment);
+        }
+        for (int i = 0; i < conversation.segments.size() - 1; i++) {
+            Segment segment = conversation.segments.get(i);
+            if (segment.size >= segmentBytes) {
+                trimPreallocated(segment); // 换段后截断前崩溃，段尾可能还留着预分配的零字节
+            }
+            if (segment.entries == 0) {
+                rebuildIndex(segment); // 索引文件丢失
+            }
+        }
+        // 末尾的段可能在崩溃时只写了一半，空段直接删除
+        while (!conversation.segments.isEmpty()) {
+            Segment tail = conversation.tail();
+            if (recoverTail(conversation, tail)) {
+                break;
+            }
+            LOG.warn("Removing empty history segment {}", tail.dataFile);
+            Files.deleteIfExists(tail.dataFile);
+            Files.deleteIfExists(tail.indexFile);
+            conversation.segments.remove(conversation.segments.size() - 1);
+        }
+        return conversation;
+    }
+
+    /**
+     * 从最后一个索引项开始扫描，截断有效记录之后的数据
+     */
+    private static void trimPreallocated(Segment segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int k = segment.entries - 1;
+            long start = k < 0 ? 0 : segment.offsets[k];
+            int entries = segment.entries;
+            long validEnd = scanValid(channel, start, segment.size, segment, k < 0 ? 0 : k * INDEX_INTERVAL,
+                new long[2], new int[1]);
+            if (validEnd < segment.size) {
+                LOG.warn("Trimming {} preallocated bytes of history segment {}", segment.size - validEnd, segment.dataFile);
+                channel.truncate(validEnd);
+                segment.size = validEnd;
+            }
+            if (segment.entries != entries) {
+                rewriteIndex(segment);
+            }
+        }
+    }
+
+    private static void loadIndex(Segment segment) throws IOException {
+        if (!Files.exists(segment.indexFile)) {
+            return;
+        }
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(segment.indexFile));
+        while (index.remaining() >= INDEX_ENTRY_LENGTH) {
+            segment.addEntry(index.getLong(), index.getLong(), index.getLong());
+        }
+    }
+
+    /**
+     * 从最后一个有效的索引项开始扫描末尾的段，截断残缺数据并补齐缺失的索引项
+     * @return 段内还有记录返回true
+     */
+    private boolean recoverTail(Conversation conversation, Segment tail) throws IOException {
+        try (FileChannel channel = FileChannel.open(tail.dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            while (true) {
+                int k = tail.entries - 1;
+                long start = k < 0 ? 0 : tail.offsets[k];
+                long[] last = {0, 0};
+                int[] scanned = {0};
+                long validEnd = scanValid(channel, start, fileSize, tail, k < 0 ? 0 : k * INDEX_INTERVAL, last, scanned);
+                if (scanned[0] == 0 && k >= 0) {
+                    tail.entries--; // 索引项指向的记录不完整
+                    fileSize = tail.offsets[k];
+                    continue;
+                }
+                if (validEnd < channel.size()) {
+                    LOG.warn("Truncating {} bytes of torn history segment {}", channel.size() - validEnd, tail.dataFile);
+                    channel.truncate(validEnd);
+                }
+                tail.size = validEnd;
+                if (scanned[0] == 0) {
+                    return false;
+                }
+                tail.recordCount = (k < 0 ? 0 : k * INDEX_INTERVAL) + scanned[0];
+                conversation.lastSequence = last[0];
+                conversation.lastTimestamp = last[1];
+                rewriteIndex(tail);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 顺序校验记录，记录序号对齐索引间隔但缺少索引项时补上
+     * @return 最后一条完整记录之后的位置
+     */
+    private static long scanValid(FileChannel channel, long start, long end, Segment segment, int firstOrdinal,
+            long[] last, int[] scanned) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        long position = start;
+        int ordinal = firstOrdinal;
+        while (position + RECORD_HEADER_LENGTH <= end) {
+            header.clear();
+            ChatHistoryWriter.readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length < 0 || length > WireProtocol.MAX_FRAME_LENGTH || position + RECORD_HEADER_LENGTH + length > end) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            ChatHistoryWriter.readFully(channel, payload, position + RECORD_HEADER_LENGTH);
+            crc.reset();
+            crc.update(header.array(), 8, RECORD_HEADER_LENGTH - 8);
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            long sequence = header.getLong(8);
+            long timestamp = header.getLong(16);
+            if (ordinal % INDEX_INTERVAL == 0 && ordinal / INDEX_INTERVAL >= segment.entries) {
+                segment.addEntry(sequence, timestamp, position);
+            }
+            last[0] = sequence;
+            last[1] = timestamp;
+            scanned[0]++;
+            ordinal++;
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        return position;
+    }
+
+    private static void rebuildIndex(Segment segment) throws IOException {
+        LOG.warn("Rebuilding history index {}", segment.indexFile);
+        try (FileChannel channel = FileChannel.open(segment.dataFile, StandardOpenOption.READ)) {
+            scanValid(channel, 0, segment.size, segment, 0, new long[2], new int[1]);
+        }
+        rewriteIndex(segment);
+    }
+
+    private static void rewriteIndex(Segment segment) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(segment.entries * INDEX_ENTRY_LENGTH);
+        for (int i = 0; i < segment.entries; i++) {
+            index.putLong(segment.sequences[i]).putLong(segment.timestamps[i]).putLong(segment.offsets[i]);
+        }
+        Files.write(segment.indexFile, index.array());
+    }
+
+    /**
+     * 获取离线迁移工具分配过的最大序号
+     * 写入线程的序号必须从其之后开始，避免与迁移的记录冲突
+     */
+    public long getSequenceFloor() throws IOException {
+        return readSequence(SEQUENCE_FLOOR_FILE);
+    }
+
+    private long readSequence(String fileName) throws IOException {
+        Path file = baseDir.resolve(fileName);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(file), Charset.defaultCharset()).trim());
+    }
+
+    /**
+     * 记录离线迁移工具分配过的最大序号
+     */
+    public void setSequenceFloor(long sequence) throws IOException {
+        Journal.writeSnapshot(baseDir.resolve(SEQUENCE_FLOOR_FILE), List.of(Long.toString(sequence)));
+    }
+
+    /**
+     * 关闭所有追加句柄并丢弃段文件映射
+     */
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            for (Conversation conversation : new ArrayList<>(appenders.keySet())) {
+                closeAppender(conversation);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        reader.clear();
+    }
+}
@@ -1,16 +1,16 @@
 package com.simpleqq.server;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.simpleqq.common.HistoryPage;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.MessageType;
 import com.simpleqq.common.User;
@@ -21,20 +21,30 @@ import com.simpleqq.common.User;
  * 使用多线程处理多个客户端的并发连接
  */
 public class Server {
-    private static final int PORT = 8888;                              // 服务器监听端口
+    private static final Logger LOG = Log.getLogger(Server.class);
+
+    private final ServerConfig config;                                       // 服务器配置
     private final UserManager userManager;                                   // 用户管理器，处理用户相关操作
     private final GroupManager groupManager;                                 // 群组管理器，处理群组相关操作
     private final Map<String, ClientHandler> onlineClients;                 // 在线客户端映射表，key为用户ID
-    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"); // 日期格式化器
+    private final Path historyDir;                                           // 聊天记录目录
+    private final ReentrantLock historyLock = new ReentrantLock();           // 保护聊天记录写入器的创建和关闭
+    private volatile ChatHistoryWriter historyWriter;                       // 聊天记录写入器，首次保存或查询消息时创建
+    private final GroupFanout groupFanout;                                   // 群消息扇出引擎
+    private final OfflineInbox offlineInbox;                                 // 离线消息收件箱
+    private final PresenceAggregator presence;                               // 好友在线状态通知（按窗口合并）
+    private final BlobStore blobStore;                                       // 图片存储
+    private final ResponseCache responses;                                   // 好友、群组、群成员列表的响应缓存
+    private final ServerMetrics metrics;                                     // 服务器指标
+    private volatile ServerTransport transport;                             // 当前运行的传输层
+    private volatile MetricsEndpoint metricsEndpoint;                       // 指标HTTP端点，未启用时为null
 
     /**
      * 构造函数
      * 初始化服务器组件和数据结构
      */
     public Server() {
-        userManager = new UserManager();
-        groupManager = new GroupManager();
-        onlineClients = new ConcurrentHashMap<>(); // 使用线程安全的Map
+        this(".");
     }
 
     /**
@@ -43,9 +53,38 @@ public class Server {
      * @param basePath 数据文件存储的基础路径
      */
     public Server(String basePath) {
+        this(basePath, new ServerConfig());
+    }
+
+    /**
+     * 构造函数
+     * 使用指定的数据目录和服务器配置
+     * @param basePath 数据文件存储的基础路径
+     * @param config 服务器配置
+     */
+    public Server(String basePath, ServerConfig config) {
+        config.validate(); // 启动时就拒绝矛盾的配置，而不是等到第一个连接创建发送队列时才失败
+        this.config = config;
         userManager = new UserManager(basePath);
         groupManager = new GroupManager(basePath);
+        historyDir = Paths.get(basePath, ".history");
         onlineClients = new ConcurrentHashMap<>(); // 使用线程安全的Map
+        groupFanout = new GroupFanout(this, config.getFanoutThreads());
+        offlineInbox = new OfflineInbox(Paths.get(basePath, ".offline"), onlineClients::get,
+            config.getOutboundLowWatermark(), config.getOfflineFsyncPolicy());
+        blobStore = new BlobStore(Paths.get(basePath, ".blobs"), config.getBlobMaxBytes(),
+            config.getBlobMaxPendingBytes(), config.getBlobPartTtlMillis());
+        presence = new PresenceAggregator(this, config.getPresenceWindowMillis());
+        responses = new ResponseCache(this);
+        metrics = new ServerMetrics(this);
+    }
+
+    /**
+     * 获取服务器配置
+     * @return 配置对象
+     */
+    public ServerConfig getConfig() {
+        return config;
     }
 
     /**
@@ -78,13 +117,14 @@ public class Server {
      * @param userId 用户ID
      * @param handler 客户端处理器
      */
-    public synchronized void addOnlineClient(String userId, ClientHandler handler) {
+    public void addOnlineClient(String userId, ClientHandler handler) {
         onlineClients.put(userId, handler);
+        responses.invalidatePresence(userId);
         User user = userManager.getUserById(userId);
         if (user != null) {
             user.setOnline(true); // 设置用户在线状态
         }
-        System.out.println("User " + userId + " is now online. Total online: " + onlineClients.size());
+        LOG.info("User {} is now online. Total online: {}", userId, onlineClients.size());
     }
 
     /**
@@ -92,13 +132,23 @@ public class Server {
      * 当用户断开连接时调用，从在线列表中移除并更新状态
      * @param userId 用户ID
      */
-    public synchronized void removeClient(String userId) {
+    public void removeClient(String userId) {
         onlineClients.remove(userId);
+        responses.invalidatePresence(userId);
+        responses.evict(userId);
         User user = userManager.getUserById(userId);
         if (user != null) {
             user.setOnline(false); // 设置用户离线状态
         }
-        System.out.println("User " + userId + " went offline. Total online: " + onlineClients.size());
+        LOG.info("User {} went offline. Total online: {}", userId, onlineClients.size());
+    }
+
+    /**
+     * 获取群消息扇出引擎
+     * @return 扇出引擎
+     */
+    public GroupFanout getGroupFanout() {
+        return groupFanout;
     }
 
     /**
@@ -112,123 +162,231 @@ public class Server {
 
     /**
      * 启动服务器
-     * 创建ServerSocket并持续监听客户端连接请求
-     * 为每个新连接创建独立的ClientHandler线程
+     * 按配置的传输层模式监听客户端连接，并阻塞直到服务器停止
      */
     @SuppressWarnings("CallToPrintStackTrace")
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started on port " + PORT);
-            
-            while (true) {
-                // 等待客户端连接
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
-                
-                // 为每个客户端创建独立的处理线程
-                new ClientHandler(clientSocket, this).start();
-            }
+        try {
+            bind().awaitTermination();
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * 保存聊天消息到文件
-     * 这是系统的核心数据持久化方法，负责将所有聊天记录保存到文件系统
-     * 
-     * 关键设计特点：
-     * 1. 文件名规范化：私聊文件名按用户ID字母序排列，确保同一对话的一致性
-     *    例如：user001和user002的对话文件名总是chat_history_user001_user002.txt
-     * 2. 分类存储：私聊和群聊消息分别存储在不同的文件中
-     * 3. 数据优化：图片消息只保存文件名/描述，不保存Base64数据，节省存储空间
-     * 4. 时间戳记录：每条消息都包含精确的时间戳，便于追溯和排序
-     * 5. 目录管理：使用.history子目录组织聊天记录文件，避免污染主目录
-     * 
-     * 文件格式：[时间戳] [发送者] to [接收者]: 内容
-     * 示例：2024-01-01 14:30:25 [user001] to [user002]: 你好，很高兴认识你
-     * 
-     * @param message 要保存的消息对象，包含类型、发送者、接收者、内容等信息
+     * 绑定端口并启动传输层，方法立即返回
+     * 阻塞模式下为每个连接创建独立的ClientHandler线程，虚拟线程模式下读循环运行在虚拟线程上，
+     * NIO模式下由固定数量的事件循环线程负责所有连接的读写，消息交给工作线程池处理
+     * @return 已启动的传输层
+     * @throws IOException 端口绑定失败时抛出
      */
-    @SuppressWarnings("CallToPrintStackTrace")
-    public void saveChatMessage(Message message) {
-        String chatFileName;
-        
-        if (null == message.getType()) {
-            return; // 不保存其他类型的消息
-        } else switch (message.getType()) {
-            case TEXT_MESSAGE, IMAGE_MESSAGE -> {
-                // 私聊消息：按用户ID字母顺序生成文件名，确保一致性
-                String sender = message.getSenderId();
-                String receiver = message.getReceiverId();
-                if (sender.compareTo(receiver) < 0) {
-                    chatFileName = "chat_history_" + sender + "_" + receiver + ".txt";
-                } else {
-                    chatFileName = "chat_history_" + receiver + "_" + sender + ".txt";
-                }
-            }
-            case GROUP_MESSAGE -> // 群聊消息：使用群组ID生成文件名
-                chatFileName = "chat_history_group_" + message.getReceiverId() + ".txt";
-            default -> {
-                return; // 不保存其他类型的消息
-            }
+    public ServerTransport bind() throws IOException {
+        ServerTransport newTransport = switch (config.getTransportMode()) {
+            case BLOCKING -> new BlockingTransport(this);
+            case VIRTUAL -> new BlockingTransport(this, VirtualThreads.newPerTaskExecutor(),
+                VirtualThreads.newPerTaskExecutor());
+            case NIO -> new NioTransport(this, config.getIoThreads(), config.getWorkerThreads());
+        };
+        groupFanout.start();
+        presence.start();
+        newTransport.start(config.getPort());
+        transport = newTransport;
+        if (config.getMetricsPort() >= 0 && metricsEndpoint == null) {
+            metricsEndpoint = new MetricsEndpoint(config.getMetricsPort(), metrics.getRegistry());
         }
+        LOG.info("Server started on port {} ({} transport)", newTransport.getLocalPort(), config.getTransportMode());
+        return newTransport;
+    }
 
-    // 将聊天记录保存到运行目录下的 .history 子目录
-    File historyDir = new File(System.getProperty("user.dir"), ".history");
-    if (!historyDir.exists()) historyDir.mkdirs();
-    File historyFile = new File(historyDir, chatFileName);
-
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(historyFile, true))) {
-            String contentToSave;
-            if (message.getType() == MessageType.IMAGE_MESSAGE) {
-                // 图片消息只保存文件名，不保存Base64数据
-                contentToSave = "[图片: " + message.getContent() + "]";
-            } else {
-                contentToSave = message.getContent();
+    /**
+     * 停止服务器，关闭传输层、扇出引擎和聊天记录写入器
+     */
+    public void stop() {
+        ServerTransport current = transport;
+        if (current != null) {
+            current.close();
+        }
+        MetricsEndpoint endpoint = metricsEndpoint;
+        if (endpoint != null) {
+            endpoint.close();
+            metricsEndpoint = null;
+        }
+        groupFanout.shutdown();
+        presence.shutdown();
+        offlineInbox.shutdown();
+        if (groupFanout.getLatencyHistogram().getCount() > 0) {
+            LOG.info("Group fan-out latency: {}", groupFanout.getLatencyHistogram().summary());
+        }
+        historyLock.lock();
+        try {
+            if (historyWriter != null) {
+                historyWriter.close(); // 写完并刷盘已提交的聊天记录
+                historyWriter = null;
             }
-            
-            // 写入格式：时间戳 [发送者] to [接收者]: 内容
-            String logEntry = dateFormat.format(new Date(message.getTimestamp())) + 
-                            " [" + message.getSenderId() + "] to [" + message.getReceiverId() + "]: " + 
-                            contentToSave;
-            writer.write(logEntry);
-            writer.newLine();
+        } finally {
+            historyLock.unlock();
+        }
+    }
+
+    /**
+     * 保存聊天消息
+     * 消息追加到.history目录下的预写日志，由ChatHistoryWriter组提交并按配置的策略刷盘，
+     * 同时写入.history/conversations下按会话分段的存储供分页查询：
+     * 1. 会话规范化：私聊会话ID按用户ID字母序排列，确保同一对话的一致性
+     *    例如：user001和user002的对话总是保存在会话user001_user002中
+     * 2. 分类存储：私聊和群聊消息分别存储在不同的会话目录中
+     * 3. 数据优化：图片消息只保存文件名/描述，不保存Base64数据，节省存储空间
+     *
+     * @param message 要保存的消息对象，提交后不得再修改
+     * @return 消息持久化后以日志序号完成的Future；非聊天消息返回已完成的-1
+     */
+    public CompletableFuture<Long> saveChatMessage(Message message) {
+        if (ChatHistoryWriter.conversationId(message) == null) {
+            return CompletableFuture.completedFuture(-1L); // 不保存其他类型的消息
+        }
+        try {
+            long start = System.nanoTime();
+            CompletableFuture<Long> persisted = historyWriter().append(message);
+            persisted.whenComplete((sequence, error) -> metrics.recordPersist(System.nanoTime() - start, error != null));
+            return persisted;
         } catch (IOException e) {
-            System.err.println("Failed to write chat history to " + historyFile.getAbsolutePath() + ": " + e.getMessage());
-            e.printStackTrace();
+            metrics.recordPersist(0, true);
+            LOG.error("Failed to open chat history in {}: {}", historyDir, e.getMessage());
+            return CompletableFuture.failedFuture(e);
         }
     }
 
+    /**
+     * 分页查询聊天记录
+     * 从预写日志的会话索引中读取起始序号之前最新的若干条记录
+     * @param userId 请求者ID
+     * @param group 是否为群聊
+     * @param target 好友ID或群组ID
+     * @param beforeSequence 只返回序号小于该值的记录，0表示从最新的记录开始
+     * @param limit 最多返回的条数
+     * @return 从旧到新排列的分页数据
+     * @throws IOException 日志无法打开或读取时抛出
+     */
+    public HistoryPage loadHistory(String userId, boolean group, String target, long beforeSequence, int limit)
+            throws IOException {
+        return historyWriter().readHistory(group, userId, target, beforeSequence, limit);
+    }
+
+    /**
+     * 获取聊天记录写入器，首次保存或查询消息时打开日志
+     */
+    private ChatHistoryWriter historyWriter() throws IOException {
+        ChatHistoryWriter writer = historyWriter;
+        if (writer == null) {
+            historyLock.lock();
+            try {
+                writer = historyWriter;
+                if (writer == null) {
+                    writer = new ChatHistoryWriter(historyDir, config.getHistoryFsyncPolicy());
+                    historyWriter = writer;
+                }
+            } finally {
+                historyLock.unlock();
+            }
+        }
+        return writer;
+    }
+
     /**
      * 转发消息给指定用户
-     * 查找目标用户的客户端处理器并发送消息
+     * 目标用户不在线时，聊天消息保存到离线收件箱
      * @param message 要转发的消息
      */
     public void forwardMessage(Message message) {
         String receiverId = message.getReceiverId();
-        ClientHandler receiverHandler = onlineClients.get(receiverId);
-        
-        if (receiverHandler != null) {
-            try {
-                receiverHandler.sendMessage(message);
-            } catch (IOException e) {
-                System.err.println("Error forwarding message to " + receiverId + ": " + e.getMessage());
-            }
-        } else {
-            System.out.println("Receiver " + receiverId + " is not online. Message not forwarded.");
+        if (!deliverOrStore(receiverId, OutboundFrame.of(message))) {
+            LOG.debug("Receiver {} is not online. Message queued for offline delivery.", receiverId);
+        }
+    }
+
+    /**
+     * 投递消息给指定用户
+     * 用户在线且没有离线积压时直接放入其发送队列；否则私聊、图片和群消息保存到离线收件箱，
+     * 在用户下次登录时按顺序投递，其他类型的消息被丢弃
+     * @param receiverId 接收者ID
+     * @param frame 消息帧，可以在多个接收者之间共享
+     * @return 直接投递返回true，保存或丢弃返回false
+     */
+    public boolean deliverOrStore(String receiverId, OutboundFrame frame) {
+        boolean delivered;
+        try {
+            delivered = offlineInbox.deliver(receiverId, frame);
+        } catch (IOException e) {
+            LOG.warn("Error delivering message to {}: {}", receiverId, e.getMessage());
+            delivered = false;
         }
+        metrics.recordDelivery(delivered);
+        return delivered;
+    }
+
+    /**
+     * 获取服务器指标
+     * @return 服务器指标
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 获取指标HTTP端点
+     * @return 端点，未启用（simpleqq.metrics.port小于0）或服务器未启动时返回null
+     */
+    public MetricsEndpoint getMetricsEndpoint() {
+        return metricsEndpoint;
+    }
+
+    /**
+     * 获取离线消息收件箱
+     * @return 离线消息收件箱
+     */
+    public OfflineInbox getOfflineInbox() {
+        return offlineInbox;
+    }
+
+    /**
+     * 获取好友在线状态通知
+     * @return 在线状态变化合并器
+     */
+    public PresenceAggregator getPresence() {
+        return presence;
+    }
+
+    /**
+     * 获取列表响应缓存
+     * @return 响应缓存
+     */
+    public ResponseCache getResponses() {
+        return responses;
+    }
+
+    /**
+     * 获取图片存储
+     * @return 图片存储
+     */
+    public BlobStore getBlobStore() {
+        return blobStore;
     }
 
     /**
      * 创建群组
-     * 委托给群组管理器处理群组创建逻辑
+     * 委托给群组管理器处理群组创建逻辑，成功后清除创建者的群组列表缓存
      * @param groupId 群组ID
      * @param creatorId 创建者用户ID
      * @return 创建成功返回true，失败返回false
      */
     public boolean createGroup(String groupId, String creatorId) {
-        return groupManager.createGroup(groupId, creatorId);
+        if (!groupManager.createGroup(groupId, creatorId)) {
+            return false;
+        }
+        responses.invalidateMembership(creatorId, groupId);
+        return true;
     }
 
     /**
@@ -236,7 +394,7 @@ public class Server {
      * @param args 命令行参数
      */
     public static void main(String[] args) {
-        Server server = new Server();
+        Server server = new Server(".", ServerConfig.fromSystemProperties());
         server.start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,241 @@
+package com.simpleqq.server;
+
+/**
+ * 服务器配置类
+ * 集中保存启动参数，默认值与原有行为保持一致，
+ * 可通过JVM系统属性（-Dsimpleqq.xxx=...）覆盖
+ */
+public class ServerConfig {
+    public static final int DEFAULT_PORT = 8888;                 // 默认监听端口
+
+    private int port = DEFAULT_PORT;                             // 监听端口
+    private TransportMode transportMode = TransportMode.BLOCKING; // 传输层模式
+    private int ioThreads = Math.max(2, Runtime.getRuntime().availableProcessors()); // NIO事件循环线程数
+    private int workerThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors()); // NIO模式下处理消息的工作线程数
+    private int outboundHighWatermark = 1024;                    // 发送队列高水位（消息条数）
+    private int outboundLowWatermark = 256;                      // 发送队列低水位（消息条数）
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT; // 慢消费者策略
+    private int fanoutThreads = Math.max(2, Runtime.getRuntime().availableProcessors()); // 群消息扇出工作者线程数
+    private FsyncPolicy historyFsyncPolicy = FsyncPolicy.everyMillis(100); // 聊天记录日志刷盘策略
+    private FsyncPolicy offlineFsyncPolicy = FsyncPolicy.everyMillis(100); // 离线收件箱刷盘策略
+    private long blobMaxBytes = 64L * 1024 * 1024;               // 单个图片的最大字节数
+    private long blobMaxPendingBytes = 256L * 1024 * 1024;       // 每个用户未完成上传的最大字节数
+    private long blobPartTtlMillis = BlobStore.DEFAULT_PART_TTL_MILLIS; // 未完成上传的保留时间（毫秒）
+    private int metricsPort = -1;                                // 指标HTTP端点端口，小于0表示不启用
+    private long presenceWindowMillis = 200;                     // 在线状态变化的合并窗口（毫秒），0表示立即通知
+
+    /**
+     * 从系统属性读取配置
+     * 支持的属性：simpleqq.port、simpleqq.transport（blocking/virtual/nio）、simpleqq.ioThreads、simpleqq.workerThreads、
+     * simpleqq.outbound.high、simpleqq.outbound.low、simpleqq.slowConsumer（drop/disconnect/spill）、
+     * simpleqq.fanoutThreads、simpleqq.history.fsync（always/never/records:N/interval:毫秒数）、
+     * simpleqq.offline.fsync（同上）、simpleqq.blob.maxBytes、
+     * simpleqq.blob.maxPendingBytes、simpleqq.blob.partTtlMillis、simpleqq.metrics.port、
+     * simpleqq.presence.windowMillis
+     * @return 配置对象
+     * @throws IllegalArgumentException 属性值非法或相互矛盾时抛出
+     */
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.setPort(Integer.getInteger("simpleqq.port", DEFAULT_PORT));
+        String transport = System.getProperty("simpleqq.transport");
+        if (transport != null) {
+            config.setTransportMode(TransportMode.valueOf(transport.trim().toUpperCase()));
+        }
+        config.setIoThreads(Integer.getInteger("simpleqq.ioThreads", config.getIoThreads()));
+        config.setWorkerThreads(Integer.getInteger("simpleqq.workerThreads", config.getWorkerThreads()));
+        config.setOutboundHighWatermark(Integer.getInteger("simpleqq.outbound.high", config.getOutboundHighWatermark()));
+        config.setOutboundLowWatermark(Integer.getInteger("simpleqq.outbound.low", config.getOutboundLowWatermark()));
+        String policy = System.getProperty("simpleqq.slowConsumer");
+        if (policy != null) {
+            config.setSlowConsumerPolicy(SlowConsumerPolicy.valueOf(policy.trim().toUpperCase()));
+        }
+        config.setFanoutThreads(Integer.getInteger("simpleqq.fanoutThreads", config.getFanoutThreads()));
+        String fsync = System.getProperty("simpleqq.history.fsync");
+        if (fsync != null) {
+            config.setHistoryFsyncPolicy(FsyncPolicy.parse(fsync));
+        }
+        String offlineFsync = System.getProperty("simpleqq.offline.fsync");
+        if (offlineFsync != null) {
+            config.setOfflineFsyncPolicy(FsyncPolicy.parse(offlineFsync));
+        }
+        config.setBlobMaxBytes(Long.getLong("simpleqq.blob.maxBytes", config.getBlobMaxBytes()));
+        config.setBlobMaxPendingBytes(Long.getLong("simpleqq.blob.maxPendingBytes", config.getBlobMaxPendingBytes()));
+        config.setBlobPartTtlMillis(Long.getLong("simpleqq.blob.partTtlMillis", config.getBlobPartTtlMillis()));
+        config.setMetricsPort(Integer.getInteger("simpleqq.metrics.port", config.getMetricsPort()));
+        config.setPresenceWindowMillis(Long.getLong("simpleqq.presence.windowMillis", config.getPresenceWindowMillis()));
+        config.validate();
+        return config;
+    }
+
+    /**
+     * 检查相互关联的配置项
+     * 单项的取值范围在setter中检查；高低水位可以按任意顺序设置，只能在全部设置完后检查
+     * @throws IllegalArgumentException 配置相互矛盾时抛出
+     */
+    public void validate() {
+        if (outboundLowWatermark >= outboundHighWatermark) {
+            throw new IllegalArgumentException("outbound low watermark (" + outboundLowWatermark
+                + ") must be less than high watermark (" + outboundHighWatermark + ")");
+        }
+        if (blobMaxPendingBytes < blobMaxBytes) {
+            throw new IllegalArgumentException("blob max pending bytes (" + blobMaxPendingBytes
+                + ") must not be less than blob max bytes (" + blobMaxBytes + ")");
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public void setTransportMode(TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("ioThreads must be positive: " + ioThreads);
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be positive: " + workerThreads);
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    public int getOutboundHighWatermark() {
+        return outboundHighWatermark;
+    }
+
+    public void setOutboundHighWatermark(int outboundHighWatermark) {
+        if (outboundHighWatermark < 1) {
+            throw new IllegalArgumentException("outbound high watermark must be positive: " + outboundHighWatermark);
+        }
+        this.outboundHighWatermark = outboundHighWatermark;
+    }
+
+    public int getOutboundLowWatermark() {
+        return outboundLowWatermark;
+    }
+
+    public void setOutboundLowWatermark(int outboundLowWatermark) {
+        if (outboundLowWatermark < 0) {
+            throw new IllegalArgumentException("outbound low watermark must not be negative: " + outboundLowWatermark);
+        }
+        this.outboundLowWatermark = outboundLowWatermark;
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    public int getFanoutThreads() {
+        return fanoutThreads;
+    }
+
+    public void setFanoutThreads(int fanoutThreads) {
+        if (fanoutThreads < 1) {
+            throw new IllegalArgumentException("fanoutThreads must be positive: " + fanoutThreads);
+        }
+        this.fanoutThreads = fanoutThreads;
+    }
+
+    public FsyncPolicy getHistoryFsyncPolicy() {
+        return historyFsyncPolicy;
+    }
+
+    public void setHistoryFsyncPolicy(FsyncPolicy historyFsyncPolicy) {
+        this.historyFsyncPolicy = historyFsyncPolicy;
+    }
+
+    public FsyncPolicy getOfflineFsyncPolicy() {
+        return offlineFsyncPolicy;
+    }
+
+    public void setOfflineFsyncPolicy(FsyncPolicy offlineFsyncPolicy) {
+        this.offlineFsyncPolicy = offlineFsyncPolicy;
+    }
+
+    public long getBlobMaxBytes() {
+        return blobMaxBytes;
+    }
+
+    public void setBlobMaxBytes(long blobMaxBytes) {
+        if (blobMaxBytes < 0) {
+            throw new IllegalArgumentException("blob max bytes must not be negative: " + blobMaxBytes);
+        }
+        this.blobMaxBytes = blobMaxBytes;
+    }
+
+    public long getBlobMaxPendingBytes() {
+        return blobMaxPendingBytes;
+    }
+
+    public void setBlobMaxPendingBytes(long blobMaxPendingBytes) {
+        if (blobMaxPendingBytes < 0) {
+            throw new IllegalArgumentException("blob max pending bytes must not be negative: " + blobMaxPendingBytes);
+        }
+        this.blobMaxPendingBytes = blobMaxPendingBytes;
+    }
+
+    public long getBlobPartTtlMillis() {
+        return blobPartTtlMillis;
+    }
+
+    public void setBlobPartTtlMillis(long blobPartTtlMillis) {
+        if (blobPartTtlMillis < 1) {
+            throw new IllegalArgumentException("blob part TTL must be positive: " + blobPartTtlMillis);
+        }
+        this.blobPartTtlMillis = blobPartTtlMillis;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * 设置指标HTTP端点端口
+     * @param metricsPort 端口，0表示自动分配，小于0表示不启用
+     */
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public long getPresenceWindowMillis() {
+        return presenceWindowMillis;
+    }
+
+    /**
+     * 设置在线状态变化的合并窗口
+     * @param presenceWindowMillis 窗口毫秒数，0表示每次变化立即通知
+     */
+    public void setPresenceWindowMillis(long presenceWindowMillis) {
+        if (presenceWindowMillis < 0) {
+            throw new IllegalArgumentException("presenceWindowMillis must not be negative: " + presenceWindowMillis);
+        }
+        this.presenceWindowMillis = presenceWindowMillis;
+    }
+}
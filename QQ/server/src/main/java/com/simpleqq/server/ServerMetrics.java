@@ -0,0 +1,146 @@
+package com.simpleqq.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.simpleqq.common.LatencyHistogram;
+import com.simpleqq.common.MessageType;
+
+/**
+ * 服务器指标
+ * 集中创建服务器各处使用的计数器和直方图并注册到MetricsRegistry，
+ * 在线人数、发送队列积压等状态注册为仪表，在输出时从服务器读取，不在消息路径上维护。
+ */
+public class ServerMetrics {
+    private final MetricsRegistry registry = new MetricsRegistry();   // 指标注册表
+    private final LongAdder[] received;                               // 按消息类型统计的收到消息数，下标为ordinal
+    private final LatencyHistogram handleLatency;                     // 单条消息的处理耗时（纳秒）
+    private final LongAdder delivered;                                // 直接放入在线接收者发送队列的消息数（按接收者计）
+    private final LongAdder deferred;                                 // 接收者离线而保存到离线收件箱或丢弃的消息数
+    private final LatencyHistogram persistLatency;                    // 聊天记录从提交到持久化的耗时（纳秒）
+    private final LongAdder persistFailures;                          // 聊天记录持久化失败数
+    private final LongAdder presenceChanges;                          // 用户上线和下线次数
+    private final LongAdder presenceCollapsed;                        // 在合并窗口内相互抵消的上下线次数
+    private final LongAdder presenceSent;                             // 发出的PRESENCE_UPDATE消息数
+    private final LongAdder presenceSaved;                            // 合并后少发的通知数（与逐个变化逐个好友通知相比）
+    private final LongAdder[] listHits;                               // 列表响应缓存命中数，下标为ResponseCache.Kind的ordinal
+    private final LongAdder[] listMisses;                             // 列表响应缓存未命中数
+
+    /**
+     * 构造函数
+     * 在服务器各组件创建完成后调用
+     * @param server 服务器实例
+     */
+    ServerMetrics(Server server) {
+        MessageType[] types = MessageType.values();
+        received = new LongAdder[types.length];
+        for (MessageType type : types) {
+            received[type.ordinal()] = registry.counter("simpleqq_messages_received_total", "type=\"" + type + "\"",
+                "Messages received from clients by type.");
+        }
+        handleLatency = registry.histogram("simpleqq_message_handle_seconds", "",
+            "Time spent handling one client message.", MetricsRegistry.NANOS_TO_SECONDS);
+        delivered = registry.counter("simpleqq_messages_delivered_total", "",
+            "Messages queued directly to an online receiver, counted per receiver.");
+        deferred = registry.counter("simpleqq_messages_deferred_total", "",
+            "Messages stored in the offline inbox or dropped because the receiver was offline.");
+        persistLatency = registry.histogram("simpleqq_history_persist_seconds", "",
+            "Time from submitting a chat message to it being written to the history log.",
+            MetricsRegistry.NANOS_TO_SECONDS);
+        persistFailures = registry.counter("simpleqq_history_persist_failures_total", "",
+            "Chat messages that failed to persist.");
+        presenceChanges = registry.counter("simpleqq_presence_changes_total", "",
+            "User logins and logouts that change presence.");
+        presenceCollapsed = registry.counter("simpleqq_presence_changes_collapsed_total", "",
+            "Presence changes cancelled out by an opposite change within the same window.");
+        presenceSent = registry.counter("simpleqq_presence_notifications_total", "",
+            "PRESENCE_UPDATE messages sent to online friends.");
+        presenceSaved = registry.counter("simpleqq_presence_notifications_saved_total", "",
+            "Notifications not sent thanks to coalescing, compared with one per change per online friend.");
+        ResponseCache.Kind[] kinds = ResponseCache.Kind.values();
+        listHits = new LongAdder[kinds.length];
+        listMisses = new LongAdder[kinds.length];
+        for (ResponseCache.Kind kind : kinds) {
+            String labels = "list=\"" + kind.name().toLowerCase() + "\"";
+            listHits[kind.ordinal()] = registry.counter("simpleqq_list_cache_hits_total", labels,
+                "Friend, group and member list requests served from the response cache.");
+            listMisses[kind.ordinal()] = registry.counter("simpleqq_list_cache_misses_total", labels,
+                "Friend, group and member list requests that had to build the response.");
+        }
+
+        registry.gauge("simpleqq_online_users", "", "Users currently logged in.",
+            () -> server.getOnlineClients().size());
+        registry.gauge("simpleqq_outbound_queued_messages", "", "Messages waiting in all outbound queues.", () -> {
+            long total = 0;
+            for (ClientHandler handler : server.getOnlineClients().values()) {
+                total += handler.getOutboundBacklog();
+            }
+            return total;
+        });
+        registry.register("simpleqq_group_fanout_seconds", "", "Time to enqueue a group message for all members.",
+            server.getGroupFanout().getLatencyHistogram(), MetricsRegistry.NANOS_TO_SECONDS);
+        registry.register("simpleqq_group_fanout_recipients", "", "Members per fanned-out group message.",
+            server.getGroupFanout().getSizeHistogram(), 1);
+        registry.register("simpleqq_journal_append_seconds", "journal=\"users\"", "Time to append one journal record.",
+            server.getUserManager().getSaveLatency(), MetricsRegistry.NANOS_TO_SECONDS);
+        registry.register("simpleqq_journal_append_seconds", "journal=\"groups\"", "Time to append one journal record.",
+            server.getGroupManager().getSaveLatency(), MetricsRegistry.NANOS_TO_SECONDS);
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * 记录处理完一条客户端消息
+     * @param type 消息类型
+     * @param nanos 处理耗时（纳秒）
+     */
+    void recordHandled(MessageType type, long nanos) {
+        received[type.ordinal()].increment();
+        handleLatency.record(nanos);
+    }
+
+    /**
+     * 记录一次投递的结果，私聊和群聊扇出的每个接收者各记一次
+     * @param direct 是否直接放入了在线接收者的发送队列
+     */
+    void recordDelivery(boolean direct) {
+        (direct ? delivered : deferred).increment();
+    }
+
+    /**
+     * 记录一条聊天记录的持久化结果
+     * @param nanos 从提交到完成的耗时（纳秒）
+     * @param failed 是否失败
+     */
+    void recordPersist(long nanos, boolean failed) {
+        if (failed) {
+            persistFailures.increment();
+        } else {
+            persistLatency.record(nanos);
+        }
+    }
+
+    /**
+     * 记录一批在线状态通知
+     * @param changes 状态变化次数
+     * @param collapsed 其中相互抵消的次数
+     * @param sent 发出的消息数
+     * @param saved 合并后少发的通知数
+     */
+    void recordPresence(long changes, long collapsed, long sent, long saved) {
+        presenceChanges.add(changes);
+        presenceCollapsed.add(collapsed);
+        presenceSent.add(sent);
+        presenceSaved.add(saved);
+    }
+
+    /**
+     * 记录一次列表响应缓存查询
+     * @param kind 列表种类
+     * @param hit 是否命中
+     */
+    void recordListResponse(ResponseCache.Kind kind, boolean hit) {
+        (hit ? listHits : listMisses)[kind.ordinal()].increment();
+    }
+}
@@ -0,0 +1,35 @@
+package com.simpleqq.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 服务器传输层接口
+ * 负责监听端口、接受连接，并把收到的消息交给ClientHandler分发处理
+ */
+public interface ServerTransport extends Closeable {
+
+    /**
+     * 绑定端口并开始接受连接，方法立即返回
+     * @param port 监听端口，0表示由系统分配
+     * @throws IOException 端口绑定失败时抛出
+     */
+    void start(int port) throws IOException;
+
+    /**
+     * 获取实际监听的端口
+     * @return 端口号，尚未启动时返回-1
+     */
+    int getLocalPort();
+
+    /**
+     * 阻塞等待传输层停止
+     */
+    void awaitTermination() throws InterruptedException;
+
+    /**
+     * 停止接受新连接并关闭传输层
+     */
+    @Override
+    void close();
+}
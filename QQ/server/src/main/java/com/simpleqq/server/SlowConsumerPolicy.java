@@ -0,0 +1,11 @@
+package com.simpleqq.server;
+
+/**
+ * 慢消费者处理策略
+ * 连接的发送队列积压达到高水位时采取的动作
+ */
+public enum SlowConsumerPolicy {
+    DROP,        // 丢弃新消息，直到队列回落到低水位
+    DISCONNECT,  // 断开该连接，释放其积压的消息
+    SPILL        // 把后续消息溢写到临时文件，队列回落到低水位后按顺序读回发送
+}
@@ -0,0 +1,104 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Deque;
+
+import com.simpleqq.common.BinaryMessageCodec;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageCodec;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * 发送队列的溢写文件
+ * 以"4字节长度 + 二进制编码消息"的帧格式追加写入临时文件，按写入顺序读回；
+ * 全部读回后截断文件复用。非线程安全，由OutboundQueue的锁保护。
+ */
+final class SpillFile {
+    private static final Logger LOG = Log.getLogger(SpillFile.class);
+
+    private final MessageCodec codec = new BinaryMessageCodec(); // 溢写只在服务器本地使用，固定用二进制编码
+    private final Path path;            // 临时文件路径
+    private final FileChannel channel;  // 文件通道
+    private final ByteBuffer header = ByteBuffer.allocate(WireProtocol.FRAME_HEADER_LENGTH); // 帧头读写缓冲
+    private long writePosition;         // 下一帧写入位置
+    private long readPosition;          // 下一帧读取位置
+    private int count;                  // 尚未读回的消息数
+
+    SpillFile() throws IOException {
+        path = Files.createTempFile("simpleqq-spill-", ".bin");
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * 追加一条消息
+     */
+    void append(Message message) throws IOException {
+        byte[] payload = codec.encode(message);
+        ByteBuffer frame = ByteBuffer.allocate(WireProtocol.FRAME_HEADER_LENGTH + payload.length);
+        frame.putInt(payload.length).put(payload).flip();
+        while (frame.hasRemaining()) {
+            writePosition += channel.write(frame, writePosition);
+        }
+        count++;
+    }
+
+    /**
+     * 按写入顺序读回最多max条消息
+     * @param target 读回的消息包装为消息帧追加到该队列尾部
+     * @param max 最多读回的条数
+     */
+    void readInto(Deque<OutboundFrame> target, int max) throws IOException {
+        for (int i = 0; i < max && count > 0; i++) {
+            header.clear();
+            readFully(header, readPosition);
+            int length = header.getInt(0);
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, readPosition + WireProtocol.FRAME_HEADER_LENGTH);
+            target.addLast(OutboundFrame.of(codec.decode(payload.array(), 0, length)));
+            readPosition += WireProtocol.FRAME_HEADER_LENGTH + length;
+            count--;
+        }
+        if (count == 0) {
+            // 全部读回后从头复用文件，避免持续增长
+            channel.truncate(0);
+            writePosition = 0;
+            readPosition = 0;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Spill file truncated: " + path);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * 关闭并删除溢写文件
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close spill file {}: {}", path, e.getMessage());
+        }
+    }
+}
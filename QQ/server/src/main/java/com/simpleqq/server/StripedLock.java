@@ -0,0 +1,84 @@
+package com.simpleqq.server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分段锁
+ * 按ID的哈希值把锁分到固定数量的段上，不同用户、不同群组的修改大多落在不同的段上，可以并行执行。
+ * 涉及两个ID的操作按段号从小到大加锁，需要冻结全部状态的操作（如压缩快照）也按同样顺序锁住所有段，
+ * 因此任意组合都不会死锁。两个ID落在同一段时只加一次锁。
+ */
+final class StripedLock {
+    static final int DEFAULT_STRIPES = 64; // 默认段数
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * 构造函数
+     * @param count 段数，向上取整到2的幂
+     */
+    StripedLock(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Stripe count must be positive: " + count);
+        }
+        int size = Integer.highestOneBit(count);
+        if (size < count) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    private int index(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask; // 与HashMap相同的扰动，让高位也参与选段
+    }
+
+    void lock(String key) {
+        stripes[index(key)].lock();
+    }
+
+    void unlock(String key) {
+        stripes[index(key)].unlock();
+    }
+
+    /**
+     * 按段号顺序锁住两个ID所在的段
+     */
+    void lock(String key1, String key2) {
+        int i = index(key1);
+        int j = index(key2);
+        stripes[Math.min(i, j)].lock();
+        if (i != j) {
+            stripes[Math.max(i, j)].lock();
+        }
+    }
+
+    void unlock(String key1, String key2) {
+        int i = index(key1);
+        int j = index(key2);
+        if (i != j) {
+            stripes[Math.max(i, j)].unlock();
+        }
+        stripes[Math.min(i, j)].unlock();
+    }
+
+    /**
+     * 按段号顺序锁住所有段，期间没有任何修改在进行
+     */
+    void lockAll() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.simpleqq.server;
+
+/**
+ * 传输层模式枚举
+ * 决定服务器如何接受连接以及如何驱动每个连接的读写
+ */
+public enum TransportMode {
+    BLOCKING,   // 阻塞模式：每个连接一个ClientHandler线程
+    VIRTUAL,    // 虚拟线程模式：阻塞读循环运行在Java 21虚拟线程上
+    NIO         // 非阻塞模式：少量Selector事件循环线程处理所有连接
+}
@@ -1,31 +1,43 @@
 package com.simpleqq.server;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.simpleqq.common.LatencyHistogram;
+import com.simpleqq.common.Log;
+import com.simpleqq.common.Logger;
 import com.simpleqq.common.User;
 
 /**
  * 用户管理器类
  * 负责用户注册、登录、好友关系管理等功能
- * 使用文件系统进行数据持久化存储
+ * 使用文件系统进行数据持久化存储：users.txt、friendships.txt、friend_requests.txt是快照，
+ * 每次修改只向users.journal追加一条记录，启动时加载快照后重放日志，日志过长时在后台压缩成新快照
+ *
+ * 并发：登录、好友查询等读操作直接读取并发容器，不加锁；修改只锁住涉及的一到两个用户所在的段，
+ * 不同用户之间的注册、好友请求可以同时写日志。同一个用户的并发集合由多个段的持有者共同修改，
+ * 添加和清理空集合都通过ConcurrentHashMap的compute系列方法原子地完成。
  */
 public class UserManager {
+    private static final Logger LOG = Log.getLogger(UserManager.class);
+
     private final String usersFile;                    // 用户信息文件
     private final String friendshipsFile;        // 好友关系文件
     private final String friendRequestsFile; // 好友请求文件
+    private final Journal journal;           // 变更日志
 
     private final Map<String, User> users;                           // 用户信息映射表，key为用户ID
-    private final Map<String, List<String>> friendships;            // 好友关系映射表，key为用户ID，value为好友ID列表
-    private final Map<String, List<String>> pendingFriendRequests;  // 待处理好友请求，key为接收者ID，value为发送者ID列表
+    private final Map<String, Set<String>> friendships;             // 好友关系邻接表，key为用户ID，value为好友ID的并发集合
+    private final Map<String, Set<String>> pendingFriendRequests;   // 待处理好友请求，key为接收者ID，value为发送者ID的并发集合
+    private final StripedLock locks = new StripedLock(StripedLock.DEFAULT_STRIPES); // 写操作分段锁，按用户ID选段；不使用synchronized，避免虚拟线程在文件I/O时被钉住载体线程
 
     /**
      * 默认构造函数，使用当前工作目录作为数据文件目录
@@ -39,6 +51,15 @@ public class UserManager {
      * 初始化数据结构并从 basePath 下的文件加载数据。测试可传入临时目录以隔离文件状态。
      */
     public UserManager(String basePath) {
+        this(basePath, Journal.DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * 构造函数（可指定 basePath 和日志压缩阈值）
+     * @param basePath 数据文件目录
+     * @param compactThreshold 日志记录数达到该值后在后台压缩成快照
+     */
+    public UserManager(String basePath, int compactThreshold) {
         if (basePath.endsWith("/") || basePath.endsWith("\\")) {
             this.usersFile = basePath + "users.txt";
             this.friendshipsFile = basePath + "friendships.txt";
@@ -49,6 +70,7 @@ public class UserManager {
             this.friendshipsFile = basePath + sep + "friendships.txt";
             this.friendRequestsFile = basePath + sep + "friend_requests.txt";
         }
+        this.journal = new Journal(Paths.get(basePath, "users.journal"), compactThreshold);
 
         users = new ConcurrentHashMap<>();
         friendships = new ConcurrentHashMap<>();
@@ -58,6 +80,7 @@ public class UserManager {
         loadUsers();
         loadFriendships();
         loadFriendRequests();
+        replayJournal();
     }
 
     /**
@@ -75,29 +98,23 @@ public class UserManager {
                     users.put(user.getId(), user);
                 }
             }
-            System.out.println("Loaded " + users.size() + " users.");
+            LOG.info("Loaded {} users.", users.size());
         } catch (FileNotFoundException e) {
-            System.out.println("Users file not found. Creating a new one.");
+            LOG.info("Users file not found. Creating a new one.");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * 保存用户信息到文件
-     * 将内存中的用户数据写入文件进行持久化
+     * 用户信息快照内容，每行格式：用户ID|用户名|密码
      */
-    @SuppressWarnings("CallToPrintStackTrace")
-    private void saveUsers() {
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(usersFile))) {
-            for (User user : users.values()) {
-                writer.write(user.getId() + "|" + user.getUsername() + "|" + user.getPassword());
-                writer.newLine();
-            }
-            System.out.println("Saved " + users.size() + " users.");
-        } catch (IOException e) {
-            e.printStackTrace();
+    private List<String> userLines() {
+        List<String> lines = new ArrayList<>(users.size());
+        for (User user : users.values()) {
+            lines.add(user.getId() + "|" + user.getUsername() + "|" + user.getPassword());
         }
+        return lines;
     }
 
     /**
@@ -114,41 +131,34 @@ public class UserManager {
                     String userId1 = parts[0];
                     String userId2 = parts[1];
                     // 建立双向好友关系
-                    friendships.computeIfAbsent(userId1, k -> new ArrayList<>()).add(userId2);
-                    friendships.computeIfAbsent(userId2, k -> new ArrayList<>()).add(userId1);
-                    System.out.println("Loaded friendship: " + userId1 + " <-> " + userId2);
+                    addFriend(userId1, userId2);
+                    addFriend(userId2, userId1);
+                    LOG.debug("Loaded friendship: {} <-> {}", userId1, userId2);
                 }
             }
-            System.out.println("Loaded friendships. Total friendship entries: " + friendships.size());
+            LOG.info("Loaded friendships. Total friendship entries: {}", friendships.size());
         } catch (FileNotFoundException e) {
-            System.out.println("Friendships file not found. Creating a new one.");
+            LOG.info("Friendships file not found. Creating a new one.");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * 保存好友关系到文件
+     * 好友关系快照内容
      * 避免重复保存双向关系，只保存字典序较小的用户ID在前的关系
      */
-    @SuppressWarnings("CallToPrintStackTrace")
-    private void saveFriendships() {
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(friendshipsFile))) {
-            for (Map.Entry<String, List<String>> entry : friendships.entrySet()) {
-                String userId1 = entry.getKey();
-                for (String userId2 : entry.getValue()) {
-                    // 避免重复保存，只保存一次 (userId1, userId2) 或 (userId2, userId1)
-                    if (userId1.compareTo(userId2) < 0) {
-                        writer.write(userId1 + "|" + userId2);
-                        writer.newLine();
-                        System.out.println("Saved friendship: " + userId1 + " <-> " + userId2);
-                    }
+    private List<String> friendshipLines() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : friendships.entrySet()) {
+            String userId1 = entry.getKey();
+            for (String userId2 : entry.getValue()) {
+                if (userId1.compareTo(userId2) < 0) {
+                    lines.add(userId1 + "|" + userId2);
                 }
             }
-            System.out.println("Saved friendships.");
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        return lines;
     }
 
     /**
@@ -163,34 +173,173 @@ public class UserManager {
                 String[] parts = line.split("\\|");
                 if (parts.length == 2) {
                     // 将请求添加到接收者的待处理列表中
-                    pendingFriendRequests.computeIfAbsent(parts[1], k -> new ArrayList<>()).add(parts[0]);
+                    addRequest(parts[1], parts[0]);
                 }
             }
-            System.out.println("Loaded friend requests.");
+            LOG.info("Loaded friend requests.");
         } catch (FileNotFoundException e) {
-            System.out.println("Friend requests file not found. Creating a new one.");
+            LOG.info("Friend requests file not found. Creating a new one.");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * 保存好友请求到文件
+     * 好友请求快照内容，每行格式：发送者ID|接收者ID
+     */
+    private List<String> friendRequestLines() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : pendingFriendRequests.entrySet()) {
+            for (String senderId : entry.getValue()) {
+                lines.add(senderId + "|" + entry.getKey());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 在快照之上重放变更日志
      */
     @SuppressWarnings("CallToPrintStackTrace")
-    private void saveFriendRequests() {
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(friendRequestsFile))) {
-            for (Map.Entry<String, List<String>> entry : pendingFriendRequests.entrySet()) {
-                String receiverId = entry.getKey();
-                for (String senderId : entry.getValue()) {
-                    writer.write(senderId + "|" + receiverId);
-                    writer.newLine();
-                }
+    private void replayJournal() {
+        try {
+            int replayed = journal.open(this::apply);
+            LOG.info("Replayed {} user journal records.", replayed);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        journal.compactIfNeeded(this::compact);
+    }
+
+    /**
+     * 应用一条变更记录
+     * 实时修改和启动重放共用此方法；每种记录都是幂等的赋值操作，重复应用结果不变
+     * @param record 操作名及参数
+     */
+    private void apply(String[] record) {
+        switch (record[0]) {
+            case "REGISTER" -> users.putIfAbsent(record[1], new User(record[1], record[2], record[3]));
+            case "REQUEST" -> addRequest(record[2], record[1]);
+            case "ACCEPT" -> {
+                removeRequest(record[1], record[2]);
+                addFriend(record[1], record[2]);
+                addFriend(record[2], record[1]);
             }
-            System.out.println("Saved friend requests.");
+            case "REJECT" -> removeRequest(record[1], record[2]);
+            case "REMOVE_FRIEND" -> {
+                removeFriend(record[1], record[2]);
+                removeFriend(record[2], record[1]);
+            }
+            default -> LOG.warn("Unknown user journal record: {}", record[0]);
+        }
+    }
+
+    /**
+     * 向集合映射表中某个key的集合添加元素
+     * 与removeFrom在同一个key上互斥，不会把元素加进刚被清理掉的空集合
+     */
+    private static void addTo(Map<String, Set<String>> map, String key, String value) {
+        map.compute(key, (k, set) -> {
+            Set<String> values = set != null ? set : ConcurrentHashMap.newKeySet();
+            values.add(value);
+            return values;
+        });
+    }
+
+    /**
+     * 从集合映射表中某个key的集合移除元素，集合变空时一并移除key
+     */
+    private static void removeFrom(Map<String, Set<String>> map, String key, String value) {
+        map.computeIfPresent(key, (k, set) -> {
+            set.remove(value);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void addFriend(String userId, String friendId) {
+        addTo(friendships, userId, friendId);
+    }
+
+    private void removeFriend(String userId, String friendId) {
+        removeFrom(friendships, userId, friendId); // 同时清理空的好友列表
+    }
+
+    private void addRequest(String receiverId, String senderId) {
+        addTo(pendingFriendRequests, receiverId, senderId);
+    }
+
+    private void removeRequest(String receiverId, String senderId) {
+        removeFrom(pendingFriendRequests, receiverId, senderId);
+    }
+
+    /**
+     * 记录并应用一次修改，必须在持有记录所涉及用户的段锁时调用
+     * 日志写入失败时仍然修改内存状态，与原先保存文件失败时的行为一致
+     * @param record 操作名及参数
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void record(String... record) {
+        try {
+            journal.append(record);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        apply(record);
+        journal.compactIfNeeded(this::compact);
+    }
+
+    /**
+     * 把当前状态压缩成快照并清空日志
+     * 锁住所有段后只复制状态并切换日志，快照文件在锁外写出，不阻塞其他修改
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    public void compact() {
+        List<String> userSnapshot;
+        List<String> friendshipSnapshot;
+        List<String> requestSnapshot;
+        locks.lockAll();
+        try {
+            userSnapshot = userLines();
+            friendshipSnapshot = friendshipLines();
+            requestSnapshot = friendRequestLines();
+            journal.rotate();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            locks.unlockAll();
+        }
+        try {
+            Journal.writeSnapshot(Paths.get(usersFile), userSnapshot);
+            Journal.writeSnapshot(Paths.get(friendshipsFile), friendshipSnapshot);
+            Journal.writeSnapshot(Paths.get(friendRequestsFile), requestSnapshot);
+            journal.discardRotated();
+            LOG.info("Compacted user journal: {} users.", userSnapshot.size());
+        } catch (IOException e) {
+            e.printStackTrace(); // 旧日志保留，下次启动或压缩时仍会重放
+        }
+    }
+
+    /**
+     * 获取保存修改（追加变更日志）的耗时直方图（纳秒）
+     */
+    public LatencyHistogram getSaveLatency() {
+        return journal.getAppendLatency();
+    }
+
+    /**
+     * 关闭变更日志
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    public void close() {
+        locks.lockAll();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            locks.unlockAll();
+        }
     }
 
     /**
@@ -198,25 +347,32 @@ public class UserManager {
      * @param id 用户ID，必须唯一
      * @param username 用户名
      * @param password 密码
-     * @return 注册成功返回true，ID已存在返回false
+     * @return 注册成功返回true，ID已存在或字段含有'|'、换行时返回false
      */
-    public synchronized boolean registerUser(String id, String username, String password) {
-        if (users.containsKey(id)) {
-            return false; // ID已存在
+    public boolean registerUser(String id, String username, String password) {
+        locks.lock(id);
+        try {
+            if (users.containsKey(id)) {
+                return false; // ID已存在
+            }
+            if (!Journal.isValidField(id) || !Journal.isValidField(username) || !Journal.isValidField(password)) {
+                return false; // 含有分隔符或换行，无法持久化
+            }
+            record("REGISTER", id, username, password); // 追加日志并添加到内存映射表
+            return true;
+        } finally {
+            locks.unlock(id);
         }
-        User newUser = new User(id, username, password);
-        users.put(id, newUser); // 立即添加到内存映射表
-        saveUsers(); // 持久化到文件
-        return true;
     }
 
     /**
      * 用户登录验证
+     * 只读取线程安全的用户映射表，无需加锁
      * @param id 用户ID
      * @param password 密码
      * @return 登录成功返回用户对象，失败返回null
      */
-    public synchronized User login(String id, String password) {
+    public User login(String id, String password) {
         User user = users.get(id);
         if (user != null && user.getPassword().equals(password)) {
             return user;
@@ -233,44 +389,49 @@ public class UserManager {
      * 2. 关系检查：验证双方是否已经是好友关系，避免重复添加
      * 3. 请求查重：检查是否已有相同的待处理请求，防止重复发送
      * 4. 状态管理：将请求添加到待处理列表，而不是直接建立好友关系
-     * 5. 数据持久化：立即保存到文件，确保数据不丢失
+     * 5. 数据持久化：立即追加到变更日志，确保数据不丢失
      * 
      * 设计要点：
-     * - 使用computeIfAbsent确保线程安全的列表初始化
-     * - 所有验证都在同步方法中进行，防止并发问题
+     * - 待处理请求保存为接收者ID到并发集合的映射，通过addTo在ConcurrentHashMap.compute内创建集合并加入发送者，
+     *   与removeFrom清理空集合互斥，重复的请求在集合中只出现一次
+     * - 所有验证都在双方用户的段锁保护下进行，同一对用户的请求、接受、删除互斥，其他用户不受影响
      * - 详细的日志输出便于调试和监控
      * 
      * @param senderId 发送者ID，必须是已注册的有效用户
      * @param receiverId 接收者ID，必须是已注册的有效用户且不能是发送者本人
      * @return 发送成功返回true，任何验证失败都返回false
      */
-    public synchronized boolean sendFriendRequest(String senderId, String receiverId) {
-        System.out.println("Attempting to send friend request from " + senderId + " to " + receiverId);
+    public boolean sendFriendRequest(String senderId, String receiverId) {
+        locks.lock(senderId, receiverId);
+        try {
+            LOG.debug("Attempting to send friend request from {} to {}", senderId, receiverId);
         
-        // 验证用户存在性和有效性
-        if (!users.containsKey(senderId) || !users.containsKey(receiverId) || senderId.equals(receiverId)) {
-            System.out.println("Invalid users or self-request");
-            return false;
-        }
+            // 验证用户存在性和有效性
+            if (!users.containsKey(senderId) || !users.containsKey(receiverId) || senderId.equals(receiverId)) {
+                LOG.debug("Invalid users or self-request");
+                return false;
+            }
         
-        // 检查是否已经是好友
-        if (areFriends(senderId, receiverId)) {
-            System.out.println("Users are already friends");
-            return false;
-        }
+            // 检查是否已经是好友
+            if (areFriends(senderId, receiverId)) {
+                LOG.debug("Users are already friends");
+                return false;
+            }
         
-        // 检查是否已有待处理的请求
-        if (pendingFriendRequests.containsKey(receiverId) && 
-            pendingFriendRequests.get(receiverId).contains(senderId)) {
-            System.out.println("Friend request already pending");
-            return false;
-        }
+            // 检查是否已有待处理的请求
+            Set<String> pending = pendingFriendRequests.get(receiverId);
+            if (pending != null && pending.contains(senderId)) {
+                LOG.debug("Friend request already pending");
+                return false;
+            }
 
-        // 添加到待处理请求列表
-        pendingFriendRequests.computeIfAbsent(receiverId, k -> new ArrayList<>()).add(senderId);
-        saveFriendRequests();
-        System.out.println("Friend request sent successfully");
-        return true;
+            // 添加到待处理请求列表
+            record("REQUEST", senderId, receiverId);
+            LOG.debug("Friend request sent successfully");
+            return true;
+        } finally {
+            locks.unlock(senderId, receiverId);
+        }
     }
 
     /**
@@ -280,25 +441,26 @@ public class UserManager {
      * @param senderId 发送者ID（发送请求的人）
      * @return 接受成功返回true，失败返回false
      */
-    public synchronized boolean acceptFriendRequest(String receiverId, String senderId) {
-        System.out.println("Attempting to accept friend request from " + senderId + " by " + receiverId);
+    public boolean acceptFriendRequest(String receiverId, String senderId) {
+        locks.lock(receiverId, senderId);
+        try {
+            LOG.debug("Attempting to accept friend request from {} by {}", senderId, receiverId);
         
-        List<String> requests = pendingFriendRequests.get(receiverId);
-        if (requests != null && requests.remove(senderId)) {
-            // 建立双向好友关系
-            friendships.computeIfAbsent(receiverId, k -> new ArrayList<>()).add(senderId);
-            friendships.computeIfAbsent(senderId, k -> new ArrayList<>()).add(receiverId);
-            
-            System.out.println("Added friendship: " + receiverId + " <-> " + senderId);
-            System.out.println("Current friendships for " + receiverId + ": " + friendships.get(receiverId));
-            System.out.println("Current friendships for " + senderId + ": " + friendships.get(senderId));
+            Set<String> requests = pendingFriendRequests.get(receiverId);
+            if (requests != null && requests.contains(senderId)) {
+                // 移除请求并建立双向好友关系
+                record("ACCEPT", receiverId, senderId);
             
-            saveFriendships();
-            saveFriendRequests(); // 更新请求文件
-            return true;
+                LOG.debug("Added friendship: {} <-> {}", receiverId, senderId);
+                LOG.debug("Current friendships for {}: {}", receiverId, friendships.get(receiverId));
+                LOG.debug("Current friendships for {}: {}", senderId, friendships.get(senderId));
+                return true;
+            }
+            LOG.debug("Failed to accept friend request - request not found");
+            return false;
+        } finally {
+            locks.unlock(receiverId, senderId);
         }
-        System.out.println("Failed to accept friend request - request not found");
-        return false;
     }
 
     /**
@@ -308,13 +470,18 @@ public class UserManager {
      * @param senderId 发送者ID
      * @return 拒绝成功返回true，失败返回false
      */
-    public synchronized boolean rejectFriendRequest(String receiverId, String senderId) {
-        List<String> requests = pendingFriendRequests.get(receiverId);
-        if (requests != null && requests.remove(senderId)) {
-            saveFriendRequests(); // 更新请求文件
-            return true;
+    public boolean rejectFriendRequest(String receiverId, String senderId) {
+        locks.lock(receiverId, senderId);
+        try {
+            Set<String> requests = pendingFriendRequests.get(receiverId);
+            if (requests != null && requests.contains(senderId)) {
+                record("REJECT", receiverId, senderId);
+                return true;
+            }
+            return false;
+        } finally {
+            locks.unlock(receiverId, senderId);
         }
-        return false;
     }
 
     /**
@@ -324,76 +491,62 @@ public class UserManager {
      * @param userId2 用户2的ID
      * @return 删除成功返回true，失败返回false
      */
-    public synchronized boolean deleteFriend(String userId1, String userId2) {
-        System.out.println("Attempting to delete friendship between " + userId1 + " and " + userId2);
+    public boolean deleteFriend(String userId1, String userId2) {
+        locks.lock(userId1, userId2);
+        try {
+            LOG.debug("Attempting to delete friendship between {} and {}", userId1, userId2);
         
-        List<String> user1Friends = friendships.get(userId1);
-        List<String> user2Friends = friendships.get(userId2);
-
-        if (user1Friends == null || user2Friends == null) {
-            System.out.println("One or both users have no friends list");
-            return false;
-        }
+            Set<String> user1Friends = friendships.get(userId1);
+            Set<String> user2Friends = friendships.get(userId2);
 
-        // 从双方的好友列表中移除对方
-        boolean removed1 = user1Friends.remove(userId2);
-        boolean removed2 = user2Friends.remove(userId1);
-
-        System.out.println("Removed " + userId2 + " from " + userId1 + "'s list: " + removed1);
-        System.out.println("Removed " + userId1 + " from " + userId2 + "'s list: " + removed2);
-
-        if (removed1 && removed2) {
-            // 清理空的好友列表
-            if (user1Friends.isEmpty()) {
-                friendships.remove(userId1);
-                System.out.println("Removed empty friends list for " + userId1);
+            if (user1Friends == null || user2Friends == null) {
+                LOG.debug("One or both users have no friends list");
+                return false;
             }
-            if (user2Friends.isEmpty()) {
-                friendships.remove(userId2);
-                System.out.println("Removed empty friends list for " + userId2);
+
+            if (user1Friends.contains(userId2) && user2Friends.contains(userId1)) {
+                // 从双方的好友列表中移除对方，并清理空的好友列表
+                record("REMOVE_FRIEND", userId1, userId2);
+                LOG.debug("Successfully deleted friendship");
+                return true;
             }
-            saveFriendships();
-            System.out.println("Successfully deleted friendship");
-            return true;
+            LOG.debug("Failed to delete friendship");
+            return false;
+        } finally {
+            locks.unlock(userId1, userId2);
         }
-        System.out.println("Failed to delete friendship");
-        return false;
     }
 
     /**
      * 检查两个用户是否为好友关系
+     * 无锁读取并发集合，O(1)
      * @param userId1 用户1的ID
      * @param userId2 用户2的ID
      * @return 是好友返回true，否则返回false
      */
     public boolean areFriends(String userId1, String userId2) {
-        List<String> user1Friends = friendships.get(userId1);
-        boolean result = user1Friends != null && user1Friends.contains(userId2);
-        System.out.println("Checking if " + userId1 + " and " + userId2 + " are friends: " + result);
-        if (user1Friends != null) {
-            System.out.println(userId1 + "'s friends: " + user1Friends);
-        }
-        return result;
+        Set<String> user1Friends = friendships.get(userId1);
+        return user1Friends != null && user1Friends.contains(userId2);
     }
 
     /**
      * 获取用户的好友列表
      * @param userId 用户ID
-     * @return 好友ID列表
+     * @return 好友ID列表的不可变快照
      */
     public List<String> getFriends(String userId) {
-        List<String> friends = friendships.getOrDefault(userId, new ArrayList<>());
-        System.out.println("Getting friends for " + userId + ": " + friends);
-        return friends;
+        Set<String> friends = friendships.get(userId);
+        return friends == null ? List.of() : List.copyOf(friends);
     }
 
     /**
      * 获取用户的待处理好友请求列表
      * @param userId 用户ID
-     * @return 发送者ID列表
+     * @return 发送者ID列表的不可变快照
      */
     public List<String> getPendingFriendRequests(String userId) {
-        return pendingFriendRequests.getOrDefault(userId, new ArrayList<>());
+        Set<String> requests = pendingFriendRequests.get(userId);
+        return requests == null ? List.of() : List.copyOf(requests);
     }
 
     /**
@@ -0,0 +1,51 @@
+package com.simpleqq.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 虚拟线程支持
+ * 项目以Java 17为编译基线，这里通过MethodHandle按需查找Java 21的虚拟线程API，
+ * 在低版本JDK上运行时isSupported返回false
+ */
+final class VirtualThreads {
+    private static final MethodHandle NEW_PER_TASK_EXECUTOR = findPerTaskExecutor(); // Executors.newVirtualThreadPerTaskExecutor
+
+    private VirtualThreads() {
+    }
+
+    private static MethodHandle findPerTaskExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class,
+                "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 当前JVM是否支持虚拟线程
+     */
+    static boolean isSupported() {
+        return NEW_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器
+     * @return 执行器
+     * @throws IllegalStateException 当前JVM不支持虚拟线程时抛出
+     */
+    static ExecutorService newPerTaskExecutor() {
+        if (NEW_PER_TASK_EXECUTOR == null) {
+            throw new IllegalStateException("Virtual threads require Java 21 or newer (running " + Runtime.version() + ")");
+        }
+        try {
+            return (ExecutorService) NEW_PER_TASK_EXECUTOR.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+}
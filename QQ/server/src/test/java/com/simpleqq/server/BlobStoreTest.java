@@ -0,0 +1,181 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.BlobRef;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BlobStore测试类
+ * 验证分块上传、重启后续传、内容去重、摘要校验、分块读取、未完成上传的配额和过期清理
+ */
+public class BlobStoreTest {
+
+    private Path tempDir;
+    private BlobStore store;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("blobtest");
+        store = new BlobStore(tempDir, 1024 * 1024);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    private static String sha256(byte[] data) {
+        return HexFormat.of().formatHex(BlobRef.newDigest().digest(data));
+    }
+
+    @Test
+    public void uploadsInChunksAndResumesAfterRestart() throws Exception {
+        byte[] image = data(150_000);
+        String hash = sha256(image);
+        assertEquals(0, store.write("alice", hash, image.length, 0, null));
+        assertEquals(65_536, store.write("alice", hash, image.length, 0, Arrays.copyOfRange(image, 0, 65_536)));
+        // 重复或越位的数据块被忽略
+        assertEquals(65_536, store.write("alice", hash, image.length, 0, Arrays.copyOfRange(image, 0, 65_536)));
+        assertEquals(65_536, store.write("alice", hash, image.length, 100_000, Arrays.copyOfRange(image, 100_000, 150_000)));
+        assertFalse(store.contains(hash));
+
+        store = new BlobStore(tempDir, 1024 * 1024);
+        assertEquals(65_536, store.write("alice", hash, image.length, 0, null));
+        assertEquals(image.length, store.write("alice", hash, image.length, 65_536, Arrays.copyOfRange(image, 65_536, image.length)));
+        assertTrue(store.contains(hash));
+        assertEquals(image.length, store.size(hash));
+
+        byte[] read = new byte[0];
+        for (long offset = 0; offset < image.length; offset += read.length) {
+            read = store.read(hash, offset, BlobRef.CHUNK_SIZE);
+            assertArrayEquals(Arrays.copyOfRange(image, (int) offset, (int) offset + read.length), read);
+        }
+        assertEquals(0, store.read(hash, image.length, BlobRef.CHUNK_SIZE).length);
+    }
+
+    @Test
+    public void existingContentIsNotUploadedAgain() throws Exception {
+        byte[] image = data(10);
+        String hash = sha256(image);
+        assertEquals(10, store.write("alice", hash, 10, 0, image));
+        assertEquals(10, store.write("alice", hash, 10, 0, null));
+        assertEquals(0, store.write("alice", sha256(new byte[0]), 0, 0, null)); // 空图片
+    }
+
+    @Test
+    public void rejectsMismatchedOrInvalidUploads() throws Exception {
+        byte[] image = data(10);
+        String wrongHash = sha256(data(11));
+        assertThrows(IOException.class, () -> store.write("alice", wrongHash, 10, 0, image));
+        assertFalse(store.contains(wrongHash));
+        assertEquals(0, store.write("alice", wrongHash, 10, 0, null)); // 不符的数据已丢弃
+
+        String hash = sha256(image);
+        assertThrows(IllegalArgumentException.class, () -> store.write("alice", hash, 5, 0, image));
+        assertThrows(IllegalArgumentException.class, () -> store.write("alice", hash, 2 * 1024 * 1024, 0, null));
+        assertThrows(IllegalArgumentException.class, () -> store.write("alice", "../../passwd", 10, 0, image));
+        assertNull(store.read(hash, 0, 10));
+        assertEquals(-1, store.size(hash));
+    }
+
+    @Test
+    public void unfinishedUploadsAreLimitedPerUser() throws Exception {
+        store = new BlobStore(tempDir, 1024 * 1024, 100_000, BlobStore.DEFAULT_PART_TTL_MILLIS);
+        byte[] first = data(200_000);
+        byte[] second = data(150_000);
+        second[0] = 1;
+        String firstHash = sha256(first);
+        String secondHash = sha256(second);
+        assertEquals(60_000, store.write("alice", firstHash, first.length, 0, Arrays.copyOfRange(first, 0, 60_000)));
+        assertThrows(IllegalArgumentException.class,
+            () -> store.write("alice", secondHash, second.length, 0, Arrays.copyOfRange(second, 0, 60_000)));
+        assertEquals(60_000, store.getPendingBytes("alice"));
+        // 其他用户不受影响；续传别人的上传时整体转到续传者名下
+        assertEquals(60_000, store.write("bob", secondHash, second.length, 0, Arrays.copyOfRange(second, 0, 60_000)));
+        assertEquals(100_000, store.write("carol", firstHash, first.length, 60_000, Arrays.copyOfRange(first, 60_000, 100_000)));
+        assertEquals(0, store.getPendingBytes("alice"));
+        assertEquals(100_000, store.getPendingBytes("carol"));
+
+        // 完成后退还配额
+        store = new BlobStore(tempDir, 1024 * 1024, 1024 * 1024, BlobStore.DEFAULT_PART_TTL_MILLIS);
+        assertEquals(first.length, store.write("carol", firstHash, first.length, 100_000,
+            Arrays.copyOfRange(first, 100_000, first.length)));
+        assertTrue(store.contains(firstHash));
+        assertEquals(0, store.getPendingBytes("carol"));
+    }
+
+    @Test
+    public void staleUnfinishedUploadsExpire() throws Exception {
+        store = new BlobStore(tempDir, 1024 * 1024, 1024 * 1024, 50);
+        byte[] image = data(10_000);
+        String hash = sha256(image);
+        assertEquals(5_000, store.write("alice", hash, image.length, 0, Arrays.copyOfRange(image, 0, 5_000)));
+        Path part = tempDir.resolve("tmp").resolve(hash + ".part");
+        assertTrue(Files.exists(part));
+        Thread.sleep(100);
+        store.expireStaleParts();
+        assertFalse(Files.exists(part));
+        assertEquals(0, store.getPendingBytes("alice"));
+        assertEquals(0, store.write("alice", hash, image.length, 0, null));
+    }
+
+    @Test
+    public void uploadsOfDifferentImagesRunInParallel() throws Exception {
+        int uploads = 8;
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        String[] hashes = new String[uploads];
+        for (int u = 0; u < uploads; u++) {
+            byte[] image = data(200_000);
+            image[0] = (byte) u;
+            hashes[u] = sha256(image);
+            String user = "user" + u;
+            int index = u;
+            threads.add(new Thread(() -> {
+                try {
+                    long received = 0;
+                    while (received < image.length) {
+                        int end = (int) Math.min(image.length, received + BlobRef.CHUNK_SIZE);
+                        received = store.write(user, hashes[index], image.length, received,
+                            Arrays.copyOfRange(image, (int) received, end));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+        for (String hash : hashes) {
+            assertTrue(store.contains(hash));
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.simpleqq.server;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+import com.simpleqq.common.BlobRef;
+import com.simpleqq.common.HistoryPage;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * BlockingTransport测试类
+ * 使用旧版对象流客户端验证平台线程模式和虚拟线程模式，
+ * 并验证同一端口上分帧协议客户端的版本协商
+ */
+public class BlockingTransportTest {
+
+    private Server server;
+    private java.nio.file.Path tempDir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = java.nio.file.Files.createTempDirectory("blockingtest");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> walk = java.nio.file.Files.walk(tempDir)) {
+            walk.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private int startServer(TransportMode mode) throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransportMode(mode);
+        server = new Server(tempDir.toString(), config);
+        return server.bind().getLocalPort();
+    }
+
+    /**
+     * 以旧版对象流协议完成注册和登录
+     */
+    private void registerAndLogin(int port, String userId) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+            oos.writeObject(new Message(MessageType.REGISTER, userId, "Server", userId + ",name,pwd"));
+            oos.flush();
+            assertEquals(MessageType.REGISTER_SUCCESS, ((Message) ois.readObject()).getType());
+
+            oos.writeObject(new Message(MessageType.LOGIN, userId, "Server", userId + ",pwd"));
+            oos.flush();
+            assertEquals(MessageType.LOGIN_SUCCESS, ((Message) ois.readObject()).getType());
+            assertTrue(server.isUserOnline(userId));
+        }
+    }
+
+    @Test
+    public void platformThreadModeServesLegacyClients() throws Exception {
+        registerAndLogin(startServer(TransportMode.BLOCKING), "platform");
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    public void virtualThreadModeServesLegacyClients() throws Exception {
+        registerAndLogin(startServer(TransportMode.VIRTUAL), "virtual");
+    }
+
+    @Test
+    @EnabledForJreRange(max = JRE.JAVA_20)
+    public void virtualThreadModeRequiresJava21() {
+        assertThrows(IllegalStateException.class, () -> startServer(TransportMode.VIRTUAL));
+    }
+
+    @Test
+    public void framedClientsNegotiateCodecOnBlockingTransport() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        try (TestClient binary = new TestClient("bin", port);
+             TestClient serialized = new TestClient("ser", port, WireProtocol.VERSION_SERIALIZED)) {
+            assertEquals(WireProtocol.VERSION_BINARY, binary.getStream().getCodec().version());
+            assertEquals(WireProtocol.VERSION_SERIALIZED, serialized.getStream().getCodec().version());
+            binary.registerAndLogin();
+            serialized.registerAndLogin();
+            assertTrue(server.isUserOnline("bin"));
+            assertTrue(server.isUserOnline("ser"));
+        }
+        // 旧版客户端仍可连接同一端口
+        registerAndLogin(port, "legacy");
+    }
+
+    @Test
+    public void offlineMessagesAreDeliveredAfterLogin() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        try (TestClient alice = new TestClient("alice", port)) {
+            alice.registerAndLogin();
+            try (TestClient bob = new TestClient("bob", port)) {
+                bob.registerAndLogin();
+            }
+            server.getUserManager().sendFriendRequest("alice", "bob");
+            server.getUserManager().acceptFriendRequest("bob", "alice");
+            long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(10);
+            while (server.isUserOnline("bob") && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            for (int i = 0; i < 3; i++) {
+                alice.send(MessageType.TEXT_MESSAGE, "bob", "offline " + i);
+                alice.await(MessageType.SERVER_MESSAGE); // 提示对方离线，消息稍后投递
+            }
+            try (TestClient bob = new TestClient("bob", port)) {
+                bob.send(MessageType.LOGIN, "Server", "bob,pwd");
+                bob.await(MessageType.LOGIN_SUCCESS);
+                for (int i = 0; i < 3; i++) {
+                    assertEquals("offline " + i, bob.await(MessageType.TEXT_MESSAGE).getContent());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void friendsReceivePresenceDeltasInsteadOfFullLists() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        try (TestClient alice = new TestClient("alice", port)) {
+            alice.registerAndLogin();
+            server.getUserManager().registerUser("bob", "bob", "pwd");
+            server.getUserManager().sendFriendRequest("alice", "bob");
+            server.getUserManager().acceptFriendRequest("bob", "alice");
+
+            try (TestClient bob = new TestClient("bob", port)) {
+                bob.send(MessageType.LOGIN, "Server", "bob,pwd");
+                bob.await(MessageType.LOGIN_SUCCESS);
+                assertEquals("bob:online", alice.await(MessageType.PRESENCE_UPDATE).getContent());
+            }
+            assertEquals("bob:offline", alice.await(MessageType.PRESENCE_UPDATE).getContent());
+        }
+    }
+
+    @Test
+    public void legacyAndVersion1ClientsReceiveFullFriendLists() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        server.getUserManager().registerUser("carol", "carol", "pwd");
+        try (Socket socket = new Socket("127.0.0.1", port);
+             TestClient bob = new TestClient("bob", port, WireProtocol.VERSION_SERIALIZED)) {
+            socket.setSoTimeout(10_000);
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            oos.writeObject(new Message(MessageType.REGISTER, "alice", "Server", "alice,alice,pwd"));
+            oos.flush();
+            assertEquals(MessageType.REGISTER_SUCCESS, ((Message) ois.readObject()).getType());
+            oos.writeObject(new Message(MessageType.LOGIN, "alice", "Server", "alice,pwd"));
+            oos.flush();
+            assertEquals(MessageType.LOGIN_SUCCESS, ((Message) ois.readObject()).getType());
+            bob.registerAndLogin();
+            server.getUserManager().sendFriendRequest("carol", "alice");
+            server.getUserManager().acceptFriendRequest("alice", "carol");
+            server.getUserManager().sendFriendRequest("carol", "bob");
+            server.getUserManager().acceptFriendRequest("bob", "carol");
+
+            try (TestClient carol = new TestClient("carol", port)) {
+                carol.send(MessageType.LOGIN, "Server", "carol,pwd");
+                carol.await(MessageType.LOGIN_SUCCESS);
+                awaitLegacyFriendList(ois, "carol:carol:online");
+                awaitFriendList(bob, "carol:carol:online");
+            }
+            awaitLegacyFriendList(ois, "carol:carol:offline");
+            awaitFriendList(bob, "carol:carol:offline");
+            assertFalse(bob.hasReceived(MessageType.PRESENCE_UPDATE));
+        }
+    }
+
+    /**
+     * 等待包含指定好友状态的FRIEND_LIST，登录时收到的列表可能还是旧状态
+     */
+    private static void awaitFriendList(TestClient client, String entry) throws InterruptedException {
+        while (!client.await(MessageType.FRIEND_LIST).getContent().contains(entry)) {
+            // 继续等待下一份列表
+        }
+    }
+
+    /**
+     * 从旧版对象流读取消息直到收到包含指定好友状态的FRIEND_LIST，期间不应收到PRESENCE_UPDATE
+     */
+    private static void awaitLegacyFriendList(ObjectInputStream ois, String entry) throws Exception {
+        while (true) {
+            Message message = (Message) ois.readObject();
+            assertNotEquals(MessageType.PRESENCE_UPDATE, message.getType());
+            if (message.getType() == MessageType.FRIEND_LIST && message.getContent().contains(entry)) {
+                return;
+            }
+        }
+    }
+
+    @Test
+    public void historyRequestsArePagedFromNewest() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        try (TestClient alice = new TestClient("alice", port); TestClient bob = new TestClient("bob", port)) {
+            alice.registerAndLogin();
+            bob.registerAndLogin();
+            server.getUserManager().sendFriendRequest("alice", "bob");
+            server.getUserManager().acceptFriendRequest("bob", "alice");
+            for (int i = 0; i < 3; i++) {
+                alice.send(MessageType.TEXT_MESSAGE, "bob", "m" + i);
+                bob.await(MessageType.TEXT_MESSAGE);
+            }
+            // 聊天记录异步持久化，等待全部可见
+            long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(10);
+            while (server.loadHistory("bob", false, "alice", 0, 10).getMessages().size() < 3
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            bob.send(MessageType.HISTORY_REQUEST, "alice", HistoryPage.formatRequest(false, 0, 2));
+            Message response = bob.await(MessageType.HISTORY_RESPONSE);
+            assertEquals("alice", response.getSenderId());
+            HistoryPage page = HistoryPage.decode(response.getContent());
+            assertEquals(2, page.getMessages().size());
+            assertEquals("m1", page.getMessages().get(0).getContent());
+            assertEquals("m2", page.getMessages().get(1).getContent());
+            assertTrue(page.hasMore());
+
+            bob.send(MessageType.HISTORY_REQUEST, "alice", HistoryPage.formatRequest(false, page.getNextBefore(), 2));
+            HistoryPage older = HistoryPage.decode(bob.await(MessageType.HISTORY_RESPONSE).getContent());
+            assertEquals(1, older.getMessages().size());
+            assertEquals("m0", older.getMessages().get(0).getContent());
+
+            // 非群成员不能读取群聊记录
+            bob.send(MessageType.HISTORY_REQUEST, "nogroup", HistoryPage.formatRequest(true, 0, 2));
+            assertTrue(bob.await(MessageType.SERVER_MESSAGE).getContent().contains("not a member"));
+        }
+    }
+
+    @Test
+    public void historyCannotBeReadThroughCollidingIds() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        try (TestClient ab = new TestClient("a_b", port); TestClient c = new TestClient("c", port);
+             TestClient a = new TestClient("a", port); TestClient group = new TestClient("group", port)) {
+            for (TestClient client : java.util.List.of(ab, c, a, group)) {
+                client.registerAndLogin();
+            }
+            server.getUserManager().registerUser("b_c", "b_c", "pwd");
+            server.getUserManager().registerUser("zed", "zed", "pwd");
+            server.getUserManager().sendFriendRequest("a_b", "c");
+            server.getUserManager().acceptFriendRequest("c", "a_b");
+            assertTrue(server.getGroupManager().createGroup("zed", "c"));
+            ab.send(MessageType.TEXT_MESSAGE, "c", "private");
+            c.await(MessageType.TEXT_MESSAGE);
+            c.send(MessageType.GROUP_MESSAGE, "zed", "group");
+            long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(10);
+            while ((server.loadHistory("c", false, "a_b", 0, 10).getMessages().isEmpty()
+                    || server.loadHistory("c", true, "zed", 0, 10).getMessages().isEmpty())
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            // 不是好友不能查询私聊记录
+            a.send(MessageType.HISTORY_REQUEST, "b_c", HistoryPage.formatRequest(false, 0, 10));
+            assertTrue(a.await(MessageType.SERVER_MESSAGE).getContent().contains("not friends"));
+            group.send(MessageType.HISTORY_REQUEST, "zed", HistoryPage.formatRequest(false, 0, 10));
+            assertTrue(group.await(MessageType.SERVER_MESSAGE).getContent().contains("not friends"));
+
+            // 成为好友后也只能读到自己的会话，("a","b_c")与("a_b","c")、("group","zed")与群组zed互不相通
+            server.getUserManager().sendFriendRequest("a", "b_c");
+            server.getUserManager().acceptFriendRequest("b_c", "a");
+            server.getUserManager().sendFriendRequest("group", "zed");
+            server.getUserManager().acceptFriendRequest("zed", "group");
+            a.send(MessageType.HISTORY_REQUEST, "b_c", HistoryPage.formatRequest(false, 0, 10));
+            assertTrue(HistoryPage.decode(a.await(MessageType.HISTORY_RESPONSE).getContent()).getMessages().isEmpty());
+            group.send(MessageType.HISTORY_REQUEST, "zed", HistoryPage.formatRequest(false, 0, 10));
+            assertTrue(HistoryPage.decode(group.await(MessageType.HISTORY_RESPONSE).getContent()).getMessages().isEmpty());
+        }
+    }
+
+    @Test
+    public void groupImagesAreKeptInGroupHistory() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        try (TestClient alice = new TestClient("alice", port); TestClient bob = new TestClient("bob", port)) {
+            alice.registerAndLogin();
+            bob.registerAndLogin();
+            assertTrue(server.getGroupManager().createGroup("team", "alice"));
+            assertTrue(server.getGroupManager().sendGroupInvite("alice", "bob", "team"));
+            assertTrue(server.getGroupManager().acceptGroupInvite("bob", "team"));
+
+            alice.send(MessageType.IMAGE_MESSAGE, "team", "cat.png:aGVsbG8=");
+            assertEquals("team", bob.await(MessageType.IMAGE_MESSAGE).getReceiverId());
+            long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(10);
+            while (server.loadHistory("bob", true, "team", 0, 10).getMessages().isEmpty()
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            bob.send(MessageType.HISTORY_REQUEST, "team", HistoryPage.formatRequest(true, 0, 10));
+            HistoryPage page = HistoryPage.decode(bob.await(MessageType.HISTORY_RESPONSE).getContent());
+            assertEquals(1, page.getMessages().size());
+            Message image = page.getMessages().get(0);
+            assertEquals(MessageType.IMAGE_MESSAGE, image.getType());
+            assertEquals("cat.png", image.getContent());
+            // 群聊图片不能落入发送者与群组ID组成的私聊会话
+            assertTrue(server.loadHistory("alice", false, "team", 0, 10).getMessages().isEmpty());
+        }
+    }
+
+    @Test
+    public void imagesAreUploadedOnceAndFetchedByHash() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        byte[] image = new byte[BlobRef.CHUNK_SIZE + 100];
+        java.util.Arrays.fill(image, (byte) 7);
+        String hash = java.util.HexFormat.of().formatHex(BlobRef.newDigest().digest(image));
+        BlobRef ref = new BlobRef(hash, image.length, "cat.png");
+        try (TestClient alice = new TestClient("alice", port); TestClient bob = new TestClient("bob", port)) {
+            alice.registerAndLogin();
+            bob.registerAndLogin();
+            server.getUserManager().sendFriendRequest("alice", "bob");
+            server.getUserManager().acceptFriendRequest("bob", "alice");
+
+            // 未上传的图片不能发送
+            alice.send(MessageType.IMAGE_MESSAGE, "bob", ref.encode());
+            assertTrue(alice.await(MessageType.SERVER_MESSAGE).getContent().contains("not been uploaded"));
+
+            alice.send(MessageType.BLOB_UPLOAD, "Server", hash + "," + image.length + ",0");
+            long received = Long.parseLong(alice.await(MessageType.BLOB_UPLOAD_ACK).getContent().split(",")[1]);
+            while (received < image.length) {
+                Message chunk = new Message(MessageType.BLOB_UPLOAD, "alice", "Server", hash + "," + image.length + "," + received);
+                chunk.setPayload(java.util.Arrays.copyOfRange(image, (int) received,
+                    (int) Math.min(image.length, received + BlobRef.CHUNK_SIZE)));
+                alice.getStream().write(chunk);
+                received = Long.parseLong(alice.await(MessageType.BLOB_UPLOAD_ACK).getContent().split(",")[1]);
+            }
+            assertEquals(image.length, received);
+            // 再次上传相同内容时直接完成
+            alice.send(MessageType.BLOB_UPLOAD, "Server", hash + "," + image.length + ",0");
+            assertEquals(hash + "," + image.length, alice.await(MessageType.BLOB_UPLOAD_ACK).getContent());
+
+            alice.send(MessageType.IMAGE_MESSAGE, "bob", ref.encode());
+            assertEquals(ref.encode(), bob.await(MessageType.IMAGE_MESSAGE).getContent());
+
+            java.io.ByteArrayOutputStream fetched = new java.io.ByteArrayOutputStream();
+            while (fetched.size() < image.length) {
+                bob.send(MessageType.BLOB_REQUEST, "Server", hash + "," + fetched.size());
+                Message data = bob.await(MessageType.BLOB_DATA);
+                assertEquals(hash + "," + image.length + "," + fetched.size(), data.getContent());
+                fetched.write(data.getPayload());
+            }
+            assertArrayEquals(image, fetched.toByteArray());
+
+            bob.send(MessageType.BLOB_REQUEST, "Server", "0".repeat(64) + ",0");
+            assertEquals("0".repeat(64) + ",-1,0", bob.await(MessageType.BLOB_DATA).getContent());
+        }
+    }
+
+    @Test
+    public void pipelinedChunksAreAckedInOrder() throws Exception {
+        int port = startServer(TransportMode.BLOCKING);
+        byte[] image = new byte[3 * BlobRef.CHUNK_SIZE];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i / 7);
+        }
+        String hash = java.util.HexFormat.of().formatHex(BlobRef.newDigest().digest(image));
+        try (TestClient alice = new TestClient("alice", port)) {
+            alice.registerAndLogin();
+            // 不等待确认连续发送，重复的数据块被忽略，其确认为当前已接收的字节数
+            long[] offsets = {0, 0, BlobRef.CHUNK_SIZE, BlobRef.CHUNK_SIZE, 2L * BlobRef.CHUNK_SIZE};
+            for (long offset : offsets) {
+                Message chunk = new Message(MessageType.BLOB_UPLOAD, "alice", "Server", hash + "," + image.length + "," + offset);
+                chunk.setPayload(java.util.Arrays.copyOfRange(image, (int) offset, (int) offset + BlobRef.CHUNK_SIZE));
+                alice.getStream().write(chunk);
+            }
+            long[] acks = {BlobRef.CHUNK_SIZE, BlobRef.CHUNK_SIZE, 2L * BlobRef.CHUNK_SIZE, 2L * BlobRef.CHUNK_SIZE, image.length};
+            for (long ack : acks) {
+                assertEquals(hash + "," + ack, alice.await(MessageType.BLOB_UPLOAD_ACK).getContent());
+            }
+
+            // 流水线请求的数据块按请求顺序返回
+            for (long offset = 0; offset < image.length; offset += BlobRef.CHUNK_SIZE) {
+                alice.send(MessageType.BLOB_REQUEST, "Server", hash + "," + offset);
+            }
+            for (long offset = 0; offset < image.length; offset += BlobRef.CHUNK_SIZE) {
+                Message data = alice.await(MessageType.BLOB_DATA);
+                assertEquals(hash + "," + image.length + "," + offset, data.getContent());
+                assertArrayEquals(java.util.Arrays.copyOfRange(image, (int) offset, (int) offset + BlobRef.CHUNK_SIZE),
+                    data.getPayload());
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.simpleqq.server;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.HistoryPage;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ChatHistoryWriter测试类
+ * 验证组提交序号、重启恢复、残缺尾部截断、分段存储重放、分页查询和刷盘策略
+ */
+public class ChatHistoryWriterTest {
+
+    private Path tempDir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("historytest");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static Message text(String from, String to, String content) {
+        return new Message(MessageType.TEXT_MESSAGE, from, to, content);
+    }
+
+    private List<Message> readLog() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(tempDir.resolve(ChatHistoryWriter.WAL_FILE_NAME))) {
+            ChatHistoryWriter.scan(channel, (sequence, position, message) -> messages.add(message));
+        }
+        return messages;
+    }
+
+    @Test
+    public void concurrentAppendsGetUniqueSequences() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<List<CompletableFuture<Long>>>> submitted = new ArrayList<>();
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.everyMillis(5))) {
+            for (int t = 0; t < threads; t++) {
+                String sender = "user" + t;
+                submitted.add(pool.submit(() -> {
+                    List<CompletableFuture<Long>> futures = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        futures.add(writer.append(text(sender, "peer", "m" + i)));
+                    }
+                    return futures;
+                }));
+            }
+            Set<Long> sequences = new HashSet<>();
+            for (Future<List<CompletableFuture<Long>>> result : submitted) {
+                long previous = 0;
+                for (CompletableFuture<Long> future : result.get()) {
+                    long sequence = future.get(10, TimeUnit.SECONDS);
+                    assertTrue(sequence > previous, "同一线程提交的记录序号应递增");
+                    previous = sequence;
+                    sequences.add(sequence);
+                }
+            }
+            assertEquals(threads * perThread, sequences.size());
+            assertEquals(threads * perThread, writer.getDurableSequence());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(threads * perThread, readLog().size());
+    }
+
+    @Test
+    public void reopenContinuesSequence() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            assertEquals(1L, writer.append(text("a", "b", "one")).get(5, TimeUnit.SECONDS));
+            assertEquals(2L, writer.append(text("a", "b", "two")).get(5, TimeUnit.SECONDS));
+        }
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            assertEquals(2L, writer.getDurableSequence());
+            assertEquals(3L, writer.append(text("b", "a", "three")).get(5, TimeUnit.SECONDS));
+        }
+        List<Message> messages = readLog();
+        assertEquals(3, messages.size());
+        assertEquals("three", messages.get(2).getContent());
+    }
+
+    @Test
+    public void tornTailIsTruncatedOnRecovery() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            writer.append(text("a", "b", "intact")).get(5, TimeUnit.SECONDS);
+        }
+        Path wal = tempDir.resolve(ChatHistoryWriter.WAL_FILE_NAME);
+        long intactSize = Files.size(wal);
+        // 模拟崩溃时只写了一半的记录
+        Files.write(wal, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            assertEquals(intactSize, Files.size(wal));
+            assertEquals(2L, writer.append(text("a", "b", "after")).get(5, TimeUnit.SECONDS));
+        }
+        List<Message> messages = readLog();
+        assertEquals(List.of("intact", "after"), List.of(messages.get(0).getContent(), messages.get(1).getContent()));
+    }
+
+    @Test
+    public void writesConversationSegments() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.never())) {
+            writer.append(text("bob", "alice", "hi")).get(5, TimeUnit.SECONDS);
+            writer.append(new Message(MessageType.IMAGE_MESSAGE, "bob", "alice", "cat.png")).get(5, TimeUnit.SECONDS);
+            writer.append(new Message(MessageType.GROUP_MESSAGE, "bob", "g1", "hello group")).get(5, TimeUnit.SECONDS);
+        }
+        Path conversations = tempDir.resolve(ChatHistoryWriter.CONVERSATIONS_DIR);
+        assertTrue(Files.isDirectory(conversations.resolve("private%3Aalice%3Abob")));
+        assertTrue(Files.isDirectory(conversations.resolve("group%3Ag1")));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().endsWith(".txt")), "不再生成文本文件");
+        }
+    }
+
+    @Test
+    public void missingSegmentRecordsAreReplayedFromLog() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            for (int i = 0; i < 3; i++) {
+                writer.append(text("a", "b", "m" + i)).get(5, TimeUnit.SECONDS);
+            }
+        }
+        // 模拟分段存储在崩溃时丢失了全部数据，日志仍然完整
+        Path conversations = tempDir.resolve(ChatHistoryWriter.CONVERSATIONS_DIR);
+        try (Stream<Path> walk = Files.walk(conversations)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            assertEquals(List.of("m0", "m1", "m2"), contents(writer.readHistory(false, "a", "b", 0, 10)));
+        }
+    }
+
+    @Test
+    public void checkpointKeepsLogSmallAcrossRestarts() throws Exception {
+        long checkpointBytes = 4096;
+        Path wal = tempDir.resolve(ChatHistoryWriter.WAL_FILE_NAME);
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always(), checkpointBytes)) {
+            for (int i = 0; i < 200; i++) {
+                writer.append(text("a", "b", "message number " + i)).get(5, TimeUnit.SECONDS);
+            }
+            assertTrue(Files.size(wal) < checkpointBytes, "日志在检查点后应被截断: " + Files.size(wal));
+        }
+        long sizeBeforeRestart = Files.size(wal);
+
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always(), checkpointBytes)) {
+            assertEquals(200L, writer.getDurableSequence());
+            assertEquals(sizeBeforeRestart, Files.size(wal));
+            assertEquals(201L, writer.append(text("b", "a", "after restart")).get(5, TimeUnit.SECONDS));
+            HistoryPage page = writer.readHistory(false, "a", "b", 0, 1000);
+            assertEquals(201, page.getMessages().size());
+            assertEquals("message number 0", page.getMessages().get(0).getContent());
+            assertEquals("after restart", page.getMessages().get(200).getContent());
+        }
+        assertTrue(readLog().size() < 201, "检查点之前的记录不应留在日志中");
+    }
+
+    @Test
+    public void onlyRecordsAfterCheckpointAreReplayed() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            for (int i = 0; i < 3; i++) {
+                writer.append(text("a", "b", "m" + i)).get(5, TimeUnit.SECONDS);
+            }
+        }
+        // 模拟检查点写入后、日志截断前崩溃，并且分段存储只保留了检查点之前的记录：
+        // 清空分段存储后写入检查点2，重启时只应重放序号3
+        Path conversations = tempDir.resolve(ChatHistoryWriter.CONVERSATIONS_DIR);
+        try (Stream<Path> walk = Files.walk(conversations)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        try (SegmentedHistoryStore store = new SegmentedHistoryStore(conversations,
+                SegmentedHistoryStore.DEFAULT_SEGMENT_BYTES)) {
+            store.checkpoint(2);
+        }
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            assertEquals(List.of("m2"), contents(writer.readHistory(false, "a", "b", 0, 10)));
+            assertEquals(4L, writer.append(text("a", "b", "m3")).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void recordsPolicyCompletesAfterDeadlineWithoutFullBatch() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.everyRecords(1000))) {
+            // 凑不满1000条时也应在最长延迟内刷盘
+            assertEquals(1L, writer.append(text("a", "b", "lonely")).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void appendAfterCloseFails() throws Exception {
+        ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.never());
+        writer.close();
+        CompletableFuture<Long> future = writer.append(text("a", "b", "late"));
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void conversationIdIgnoresNonChatMessages() {
+        assertEquals("private:a:b", ChatHistoryWriter.conversationId(text("b", "a", "x")));
+        assertEquals("group:g1", ChatHistoryWriter.conversationId(new Message(MessageType.GROUP_MESSAGE, "a", "g1", "")));
+        assertNull(ChatHistoryWriter.conversationId(new Message(MessageType.LOGIN, "a", "Server", "")));
+    }
+
+    @Test
+    public void conversationIdsDoNotCollide() throws Exception {
+        assertNotEquals(ChatHistoryWriter.conversationId(false, "a_b", "c"), ChatHistoryWriter.conversationId(false, "a", "b_c"));
+        assertNotEquals(ChatHistoryWriter.conversationId(false, "a:b", "c"), ChatHistoryWriter.conversationId(false, "a", "b:c"));
+        assertNotEquals(ChatHistoryWriter.conversationId(false, "group", "zed"), ChatHistoryWriter.conversationId(true, "x", "zed"));
+        assertEquals(ChatHistoryWriter.conversationId(false, "a_b", "c"), ChatHistoryWriter.conversationId(false, "c", "a_b"));
+
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.never())) {
+            writer.append(text("a_b", "c", "ab to c"));
+            writer.append(text("a", "b_c", "a to bc"));
+            writer.append(text("group", "zed", "private"));
+            writer.append(new Message(MessageType.GROUP_MESSAGE, "x", "zed", "group")).get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of("ab to c"), contents(writer.readHistory(false, "c", "a_b", 0, 10)));
+            assertEquals(List.of("a to bc"), contents(writer.readHistory(false, "b_c", "a", 0, 10)));
+            assertEquals(List.of("private"), contents(writer.readHistory(false, "zed", "group", 0, 10)));
+            assertEquals(List.of("group"), contents(writer.readHistory(true, "x", "zed", 0, 10)));
+        }
+    }
+
+    @Test
+    public void groupImagesAreReadBackFromGroupConversation() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.never())) {
+            writer.append(new Message(MessageType.GROUP_MESSAGE, "a", "g1", "hello"));
+            writer.append(new Message(MessageType.GROUP_IMAGE_MESSAGE, "a", "g1", "cat.png")).get(5, TimeUnit.SECONDS);
+            assertEquals("group:g1", ChatHistoryWriter.conversationId(
+                new Message(MessageType.GROUP_IMAGE_MESSAGE, "a", "g1", "cat.png")));
+
+            HistoryPage page = writer.readHistory(true, "b", "g1", 0, 10);
+            assertEquals(List.of("hello", "cat.png"), contents(page));
+            assertEquals(MessageType.IMAGE_MESSAGE, page.getMessages().get(1).getType());
+            assertTrue(writer.readHistory(false, "a", "g1", 0, 10).getMessages().isEmpty());
+        }
+    }
+
+    @Test
+    public void readHistoryPagesFromNewestToOldest() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.never())) {
+            for (int i = 0; i < 5; i++) {
+                writer.append(text(i % 2 == 0 ? "a" : "b", i % 2 == 0 ? "b" : "a", "m" + i));
+                writer.append(text("a", "c", "other" + i));
+            }
+            writer.append(new Message(MessageType.GROUP_MESSAGE, "a", "g1", "group")).get(5, TimeUnit.SECONDS);
+
+            HistoryPage latest = writer.readHistory(false, "b", "a", 0, 2);
+            assertEquals(List.of("m3", "m4"), contents(latest));
+            assertTrue(latest.hasMore());
+            HistoryPage older = writer.readHistory(false, "a", "b", latest.getNextBefore(), 2);
+            assertEquals(List.of("m1", "m2"), contents(older));
+            HistoryPage oldest = writer.readHistory(false, "a", "b", older.getNextBefore(), 2);
+            assertEquals(List.of("m0"), contents(oldest));
+            assertFalse(oldest.hasMore());
+
+            assertEquals(List.of("group"), contents(writer.readHistory(true, "x", "g1", 0, 10)));
+            assertTrue(writer.readHistory(false, "a", "nobody", 0, 10).getMessages().isEmpty());
+        }
+    }
+
+    @Test
+    public void historyIndexIsRebuiltOnRestart() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            for (int i = 0; i < 3; i++) {
+                writer.append(text("a", "b", "m" + i)).get(5, TimeUnit.SECONDS);
+            }
+        }
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            writer.append(text("b", "a", "m3")).get(5, TimeUnit.SECONDS);
+            HistoryPage page = writer.readHistory(false, "a", "b", 0, HistoryPage.DEFAULT_PAGE_SIZE);
+            assertEquals(List.of("m0", "m1", "m2", "m3"), contents(page));
+            assertFalse(page.hasMore());
+        }
+    }
+
+    private static List<String> contents(HistoryPage page) {
+        List<String> contents = new ArrayList<>();
+        for (Message message : page.getMessages()) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    @Test
+    public void parsesFsyncPolicies() {
+        assertEquals(FsyncPolicy.Mode.ALWAYS, FsyncPolicy.parse("always").getMode());
+        assertEquals(FsyncPolicy.Mode.NEVER, FsyncPolicy.parse(" NEVER ").getMode());
+        FsyncPolicy records = FsyncPolicy.parse("records:64");
+        assertEquals(FsyncPolicy.Mode.RECORDS, records.getMode());
+        assertEquals(64, records.getValue());
+        assertEquals("interval:250", FsyncPolicy.parse("interval:250").toString());
+        assertThrows(IllegalArgumentException.class, () -> FsyncPolicy.parse("interval"));
+        assertThrows(IllegalArgumentException.class, () -> FsyncPolicy.parse("records:0"));
+        assertThrows(IllegalArgumentException.class, () -> FsyncPolicy.parse("sometimes"));
+    }
+}
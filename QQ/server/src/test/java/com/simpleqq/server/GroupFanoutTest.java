@@ -0,0 +1,186 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.BinaryMessageCodec;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * GroupFanout测试类
+ * 使用记录型连接代替Socket，验证投递范围、共享编码结果和每个成员处的消息顺序
+ */
+public class GroupFanoutTest {
+
+    private Server server;
+    private java.nio.file.Path tempDir;
+    private final Map<String, List<OutboundFrame>> received = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = java.nio.file.Files.createTempDirectory("fanouttest");
+        server = new Server(tempDir.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.getGroupFanout().shutdown();
+        try (java.util.stream.Stream<java.nio.file.Path> walk = java.nio.file.Files.walk(tempDir)) {
+            walk.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * 记录收到的消息帧的连接
+     */
+    private void connect(String userId) {
+        List<OutboundFrame> frames = Collections.synchronizedList(new ArrayList<>());
+        received.put(userId, frames);
+        ClientConnection connection = new ClientConnection() {
+            @Override
+            public void send(OutboundFrame frame) {
+                frames.add(frame);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        server.addOnlineClient(userId, new ClientHandler(server, connection));
+    }
+
+    private static List<String> members(int count) {
+        List<String> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            members.add("m" + i);
+        }
+        return members;
+    }
+
+    private void awaitDelivered(int expectedPerMember, List<String> memberIds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (String memberId : memberIds) {
+            while (received.get(memberId).size() < expectedPerMember && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(expectedPerMember, received.get(memberId).size(), memberId);
+        }
+    }
+
+    @Test
+    public void deliversOneSharedFrameToOnlineMembersExceptSender() throws Exception {
+        GroupFanout fanout = server.getGroupFanout();
+        fanout.start();
+        List<String> members = members(100);
+        for (int i = 0; i < 90; i++) {   // m90~m99离线
+            connect("m" + i);
+        }
+
+        Message message = new Message(MessageType.GROUP_MESSAGE, "m0", "g1", "hello");
+        fanout.fanout(message, members);
+        awaitDelivered(1, members.subList(1, 90));
+
+        assertTrue(received.get("m0").isEmpty());
+        OutboundFrame first = received.get("m1").get(0);
+        BinaryMessageCodec codec = new BinaryMessageCodec();
+        for (int i = 1; i < 90; i++) {
+            OutboundFrame frame = received.get("m" + i).get(0);
+            assertSame(first, frame);
+            assertSame(first.payload(codec), frame.payload(codec)); // 只编码一次
+        }
+        // 离线成员的消息写入离线收件箱后，整次扇出才完成并记录延迟
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (fanout.getLatencyHistogram().getCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, fanout.getLatencyHistogram().getCount());
+        for (int i = 90; i < 100; i++) {
+            assertEquals(1, server.getOfflineInbox().getPendingCount("m" + i));
+        }
+    }
+
+    @Test
+    public void concurrentSendersProduceSameOrderForEveryMember() throws Exception {
+        GroupFanout fanout = server.getGroupFanout();
+        fanout.start();
+        List<String> members = members(64);
+        for (String memberId : members) {
+            connect(memberId);
+        }
+
+        int senders = 4;
+        int perSender = 200;
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            String senderId = "m" + s;
+            Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                    for (int i = 0; i < perSender; i++) {
+                        fanout.fanout(new Message(MessageType.GROUP_MESSAGE, senderId, "g1", senderId + "#" + i), members);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<String> receivers = members.subList(senders, members.size());
+        awaitDelivered(senders * perSender, receivers);
+        List<String> reference = contents(received.get(receivers.get(0)));
+        for (String memberId : receivers) {
+            assertEquals(reference, contents(received.get(memberId)), memberId);
+        }
+        // 同一发送者的消息保持发送顺序
+        for (int s = 0; s < senders; s++) {
+            String prefix = "m" + s + "#";
+            int expected = 0;
+            for (String content : reference) {
+                if (content.startsWith(prefix)) {
+                    assertEquals(prefix + expected++, content);
+                }
+            }
+            assertEquals(perSender, expected);
+        }
+        assertEquals(senders * perSender, fanout.getLatencyHistogram().getCount());
+    }
+
+    @Test
+    public void deliversInlineWhenNotStarted() throws IOException {
+        connect("a");
+        connect("b");
+        server.getGroupFanout().fanout(new Message(MessageType.GROUP_MESSAGE, "a", "g1", "x"), List.of("a", "b"));
+        assertEquals(1, received.get("b").size());
+        assertTrue(received.get("a").isEmpty());
+    }
+
+    private static List<String> contents(List<OutboundFrame> frames) {
+        List<String> contents = new ArrayList<>();
+        synchronized (frames) {
+            for (OutboundFrame frame : frames) {
+                contents.add(frame.getMessage().getContent());
+            }
+        }
+        return contents;
+    }
+}
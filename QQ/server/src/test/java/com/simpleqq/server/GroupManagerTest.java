@@ -138,4 +138,145 @@ public class GroupManagerTest {
         List<String> invites = gm.getPendingGroupInvites("nonexistent");
         assertTrue(invites.isEmpty());
     }
+
+    @Test
+    public void restartReplaysJournal() {
+        gm.createGroup("jg", "owner");
+        gm.sendGroupInvite("owner", "m1", "jg");
+        gm.sendGroupInvite("owner", "m2", "jg");
+        gm.sendGroupInvite("owner", "m3", "jg");
+        gm.acceptGroupInvite("m1", "jg");
+        gm.rejectGroupInvite("m2", "jg");
+        gm.close();
+
+        GroupManager reloaded = new GroupManager(tempDir.toString());
+        assertEquals(List.of("owner", "m1"), reloaded.getGroupMembers("jg"));
+        assertTrue(reloaded.getPendingGroupInvites("m2").isEmpty());
+        assertEquals(List.of("jg"), reloaded.getPendingGroupInvites("m3"));
+        reloaded.close();
+    }
+
+    @Test
+    public void compactionWritesSnapshotAndKeepsState() throws Exception {
+        gm.close();
+        GroupManager compacting = new GroupManager(tempDir.toString(), 1000);
+        compacting.createGroup("cg", "owner");
+        compacting.sendGroupInvite("owner", "m1", "cg");
+        compacting.compact();
+        // 压缩后的修改只存在于新日志中
+        compacting.acceptGroupInvite("m1", "cg");
+        compacting.close();
+
+        assertEquals(List.of("cg|owner"), java.nio.file.Files.readAllLines(tempDir.resolve("groups.txt")));
+        assertEquals(List.of("m1|cg"), java.nio.file.Files.readAllLines(tempDir.resolve("group_invites.txt")));
+
+        GroupManager reloaded = new GroupManager(tempDir.toString());
+        assertEquals(List.of("owner", "m1"), reloaded.getGroupMembers("cg"));
+        assertTrue(reloaded.getPendingGroupInvites("m1").isEmpty());
+        reloaded.close();
+    }
+
+    @Test
+    public void tornJournalTailIsIgnoredOnRecovery() throws Exception {
+        gm.createGroup("tg", "owner");
+        gm.close();
+        java.nio.file.Files.write(tempDir.resolve("groups.journal"),
+            "0badc0de|CREATE|half".getBytes(java.nio.charset.StandardCharsets.UTF_8),
+            java.nio.file.StandardOpenOption.APPEND);
+
+        GroupManager reloaded = new GroupManager(tempDir.toString());
+        assertNotNull(reloaded.getGroupMembers("tg"));
+        assertNull(reloaded.getGroupMembers("half"));
+        assertTrue(reloaded.createGroup("tg2", "owner"));
+        reloaded.close();
+
+        GroupManager again = new GroupManager(tempDir.toString());
+        assertNotNull(again.getGroupMembers("tg2"));
+        again.close();
+    }
+
+    @Test
+    public void reverseIndexFollowsMembershipAcrossRestart() {
+        gm.createGroup("ri1", "owner");
+        gm.createGroup("ri2", "other");
+        gm.sendGroupInvite("other", "owner", "ri2");
+        assertEquals(List.of("ri1"), gm.getUserGroups("owner"));
+        gm.acceptGroupInvite("owner", "ri2");
+        assertEquals(2, gm.getUserGroups("owner").size());
+        gm.compact();
+        gm.close();
+
+        GroupManager reloaded = new GroupManager(tempDir.toString());
+        List<String> groups = reloaded.getUserGroups("owner");
+        assertEquals(2, groups.size());
+        assertTrue(groups.containsAll(List.of("ri1", "ri2")));
+        assertEquals(List.of("ri2"), reloaded.getUserGroups("other"));
+        assertTrue(reloaded.getUserGroups("nobody").isEmpty());
+        reloaded.close();
+    }
+
+    @Test
+    public void concurrentInvitesAcrossGroupsLoseNoMembers() throws Exception {
+        int groupCount = 8;
+        int userCount = 48;
+        int threadCount = 8;
+        for (int g = 0; g < groupCount; g++) {
+            assertTrue(gm.createGroup("sg" + g, "owner" + g));
+        }
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threadCount);
+        java.util.concurrent.atomic.AtomicInteger failures = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicBoolean running = new java.util.concurrent.atomic.AtomicBoolean(true);
+        Thread compactor = new Thread(() -> {
+            while (running.get()) {
+                gm.compact();
+            }
+        });
+        compactor.start();
+        try {
+            // 每个线程负责一部分用户，邀请他们加入所有群组：同一群组的成员列表、同一用户的邀请列表都被多个线程同时修改
+            List<java.util.concurrent.Future<?>> futures = new java.util.ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                int slice = t;
+                futures.add(pool.submit(() -> {
+                    for (int g = 0; g < groupCount; g++) {
+                        for (int i = slice; i < userCount; i += threadCount) {
+                            String groupId = "sg" + (g + i) % groupCount;
+                            boolean ok = gm.sendGroupInvite("owner", "sm" + i, groupId);
+                            ok &= gm.acceptGroupInvite("sm" + i, groupId);
+                            if (!ok) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (java.util.concurrent.Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            running.set(false);
+            compactor.join();
+            pool.shutdown();
+        }
+        assertEquals(0, failures.get());
+        assertAllJoined(gm, groupCount, userCount);
+        gm.close();
+
+        GroupManager reloaded = new GroupManager(tempDir.toString());
+        assertAllJoined(reloaded, groupCount, userCount);
+        reloaded.close();
+    }
+
+    private static void assertAllJoined(GroupManager manager, int groupCount, int userCount) {
+        for (int g = 0; g < groupCount; g++) {
+            List<String> members = manager.getGroupMembers("sg" + g);
+            assertEquals(userCount + 1, members.size(), "sg" + g);
+            assertEquals(userCount + 1, new java.util.HashSet<>(members).size(), "sg" + g); // 没有重复成员
+        }
+        for (int i = 0; i < userCount; i++) {
+            assertEquals(groupCount, manager.getUserGroups("sm" + i).size(), "sm" + i);
+            assertTrue(manager.getPendingGroupInvites("sm" + i).isEmpty(), "sm" + i);
+        }
+    }
 }
@@ -0,0 +1,166 @@
+package com.simpleqq.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.simpleqq.common.MemberPage;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+/**
+ * GROUP_MEMBERS_REQUEST分页查询测试类
+ * 群组team按入群先后为alice、m1...m6，其中alice、m2、m4在线
+ */
+public class GroupMembersPageTest {
+
+    private Path tempDir;
+    private Server server;
+    private List<Message> received;
+    private ClientHandler alice;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("groupmemberspagetest");
+        server = new Server(tempDir.toString());
+        UserManager users = server.getUserManager();
+        GroupManager groups = server.getGroupManager();
+        users.registerUser("alice", "ALICE", "pwd");
+        assertTrue(server.createGroup("team", "alice"));
+        for (int i = 1; i <= 6; i++) {
+            join("m" + i);
+        }
+        received = Collections.synchronizedList(new ArrayList<>());
+        alice = handler(received);
+        alice.handleMessage(new Message(MessageType.LOGIN, "alice", "Server", "alice,pwd"));
+        server.addOnlineClient("m2", handler(new ArrayList<>()));
+        server.addOnlineClient("m4", handler(new ArrayList<>()));
+        assertEquals(7, groups.getMembershipVersion("team"));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void join(String userId) {
+        server.getUserManager().registerUser(userId, userId.toUpperCase(), "pwd");
+        assertTrue(server.getGroupManager().sendGroupInvite("alice", userId, "team"));
+        assertTrue(server.getGroupManager().acceptGroupInvite(userId, "team"));
+    }
+
+    private ClientHandler handler(List<Message> messages) {
+        return new ClientHandler(server, new ClientConnection() {
+            @Override
+            public void send(OutboundFrame frame) {
+                messages.add(frame.getMessage());
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    /**
+     * 以alice的身份查询一页成员
+     */
+    private MemberPage request(long cursor, int limit, boolean onlineOnly) throws Exception {
+        received.clear();
+        alice.handleMessage(new Message(MessageType.GROUP_MEMBERS_REQUEST, "alice", "team",
+            MemberPage.formatRequest(cursor, limit, onlineOnly)));
+        assertEquals(1, received.size());
+        Message response = received.get(0);
+        assertEquals(MessageType.GROUP_MEMBERS_RESPONSE, response.getType());
+        assertEquals("team", response.getSenderId());
+        return MemberPage.decode(response.getContent());
+    }
+
+    private static List<String> ids(MemberPage page) {
+        return page.getMembers().stream().map(MemberPage.Member::id).toList();
+    }
+
+    @Test
+    public void pagesCoverAllMembersInJoinOrder() throws Exception {
+        MemberPage first = request(0, 3, false);
+        assertEquals(List.of("alice", "m1", "m2"), ids(first));
+        assertEquals(7, first.getVersion());
+        assertEquals(3, first.getNextCursor());
+        assertTrue(first.hasMore());
+        assertEquals(new MemberPage.Member("m2", "M2", true), first.getMembers().get(2));
+        assertFalse(first.getMembers().get(1).online());
+
+        MemberPage second = request(first.getNextCursor(), 3, false);
+        assertEquals(List.of("m3", "m4", "m5"), ids(second));
+        MemberPage last = request(second.getNextCursor(), 3, false);
+        assertEquals(List.of("m6"), ids(last));
+        assertEquals(7, last.getNextCursor());
+        assertFalse(last.hasMore());
+    }
+
+    @Test
+    public void onlineFilterSkipsOfflineMembersButAdvancesCursor() throws Exception {
+        MemberPage first = request(0, 2, true);
+        assertEquals(List.of("alice", "m2"), ids(first));
+        assertEquals(3, first.getNextCursor());
+        assertTrue(first.isOnlineOnly());
+
+        MemberPage rest = request(first.getNextCursor(), 2, true);
+        assertEquals(List.of("m4"), ids(rest));
+        assertEquals(7, rest.getNextCursor());
+        assertFalse(rest.hasMore());
+    }
+
+    @Test
+    public void heldVersionReturnsOnlyNewMembers() throws Exception {
+        MemberPage full = request(0, MemberPage.DEFAULT_PAGE_SIZE, false);
+        assertEquals(7, full.getMembers().size());
+        assertTrue(request(full.getVersion(), MemberPage.DEFAULT_PAGE_SIZE, false).getMembers().isEmpty());
+
+        join("m7");
+        join("m8");
+        MemberPage delta = request(full.getVersion(), MemberPage.DEFAULT_PAGE_SIZE, false);
+        assertEquals(List.of("m7", "m8"), ids(delta));
+        assertEquals(7, delta.getCursor());
+        assertEquals(9, delta.getVersion());
+    }
+
+    @Test
+    public void cursorAheadOfServerRestartsFromBeginning() throws Exception {
+        MemberPage page = request(42, 3, false);
+        assertEquals(0, page.getCursor());
+        assertEquals(List.of("alice", "m1", "m2"), ids(page));
+    }
+
+    @Test
+    public void nonMembersAndMalformedRequestsAreRejected() throws Exception {
+        server.getUserManager().registerUser("eve", "EVE", "pwd");
+        List<Message> eveMessages = new ArrayList<>();
+        ClientHandler eve = handler(eveMessages);
+        eve.handleMessage(new Message(MessageType.LOGIN, "eve", "Server", "eve,pwd"));
+        eveMessages.clear();
+        eve.handleMessage(new Message(MessageType.GROUP_MEMBERS_REQUEST, "eve", "team", "0,10,all"));
+        eve.handleMessage(new Message(MessageType.GROUP_MEMBERS_REQUEST, "eve", "nope", "0,10,all"));
+        assertEquals(2, eveMessages.size());
+        for (Message message : eveMessages) {
+            assertEquals(MessageType.SERVER_MESSAGE, message.getType());
+        }
+
+        received.clear();
+        alice.handleMessage(new Message(MessageType.GROUP_MEMBERS_REQUEST, "alice", "team", "zero"));
+        assertEquals(1, received.size());
+        assertEquals(MessageType.SERVER_MESSAGE, received.get(0).getType());
+    }
+}
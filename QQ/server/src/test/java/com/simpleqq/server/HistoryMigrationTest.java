@@ -0,0 +1,130 @@
+package com.simpleqq.server;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.HistoryPage;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HistoryMigration测试类
+ * 验证旧版文本聊天记录转换为分段存储，以及迁移后写入线程的序号衔接
+ */
+public class HistoryMigrationTest {
+
+    private Path tempDir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("migrationtest");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void writeText(String fileName, String... lines) throws Exception {
+        // 与旧版服务器的FileWriter一致，无法编码的字符被替换
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(tempDir.resolve(fileName)),
+                Charset.defaultCharset())) {
+            for (String line : lines) {
+                writer.write(line + System.lineSeparator());
+            }
+        }
+    }
+
+    @Test
+    public void parsesLinesContinuationsAndImages() throws Exception {
+        writeText("chat_history_alice_bob.txt",
+            "2024-01-01 14:30:25 [alice] to [bob]: hello",
+            "second line",
+            "2024-01-01 14:30:26 [bob] to [alice]: [图片: cat.png]");
+        List<Message> messages = HistoryMigration.parse(tempDir.resolve("chat_history_alice_bob.txt"));
+        assertEquals(2, messages.size());
+        assertEquals(MessageType.TEXT_MESSAGE, messages.get(0).getType());
+        assertEquals("hello\nsecond line", messages.get(0).getContent());
+        assertEquals(1000L, messages.get(1).getTimestamp() - messages.get(0).getTimestamp());
+        if (Charset.defaultCharset().newEncoder().canEncode("图片")) {
+            assertEquals(MessageType.IMAGE_MESSAGE, messages.get(1).getType());
+            assertEquals("cat.png", messages.get(1).getContent());
+        }
+    }
+
+    @Test
+    public void migratedHistoryIsServedAndNewMessagesFollowIt() throws Exception {
+        // 先写入一条日志记录，模拟文本文件与预写日志并存的旧版本目录
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            writer.append(new Message(MessageType.TEXT_MESSAGE, "alice", "bob", "m2")).get(5, TimeUnit.SECONDS);
+        }
+        Path conversations = tempDir.resolve(ChatHistoryWriter.CONVERSATIONS_DIR);
+        try (Stream<Path> walk = Files.walk(conversations)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        writeText("chat_history_alice_bob.txt",
+            "2024-01-01 14:30:25 [alice] to [bob]: m0",
+            "2024-01-01 14:30:26 [bob] to [alice]: m1",
+            "2024-01-01 14:30:27 [alice] to [bob]: m2");
+        writeText("chat_history_group_g1.txt",
+            "2024-01-01 14:30:25 [alice] to [g1]: hi group");
+
+        assertEquals(4, HistoryMigration.migrate(tempDir));
+        assertFalse(Files.exists(tempDir.resolve("chat_history_alice_bob.txt")));
+        assertTrue(Files.exists(tempDir.resolve(HistoryMigration.MIGRATED_DIR).resolve("chat_history_alice_bob.txt")));
+        assertEquals(0, HistoryMigration.migrate(tempDir), "重复运行不会再次迁移");
+
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            long sequence = writer.append(new Message(MessageType.TEXT_MESSAGE, "bob", "alice", "m3"))
+                .get(5, TimeUnit.SECONDS);
+            assertTrue(sequence > 4, "新记录的序号排在迁移的记录之后");
+            HistoryPage page = writer.readHistory(false, "bob", "alice", 0, 10);
+            assertEquals(List.of("m0", "m1", "m2", "m3"),
+                page.getMessages().stream().map(Message::getContent).toList());
+            HistoryPage group = writer.readHistory(true, "alice", "g1", 0, 10);
+            assertEquals(MessageType.GROUP_MESSAGE, group.getMessages().get(0).getType());
+            assertEquals("hi group", group.getMessages().get(0).getContent());
+        }
+    }
+
+    @Test
+    public void collidingFileNamesAreSplitByConversation() throws Exception {
+        // 旧版("a_b","c")和("a","b_c")写进同一个文件
+        writeText("chat_history_a_b_c.txt",
+            "2024-01-01 14:30:25 [a_b] to [c]: first",
+            "2024-01-01 14:30:26 [a] to [b_c]: second");
+
+        assertEquals(2, HistoryMigration.migrate(tempDir));
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            assertEquals(List.of("first"), writer.readHistory(false, "c", "a_b", 0, 10).getMessages().stream()
+                .map(Message::getContent).toList());
+            assertEquals(List.of("second"), writer.readHistory(false, "a", "b_c", 0, 10).getMessages().stream()
+                .map(Message::getContent).toList());
+        }
+    }
+
+    @Test
+    public void conversationsWithSegmentedHistoryAreSkipped() throws Exception {
+        try (ChatHistoryWriter writer = new ChatHistoryWriter(tempDir, FsyncPolicy.always())) {
+            writer.append(new Message(MessageType.TEXT_MESSAGE, "alice", "bob", "new")).get(5, TimeUnit.SECONDS);
+        }
+        writeText("chat_history_alice_bob.txt", "2024-01-01 14:30:25 [alice] to [bob]: old");
+        assertEquals(0, HistoryMigration.migrate(tempDir));
+        assertTrue(Files.exists(tempDir.resolve("chat_history_alice_bob.txt")));
+    }
+}
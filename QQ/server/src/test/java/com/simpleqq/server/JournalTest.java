@@ -0,0 +1,126 @@
+package com.simpleqq.server;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Journal测试类
+ * 验证记录校验、残缺尾部截断、日志轮转和后台压缩触发
+ */
+public class JournalTest {
+
+    private Path tempDir;
+    private Path file;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("journaltest");
+        file = tempDir.resolve("test.journal");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private List<String> replay(Journal journal) throws Exception {
+        List<String> records = new ArrayList<>();
+        journal.open(fields -> records.add(String.join(",", fields)));
+        return records;
+    }
+
+    @Test
+    public void appendedRecordsAreReplayed() throws Exception {
+        try (Journal journal = new Journal(file, 100)) {
+            assertTrue(replay(journal).isEmpty());
+            journal.append("REGISTER", "u1", "张三", "");
+            journal.append("REQUEST", "u1", "u2");
+            assertEquals(2, journal.getRecordCount());
+        }
+        try (Journal journal = new Journal(file, 100)) {
+            assertEquals(List.of("REGISTER,u1,张三,", "REQUEST,u1,u2"), replay(journal));
+            assertEquals(2, journal.getRecordCount());
+        }
+    }
+
+    @Test
+    public void tornAndCorruptTailIsDiscarded() throws Exception {
+        try (Journal journal = new Journal(file, 100)) {
+            replay(journal);
+            journal.append("A", "1");
+        }
+        long intact = Files.size(file);
+        Files.write(file, Journal.encode("B", "2").replace('2', '3').getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+        Files.write(file, "0000".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (Journal journal = new Journal(file, 100)) {
+            assertEquals(List.of("A,1"), replay(journal));
+            assertEquals(intact, Files.size(file));
+            journal.append("C", "4");
+        }
+        try (Journal journal = new Journal(file, 100)) {
+            assertEquals(List.of("A,1", "C,4"), replay(journal));
+        }
+    }
+
+    @Test
+    public void rotatedRecordsSurviveUntilDiscarded() throws Exception {
+        try (Journal journal = new Journal(file, 100)) {
+            replay(journal);
+            journal.append("A", "1");
+            journal.rotate();
+            journal.append("B", "2");
+            assertEquals(1, journal.getRecordCount());
+        }
+        // 快照写出前崩溃：旧日志和新日志都要重放
+        try (Journal journal = new Journal(file, 100)) {
+            assertEquals(List.of("A,1", "B,2"), replay(journal));
+            journal.rotate();
+            journal.discardRotated();
+        }
+        try (Journal journal = new Journal(file, 100)) {
+            assertTrue(replay(journal).isEmpty());
+        }
+    }
+
+    @Test
+    public void compactionRunsInBackgroundOnceThresholdReached() throws Exception {
+        try (Journal journal = new Journal(file, 2)) {
+            replay(journal);
+            CountDownLatch compacted = new CountDownLatch(1);
+            journal.append("A", "1");
+            journal.compactIfNeeded(compacted::countDown);
+            assertEquals(1, compacted.getCount());
+            journal.append("A", "2");
+            journal.compactIfNeeded(compacted::countDown);
+            assertTrue(compacted.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void rejectsFieldsWithSeparators() throws Exception {
+        try (Journal journal = new Journal(file, 100)) {
+            replay(journal);
+            assertThrows(IllegalArgumentException.class, () -> journal.append("A", "x|y"));
+            assertThrows(IllegalArgumentException.class, () -> journal.append("A", "x\ny"));
+            assertEquals(0, journal.getRecordCount());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MappedHistoryReader测试类
+ * 验证跨段读取最后N条（有无索引文件）、末尾的段只在换段时重新映射、忽略未写完的记录，以及只校验返回的记录
+ */
+public class MappedHistoryReaderTest {
+
+    private Path tempDir;
+    private SegmentedHistoryStore store;
+    private MappedHistoryReader reader;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("mappedtest");
+        store = new SegmentedHistoryStore(tempDir, 4096);
+        reader = new MappedHistoryReader(2); // 映射数少于段数，覆盖映射淘汰
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        store.close();
+        reader.clear();
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void fill(int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            Message message = new Message(MessageType.TEXT_MESSAGE, "a", "b", "m" + i);
+            message.setTimestamp(1000L * i);
+            store.append("a_b", i + 1, message);
+        }
+    }
+
+    private static List<String> contents(List<Message> messages) {
+        List<String> contents = new ArrayList<>();
+        for (Message message : messages) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    private static List<String> expected(int from, int to) {
+        List<String> contents = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            contents.add("m" + i);
+        }
+        return contents;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir.resolve("a_b"))) {
+            return files.filter(path -> path.toString().endsWith(SegmentedHistoryStore.SEGMENT_SUFFIX)).sorted().toList();
+        }
+    }
+
+    @Test
+    public void readsLastRecordsAcrossSegments() throws Exception {
+        fill(0, 1000);
+        assertTrue(segments().size() > 3);
+        Path dir = tempDir.resolve("a_b");
+        assertEquals(expected(950, 1000), contents(reader.readLast(dir, 50)));
+        assertEquals(expected(0, 1000), contents(reader.readLast(dir, 5000)));
+        assertTrue(reader.readLast(dir, 0).isEmpty());
+        assertTrue(reader.readLast(tempDir.resolve("nobody"), 10).isEmpty());
+
+        // 没有索引文件时整段遍历
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path index : files.filter(path -> path.toString().endsWith(SegmentedHistoryStore.INDEX_SUFFIX)).toList()) {
+                Files.delete(index);
+            }
+        }
+        assertEquals(expected(900, 1000), contents(reader.readLast(dir, 100)));
+    }
+
+    @Test
+    public void remapsGrowingTailAndIgnoresPartialRecord() throws Exception {
+        Path dir = tempDir.resolve("a_b");
+        fill(0, 3);
+        assertEquals(expected(0, 3), contents(reader.readLast(dir, 10)));
+        fill(3, 5);
+        assertEquals(expected(0, 5), contents(reader.readLast(dir, 10)));
+
+        List<Path> segments = segments();
+        Files.write(segments.get(segments.size() - 1), "\0\0\0\40partial".getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+        assertEquals(expected(2, 5), contents(reader.readLast(dir, 3)));
+    }
+
+    @Test
+    public void tailIsMappedOnceUntilRollover() throws Exception {
+        reader = new MappedHistoryReader();
+        Path dir = tempDir.resolve("a_b");
+        fill(0, 1);
+        assertEquals(expected(0, 1), contents(reader.readLast(dir, 10)));
+        for (int i = 1; i < 10; i++) {
+            fill(i, i + 1);
+            assertEquals(expected(0, i + 1), contents(reader.readLast(dir, 100)));
+        }
+        assertEquals(1, segments().size());
+        assertEquals(1, reader.getMapCount());
+
+        // 换段后只映射新的段，已有映射继续使用
+        int count = 10;
+        while (segments().size() < 2) {
+            fill(count, count + 1);
+            count++;
+        }
+        assertEquals(expected(0, count), contents(reader.readLast(dir, 1000)));
+        assertEquals(2, reader.getMapCount());
+    }
+
+    @Test
+    public void onlyReturnedRecordsAreVerified() throws Exception {
+        fill(0, 200);
+        store.close();
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // 破坏第一个段中第一条记录的负载，该段不是末尾的段，打开时不会被扫描
+            channel.write(ByteBuffer.wrap(new byte[] {0x7f}), SegmentedHistoryStore.RECORD_HEADER_LENGTH + 2);
+        }
+
+        store = new SegmentedHistoryStore(tempDir, 4096);
+        assertEquals(expected(1, 200), contents(store.readBefore("a_b", 0, 199).getMessages()));
+        assertEquals(expected(1, 200), contents(reader.readLast(tempDir.resolve("a_b"), 199)));
+        assertThrows(IOException.class, () -> store.readBefore("a_b", 0, 200));
+        assertThrows(IOException.class, () -> reader.readLast(tempDir.resolve("a_b"), 200));
+    }
+}
@@ -0,0 +1,116 @@
+package com.simpleqq.server;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.LatencyHistogram;
+import com.simpleqq.common.MessageType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MetricsRegistry和MetricsEndpoint测试类
+ * 验证Prometheus文本格式的输出，以及服务器处理消息后通过HTTP端点读取到的指标
+ */
+public class MetricsEndpointTest {
+
+    private Server server;
+    private Path tempDir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("metricstest");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void registryWritesPrometheusText() {
+        MetricsRegistry registry = new MetricsRegistry();
+        LongAdder login = registry.counter("requests_total", "type=\"LOGIN\"", "Requests.");
+        registry.counter("requests_total", "type=\"TEXT\"", "Requests.").add(2);
+        login.increment();
+        registry.gauge("online", "", "Online users.", () -> 7);
+        LatencyHistogram latency = registry.histogram("latency_seconds", "", "Latency.", MetricsRegistry.NANOS_TO_SECONDS);
+        latency.record(2_000_000_000L);
+
+        String text = registry.scrape();
+        assertTrue(text.contains("# HELP requests_total Requests.\n# TYPE requests_total counter\n"
+            + "requests_total{type=\"LOGIN\"} 1\nrequests_total{type=\"TEXT\"} 2\n"), text);
+        assertTrue(text.contains("# TYPE online gauge\nonline 7\n"), text);
+        assertTrue(text.contains("# TYPE latency_seconds summary\n"), text);
+        assertTrue(text.contains("latency_seconds{quantile=\"0.5\"} 2.0\n"), text);
+        assertTrue(text.contains("latency_seconds_sum 2.0\nlatency_seconds_count 1\n"), text);
+
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("requests_total", "type=\"LOGIN\"", "x"));
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("requests_total", "", "x", () -> 0));
+    }
+
+    @Test
+    public void endpointServesServerMetrics() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setMetricsPort(0);
+        server = new Server(tempDir.toString(), config);
+        int port = server.bind().getLocalPort();
+        try (TestClient alice = new TestClient("alice", port); TestClient bob = new TestClient("bob", port)) {
+            alice.registerAndLogin();
+            bob.registerAndLogin();
+            server.getUserManager().sendFriendRequest("alice", "bob");
+            server.getUserManager().acceptFriendRequest("bob", "alice");
+            alice.send(MessageType.TEXT_MESSAGE, "bob", "hi");
+            bob.await(MessageType.TEXT_MESSAGE);
+
+            // 聊天记录异步持久化
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            String text = scrape();
+            while (!text.contains("simpleqq_history_persist_seconds_count 1") && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                text = scrape();
+            }
+            assertTrue(text.contains("simpleqq_messages_received_total{type=\"LOGIN\"} 2\n"), text);
+            assertTrue(text.contains("simpleqq_messages_received_total{type=\"TEXT_MESSAGE\"} 1\n"), text);
+            assertTrue(text.contains("simpleqq_messages_delivered_total 1\n"), text);
+            assertTrue(text.contains("simpleqq_online_users 2\n"), text);
+            assertTrue(text.contains("simpleqq_history_persist_seconds_count 1\n"), text);
+            assertTrue(text.contains("simpleqq_journal_append_seconds_count{journal=\"users\"} "), text);
+        }
+
+        HttpURLConnection post = (HttpURLConnection) url().openConnection();
+        post.setRequestMethod("POST");
+        assertEquals(405, post.getResponseCode());
+    }
+
+    private URL url() throws Exception {
+        return new URL("http://127.0.0.1:" + server.getMetricsEndpoint().getPort() + MetricsEndpoint.PATH);
+    }
+
+    private String scrape() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url().openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        try (InputStream in = connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
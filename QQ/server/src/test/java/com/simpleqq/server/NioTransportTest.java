@@ -0,0 +1,140 @@
+package com.simpleqq.server;
+
+import java.io.DataInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+/**
+ * NioTransport测试类
+ * 在回环地址上启动NIO模式的服务器，用大量并发连接验证分帧、分发和转发逻辑
+ */
+public class NioTransportTest {
+
+    private Server server;
+    private java.nio.file.Path tempDir;
+    private int port;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = java.nio.file.Files.createTempDirectory("niotest");
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransportMode(TransportMode.NIO);
+        config.setIoThreads(2);
+        server = new Server(tempDir.toString(), config);
+        port = server.bind().getLocalPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.stop();
+        try (java.util.stream.Stream<java.nio.file.Path> walk = java.nio.file.Files.walk(tempDir)) {
+            walk.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void loginAndPrivateMessageOverNio() throws Exception {
+        try (TestClient alice = new TestClient("alice", port);
+             TestClient bob = new TestClient("bob", port)) {
+            alice.registerAndLogin();
+            bob.registerAndLogin();
+
+            alice.send(MessageType.FRIEND_REQUEST, "bob", "");
+            bob.await(MessageType.FRIEND_REQUEST);
+            bob.send(MessageType.FRIEND_ACCEPT, "alice", "");
+            alice.await(MessageType.FRIEND_ACCEPT);
+
+            alice.send(MessageType.TEXT_MESSAGE, "bob", "hello over nio");
+            Message received = bob.await(MessageType.TEXT_MESSAGE);
+            assertEquals("alice", received.getSenderId());
+            assertEquals("hello over nio", received.getContent());
+            assertTrue(server.isUserOnline("alice"));
+        }
+    }
+
+    @Test
+    public void manyConcurrentConnectionsShareFewThreads() throws Exception {
+        int clients = 200;
+        List<TestClient> connected = new ArrayList<>();
+        try {
+            for (int i = 0; i < clients; i++) {
+                TestClient client = new TestClient("load" + i, port);
+                connected.add(client);
+                client.registerAndLogin();
+            }
+            assertEquals(clients, server.getOnlineClients().size());
+
+            // 相邻两个用户结为好友并互发消息
+            for (int i = 0; i < clients; i += 2) {
+                TestClient a = connected.get(i);
+                TestClient b = connected.get(i + 1);
+                a.send(MessageType.FRIEND_REQUEST, b.getUserId(), "");
+                b.await(MessageType.FRIEND_REQUEST);
+                b.send(MessageType.FRIEND_ACCEPT, a.getUserId(), "");
+                a.await(MessageType.FRIEND_ACCEPT);
+            }
+            for (int i = 0; i < clients; i += 2) {
+                connected.get(i).send(MessageType.TEXT_MESSAGE, connected.get(i + 1).getUserId(), "ping " + i);
+            }
+            for (int i = 0; i < clients; i += 2) {
+                Message message = connected.get(i + 1).await(MessageType.TEXT_MESSAGE);
+                assertEquals("ping " + i, message.getContent());
+            }
+        } finally {
+            for (TestClient client : connected) {
+                client.close();
+            }
+        }
+
+        // 客户端断开后服务器应清理在线列表
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!server.getOnlineClients().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(server.getOnlineClients().isEmpty());
+    }
+
+    @Test
+    public void pipelinedMessagesAreHandledInOrder() throws Exception {
+        // 远多于暂停读取阈值的消息一次性写出，工作线程串行处理后按发送顺序到达
+        int count = 2000;
+        try (TestClient alice = new TestClient("alice", port);
+             TestClient bob = new TestClient("bob", port)) {
+            alice.registerAndLogin();
+            bob.registerAndLogin();
+            alice.send(MessageType.FRIEND_REQUEST, "bob", "");
+            bob.await(MessageType.FRIEND_REQUEST);
+            bob.send(MessageType.FRIEND_ACCEPT, "alice", "");
+            alice.await(MessageType.FRIEND_ACCEPT);
+
+            for (int i = 0; i < count; i++) {
+                alice.send(MessageType.TEXT_MESSAGE, "bob", "seq " + i);
+            }
+            for (int i = 0; i < count; i++) {
+                assertEquals("seq " + i, bob.await(MessageType.TEXT_MESSAGE).getContent());
+            }
+        }
+    }
+
+    @Test
+    public void legacyObjectStreamClientIsRejected() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            new ObjectOutputStream(socket.getOutputStream()).flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertThrows(java.io.EOFException.class, in::readByte);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.simpleqq.server;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OfflineInbox测试类
+ * 使用记录型连接代替Socket，验证离线保存、分段、登录后按序分批投递、背压和崩溃恢复
+ */
+public class OfflineInboxTest {
+
+    private Path tempDir;
+    private final Map<String, ClientHandler> online = new ConcurrentHashMap<>();
+    private final Map<String, List<Message>> received = new ConcurrentHashMap<>();
+    private final AtomicInteger backlog = new AtomicInteger(); // 模拟连接发送队列的积压
+    private OfflineInbox inbox;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("offlinetest");
+        inbox = newInbox();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        inbox.shutdown();
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private OfflineInbox newInbox() {
+        return newInbox(FsyncPolicy.everyMillis(10));
+    }
+
+    private OfflineInbox newInbox(FsyncPolicy fsyncPolicy) {
+        return new OfflineInbox(tempDir.resolve(".offline"), online::get, 64, 64 * 1024, fsyncPolicy);
+    }
+
+    private void login(String userId) {
+        List<Message> messages = Collections.synchronizedList(new ArrayList<>());
+        received.put(userId, messages);
+        ClientConnection connection = new ClientConnection() {
+            @Override
+            public void send(OutboundFrame frame) {
+                messages.add(frame.getMessage());
+            }
+
+            @Override
+            public int getQueuedCount() {
+                return backlog.get();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        online.put(userId, new ClientHandler(new Server(tempDir.toString()), connection));
+        inbox.startDelivery(userId);
+    }
+
+    private static OutboundFrame text(String content) {
+        return OutboundFrame.of(new Message(MessageType.TEXT_MESSAGE, "sender", "bob", content));
+    }
+
+    private void awaitReceived(String userId, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received.get(userId).size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, received.get(userId).size());
+    }
+
+    private void assertInOrder(List<Message> messages, int count) {
+        for (int i = 0; i < count; i++) {
+            assertEquals("m" + i, messages.get(i).getContent());
+        }
+    }
+
+    @Test
+    public void onlineUserWithoutBacklogIsServedDirectly() throws Exception {
+        login("bob");
+        assertTrue(inbox.deliver("bob", text("m0")));
+        assertEquals(1, received.get("bob").size());
+        assertFalse(Files.exists(tempDir.resolve(".offline").resolve("bob")));
+    }
+
+    @Test
+    public void largeBacklogIsDeliveredInOrderAcrossSegments() throws Exception {
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            assertFalse(inbox.deliver("bob", text("m" + i)));
+        }
+        Path dir = tempDir.resolve(".offline").resolve("bob");
+        try (Stream<Path> segments = Files.list(dir)) {
+            assertTrue(segments.count() > 2, "积压应分成多个段");
+        }
+        assertEquals(count, inbox.getPendingCount("bob"));
+
+        login("bob");
+        awaitReceived("bob", count);
+        assertInOrder(received.get("bob"), count);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (Files.exists(dir) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(Files.exists(dir), "投递完成后应删除收件箱目录");
+        assertEquals(0, inbox.getPendingCount("bob"));
+    }
+
+    @Test
+    public void deliveryPausesWhileConnectionIsBackedUpAndKeepsArrivalOrder() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            inbox.deliver("bob", text("m" + i));
+        }
+        backlog.set(1000); // 连接发送队列积压，投递应暂停
+        login("bob");
+        Thread.sleep(100);
+        assertTrue(received.get("bob").isEmpty());
+
+        // 投递期间到达的新消息排在积压之后
+        assertFalse(inbox.deliver("bob", text("m10")));
+        backlog.set(0);
+        awaitReceived("bob", 11);
+        assertInOrder(received.get("bob"), 11);
+
+        // 积压清空后恢复直接投递
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!inbox.deliver("bob", text("m" + received.get("bob").size())) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertInOrder(received.get("bob"), received.get("bob").size());
+    }
+
+    @Test
+    public void nonChatMessagesAreNotStored() throws Exception {
+        OutboundFrame notice = OutboundFrame.of(new Message(MessageType.SERVER_MESSAGE, "Server", "bob", "hi"));
+        assertFalse(inbox.deliver("bob", notice));
+        assertEquals(0, inbox.getPendingCount("bob"));
+    }
+
+    @Test
+    public void restartRecoversBacklogAndDropsTornTail() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            inbox.deliver("bob", text("m" + i));
+        }
+        inbox.deliver("carol", OutboundFrame.of(new Message(MessageType.GROUP_MESSAGE, "sender", "g1", "group")));
+        inbox.shutdown();
+        Path dir = tempDir.resolve(".offline").resolve("bob");
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(path -> path.toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+        // 模拟崩溃时只写了一半的记录
+        Files.write(segment, "\0\0\1\0partial".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        inbox = newInbox();
+        assertEquals(5, inbox.getPendingCount("bob"));
+        assertEquals(1, inbox.getPendingCount("carol"));
+        inbox.deliver("bob", text("m5"));
+        login("bob");
+        awaitReceived("bob", 6);
+        assertInOrder(received.get("bob"), 6);
+    }
+
+    @Test
+    public void partiallyDeliveredBacklogResumesFromCursor() throws Exception {
+        int count = OfflineInbox.DELIVERY_BATCH * 3;
+        for (int i = 0; i < count; i++) {
+            inbox.deliver("bob", text("m" + i));
+        }
+        login("bob");
+        awaitReceived("bob", count);
+        // 再次离线后积压的消息从新的游标开始
+        online.remove("bob");
+        for (int i = 0; i < 3; i++) {
+            inbox.deliver("bob", text("n" + i));
+        }
+        inbox.shutdown();
+        inbox = newInbox();
+        assertEquals(3, inbox.getPendingCount("bob"));
+        login("bob");
+        awaitReceived("bob", 3);
+        assertEquals("n0", received.get("bob").get(0).getContent());
+    }
+
+    @Test
+    public void openAppendersAreReusedAndBounded() throws Exception {
+        int users = OfflineInbox.MAX_OPEN_APPENDERS * 2;
+        for (int round = 0; round < 3; round++) {
+            for (int u = 0; u < users; u++) {
+                assertFalse(inbox.deliver("user" + u, text("m" + round)));
+            }
+            assertTrue(inbox.getOpenAppenderCount() <= OfflineInbox.MAX_OPEN_APPENDERS);
+        }
+        // 通道被回收后继续追加到同一段
+        assertEquals(3, inbox.getPendingCount("user0"));
+        login("user0");
+        awaitReceived("user0", 3);
+        assertInOrder(received.get("user0"), 3);
+    }
+
+    @Test
+    public void everyFsyncPolicyKeepsBacklogAcrossRestart() throws Exception {
+        for (FsyncPolicy policy : List.of(FsyncPolicy.always(), FsyncPolicy.everyRecords(3), FsyncPolicy.never())) {
+            inbox.shutdown();
+            inbox = newInbox(policy);
+            for (int i = 0; i < 5; i++) {
+                inbox.deliver("bob", text("m" + i));
+            }
+            inbox.shutdown();
+            inbox = newInbox(policy);
+            assertEquals(5, inbox.getPendingCount("bob"), policy.toString());
+            login("bob");
+            awaitReceived("bob", 5);
+            assertInOrder(received.get("bob"), 5);
+            online.remove("bob");
+        }
+    }
+
+    @Test
+    public void directoryNamesCannotEscapeInboxRoot() {
+        assertEquals("%2E%2E", PathNames.encode(".."));
+        assertEquals("a%2Fb", PathNames.encode("a/b"));
+        assertEquals("a%3Ab", PathNames.encode("a:b"));
+        assertEquals("../x", PathNames.decode(PathNames.encode("../x")));
+    }
+}
@@ -0,0 +1,106 @@
+package com.simpleqq.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OutboundQueue测试类
+ * 验证水位线和三种慢消费者策略
+ */
+public class OutboundQueueTest {
+
+    private static OutboundFrame msg(int i) {
+        return OutboundFrame.of(new Message(MessageType.TEXT_MESSAGE, "a", "b", "m" + i));
+    }
+
+    private static List<String> drain(OutboundQueue queue) throws Exception {
+        List<String> contents = new ArrayList<>();
+        List<OutboundFrame> batch;
+        while (!(batch = queue.poll(3)).isEmpty()) {
+            for (OutboundFrame frame : batch) {
+                contents.add(frame.getMessage().getContent());
+            }
+        }
+        return contents;
+    }
+
+    @Test
+    public void rejectsInvalidWatermarks() {
+        assertThrows(IllegalArgumentException.class, () -> new OutboundQueue(0, 0, SlowConsumerPolicy.DROP));
+        assertThrows(IllegalArgumentException.class, () -> new OutboundQueue(4, 4, SlowConsumerPolicy.DROP));
+        assertThrows(IllegalArgumentException.class, () -> new OutboundQueue(4, -1, SlowConsumerPolicy.DROP));
+    }
+
+    @Test
+    public void pollReturnsBatchesInOrder() throws Exception {
+        OutboundQueue queue = new OutboundQueue(100, 10, SlowConsumerPolicy.DISCONNECT);
+        for (int i = 0; i < 7; i++) {
+            assertEquals(OutboundQueue.OfferResult.QUEUED, queue.offer(msg(i)));
+        }
+        assertEquals(3, queue.poll(3).size());
+        assertEquals(4, queue.size());
+        assertEquals(List.of("m3", "m4", "m5", "m6"), drain(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void disconnectPolicyReportsOverflowAtHighWatermark() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4, 1, SlowConsumerPolicy.DISCONNECT);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(OutboundQueue.OfferResult.QUEUED, queue.offer(msg(i)));
+        }
+        assertEquals(OutboundQueue.OfferResult.OVERFLOW, queue.offer(msg(4)));
+        assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void dropPolicyDropsUntilLowWatermark() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4, 1, SlowConsumerPolicy.DROP);
+        for (int i = 0; i < 4; i++) {
+            queue.offer(msg(i));
+        }
+        assertEquals(OutboundQueue.OfferResult.DROPPED, queue.offer(msg(4)));
+        queue.poll(1);
+        // 回落到低水位之前继续丢弃
+        assertEquals(OutboundQueue.OfferResult.DROPPED, queue.offer(msg(5)));
+        queue.poll(2);
+        assertEquals(OutboundQueue.OfferResult.QUEUED, queue.offer(msg(6)));
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(List.of("m3", "m6"), drain(queue));
+    }
+
+    @Test
+    public void spillPolicyPreservesOrderThroughSpillFile() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4, 1, SlowConsumerPolicy.SPILL);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            OutboundQueue.OfferResult result = queue.offer(msg(i));
+            assertEquals(i < 4 ? OutboundQueue.OfferResult.QUEUED : OutboundQueue.OfferResult.SPILLED, result);
+            expected.add("m" + i);
+        }
+        assertEquals(20, queue.size());
+
+        List<String> received = new ArrayList<>();
+        for (OutboundFrame frame : queue.poll(3)) {
+            received.add(frame.getMessage().getContent());
+        }
+        // 溢写文件未清空前，新消息继续排在文件尾部
+        assertEquals(OutboundQueue.OfferResult.SPILLED, queue.offer(msg(20)));
+        expected.add("m20");
+        received.addAll(drain(queue));
+        assertEquals(expected, received);
+        assertEquals(0, queue.getDroppedCount());
+
+        // 溢写文件读空后恢复使用内存队列
+        assertEquals(OutboundQueue.OfferResult.QUEUED, queue.offer(msg(21)));
+        queue.close();
+        assertEquals(OutboundQueue.OfferResult.DROPPED, queue.offer(msg(22)));
+    }
+}
@@ -0,0 +1,121 @@
+package com.simpleqq.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * PresenceAggregator测试类
+ * 用记录消息的连接代替真实客户端，直接调用flush()结束窗口，不依赖定时器
+ */
+public class PresenceAggregatorTest {
+
+    private Path tempDir;
+    private Server server;
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.getPresence().shutdown();
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void startServer(long windowMillis) throws Exception {
+        tempDir = Files.createTempDirectory("presencetest");
+        ServerConfig config = new ServerConfig();
+        config.setPresenceWindowMillis(windowMillis);
+        server = new Server(tempDir.toString(), config);
+        UserManager users = server.getUserManager();
+        for (String id : new String[] {"alice", "bob", "carol", "dave"}) {
+            users.registerUser(id, id, "pwd");
+            if (!id.equals("alice")) {
+                users.sendFriendRequest(id, "alice");
+                users.acceptFriendRequest("alice", id);
+            }
+        }
+        server.getPresence().start();
+    }
+
+    /**
+     * 模拟用户登录，返回该用户收到的消息列表
+     */
+    private List<Message> login(String userId) {
+        List<Message> messages = Collections.synchronizedList(new ArrayList<>());
+        ClientConnection connection = new ClientConnection() {
+            @Override
+            public void send(OutboundFrame frame) {
+                messages.add(frame.getMessage());
+            }
+
+            @Override
+            public int getProtocolVersion() {
+                return WireProtocol.VERSION_BINARY;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        server.addOnlineClient(userId, new ClientHandler(server, connection));
+        return messages;
+    }
+
+    private void logout(String userId) {
+        server.removeClient(userId);
+        server.getPresence().publish(userId, false);
+    }
+
+    @Test
+    public void changesWithinWindowAreBatchedPerRecipient() throws Exception {
+        startServer(60_000); // 窗口足够长，只由测试调用flush()
+        List<Message> alice = login("alice");
+        for (String id : new String[] {"bob", "carol", "dave"}) {
+            login(id);
+            server.getPresence().publish(id, true);
+        }
+        logout("dave"); // 窗口内上线又下线，相互抵消
+        assertTrue(alice.isEmpty());
+
+        server.getPresence().flush();
+        assertEquals(1, alice.size());
+        assertEquals(MessageType.PRESENCE_UPDATE, alice.get(0).getType());
+        assertEquals("alice", alice.get(0).getReceiverId());
+        assertEquals("bob:online;carol:online", alice.get(0).getContent());
+
+        String metrics = server.getMetrics().getRegistry().scrape();
+        assertTrue(metrics.contains("simpleqq_presence_changes_total 4\n"), metrics);
+        assertTrue(metrics.contains("simpleqq_presence_changes_collapsed_total 2\n"), metrics);
+        assertTrue(metrics.contains("simpleqq_presence_notifications_total 1\n"), metrics);
+        assertTrue(metrics.contains("simpleqq_presence_notifications_saved_total 3\n"), metrics);
+
+        server.getPresence().flush(); // 空窗口不发送任何消息
+        assertEquals(1, alice.size());
+    }
+
+    @Test
+    public void zeroWindowNotifiesImmediately() throws Exception {
+        startServer(0);
+        List<Message> alice = login("alice");
+        login("bob");
+        server.getPresence().publish("bob", true);
+        assertEquals(1, alice.size());
+        assertEquals("bob:online", alice.get(0).getContent());
+        logout("bob");
+        assertEquals(2, alice.size());
+        assertEquals("bob:offline", alice.get(1).getContent());
+    }
+}
@@ -0,0 +1,189 @@
+package com.simpleqq.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+/**
+ * ResponseCache测试类
+ * 用记录消息的连接代替真实客户端，通过handleMessage发出请求；
+ * 命中缓存时两次请求收到同一个消息对象，失效后收到新生成的消息
+ */
+public class ResponseCacheTest {
+
+    private Path tempDir;
+    private Server server;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("responsecachetest");
+        server = new Server(tempDir.toString());
+        UserManager users = server.getUserManager();
+        for (String id : new String[] {"alice", "bob", "carol"}) {
+            users.registerUser(id, id.toUpperCase(), "pwd");
+        }
+        users.sendFriendRequest("bob", "alice");
+        users.acceptFriendRequest("alice", "bob");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * 模拟用户登录，返回该用户的处理器，收到的消息记录在messages中
+     */
+    private ClientHandler login(String userId, List<Message> messages) {
+        ClientHandler handler = new ClientHandler(server, new ClientConnection() {
+            @Override
+            public void send(OutboundFrame frame) {
+                messages.add(frame.getMessage());
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        server.addOnlineClient(userId, handler);
+        return handler;
+    }
+
+    /**
+     * 发出请求并返回收到的最后一条指定类型的消息
+     */
+    private Message request(ClientHandler handler, List<Message> messages, Message request) throws Exception {
+        handler.handleMessage(request);
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).getType() == request.getType()) {
+                return messages.get(i);
+            }
+        }
+        fail("No " + request.getType() + " response");
+        return null;
+    }
+
+    @Test
+    public void friendListIsReusedUntilPresenceOrFriendshipChanges() throws Exception {
+        List<Message> alice = Collections.synchronizedList(new ArrayList<>());
+        ClientHandler handler = login("alice", alice);
+        Message friendList = new Message(MessageType.FRIEND_LIST, "alice", "Server", "");
+
+        Message first = request(handler, alice, friendList);
+        assertEquals("bob:BOB:offline", first.getContent());
+        assertSame(first, request(handler, alice, friendList));
+
+        login("bob", new ArrayList<>()); // 好友上线
+        Message online = request(handler, alice, friendList);
+        assertNotSame(first, online);
+        assertEquals("bob:BOB:online", online.getContent());
+
+        login("carol", new ArrayList<>()); // 非好友上线不影响
+        assertSame(online, request(handler, alice, friendList));
+
+        server.getUserManager().sendFriendRequest("carol", "alice");
+        handler.handleMessage(new Message(MessageType.FRIEND_ACCEPT, "alice", "carol", ""));
+        Message accepted = request(handler, alice, friendList);
+        assertTrue(accepted.getContent().contains("carol:CAROL:online"), accepted.getContent());
+        assertTrue(accepted.getContent().contains("bob:BOB:online"), accepted.getContent());
+
+        handler.handleMessage(new Message(MessageType.DELETE_FRIEND, "alice", "bob", ""));
+        assertEquals("carol:CAROL:online", request(handler, alice, friendList).getContent());
+
+        String metrics = server.getMetrics().getRegistry().scrape();
+        assertTrue(metrics.contains("simpleqq_list_cache_hits_total{list=\"friends\"} 4\n"), metrics);
+    }
+
+    @Test
+    public void listsOfUsersWhoLogOutDuringLookupAreNotCached() throws Exception {
+        AtomicBoolean logoutDuringLookup = new AtomicBoolean();
+        Server racing = new Server(Files.createDirectories(tempDir.resolve("racing")).toString()) {
+            @Override
+            public boolean isUserOnline(String userId) {
+                boolean online = super.isUserOnline(userId);
+                if (online && "alice".equals(userId) && logoutDuringLookup.compareAndSet(true, false)) {
+                    removeClient(userId); // 判断在线之后、插入缓存之前下线，下线时的清除先于插入执行
+                }
+                return online;
+            }
+        };
+        racing.getUserManager().registerUser("alice", "ALICE", "pwd");
+        racing.addOnlineClient("alice", new ClientHandler(racing, new ClientConnection() {
+            @Override
+            public void send(OutboundFrame frame) {
+            }
+
+            @Override
+            public void close() {
+            }
+        }));
+
+        logoutDuringLookup.set(true);
+        OutboundFrame stale = racing.getResponses().friendList("alice");
+        assertFalse(racing.isUserOnline("alice"));
+        assertEquals(0, racing.getResponses().size(), "已下线用户的列表不应留在缓存中");
+
+        racing.addOnlineClient("alice", new ClientHandler(racing, new ClientConnection() {
+            @Override
+            public void send(OutboundFrame frame) {
+            }
+
+            @Override
+            public void close() {
+            }
+        }));
+        OutboundFrame fresh = racing.getResponses().friendList("alice");
+        assertNotSame(stale, fresh);
+        assertSame(fresh, racing.getResponses().friendList("alice"));
+        assertEquals(1, racing.getResponses().size());
+    }
+
+    @Test
+    public void memberListIsSharedByAllRequesters() throws Exception {
+        List<Message> alice = Collections.synchronizedList(new ArrayList<>());
+        List<Message> bob = Collections.synchronizedList(new ArrayList<>());
+        ClientHandler aliceHandler = login("alice", alice);
+        ClientHandler bobHandler = login("bob", bob);
+        assertTrue(server.createGroup("team", "alice"));
+        assertEquals("team", request(aliceHandler, alice, new Message(MessageType.GET_GROUPS, "alice", "Server", ""))
+            .getContent());
+        aliceHandler.handleMessage(new Message(MessageType.GROUP_INVITE, "alice", "bob", "team"));
+        Message groups = request(bobHandler, bob, new Message(MessageType.GET_GROUPS, "bob", "Server", ""));
+        assertEquals("", groups.getContent());
+
+        bobHandler.handleMessage(new Message(MessageType.GROUP_ACCEPT, "bob", "Server", "team"));
+        assertEquals("team", request(bobHandler, bob, new Message(MessageType.GET_GROUPS, "bob", "Server", ""))
+            .getContent());
+
+        Message members = request(aliceHandler, alice, new Message(MessageType.GET_GROUP_MEMBERS, "alice", "Server", "team"));
+        assertEquals("team", members.getSenderId());
+        assertEquals("alice:ALICE:online;bob:BOB:online", members.getContent());
+        assertSame(members, request(bobHandler, bob, new Message(MessageType.GET_GROUP_MEMBERS, "bob", "Server", "team")));
+
+        server.removeClient("bob"); // 成员下线
+        Message offline = request(aliceHandler, alice, new Message(MessageType.GET_GROUP_MEMBERS, "alice", "Server", "team"));
+        assertEquals("alice:ALICE:online;bob:BOB:offline", offline.getContent());
+
+        // 不存在的群组不进入缓存
+        Message missing = request(aliceHandler, alice, new Message(MessageType.GET_GROUP_MEMBERS, "alice", "Server", "nope"));
+        assertEquals("", missing.getContent());
+        assertNotSame(missing, request(aliceHandler, alice,
+            new Message(MessageType.GET_GROUP_MEMBERS, "alice", "Server", "nope")));
+    }
+}
@@ -0,0 +1,253 @@
+package com.simpleqq.server;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SegmentedHistoryStore测试类
+ * 验证分段、按序号和时间点查询、幂等追加、残缺尾部截断和索引恢复
+ */
+public class SegmentedHistoryStoreTest {
+
+    private Path tempDir;
+    private SegmentedHistoryStore store;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("segmentedtest");
+        store = newStore();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> walk = Files.walk(tempDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private SegmentedHistoryStore newStore() throws Exception {
+        return new SegmentedHistoryStore(tempDir, 4096); // 小段文件，便于覆盖跨段查询
+    }
+
+    private static Message message(int i) {
+        Message message = new Message(MessageType.TEXT_MESSAGE, "a", "b", "m" + i);
+        message.setTimestamp(1000L * i);
+        return message;
+    }
+
+    private void fill(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            assertTrue(store.append("a_b", 10 + i * 2L, message(i))); // 序号不连续，模拟多个会话共享日志序号
+        }
+    }
+
+    private static List<String> contents(SegmentedHistoryStore.Slice slice) {
+        List<String> contents = new ArrayList<>();
+        for (Message message : slice.getMessages()) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    private static List<String> expected(int from, int to) {
+        List<String> contents = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            contents.add("m" + i);
+        }
+        return contents;
+    }
+
+    private Path conversationDir() {
+        return tempDir.resolve("a_b");
+    }
+
+    @Test
+    public void pagesBackwardsAcrossSegmentsAndIndexIntervals() throws Exception {
+        int count = 1000;
+        fill(count);
+        try (Stream<Path> files = Files.list(conversationDir())) {
+            assertTrue(files.filter(path -> path.toString().endsWith(".seg")).count() > 3, "应分成多个段");
+        }
+
+        SegmentedHistoryStore.Slice latest = store.readBefore("a_b", 0, 50);
+        assertEquals(expected(950, 1000), contents(latest));
+        assertTrue(latest.hasMore());
+
+        // 一直向前翻页直到最早的记录
+        List<String> all = new ArrayList<>(contents(latest));
+        SegmentedHistoryStore.Slice page = latest;
+        while (page.hasMore()) {
+            page = store.readBefore("a_b", page.getSequence(0), 130);
+            all.addAll(0, contents(page));
+        }
+        assertEquals(expected(0, count), all);
+
+        // 不存在的序号落在两条记录之间
+        assertEquals(expected(495, 500), contents(store.readBefore("a_b", 10 + 500 * 2L - 1, 5)));
+        assertTrue(store.readBefore("a_b", 10, 5).getMessages().isEmpty());
+        assertTrue(store.readBefore("nobody", 0, 5).getMessages().isEmpty());
+    }
+
+    @Test
+    public void findsMessagesBeforeTimestamp() throws Exception {
+        fill(500);
+        assertEquals(10 + 300 * 2L, store.sequenceAt("a_b", 300_000L));
+        assertEquals(10 + 301 * 2L, store.sequenceAt("a_b", 300_001L));
+        assertEquals(10, store.sequenceAt("a_b", 0));
+        assertEquals(10 + 500 * 2L - 1, store.sequenceAt("a_b", Long.MAX_VALUE));
+        assertEquals(expected(297, 300), contents(store.readBeforeTime("a_b", 300_000L, 3)));
+    }
+
+    @Test
+    public void timestampsAreKeptMonotonic() throws Exception {
+        Message late = message(5);
+        Message early = message(1); // 发送方时钟回拨
+        store.append("a_b", 1, late);
+        store.append("a_b", 2, early);
+        store.append("a_b", 3, message(9));
+        assertEquals(1, store.sequenceAt("a_b", 5000L));
+        assertEquals(3, store.sequenceAt("a_b", 5001L));
+        assertEquals(List.of("m5", "m1"), contents(store.readBeforeTime("a_b", 9000L, 10)));
+    }
+
+    @Test
+    public void appendIsIdempotentForOldSequences() throws Exception {
+        assertTrue(store.append("a_b", 5, message(0)));
+        assertFalse(store.append("a_b", 5, message(1)));
+        assertFalse(store.append("a_b", 3, message(2)));
+        assertEquals(5, store.getLastSequence("a_b"));
+        assertEquals(List.of("m0"), contents(store.readBefore("a_b", 0, 10)));
+    }
+
+    @Test
+    public void reopenTruncatesTornTailAndContinues() throws Exception {
+        fill(200);
+        store.close();
+        Path tail;
+        try (Stream<Path> files = Files.list(conversationDir())) {
+            tail = files.filter(path -> path.toString().endsWith(".seg")).sorted(Comparator.reverseOrder())
+                .findFirst().orElseThrow();
+        }
+        Files.write(tail, "\0\0\0\40partial".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        store = newStore();
+        assertEquals(10 + 199 * 2L, store.getLastSequence("a_b"));
+        assertTrue(store.append("a_b", 1000, message(200)));
+        assertEquals(expected(190, 201), contents(store.readBefore("a_b", 0, 11)));
+    }
+
+    @Test
+    public void reopenRebuildsLostIndexEntries() throws Exception {
+        fill(200);
+        store.close();
+        try (Stream<Path> files = Files.list(conversationDir())) {
+            for (Path index : files.filter(path -> path.toString().endsWith(".idx")).toList()) {
+                Files.write(index, new byte[0]); // 索引文件丢失
+            }
+        }
+        store = newStore();
+        assertEquals(expected(0, 200), contents(store.readBefore("a_b", 0, 200)));
+        assertEquals(10 + 100 * 2L, store.sequenceAt("a_b", 100_000L));
+    }
+
+    @Test
+    public void reopenTrimsLeftoverPreallocation() throws Exception {
+        fill(200);
+        store.close();
+        Path first;
+        try (Stream<Path> files = Files.list(conversationDir())) {
+            first = files.filter(path -> path.toString().endsWith(".seg")).sorted().findFirst().orElseThrow();
+        }
+        // 模拟换段后、截断前崩溃：前一个段末尾留着预分配的零字节
+        try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(1), 4096 - 1);
+        }
+        store = newStore();
+        assertEquals(expected(0, 200), contents(store.readBefore("a_b", 0, 200)));
+        assertTrue(Files.size(first) < 4096);
+    }
+
+    @Test
+    public void readsSeeConsistentSnapshotsWhileAppending() throws Exception {
+        fill(100);
+        java.util.concurrent.atomic.AtomicReference<Throwable> failure = new java.util.concurrent.atomic.AtomicReference<>();
+        java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    // 追加和换段同时进行，每页都必须是连续的最新记录
+                    SegmentedHistoryStore.Slice page = store.readBefore("a_b", 0, 80);
+                    assertEquals(80, page.getMessages().size());
+                    int last = Integer.parseInt(page.getMessages().get(79).getContent().substring(1));
+                    assertEquals(expected(last - 79, last + 1), contents(page));
+                    assertEquals(10 + (last - 79) * 2L, page.getSequence(0));
+                    long at = store.sequenceAt("a_b", 1000L * last);
+                    assertTrue(at <= 10 + last * 2L, last + " -> " + at);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (int i = 100; i < 2000; i++) {
+            store.append("a_b", 10 + i * 2L, message(i));
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(expected(1990, 2000), contents(store.readBefore("a_b", 0, 10)));
+    }
+
+    @Test
+    public void readsOfMissingConversationsAreNotCached() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.readBefore("nobody_" + i, 0, 10).getMessages().isEmpty());
+            assertEquals(0, store.getLastSequence("nobody_" + i));
+            assertEquals(1, store.sequenceAt("nobody_" + i, 1000));
+        }
+        assertEquals(0, store.getCachedConversationCount());
+        assertFalse(Files.exists(tempDir.resolve("nobody_0")));
+    }
+
+    @Test
+    public void idleConversationsAreEvictedAndReloaded() throws Exception {
+        int count = SegmentedHistoryStore.MAX_CACHED_CONVERSATIONS + 10;
+        for (int i = 0; i < count; i++) {
+            assertTrue(store.append("c" + i, i + 1, message(i)));
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(List.of("m" + i), contents(store.readBefore("c" + i, 0, 10)));
+        }
+        assertTrue(store.getCachedConversationCount() <= SegmentedHistoryStore.MAX_CACHED_CONVERSATIONS);
+        // 被淘汰的会话重新加载后可以继续追加
+        assertTrue(store.append("c0", count + 1, message(count)));
+        assertEquals(List.of("m0", "m" + count), contents(store.readBefore("c0", 0, 10)));
+    }
+
+    @Test
+    public void sequenceFloorIsPersisted() throws Exception {
+        assertEquals(0, store.getSequenceFloor());
+        store.setSequenceFloor(42);
+        store.close();
+        store = newStore();
+        assertEquals(42, store.getSequenceFloor());
+    }
+}
@@ -8,6 +8,7 @@ import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -54,6 +55,19 @@ public class ServerTest {
         assertNotNull(server.getOnlineClients());
     }
 
+    @Test
+    public void testInvertedOutboundWatermarksFailAtStartup() {
+        ServerConfig config = new ServerConfig();
+        config.setOutboundHighWatermark(100);
+        config.setOutboundLowWatermark(100);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> new Server(tempDir.resolve("bad").toString(), config));
+        assertTrue(e.getMessage().contains("low watermark"), e.getMessage());
+
+        config.setOutboundLowWatermark(99);
+        assertDoesNotThrow(config::validate);
+    }
+
     @Test
     public void testUserManagerIntegration() {
         UserManager um = server.getUserManager();
@@ -0,0 +1,125 @@
+package com.simpleqq.server;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+/**
+ * 慢消费者测试类
+ * 一个不读取Socket的接收方不能拖慢发送方和其他接收方
+ */
+public class SlowConsumerTest {
+
+    private Server server;
+    private java.nio.file.Path tempDir;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tempDir = java.nio.file.Files.createTempDirectory("slowconsumer");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        try (java.util.stream.Stream<java.nio.file.Path> walk = java.nio.file.Files.walk(tempDir)) {
+            walk.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private int startServer(TransportMode mode, SlowConsumerPolicy policy) throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setTransportMode(mode);
+        config.setOutboundHighWatermark(32);
+        config.setOutboundLowWatermark(8);
+        config.setSlowConsumerPolicy(policy);
+        server = new Server(tempDir.toString(), config);
+        return server.bind().getLocalPort();
+    }
+
+    private static void befriend(TestClient a, TestClient b) throws Exception {
+        a.send(MessageType.FRIEND_REQUEST, b.getUserId(), "");
+        b.await(MessageType.FRIEND_REQUEST);
+        b.send(MessageType.FRIEND_ACCEPT, a.getUserId(), "");
+        a.await(MessageType.FRIEND_ACCEPT);
+    }
+
+    private static String largeContent() {
+        char[] chars = new char[64 * 1024];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    /**
+     * 向停止读取的接收方发送远超Socket缓冲区的数据后，其他接收方仍能及时收到消息，
+     * 慢接收方在积压达到高水位后被断开
+     */
+    private void slowConsumerIsDisconnected(TransportMode mode) throws Exception {
+        int port = startServer(mode, SlowConsumerPolicy.DISCONNECT);
+        try (TestClient alice = new TestClient("alice", port);
+             TestClient bob = new TestClient("bob", port);
+             TestClient carol = new TestClient("carol", port)) {
+            alice.registerAndLogin();
+            bob.registerAndLogin();
+            carol.registerAndLogin();
+            befriend(alice, bob);
+            befriend(alice, carol);
+
+            bob.stall();
+            String content = largeContent();
+            for (int i = 0; i < 300; i++) {
+                alice.send(MessageType.TEXT_MESSAGE, "bob", content);
+            }
+            alice.send(MessageType.TEXT_MESSAGE, "carol", "still here");
+            assertEquals("still here", carol.await(MessageType.TEXT_MESSAGE).getContent());
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (server.isUserOnline("bob") && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertFalse(server.isUserOnline("bob"));
+        }
+    }
+
+    @Test
+    public void slowConsumerIsDisconnectedOnBlockingTransport() throws Exception {
+        slowConsumerIsDisconnected(TransportMode.BLOCKING);
+    }
+
+    @Test
+    public void slowConsumerIsDisconnectedOnNioTransport() throws Exception {
+        slowConsumerIsDisconnected(TransportMode.NIO);
+    }
+
+    @Test
+    public void spilledMessagesArriveInOrderAfterConsumerResumes() throws Exception {
+        int port = startServer(TransportMode.NIO, SlowConsumerPolicy.SPILL);
+        try (TestClient alice = new TestClient("alice", port);
+             TestClient bob = new TestClient("bob", port)) {
+            alice.registerAndLogin();
+            bob.registerAndLogin();
+            befriend(alice, bob);
+
+            bob.stall();
+            String content = largeContent();
+            for (int i = 0; i < 200; i++) {
+                alice.send(MessageType.TEXT_MESSAGE, "bob", i + ":" + content);
+            }
+            bob.resume();
+            for (int i = 0; i < 200; i++) {
+                Message message = bob.await(MessageType.TEXT_MESSAGE);
+                assertEquals(String.valueOf(i), message.getContent().substring(0, message.getContent().indexOf(':')));
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.simpleqq.common.FramedMessageStream;
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.common.WireProtocol;
+
+/**
+ * 测试用的无界面客户端
+ * 通过分帧协议连接服务器，后台线程把收到的消息放入队列供测试断言
+ */
+class TestClient implements AutoCloseable {
+    private final String userId;
+    private final FramedMessageStream stream;
+    private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+    private final Set<MessageType> receivedTypes = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch resumed = new CountDownLatch(1);
+    private volatile boolean stalled;
+
+    TestClient(String userId, int port) throws IOException {
+        this(userId, port, WireProtocol.MAX_VERSION);
+    }
+
+    TestClient(String userId, int port, byte version) throws IOException {
+        this.userId = userId;
+        Socket socket = new Socket("127.0.0.1", port);
+        this.stream = FramedMessageStream.connect(socket, version);
+        Thread reader = new Thread(() -> {
+            try {
+                while (true) {
+                    if (stalled) {
+                        resumed.await();
+                    }
+                    Message message = stream.read();
+                    receivedTypes.add(message.getType());
+                    received.add(message);
+                }
+            } catch (IOException | InterruptedException e) {
+                // 连接关闭
+            }
+        }, "test-client-" + userId);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    String getUserId() {
+        return userId;
+    }
+
+    FramedMessageStream getStream() {
+        return stream;
+    }
+
+    /**
+     * 停止读取，模拟不读Socket的慢消费者
+     */
+    void stall() {
+        stalled = true;
+    }
+
+    /**
+     * 恢复读取
+     */
+    void resume() {
+        stalled = false;
+        resumed.countDown();
+    }
+
+    void send(MessageType type, String receiverId, String content) throws IOException {
+        stream.write(new Message(type, userId, receiverId, content));
+    }
+
+    /**
+     * 等待指定类型的消息，期间收到的其他类型消息会被丢弃
+     */
+    Message await(MessageType type) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            Message message = received.poll(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            if (message == null) {
+                throw new AssertionError(userId + " did not receive " + type);
+            }
+            if (message.getType() == type) {
+                return message;
+            }
+        }
+    }
+
+    /**
+     * 判断是否收到过指定类型的消息，包括被await丢弃的消息
+     */
+    boolean hasReceived(MessageType type) {
+        return receivedTypes.contains(type);
+    }
+
+    void registerAndLogin() throws IOException, InterruptedException {
+        send(MessageType.REGISTER, "Server", userId + "," + userId + ",pwd");
+        await(MessageType.REGISTER_SUCCESS);
+        send(MessageType.LOGIN, "Server", userId + ",pwd");
+        await(MessageType.LOGIN_SUCCESS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
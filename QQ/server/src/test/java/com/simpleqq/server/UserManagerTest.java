@@ -217,4 +217,190 @@ public class UserManagerTest {
         User user = um.getUserById("nonexistent");
         assertNull(user);
     }
+
+    @Test
+    public void restartReplaysJournal() {
+        um.registerUser("j1", "J1", "p");
+        um.registerUser("j2", "J2", "p");
+        um.registerUser("j3", "J3", "p");
+        um.sendFriendRequest("j1", "j2");
+        um.acceptFriendRequest("j2", "j1");
+        um.sendFriendRequest("j3", "j1");
+        um.sendFriendRequest("j3", "j2");
+        um.rejectFriendRequest("j2", "j3");
+        um.close();
+
+        UserManager reloaded = new UserManager(tempDir.toString());
+        assertEquals(3, reloaded.getAllUsers().size());
+        assertNotNull(reloaded.login("j1", "p"));
+        assertTrue(reloaded.areFriends("j1", "j2"));
+        assertEquals(List.of("j3"), reloaded.getPendingFriendRequests("j1"));
+        assertTrue(reloaded.getPendingFriendRequests("j2").isEmpty());
+        reloaded.close();
+    }
+
+    @Test
+    public void compactionWritesSnapshotAndKeepsState() throws Exception {
+        um.close();
+        UserManager compacting = new UserManager(tempDir.toString(), 1000);
+        compacting.registerUser("c1", "C1", "p");
+        compacting.registerUser("c2", "C2", "p");
+        compacting.sendFriendRequest("c1", "c2");
+        compacting.acceptFriendRequest("c2", "c1");
+        compacting.compact();
+        // 压缩后的修改只存在于新日志中
+        compacting.deleteFriend("c1", "c2");
+        compacting.registerUser("c3", "C3", "p");
+        compacting.close();
+
+        List<String> snapshot = java.nio.file.Files.readAllLines(tempDir.resolve("users.txt"));
+        assertEquals(2, snapshot.size());
+        assertEquals(List.of("c1|c2"), java.nio.file.Files.readAllLines(tempDir.resolve("friendships.txt")));
+
+        UserManager reloaded = new UserManager(tempDir.toString());
+        assertEquals(3, reloaded.getAllUsers().size());
+        assertFalse(reloaded.areFriends("c1", "c2"));
+        reloaded.close();
+    }
+
+    @Test
+    public void rejectsFieldsThatCannotBePersisted() {
+        assertFalse(um.registerUser("bad|id", "Bad", "p"));
+        assertFalse(um.registerUser("bad", "Bad\nName", "p"));
+        assertNull(um.getUserById("bad"));
+    }
+
+    @Test
+    public void friendListsAreImmutableSnapshots() {
+        um.registerUser("s1", "S1", "p");
+        um.registerUser("s2", "S2", "p");
+        um.registerUser("s3", "S3", "p");
+        um.sendFriendRequest("s1", "s2");
+        um.acceptFriendRequest("s2", "s1");
+        List<String> snapshot = um.getFriends("s1");
+        org.junit.jupiter.api.Assertions.assertThrows(UnsupportedOperationException.class, () -> snapshot.add("s3"));
+        org.junit.jupiter.api.Assertions.assertThrows(UnsupportedOperationException.class,
+            () -> um.getPendingFriendRequests("s1").add("s3"));
+
+        um.deleteFriend("s1", "s2");
+        assertEquals(List.of("s2"), snapshot); // 快照不受后续修改影响
+        assertTrue(um.getFriends("s1").isEmpty());
+    }
+
+    @Test
+    public void concurrentReadsDuringMutations() throws Exception {
+        int userCount = 200;
+        for (int i = 0; i < userCount; i++) {
+            um.registerUser("c" + i, "C" + i, "p");
+        }
+        java.util.concurrent.atomic.AtomicBoolean running = new java.util.concurrent.atomic.AtomicBoolean(true);
+        java.util.concurrent.atomic.AtomicReference<Throwable> failure = new java.util.concurrent.atomic.AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (running.get()) {
+                    for (String friendId : um.getFriends("c0")) {
+                        assertTrue(friendId.startsWith("c"));
+                    }
+                    um.areFriends("c0", "c1");
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (int i = 1; i < userCount; i++) {
+            um.sendFriendRequest("c" + i, "c0");
+            um.acceptFriendRequest("c0", "c" + i);
+        }
+        running.set(false);
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(userCount - 1, um.getFriends("c0").size());
+        assertTrue(um.areFriends("c0", "c" + (userCount - 1)));
+    }
+
+    @Test
+    public void concurrentWritersLoseNoUpdates() throws Exception {
+        int userCount = 64;
+        int threadCount = 8;
+        int friendSpan = 3; // 每个用户与编号在其后的3位用户成为好友
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threadCount);
+        java.util.concurrent.atomic.AtomicInteger registered = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicInteger failures = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicBoolean running = new java.util.concurrent.atomic.AtomicBoolean(true);
+        Thread compactor = new Thread(() -> {
+            while (running.get()) {
+                um.compact(); // 与写操作交错执行，验证锁住所有段时没有修改被漏掉
+            }
+        });
+        compactor.start();
+        try {
+            // 所有线程争抢注册全部用户，每个ID只能成功一次
+            java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+            List<java.util.concurrent.Future<?>> futures = new java.util.ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < userCount; i++) {
+                        if (um.registerUser("m" + i, "M" + i, "p")) {
+                            registered.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (java.util.concurrent.Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(userCount, registered.get());
+
+            // 每个线程负责一部分用户，请求和接受交叉涉及其他线程负责的用户；再发一个请求并拒绝
+            futures.clear();
+            for (int t = 0; t < threadCount; t++) {
+                int slice = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = slice; i < userCount; i += threadCount) {
+                        for (int d = 1; d <= friendSpan + 1; d++) {
+                            String other = "m" + (i + d) % userCount;
+                            boolean ok = um.sendFriendRequest("m" + i, other);
+                            ok &= d <= friendSpan ? um.acceptFriendRequest(other, "m" + i)
+                                : um.rejectFriendRequest(other, "m" + i);
+                            if (!ok) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (java.util.concurrent.Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            running.set(false);
+            compactor.join();
+            pool.shutdown();
+        }
+        assertEquals(0, failures.get());
+        assertFriendRing(um, userCount, friendSpan);
+        um.close();
+
+        UserManager reloaded = new UserManager(tempDir.toString());
+        assertEquals(userCount, reloaded.getAllUsers().size());
+        assertFriendRing(reloaded, userCount, friendSpan);
+        reloaded.close();
+    }
+
+    private static void assertFriendRing(UserManager manager, int userCount, int friendSpan) {
+        for (int i = 0; i < userCount; i++) {
+            String id = "m" + i;
+            assertEquals(2 * friendSpan, manager.getFriends(id).size(), id);
+            for (int d = 1; d <= friendSpan; d++) {
+                assertTrue(manager.areFriends(id, "m" + (i + d) % userCount), id);
+                assertTrue(manager.areFriends("m" + (i + d) % userCount, id), id);
+            }
+            assertTrue(manager.getPendingFriendRequests(id).isEmpty(), id);
+        }
+    }
 }